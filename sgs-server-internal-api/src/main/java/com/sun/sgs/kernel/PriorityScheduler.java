@@ -65,4 +65,21 @@ public interface PriorityScheduler {
      */
     void scheduleTask(KernelRunnable task, Identity owner, Priority priority);
 
+    /**
+     * Schedules a task to run as soon as possible based on the specific
+     * scheduler implementation. The scheduler will make a best effort
+     * to honor the requested priority, and to start the task before the
+     * given deadline.
+     *
+     * @param task the {@code KernelRunnable} to execute
+     * @param owner the entity on who's behalf this task is run
+     * @param priority the requested {@code Priority}
+     * @param deadline the time by which the task should be started, in
+     *                 milliseconds since January 1, 1970
+     *
+     * @throws TaskRejectedException if the given task is not accepted
+     */
+    void scheduleTask(KernelRunnable task, Identity owner, Priority priority,
+                      long deadline);
+
 }
@@ -183,6 +183,42 @@ public interface TransactionScheduler {
      */
     void runTask(KernelRunnable task, Identity owner) throws Exception;
 
+    /**
+     * Schedules a task to run as soon as possible in a read-only
+     * transaction. Read-only transactions take only shared access to
+     * data, skip the work needed to detect and flush modifications, and
+     * can commit without waiting for a log flush. Attempts to modify data
+     * from within the task will fail with an {@link IllegalStateException},
+     * which is not re-tried.
+     *
+     * @param task the {@code KernelRunnable} to execute
+     * @param owner the entity on who's behalf this task is run
+     *
+     * @throws TaskRejectedException if the given task is not accepted
+     *
+     * @see com.sun.sgs.service.Transaction#isReadOnly
+     */
+    void scheduleReadOnlyTask(KernelRunnable task, Identity owner);
+
+    /**
+     * Runs the given task synchronously in a read-only transaction,
+     * following the same rules as {@link #runTask runTask}. If the caller
+     * is already part of an active transaction, then the task is run as
+     * part of that transaction, whether or not it is read-only.
+     *
+     * @param task the {@code KernelRunnable} to execute
+     * @param owner the entity on who's behalf this task is run
+     *
+     * @throws TaskRejectedException if the given task is not accepted
+     * @throws InterruptedException if the calling thread is interrupted and
+     *                              the associated task does not complete
+     * @throws Exception if the task fails and is not re-tried
+     *
+     * @see #scheduleReadOnlyTask scheduleReadOnlyTask
+     */
+    void runReadOnlyTask(KernelRunnable task, Identity owner)
+        throws Exception;
+
     /**
      * Creates a new {@code TaskQueue} to use in scheduling dependent
      * tasks. Each task added to the queue will be run in a separate
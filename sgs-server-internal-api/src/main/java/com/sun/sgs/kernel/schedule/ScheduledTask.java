@@ -51,6 +51,9 @@ public interface ScheduledTask {
     /** Identifier that represents an unbounded timeout. */
     int UNBOUNDED = -1;
 
+    /** Identifier that represents a task with no deadline. */
+    long NO_DEADLINE = -1;
+
     /**
      * Returns the task.
      *
@@ -103,6 +106,16 @@ public interface ScheduledTask {
      */
     long getTimeout();
 
+    /**
+     * Returns the time by which this task should have been started, or
+     * {@code NO_DEADLINE} if the task has no deadline.  A Scheduler may or
+     * may not choose to use this deadline.
+     *
+     * @return the deadline for this task in milliseconds since
+     *         January 1, 1970, or {@code NO_DEADLINE}
+     */
+    long getDeadline();
+
     /**
      * Returns the {@code Throwable} that was the last failure of this task
      * or {@code null} if it has never been run or never failed.
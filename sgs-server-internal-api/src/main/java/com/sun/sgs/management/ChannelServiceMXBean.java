@@ -63,4 +63,51 @@ public interface ChannelServiceMXBean {
      * @return the number of times {@code getChannel} has been called
      */
     long getGetChannelCalls();
+
+    /**
+     * Returns the number of calls made to send batches of channel messages
+     * to the channel servers on other nodes, or on the local node.
+     *
+     * @return the number of batches of channel messages sent
+     */
+    long getSendBatchCalls();
+
+    /**
+     * Returns the number of channel messages included in batches sent to
+     * channel servers.  A message sent to several nodes is counted once
+     * for each node.
+     *
+     * @return the number of channel messages sent in batches
+     */
+    long getSendBatchMessages();
+
+    /**
+     * Returns the IDs of the nodes to which batches of channel messages
+     * have been sent, and for which send latencies are available.
+     *
+     * @return the IDs of the nodes that channel messages have been sent to
+     */
+    long[] getSendNodeIds();
+
+    /**
+     * Returns the average time, in milliseconds, taken to send a batch of
+     * channel messages to the channel server on the given node, including
+     * retries.
+     *
+     * @param nodeId the node ID
+     * @return the average send latency, in milliseconds, or {@code 0} if
+     *         no batches have been sent to the node
+     */
+    double getSendLatencyAvg(long nodeId);
+
+    /**
+     * Returns the maximum time, in milliseconds, taken to send a batch of
+     * channel messages to the channel server on the given node, including
+     * retries.
+     *
+     * @param nodeId the node ID
+     * @return the maximum send latency, in milliseconds, or {@code 0} if
+     *         no batches have been sent to the node
+     */
+    long getSendLatencyMax(long nodeId);
 }
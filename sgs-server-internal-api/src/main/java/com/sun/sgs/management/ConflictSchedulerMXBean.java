@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.management;
+
+/**
+ * The management interface for scheduler queues that park tasks which
+ * aborted because of a conflict until the conflicting transaction completes.
+ * <p>
+ * An instance implementing this MBean can be obtained from the
+ * {@link java.lang.management.ManagementFactory.html#getPlatformMBeanServer()
+ * getPlatformMBeanServer} method.
+ * <p>
+ * The {@code ObjectName} for uniquely identifying this MBean is
+ * {@value #MXBEAN_NAME}.
+ */
+public interface ConflictSchedulerMXBean {
+
+    /** The name for uniquely identifying this MBean. */
+    String MXBEAN_NAME = "com.sun.sgs:type=ConflictScheduler";
+
+    /**
+     * Returns the number of tasks that have been parked to wait for a
+     * conflicting transaction to complete.
+     * @return the number of parked tasks
+     */
+    long getParkedTaskCount();
+
+    /**
+     * Returns the number of tasks that are currently parked.
+     * @return the number of tasks currently parked
+     */
+    int getCurrentParkedTaskCount();
+
+    /**
+     * Returns the number of parked tasks that have been released because the
+     * conflicting transaction completed.
+     * @return the number of released tasks
+     */
+    long getReleasedTaskCount();
+
+    /**
+     * Returns the number of released tasks that committed on their first
+     * attempt after being released, and so avoided retrying while the
+     * conflicting transaction was still active.
+     * @return the number of retries saved by parking tasks
+     */
+    long getSavedRetryCount();
+
+}
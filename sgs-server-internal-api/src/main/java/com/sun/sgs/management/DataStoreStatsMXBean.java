@@ -97,6 +97,15 @@ public interface DataStoreStatsMXBean
      */
     long getGetObjectForUpdateCalls();
     
+    /**
+     * Returns the number of times
+     * {@link DataStore#getObjects(Transaction, long[], boolean) getObjects} 
+     * has been called.
+     * 
+     * @return the number of times {@code getObjects} has been called
+     */
+    long getGetObjectsCalls();
+    
     /**
      * Returns the number of times
      * {@link DataStore#markForUpdate(Transaction, long) markForUpdate} 
@@ -246,6 +255,73 @@ public interface DataStoreStatsMXBean
      */
     double getAvgReadBytesSample();
 
+    /**
+     * Returns the number of log flushes performed by group commit.
+     * @return the number of log flushes performed by group commit
+     */
+    long getGroupCommitFlushCount();
+
+    /**
+     * Returns the average number of transactions per group commit log
+     * flush, smoothed with the smoothing factor.
+     * @return the average group commit batch size
+     */
+    double getAvgGroupCommitBatchSize();
+
+    /**
+     * Returns the maximum number of transactions in a group commit log
+     * flush.
+     * @return the maximum group commit batch size
+     */
+    long getMaxGroupCommitBatchSize();
+
+    /**
+     * Returns the average number of milliseconds transactions waited for
+     * their group commit log flush, smoothed with the smoothing factor.
+     * @return the average group commit wait time
+     */
+    double getAvgGroupCommitWaitTime();
+
+    /**
+     * Returns the maximum number of milliseconds a transaction waited for
+     * its group commit log flush.
+     * @return the maximum group commit wait time
+     */
+    long getMaxGroupCommitWaitTime();
+
+    /**
+     * Returns a text representation of a power-of-two histogram of the
+     * number of transactions per group commit log flush.
+     * @return the group commit batch size histogram
+     */
+    String getGroupCommitBatchSizeHistogram();
+
+    /**
+     * Returns a text representation of a power-of-two histogram of the
+     * number of milliseconds transactions waited for their group commit log
+     * flush.
+     * @return the group commit wait time histogram
+     */
+    String getGroupCommitWaitTimeHistogram();
+
+    /**
+     * Returns the number of times that creating an object had to wait for
+     * a block of object IDs to be obtained from the data store server.
+     * Returns {@code 0} if the data store does not obtain object IDs from a
+     * server.
+     * @return the number of object ID allocation stalls
+     */
+    long getObjectIdAllocationStallCount();
+
+    /**
+     * Returns the total number of milliseconds that creating objects waited
+     * for blocks of object IDs to be obtained from the data store server.
+     * Returns {@code 0} if the data store does not obtain object IDs from a
+     * server.
+     * @return the total object ID allocation stall time
+     */
+    long getObjectIdAllocationStallTime();
+
 }
 
 
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.management;
+
+/**
+ * The management interface for the time tasks of each priority wait to be
+ * run by the transaction scheduler.  The latency of a task is the time
+ * between when it was ready to run and when a scheduler thread took it to
+ * run it for the first time.  Latencies are only gathered when the profile
+ * level is {@code MEDIUM} or higher.  The priorities are named by the
+ * constants of {@link com.sun.sgs.kernel.Priority}.
+ * <p>
+ * An instance implementing this MBean can be obtained from the
+ * {@link java.lang.management.ManagementFactory.html#getPlatformMBeanServer()
+ * getPlatformMBeanServer} method.
+ * <p>
+ * The {@code ObjectName} for uniquely identifying this MBean is
+ * {@value #MXBEAN_NAME}.
+ */
+public interface SchedulerLatencyMXBean {
+
+    /** The name for uniquely identifying this MBean. */
+    String MXBEAN_NAME = "com.sun.sgs:type=SchedulerLatency";
+
+    /**
+     * Returns the number of tasks with the given priority that have been
+     * taken to run.
+     *
+     * @param priority the name of the priority
+     * @return the number of tasks with the priority that have been run
+     * @throws IllegalArgumentException if {@code priority} does not name a
+     *         priority
+     */
+    long getTaskCount(String priority);
+
+    /**
+     * Returns the latency, in milliseconds, below which the given percentage
+     * of the most recent tasks with the given priority were taken to run, or
+     * {@code -1} if no latencies have been gathered for the priority.
+     *
+     * @param priority the name of the priority
+     * @param percentile the percentage, greater than {@code 0.0} and less
+     *        than or equal to {@code 100.0}
+     * @return the latency percentile, in milliseconds, or {@code -1}
+     * @throws IllegalArgumentException if {@code priority} does not name a
+     *         priority, or if {@code percentile} is out of range
+     */
+    long getLatencyPercentile(String priority, double percentile);
+
+    /**
+     * Returns the average latency, in milliseconds, of tasks with the given
+     * priority.
+     *
+     * @param priority the name of the priority
+     * @return the average latency, in milliseconds
+     * @throws IllegalArgumentException if {@code priority} does not name a
+     *         priority
+     */
+    double getLatencyAvg(String priority);
+
+    /**
+     * Returns the maximum latency, in milliseconds, of tasks with the given
+     * priority, or {@code 0} if no latencies have been gathered for the
+     * priority.
+     *
+     * @param priority the name of the priority
+     * @return the maximum latency, in milliseconds, or {@code 0}
+     * @throws IllegalArgumentException if {@code priority} does not name a
+     *         priority
+     */
+    long getLatencyMax(String priority);
+
+    /**
+     * Returns the number of tasks with the given priority that were taken to
+     * run after their deadline had passed.
+     *
+     * @param priority the name of the priority
+     * @return the number of missed deadlines
+     * @throws IllegalArgumentException if {@code priority} does not name a
+     *         priority
+     */
+    long getMissedDeadlineCount(String priority);
+
+    /**
+     * Clears all data values.
+     */
+    void clear();
+
+    /**
+     * Returns the time, in milliseconds since January 1, 1970, that the
+     * data values were last cleared, or when this object was created if
+     * {@link #clear} has not been called.
+     *
+     * @return the time the data values were last cleared
+     */
+    long getLastClearTime();
+
+}
@@ -183,6 +183,55 @@ public interface SessionProtocol extends Channel {
 	BigInteger channelId, ByteBuffer message, Delivery delivery)
         throws IOException;
 
+    /**
+     * Returns the specified channel {@code message} for the channel with
+     * the specified {@code channelId}, encoded as this protocol sends it to
+     * the client.  The returned buffer can be passed to {@link
+     * #encodedChannelMessage encodedChannelMessage} on any protocol that is
+     * an instance of the same class as this one, so that a message sent to
+     * many sessions only needs to be encoded once.
+     *
+     * <p>The {@code message} buffer is not modified and may be reused
+     * immediately after this method returns.  The returned buffer is
+     * read-only.
+     *
+     * @param	channelId a channel ID
+     * @param	message a channel message
+     * @return	a read-only buffer containing the encoded message
+     *
+     * @throws	IllegalArgumentException if the {@code message} size is
+     *          greater than {@link #getMaxMessageLength}
+     */
+    ByteBuffer encodeChannelMessage(BigInteger channelId, ByteBuffer message);
+
+    /**
+     * Sends the associated client the specified channel message, which was
+     * returned by {@link #encodeChannelMessage encodeChannelMessage} on a
+     * protocol that is an instance of the same class as this one, in a
+     * manner that satisfies the specified {@code delivery} guarantee.
+     * Sending an encoded message is equivalent to calling {@link
+     * #channelMessage channelMessage} with the arguments it was encoded
+     * from.
+     *
+     * <p>The protocol may hold on to the {@code encodedMessage} buffer
+     * until the message has been written, and may advance its position
+     * while writing it.  A caller that sends the same encoded message to
+     * several sessions must pass each one its own {@link
+     * ByteBuffer#duplicate duplicate} of the buffer.
+     *
+     * @param	encodedMessage an encoded channel message
+     * @param	delivery the channel's delivery guarantee
+     *
+     * @throws	IllegalStateException if the associated session was
+     *		requested to suspend messages (explicitly or due to
+     *		relocation)
+     * @throws	DeliveryNotSupportedException if the specified {@code
+     *		delivery} guarantee cannot be satisfied by this protocol
+     * @throws	IOException if an I/O error occurs
+     */
+    void encodedChannelMessage(ByteBuffer encodedMessage, Delivery delivery)
+	throws IOException;
+
     /**
      * Disconnects the associated session for the specified {@code reason}.
      * The protocol may send a message to the associated client indicating
@@ -82,6 +82,17 @@ public interface Transaction {
      */
     long getTimeout();
 
+    /**
+     * Returns whether this <code>Transaction</code> was created as a
+     * read-only transaction.  Participants may use this information to avoid
+     * work needed only to support modifications, and should refuse requests
+     * to modify data in a read-only transaction.
+     *
+     * @return <code>true</code> if this transaction is read-only, else
+     *         <code>false</code>
+     */
+    boolean isReadOnly();
+
     /**
      * Checks if this <code>Transaction</code> has timed out, throwing a
      * <code>TransactionTimeoutException</code> if it has.
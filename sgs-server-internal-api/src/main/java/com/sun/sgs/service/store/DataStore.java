@@ -114,6 +114,35 @@ public interface DataStore {
      */
     byte[] getObject(Transaction txn, long oid, boolean forUpdate);
 
+    /**
+     * Obtains the data associated with a series of object IDs.  This method
+     * behaves like calling {@link #getObject getObject} on each object ID,
+     * except that objects that are not found are represented by {@code null}
+     * elements in the result rather than by throwing {@link
+     * ObjectNotFoundException}.  Implementations can use this method to
+     * obtain the data for several objects with a single request to the
+     * underlying storage. <p>
+     *
+     * Callers can use this method to prefetch objects that they expect to
+     * need, so the caller should not assume that objects returned with {@code
+     * null} data do not exist if they were created in the current
+     * transaction.
+     *
+     * @param	txn the transaction under which the operation should take place
+     * @param	oids the object IDs
+     * @param	forUpdate whether the caller intends to modify the objects
+     * @return	the data associated with the object IDs, with {@code null}
+     *		elements for objects that are not found
+     * @throws	IllegalArgumentException if <code>oids</code> contains a value
+     *		that is negative
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    byte[][] getObjects(Transaction txn, long[] oids, boolean forUpdate);
+
     /**
      * Specifies data to associate with an object ID.
      *
@@ -89,6 +89,16 @@ public interface DbEnvironment {
      */
     void close();
 
+    /**
+     * Flushes the database log to disk, making durable all transactions
+     * committed in this environment before this method was called,
+     * including ones committed with {@link DbTransaction#commitNoSync
+     * DbTransaction.commitNoSync}.
+     *
+     * @throws	DbDatabaseException if an unexpected database problem occurs
+     */
+    void flushLog();
+
     /**
      * Specifies whether object allocations in this environment should use a
      * placeholder at the end of each allocation block to avoid allocation
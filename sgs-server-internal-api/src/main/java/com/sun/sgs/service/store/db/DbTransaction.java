@@ -48,6 +48,19 @@ public interface DbTransaction {
      */
     void commit();
 
+    /**
+     * Commits the transaction without waiting for the commit to be flushed
+     * to disk.  The commit becomes durable once a subsequent call to {@link
+     * DbEnvironment#flushLog DbEnvironment.flushLog} on the associated
+     * environment returns.  Implementations that cannot defer flushing may
+     * commit synchronously.  This method should not be called if any cursors
+     * associated with this transaction are still open.  No methods should be
+     * called on this transaction after this method is called.
+     *
+     * @throws	DbDatabaseException if an unexpected database problem occurs
+     */
+    void commitNoSync();
+
     /**
      * Aborts the transaction.  This method should not be called if any cursors
      * associated with this transaction are still open.  No methods should be
@@ -53,6 +53,13 @@ public abstract class AbstractAccessCoordinator
 	this.profileCollectorHandle = profileCollectorHandle;
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation does nothing.
+     */
+    public void shutdown() { }
+
     /**
      * Provides a skeletal implementation of {@code AccessReporter}, supplying
      * the overloadings of {@code reportObjectAccess} and {@code
@@ -45,4 +45,10 @@ public interface AccessCoordinatorHandle extends AccessCoordinator {
      */
     void notifyNewTransaction(
 	Transaction txn, long requestedStartTime, int tryCount);
+
+    /**
+     * Shuts down the coordinator, releasing any resources it holds.  This
+     * method is called after the transaction scheduler has been shut down.
+     */
+    void shutdown();
 }
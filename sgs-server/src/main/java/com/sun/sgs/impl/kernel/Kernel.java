@@ -56,7 +56,9 @@ import com.sun.sgs.impl.util.Version;
 
 import com.sun.sgs.kernel.ComponentRegistry;
 
+import com.sun.sgs.management.ConflictSchedulerMXBean;
 import com.sun.sgs.management.KernelMXBean;
+import com.sun.sgs.management.SchedulerLatencyMXBean;
 
 import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
@@ -133,7 +135,11 @@ import javax.management.JMException;
  *      name of a public, non-abstract class that implements the
  *      {@link AccessCoordinatorHandle} interface, and that provides a public
  *      constructor with the three parameters {@link Properties},
- *      {@link TransactionProxy}, and {@link ProfileCollectorHandle}.<p>
+ *      {@link TransactionProxy}, and {@link ProfileCollectorHandle}.
+ *      The {@link OptimisticAccessCoordinator} class validates accesses
+ *      when transactions prepare instead of locking objects.  Using it also
+ *      changes the write lock and database isolation defaults of the data
+ *      service.<p>
  *
  * 
  * </dl>
@@ -203,6 +209,9 @@ class Kernel {
     private final TransactionSchedulerImpl transactionScheduler;
     private final TaskSchedulerImpl taskScheduler;
 
+    // the coordinator for transactional accesses to shared objects
+    private final AccessCoordinatorHandle accessCoordinator;
+
     // the application that is running in this kernel
     private KernelContext application;
     
@@ -307,7 +316,7 @@ class Kernel {
 	    }
 
             // create the access coordinator
-            AccessCoordinatorHandle accessCoordinator = getAccessCoordinator(
+            accessCoordinator = getAccessCoordinator(
                     appProperties, proxy, profileCollectorHandle);
 
             // create the schedulers, and provide an empty context in case
@@ -319,6 +328,7 @@ class Kernel {
                                              accessCoordinator);
             taskScheduler =
                 new TaskSchedulerImpl(appProperties, profileCollectorHandle);
+            registerSchedulerMXBean(transactionScheduler);
 
 	    BindingKeyedCollections collectionsFactory =
 		new BindingKeyedCollectionsImpl(proxy);
@@ -419,6 +429,31 @@ class Kernel {
         }
     }
 
+    /**
+     * Private helper that registers the MXBeans for the transaction
+     * scheduler's task latencies and for its queue, if the queue provides
+     * one.
+     */
+    private void registerSchedulerMXBean(
+        TransactionSchedulerImpl scheduler)
+    {
+        try {
+            profileCollector.registerMBean(scheduler.getLatencyStats(),
+                                           SchedulerLatencyMXBean.MXBEAN_NAME);
+        } catch (JMException e) {
+            logger.logThrow(Level.WARNING, e, "Could not register MBean");
+        }
+        Object queue = scheduler.getBackingQueue();
+        if (queue instanceof ConflictSchedulerMXBean) {
+            try {
+                profileCollector.registerMBean(
+                    queue, ConflictSchedulerMXBean.MXBEAN_NAME);
+            } catch (JMException e) {
+                logger.logThrow(Level.WARNING, e, "Could not register MBean");
+            }
+        }
+    }
+
     /**
      * Private helper routine that loads all of the requested listeners
      * for profiling data.
@@ -897,6 +932,9 @@ class Kernel {
         if (taskScheduler != null) {
             taskScheduler.shutdown();
         }
+        if (accessCoordinator != null) {
+            accessCoordinator.shutdown();
+        }
         
         logger.log(Level.FINE, "Node is shut down.");
         isShutdown = true;
@@ -64,11 +64,13 @@ import java.util.logging.Logger;
  * conflicts. <p>
  *
  * This implementation checks for deadlock whenever an access request is
- * blocked due to a conflict.  It selects the youngest transaction as the
- * deadlock victim, determining the age using the originally requested start
- * time for the task associated with the transaction.  The implementation does
- * not deny requests that would not result in deadlock.  When requests block,
- * it services the requests in the order that they arrive. <p>
+ * blocked due to a conflict, or periodically if the {@value
+ * #DEADLOCK_CHECK_INTERVAL_PROPERTY} property is specified.  It selects the
+ * youngest transaction as the deadlock victim, determining the age using the
+ * originally requested start time for the task associated with the
+ * transaction.  The implementation does not deny requests that would not
+ * result in deadlock.  When requests block, it services the requests in the
+ * order that they arrive. <p>
  *
  * The methods that this class provides to implement {@code AccessReporter} are
  * not thread safe, and should either be called from a single thread or else
@@ -97,6 +99,18 @@ import java.util.logging.Logger;
  *	number of active threads.  The value must be greater than {@code
  *	0}. <p>
  *
+ * <dt> <i>Property:</i> <b>{@value #DEADLOCK_CHECK_INTERVAL_PROPERTY}</b>
+ *	<br>
+ *	<i>Default:</i> {@value #DEADLOCK_CHECK_INTERVAL_DEFAULT}
+ *
+ * <dd style="padding-top: .5em">The number of milliseconds between checks for
+ *	deadlocks performed in a background thread, or {@code 0} to check for
+ *	deadlock whenever an access request is blocked.  Checking in the
+ *	background avoids the cost of checking each blocked request when many
+ *	transactions are waiting for the same objects, but delays resolving
+ *	deadlocks.  The value must not be less than {@code 0}, and should be
+ *	less than the lock timeout. <p>
+ *
  * </dl> <p>
  *
  * This class uses the {@link Logger} named {@code
@@ -137,6 +151,17 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
     /** The default number of key maps. */
     public static final int NUM_KEY_MAPS_DEFAULT = 8;
 
+    /**
+     * The property for specifying the number of milliseconds between
+     * background checks for deadlocks, or {@code 0} to check whenever a
+     * request blocks.
+     */
+    public static final String DEADLOCK_CHECK_INTERVAL_PROPERTY =
+	CLASS + ".deadlock.check.interval";
+
+    /** The default deadlock check interval. */
+    public static final long DEADLOCK_CHECK_INTERVAL_DEFAULT = 0;
+
     /** The logger for this class. */
     static final LoggerWrapper logger = new LoggerWrapper(
 	Logger.getLogger(LockingAccessCoordinator.class.getName()));
@@ -145,6 +170,14 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
     private final ConcurrentMap<Transaction, LockerImpl> txnMap =
 	new ConcurrentHashMap<Transaction, LockerImpl>();
 
+    /**
+     * Maps transactions that ended after a lock conflict to the lockers for
+     * the transactions they conflicted with.  Entries are removed when the
+     * conflicting transaction ends.
+     */
+    private final ConcurrentMap<Transaction, LockerImpl> conflictMap =
+	new ConcurrentHashMap<Transaction, LockerImpl>();
+
     /** The lock manager. */
     private final TxnLockManager<Key> lockManager;
 
@@ -175,13 +208,19 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	    LOCK_TIMEOUT_PROPERTY, defaultLockTimeout, 1, Long.MAX_VALUE);
 	int numKeyMaps = wrappedProps.getIntProperty(
 	    NUM_KEY_MAPS_PROPERTY, NUM_KEY_MAPS_DEFAULT, 1, Integer.MAX_VALUE);
-	lockManager = new TxnLockManager<Key>(lockTimeout, numKeyMaps);
+	long deadlockCheckInterval = wrappedProps.getLongProperty(
+	    DEADLOCK_CHECK_INTERVAL_PROPERTY, DEADLOCK_CHECK_INTERVAL_DEFAULT,
+	    0, Long.MAX_VALUE);
+	lockManager = new TxnLockManager<Key>(
+	    lockTimeout, numKeyMaps, deadlockCheckInterval);
 	if (logger.isLoggable(CONFIG)) {
 	    logger.log(CONFIG,
 		       "Created LockingAccessCoordinator with properties:" +
 		       "\n  txn timeout: " + txnTimeout +
 		       "\n  lock timeout: " + lockTimeout +
-		       "\n  num key maps: " + numKeyMaps);
+		       "\n  num key maps: " + numKeyMaps +
+		       "\n  deadlock check interval: " +
+		       deadlockCheckInterval);
 	}
     }
 
@@ -198,12 +237,15 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
     /**
      * {@inheritDoc} <p>
      *
-     * This implementation does not record information about completed
-     * transactions, so it always returns {@code null}.
+     * This implementation only records conflicts for transactions that have
+     * ended, and only until the conflicting transaction ends, so it returns
+     * {@code null} if {@code txn} is still active.
      */
     public Transaction getConflictingTransaction(Transaction txn) {
 	checkNull("txn", txn);
-	return null;
+	LockerImpl conflictingLocker = conflictMap.get(txn);
+	return (conflictingLocker == null)
+	    ? null : conflictingLocker.getTransaction();
     }
 
     /* -- Implement AccessCoordinatorHandle -- */
@@ -229,6 +271,17 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	txn.registerListener(new TxnListener(txn));
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation stops the lock manager's background deadlock
+     * detector, if any.
+     */
+    @Override
+    public void shutdown() {
+	lockManager.shutdown();
+    }
+
     /* -- Other methods -- */
 
     /**
@@ -259,9 +312,38 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	logger.log(FINER, "end {0}", locker);
 	locker.releaseAll();
 	txnMap.remove(txn);
+	for (Transaction victim : locker.releaseVictims()) {
+	    conflictMap.remove(victim, locker);
+	}
+	noteConflict(txn, locker);
 	profileCollectorHandle.setAccessedObjectsDetail(locker);
     }
 
+    /**
+     * Records the transaction, if any, that caused the lock conflict for a
+     * transaction that has ended, so that it can be returned by {@link
+     * #getConflictingTransaction getConflictingTransaction} until the
+     * conflicting transaction ends.
+     *
+     * @param	txn the finished transaction
+     * @param	locker the locker for the finished transaction
+     */
+    private void noteConflict(Transaction txn, LockerImpl locker) {
+	LockerImpl conflictingLocker = locker.getConflictingLocker();
+	if (conflictingLocker == null) {
+	    return;
+	}
+	conflictMap.put(txn, conflictingLocker);
+	/*
+	 * Add the entry before registering the victim so that the entry is
+	 * either removed here or else by the conflicting transaction when it
+	 * ends.
+	 */
+	if (!conflictingLocker.addVictim(txn)) {
+	    conflictMap.remove(txn, conflictingLocker);
+	}
+    }
+
     /* -- Other classes -- */
 
     /**
@@ -286,6 +368,19 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	 */
 	private boolean ended = false;
 
+	/**
+	 * The transactions that ended after a lock conflict with this one, or
+	 * {@code null}.  Synchronize on the requests field when accessing this
+	 * field.
+	 */
+	private List<Transaction> victims = null;
+
+	/**
+	 * Whether the victims have been released because this transaction
+	 * ended.  Synchronize on the requests field when accessing this field.
+	 */
+	private boolean victimsReleased = false;
+
 	/**
 	 * Creates an instance of this class.
 	 *
@@ -414,6 +509,55 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	    }
 	}
 
+	/**
+	 * Returns the locker for the transaction that caused this locker's
+	 * conflict, if any.
+	 *
+	 * @return	the conflicting locker or {@code null}
+	 */
+	LockerImpl getConflictingLocker() {
+	    LockConflict<Key> conflict = getConflict();
+	    return (conflict == null)
+		? null : (LockerImpl) conflict.getConflictingLocker();
+	}
+
+	/**
+	 * Notes that the specified transaction ended after a lock conflict with
+	 * this one.
+	 *
+	 * @param	victim the transaction that conflicted with this one
+	 * @return	{@code true} if the victim was recorded, or {@code
+	 *		false} if this transaction has already ended
+	 */
+	boolean addVictim(Transaction victim) {
+	    synchronized (requests) {
+		if (victimsReleased) {
+		    return false;
+		}
+		if (victims == null) {
+		    victims = new ArrayList<Transaction>();
+		}
+		victims.add(victim);
+		return true;
+	    }
+	}
+
+	/**
+	 * Notes that this transaction has ended, and returns the transactions
+	 * that ended after a lock conflict with this one.
+	 *
+	 * @return	the transactions that conflicted with this one
+	 */
+	List<Transaction> releaseVictims() {
+	    synchronized (requests) {
+		victimsReleased = true;
+		List<Transaction> result = (victims == null)
+		    ? Collections.<Transaction>emptyList() : victims;
+		victims = null;
+		return result;
+	    }
+	}
+
 	/**
 	 * Marks the transaction as ended.
 	 *
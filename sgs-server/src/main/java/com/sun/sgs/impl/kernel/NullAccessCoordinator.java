@@ -73,6 +73,9 @@ public class NullAccessCoordinator
 	Transaction txn, long requestedStartTime, int tryCount) {
     }
 
+    /** {@inheritDoc} */
+    public void shutdown() { }
+
     /* -- Implement AccessReporter -- */
 
     /** {@inheritDoc} */
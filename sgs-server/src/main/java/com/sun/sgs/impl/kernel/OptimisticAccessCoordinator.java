@@ -0,0 +1,934 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.profile.ProfileCollectorHandle;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import static com.sun.sgs.impl.sharedutil.Objects.checkNull;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.kernel.AccessCoordinator;
+import com.sun.sgs.kernel.AccessReporter;
+import com.sun.sgs.kernel.AccessReporter.AccessType;
+import com.sun.sgs.kernel.AccessedObject;
+import com.sun.sgs.profile.AccessedObjectsDetail;
+import com.sun.sgs.profile.AccessedObjectsDetail.ConflictType;
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.TransactionListener;
+import com.sun.sgs.service.TransactionProxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import static java.util.logging.Level.CONFIG;
+import static java.util.logging.Level.FINER;
+import java.util.logging.Logger;
+
+/**
+ * An implementation of {@link AccessCoordinator} that uses optimistic
+ * concurrency control, validating accesses when a transaction prepares rather
+ * than blocking them when they are made. <p>
+ *
+ * This implementation never blocks or denies an access request.  Instead, it
+ * records, for each object a transaction accesses, the version of the object
+ * that was current when the transaction first accessed it, where the version
+ * is the commit number of the last committed transaction that wrote the
+ * object.  When the transaction is about to prepare, it checks that none of
+ * the objects it accessed have been written by a transaction that committed
+ * in the meantime, and that none of them are about to be written by another
+ * transaction that has already been validated and has not yet finished
+ * committing.  If either check fails, the transaction is aborted with a
+ * {@link TransactionConflictException}.  As a result, transactions are only
+ * aborted when another transaction has written an object that they read or
+ * wrote, and read-only access to shared objects never causes a conflict.
+ * Accesses reported after the transaction has been validated, for example
+ * writes reported while transaction participants prepare, are validated
+ * immediately. <p>
+ *
+ * This access coordinator is intended for workloads where most accesses are
+ * reads and write conflicts are rare.  Because conflicting transactions run to
+ * completion before one of them is aborted, it causes more retries than {@link
+ * LockingAccessCoordinator}, and more so when writes to the same objects are
+ * common.  Note that this class only coordinates the accesses reported to it:
+ * data stores that depend on the access coordinator to serialize access to
+ * objects, such as the caching data store, should not be used with this
+ * class. <p>
+ *
+ * When this class is in use, the data service changes two of its defaults,
+ * as described in {@link com.sun.sgs.impl.service.data.DataServiceImpl}: it
+ * defers write locks until commit, and it asks the JE and BDB database
+ * environments for {@code READ_COMMITTED} isolation, so that reads do not
+ * acquire database locks.  Writes still acquire database locks when the
+ * transaction commits.  Since a task may then read objects committed after
+ * its transaction started, it may see inconsistent state until it is
+ * validated. <p>
+ *
+ * The methods that this class provides to implement {@code AccessReporter} are
+ * not thread safe, and should either be called from a single thread or else
+ * protected with external synchronization. <p>
+ *
+ * The {@link #OptimisticAccessCoordinator constructor} supports the following
+ * configuration properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <b>{@value #VERSION_TABLE_SIZE_PROPERTY}</b> <br>
+ *	<i>Default:</i> {@value #VERSION_TABLE_SIZE_DEFAULT}
+ *
+ * <dd style="padding-top: .5em">The number of object versions to record
+ *	before removing versions that are no longer needed to validate any
+ *	active transaction.  The value must be greater than {@code 0}. <p>
+ *
+ * </dl> <p>
+ *
+ * This class uses the {@link Logger} named {@code
+ * com.sun.sgs.impl.kernel.OptimisticAccessCoordinator} to log information at
+ * the following logging levels: <p>
+ *
+ * <ul>
+ * <li> {@link Level#CONFIG CONFIG} - Creating an instance
+ * <li> {@link Level#FINER FINER} - Beginning, validating, and ending
+ *	transactions
+ * </ul>
+ */
+public class OptimisticAccessCoordinator extends AbstractAccessCoordinator {
+
+    /** The class name. */
+    private static final String CLASS =
+	"com.sun.sgs.impl.kernel.OptimisticAccessCoordinator";
+
+    /**
+     * The property for specifying the number of object versions to record
+     * before removing versions that are no longer needed.
+     */
+    public static final String VERSION_TABLE_SIZE_PROPERTY =
+	CLASS + ".version.table.size";
+
+    /** The default version table size. */
+    public static final int VERSION_TABLE_SIZE_DEFAULT = 10000;
+
+    /** The logger for this class. */
+    static final LoggerWrapper logger = new LoggerWrapper(
+	Logger.getLogger(OptimisticAccessCoordinator.class.getName()));
+
+    /** Maps transactions to information about their accesses. */
+    private final ConcurrentMap<Transaction, TxnInfo> txnMap =
+	new ConcurrentHashMap<Transaction, TxnInfo>();
+
+    /**
+     * Maps transactions that ended after failing validation to the
+     * information for the transactions they conflicted with.  Entries are
+     * removed when the conflicting transaction ends.
+     */
+    private final ConcurrentMap<Transaction, TxnInfo> conflictMap =
+	new ConcurrentHashMap<Transaction, TxnInfo>();
+
+    /**
+     * The lock to synchronize on when validating transactions and when
+     * updating object versions.
+     */
+    private final Object commitLock = new Object();
+
+    /**
+     * Maps keys to the commit number of the last committed transaction that
+     * wrote the object.  Entries are only added or removed when holding
+     * {@link #commitLock}, but may be read without synchronization.
+     */
+    private final ConcurrentMap<Key, Long> versions =
+	new ConcurrentHashMap<Key, Long>();
+
+    /**
+     * Maps keys to the validated transaction that is going to write the
+     * object, until that transaction ends.  Synchronize on {@link #commitLock}
+     * when accessing this field.
+     */
+    private final Map<Key, TxnInfo> pending = new HashMap<Key, TxnInfo>();
+
+    /**
+     * The commit number of the last committed transaction that wrote an
+     * object.  Only modified when holding {@link #commitLock}.
+     */
+    private volatile long commitNumber = 0;
+
+    /** The number of object versions to record before pruning. */
+    private final int versionTableSize;
+
+    /**
+     * The size of the version table that causes the next pruning.
+     * Synchronize on {@link #commitLock} when accessing this field.
+     */
+    private int pruneThreshold;
+
+    /* -- Public constructor -- */
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param	properties the configuration properties
+     * @param	txnProxy the transaction proxy
+     * @param	profileCollectorHandle the profile collector handle
+     * @throws	IllegalArgumentException if the values of the configuration
+     *		properties are illegal
+     */
+    public OptimisticAccessCoordinator(
+	Properties properties,
+	TransactionProxy txnProxy,
+	ProfileCollectorHandle profileCollectorHandle)
+    {
+	super(txnProxy, profileCollectorHandle);
+	PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+	versionTableSize = wrappedProps.getIntProperty(
+	    VERSION_TABLE_SIZE_PROPERTY, VERSION_TABLE_SIZE_DEFAULT,
+	    1, Integer.MAX_VALUE);
+	pruneThreshold = versionTableSize;
+	if (logger.isLoggable(CONFIG)) {
+	    logger.log(CONFIG,
+		       "Created OptimisticAccessCoordinator with properties:" +
+		       "\n  version table size: " + versionTableSize);
+	}
+    }
+
+    /* -- Implement AccessCoordinator -- */
+
+    /** {@inheritDoc} */
+    public <T> AccessReporter<T> registerAccessSource(
+	String sourceName, Class<T> objectIdType)
+    {
+	checkNull("objectIdType", objectIdType);
+	return new AccessReporterImpl<T>(sourceName);
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation only records conflicts for transactions that have
+     * ended after failing validation because of an object that another
+     * transaction was about to write, and only until the conflicting
+     * transaction ends, so it returns {@code null} if {@code txn} is still
+     * active.
+     */
+    public Transaction getConflictingTransaction(Transaction txn) {
+	checkNull("txn", txn);
+	TxnInfo conflictingInfo = conflictMap.get(txn);
+	return (conflictingInfo == null) ? null : conflictingInfo.txn;
+    }
+
+    /* -- Implement AccessCoordinatorHandle -- */
+
+    /** {@inheritDoc} */
+    public void notifyNewTransaction(
+	Transaction txn, long requestedStartTime, int tryCount)
+    {
+	if (requestedStartTime < 0) {
+	    throw new IllegalArgumentException(
+		"The requestedStartTime must not be less than 0");
+	} else if (tryCount < 1) {
+	    throw new IllegalArgumentException(
+		"The tryCount must not be less than 1");
+	}
+	TxnInfo info = new TxnInfo(txn, commitNumber);
+	TxnInfo existing = txnMap.putIfAbsent(txn, info);
+	if (existing != null) {
+	    throw new IllegalStateException("Transaction already started");
+	}
+	if (logger.isLoggable(FINER)) {
+	    logger.log(FINER, "begin {0}, startNumber:{1,number,#}",
+		       info, info.startNumber);
+	}
+	try {
+	    txn.registerListener(new TxnListener(txn));
+	} catch (RuntimeException e) {
+	    txnMap.remove(txn);
+	    throw e;
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Returns the information associated with a transaction.
+     *
+     * @param	txn the transaction
+     * @return	the information
+     * @throws	IllegalArgumentException if the transaction is not active
+     */
+    TxnInfo getTxnInfo(Transaction txn) {
+	checkNull("txn", txn);
+	TxnInfo info = txnMap.get(txn);
+	if (info == null) {
+	    throw new IllegalArgumentException(
+		"Transaction not active: " + txn);
+	}
+	return info;
+    }
+
+    /**
+     * Validates all of the accesses made by a transaction, and marks the
+     * objects it writes as pending.
+     *
+     * @param	txn the transaction
+     * @throws	TransactionConflictException if validation fails
+     */
+    private void validateTransaction(Transaction txn) {
+	TxnInfo info = getTxnInfo(txn);
+	synchronized (commitLock) {
+	    for (Entry<Key, Access> entry : info.accesses.entrySet()) {
+		checkAccess(info, entry.getKey(), entry.getValue());
+	    }
+	    for (Entry<Key, Access> entry : info.accesses.entrySet()) {
+		if (entry.getValue().write) {
+		    pending.put(entry.getKey(), info);
+		}
+	    }
+	    info.validated = true;
+	}
+	logger.log(FINER, "validated {0}", info);
+    }
+
+    /**
+     * Validates an access made by a transaction that has already been
+     * validated, marking the object as pending if the access is a write.
+     *
+     * @param	info the information for the transaction
+     * @param	key the key for the object
+     * @param	access the access
+     * @throws	TransactionConflictException if validation fails
+     */
+    private void validateLateAccess(TxnInfo info, Key key, Access access) {
+	synchronized (commitLock) {
+	    checkAccess(info, key, access);
+	    if (access.write) {
+		pending.put(key, info);
+	    }
+	}
+    }
+
+    /**
+     * Checks that no other transaction has written, or has been validated to
+     * write, the object accessed by a transaction since the transaction first
+     * accessed it.  Callers should synchronize on {@link #commitLock}.
+     *
+     * @param	info the information for the transaction
+     * @param	key the key for the object
+     * @param	access the access
+     * @throws	TransactionConflictException if the check fails
+     */
+    private void checkAccess(TxnInfo info, Key key, Access access) {
+	assert Thread.holdsLock(commitLock);
+	TxnInfo pendingInfo = pending.get(key);
+	if (pendingInfo != null && pendingInfo != info) {
+	    info.setConflict(pendingInfo);
+	    throw new TransactionConflictException(
+		"Validation of txn:" + info.txn +
+		", type:" + access.getType() +
+		", source:" + key.source +
+		", objectId:" + key.objectId +
+		" failed: Object is being written" +
+		", with conflicting transaction " + pendingInfo.txn);
+	}
+	Long version = versions.get(key);
+	if (version != null && !version.equals(access.version)) {
+	    info.setConflict(null);
+	    throw new TransactionConflictException(
+		"Validation of txn:" + info.txn +
+		", type:" + access.getType() +
+		", source:" + key.source +
+		", objectId:" + key.objectId +
+		" failed: Object was modified by a transaction that " +
+		"committed with commit number " + version);
+	}
+    }
+
+    /**
+     * Updates object versions if the transaction committed, clears the
+     * pending marks for objects it wrote, and reports object accesses to the
+     * profiling system.
+     *
+     * @param	txn the finished transaction
+     * @param	committed whether the transaction committed
+     */
+    private void endTransaction(Transaction txn, boolean committed) {
+	TxnInfo info = getTxnInfo(txn);
+	logger.log(FINER, "end {0}, committed:{1}", info, committed);
+	synchronized (commitLock) {
+	    if (info.validated) {
+		long number = commitNumber + 1;
+		boolean wrote = false;
+		for (Entry<Key, Access> entry : info.accesses.entrySet()) {
+		    if (entry.getValue().write) {
+			Key key = entry.getKey();
+			/*
+			 * A write reported after validation that failed
+			 * leaves another transaction's pending mark in place
+			 */
+			if (pending.get(key) == info) {
+			    pending.remove(key);
+			}
+			if (committed) {
+			    versions.put(key, number);
+			    wrote = true;
+			}
+		    }
+		}
+		if (wrote) {
+		    commitNumber = number;
+		}
+	    }
+	    txnMap.remove(txn);
+	    if (versions.size() >= pruneThreshold) {
+		pruneVersions();
+	    }
+	}
+	for (Transaction victim : info.releaseVictims()) {
+	    conflictMap.remove(victim, info);
+	}
+	noteConflict(txn, info);
+	profileCollectorHandle.setAccessedObjectsDetail(info);
+    }
+
+    /**
+     * Removes object versions that are no longer needed to validate any
+     * active transaction.  A version is not needed if every active transaction
+     * started after the version was committed, since those transactions will
+     * either observe the same version when they access the object or, if the
+     * entry has been removed, no version at all.  Any transaction that writes
+     * the object later adds a new, larger version.  Callers should synchronize
+     * on {@link #commitLock}.
+     */
+    private void pruneVersions() {
+	assert Thread.holdsLock(commitLock);
+	long minStart = commitNumber;
+	for (TxnInfo info : txnMap.values()) {
+	    minStart = Math.min(minStart, info.startNumber);
+	}
+	for (Iterator<Long> i = versions.values().iterator(); i.hasNext(); ) {
+	    if (i.next() <= minStart) {
+		i.remove();
+	    }
+	}
+	pruneThreshold = Math.max(versionTableSize, 2 * versions.size());
+	if (logger.isLoggable(FINER)) {
+	    logger.log(FINER,
+		       "pruned versions, minStart:{0,number,#}" +
+		       ", remaining:{1,number,#}",
+		       minStart, versions.size());
+	}
+    }
+
+    /**
+     * Records the transaction, if any, that caused the validation failure for
+     * a transaction that has ended, so that it can be returned by {@link
+     * #getConflictingTransaction getConflictingTransaction} until the
+     * conflicting transaction ends.
+     *
+     * @param	txn the finished transaction
+     * @param	info the information for the finished transaction
+     */
+    private void noteConflict(Transaction txn, TxnInfo info) {
+	TxnInfo conflictingInfo = info.getConflictingInfo();
+	if (conflictingInfo == null) {
+	    return;
+	}
+	conflictMap.put(txn, conflictingInfo);
+	/*
+	 * Add the entry before registering the victim so that the entry is
+	 * either removed here or else by the conflicting transaction when it
+	 * ends.
+	 */
+	if (!conflictingInfo.addVictim(txn)) {
+	    conflictMap.remove(txn, conflictingInfo);
+	}
+    }
+
+    /* -- Other classes -- */
+
+    /**
+     * Records information about the objects accessed by a transaction, the
+     * versions observed, and descriptions.
+     */
+    static final class TxnInfo implements AccessedObjectsDetail {
+
+	/** The transaction. */
+	final Transaction txn;
+
+	/**
+	 * The commit number of the last committed transaction that wrote an
+	 * object at the time this transaction started.
+	 */
+	final long startNumber;
+
+	/**
+	 * Maps the keys of the objects accessed by this transaction to
+	 * information about the access, in the order of first access.
+	 */
+	final Map<Key, Access> accesses = new LinkedHashMap<Key, Access>();
+
+	/** The accessed objects, for reporting to the profiling system. */
+	private final List<AccessedObjectImpl> accessedObjects =
+	    new ArrayList<AccessedObjectImpl>();
+
+	/** A map from keys to descriptions, or {@code null}. */
+	private Map<Key, Object> keyToDescriptionMap = null;
+
+	/**
+	 * Whether this transaction has been validated.  Synchronize on {@link
+	 * #commitLock} when modifying this field.
+	 */
+	volatile boolean validated = false;
+
+	/**
+	 * Whether this transaction failed validation.  Synchronize on this
+	 * instance when accessing this field.
+	 */
+	private boolean conflict = false;
+
+	/**
+	 * The validated transaction that was about to write an object that
+	 * caused this transaction to fail validation, or {@code null}.
+	 * Synchronize on this instance when accessing this field.
+	 */
+	private TxnInfo conflictingInfo = null;
+
+	/**
+	 * The transactions that ended after failing validation because of a
+	 * conflict with this one, or {@code null}.  Synchronize on this
+	 * instance when accessing this field.
+	 */
+	private List<Transaction> victims = null;
+
+	/**
+	 * Whether the victims have been released because this transaction
+	 * ended.  Synchronize on this instance when accessing this field.
+	 */
+	private boolean victimsReleased = false;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	txn the associated transaction
+	 * @param	startNumber the current commit number
+	 */
+	TxnInfo(Transaction txn, long startNumber) {
+	    checkNull("txn", txn);
+	    this.txn = txn;
+	    this.startNumber = startNumber;
+	}
+
+	/**
+	 * Notes an access to an object, recording the version of the object
+	 * if this is the first access, and returns the access if it is new or
+	 * upgrades an existing read access to a write, else {@code null}.
+	 *
+	 * @param	key the key for the object
+	 * @param	type the type of access
+	 * @param	version the current version of the object, or {@code
+	 *		null}
+	 * @return	the new or upgraded access, or {@code null}
+	 */
+	Access noteAccess(Key key, AccessType type, Long version) {
+	    boolean write = (type == AccessType.WRITE);
+	    Access access = accesses.get(key);
+	    if (access == null) {
+		access = new Access(version, write);
+		accesses.put(key, access);
+	    } else if (write && !access.write) {
+		access.write = true;
+	    } else {
+		return null;
+	    }
+	    accessedObjects.add(new AccessedObjectImpl(this, key, write));
+	    return access;
+	}
+
+	/**
+	 * Returns a string representation of this object.  This implementation
+	 * prints the associated transaction, for debugging.
+	 *
+	 * @return	a string representation of this object
+	 */
+	@Override
+	public String toString() {
+	    return txn.toString();
+	}
+
+	/* -- Implement AccessedObjectsDetail -- */
+
+	/** {@inheritDoc} */
+	public List<AccessedObject> getAccessedObjects() {
+	    return Collections.<AccessedObject>unmodifiableList(
+		accessedObjects);
+	}
+
+	/** {@inheritDoc} */
+	public synchronized ConflictType getConflictType() {
+	    return conflict
+		? ConflictType.ACCESS_NOT_GRANTED : ConflictType.NONE;
+	}
+
+	/** {@inheritDoc} */
+	public synchronized byte[] getConflictingId() {
+	    return (conflictingInfo == null)
+		? null : conflictingInfo.txn.getId();
+	}
+
+	/* -- Other methods -- */
+
+	/**
+	 * Sets the description associated with a key for this transaction.
+	 * The description should not be {@code null}.  Does not replace an
+	 * existing description.
+	 *
+	 * @param	key the key
+	 * @param	description the description
+	 */
+	void setDescription(Key key, Object description) {
+	    assert key != null;
+	    assert description != null;
+	    if (keyToDescriptionMap == null) {
+		keyToDescriptionMap = new HashMap<Key, Object>();
+	    }
+	    if (!keyToDescriptionMap.containsKey(key)) {
+		keyToDescriptionMap.put(key, description);
+	    }
+	}
+
+	/**
+	 * Gets the description associated with a key for this transaction.
+	 *
+	 * @param	key the key
+	 * @return	the description or {@code null}
+	 */
+	Object getDescription(Key key) {
+	    return (keyToDescriptionMap == null)
+		? null : keyToDescriptionMap.get(key);
+	}
+
+	/**
+	 * Notes that this transaction failed validation, if it has not
+	 * already done so.
+	 *
+	 * @param	conflictingInfo the information for the transaction
+	 *		that caused the failure, or {@code null}
+	 */
+	synchronized void setConflict(TxnInfo conflictingInfo) {
+	    if (!conflict) {
+		conflict = true;
+		this.conflictingInfo = conflictingInfo;
+	    }
+	}
+
+	/**
+	 * Returns the information for the transaction that caused this
+	 * transaction to fail validation, if any.
+	 *
+	 * @return	the conflicting information or {@code null}
+	 */
+	synchronized TxnInfo getConflictingInfo() {
+	    return conflictingInfo;
+	}
+
+	/**
+	 * Notes that the specified transaction ended after failing validation
+	 * because of a conflict with this one.
+	 *
+	 * @param	victim the transaction that conflicted with this one
+	 * @return	{@code true} if the victim was recorded, or {@code
+	 *		false} if this transaction has already ended
+	 */
+	synchronized boolean addVictim(Transaction victim) {
+	    if (victimsReleased) {
+		return false;
+	    }
+	    if (victims == null) {
+		victims = new ArrayList<Transaction>();
+	    }
+	    victims.add(victim);
+	    return true;
+	}
+
+	/**
+	 * Notes that this transaction has ended, and returns the transactions
+	 * that ended after failing validation because of a conflict with this
+	 * one.
+	 *
+	 * @return	the transactions that conflicted with this one
+	 */
+	synchronized List<Transaction> releaseVictims() {
+	    victimsReleased = true;
+	    List<Transaction> result = (victims == null)
+		? Collections.<Transaction>emptyList() : victims;
+	    victims = null;
+	    return result;
+	}
+    }
+
+    /**
+     * Records the version of an object observed by a transaction, and whether
+     * the transaction writes the object.
+     */
+    static final class Access {
+
+	/**
+	 * The version of the object when the transaction first accessed it,
+	 * or {@code null} if no version was recorded.
+	 */
+	final Long version;
+
+	/** Whether the transaction writes the object. */
+	boolean write;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	version the version of the object, or {@code null}
+	 * @param	write whether the access is a write
+	 */
+	Access(Long version, boolean write) {
+	    this.version = version;
+	    this.write = write;
+	}
+
+	/** Returns the type of the access. */
+	AccessType getType() {
+	    return write ? AccessType.WRITE : AccessType.READ;
+	}
+    }
+
+    /** Implement {@code AccessedObject}. */
+    private static final class AccessedObjectImpl implements AccessedObject {
+
+	/** The information for the transaction that made the access. */
+	private final TxnInfo info;
+
+	/** The key for the object. */
+	private final Key key;
+
+	/** Whether the access is a write. */
+	private final boolean write;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	info the information for the transaction
+	 * @param	key the key for the object
+	 * @param	write whether the access is a write
+	 */
+	AccessedObjectImpl(TxnInfo info, Key key, boolean write) {
+	    this.info = info;
+	    this.key = key;
+	    this.write = write;
+	}
+
+	/* -- Implement AccessedObject -- */
+
+	/** {@inheritDoc} */
+	public String getSource() {
+	    return key.source;
+	}
+
+	/** {@inheritDoc} */
+	public Object getObjectId() {
+	    return key.objectId;
+	}
+
+	/** {@inheritDoc} */
+	public AccessType getAccessType() {
+	    return write ? AccessType.WRITE : AccessType.READ;
+	}
+
+	/** {@inheritDoc} */
+	public Object getDescription() {
+	    return info.getDescription(key);
+	}
+
+	/**
+	 * Two instances are equal if they are instances of this class, and
+	 * have the same source, object ID, and access type.
+	 *
+	 * @param	object the object to compare with
+	 * @return	whether this instance equals the argument
+	 */
+	@Override
+	public boolean equals(Object object) {
+	    if (object == this) {
+		return true;
+	    } else if (object instanceof AccessedObjectImpl) {
+		AccessedObjectImpl other = (AccessedObjectImpl) object;
+		return key.equals(other.key) && write == other.write;
+	    } else {
+		return false;
+	    }
+	}
+
+	@Override
+	public int hashCode() {
+	    return key.hashCode() ^ (write ? 1 : 0);
+	}
+
+	/** Print fields, for debugging. */
+	@Override
+	public String toString() {
+	    return "AccessedObjectImpl[" + info + ", " + key + ", " +
+		(write ? "WRITE" : "READ") + "]";
+	}
+    }
+
+    /** Represents an object as identified by a source and an object ID. */
+    static final class Key {
+
+	/** The source. */
+	final String source;
+
+	/** The object ID. */
+	final Object objectId;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	source the source of the object
+	 * @param	objectId the object ID of the object
+	 */
+	Key(String source, Object objectId) {
+	    checkNull("source", source);
+	    checkNull("objectId", objectId);
+	    this.source = source;
+	    this.objectId = objectId;
+	}
+
+	/* -- Compare source and object ID -- */
+
+	@Override
+	public boolean equals(Object object) {
+	    if (object == this) {
+		return true;
+	    } else if (object instanceof Key) {
+		Key key = (Key) object;
+		return source.equals(key.source) &&
+		    objectId.equals(key.objectId);
+	    } else {
+		return false;
+	    }
+	}
+
+	@Override
+	public int hashCode() {
+	    return source.hashCode() ^ objectId.hashCode();
+	}
+
+	/** Print fields, for debugging. */
+	@Override
+	public String toString() {
+	    return source + ":" + objectId;
+	}
+    }
+
+    /** Implement {@link AccessReporter}. */
+    private class AccessReporterImpl<T> extends AbstractAccessReporter<T> {
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	source the source of the objects managed by this
+	 *		reporter
+	 */
+	AccessReporterImpl(String source) {
+	    super(source);
+	}
+
+	/* -- Implement AccessReporter -- */
+
+	/** {@inheritDoc} */
+	public void reportObjectAccess(
+	    Transaction txn, T objectId, AccessType type, Object description)
+	{
+	    checkNull("type", type);
+	    TxnInfo info = getTxnInfo(txn);
+	    Key key = new Key(source, objectId);
+	    if (description != null) {
+		info.setDescription(key, description);
+	    }
+	    Access access = info.noteAccess(key, type, versions.get(key));
+	    if (access != null && info.validated) {
+		try {
+		    validateLateAccess(info, key, access);
+		} catch (TransactionConflictException e) {
+		    txn.abort(e);
+		    throw e;
+		}
+	    }
+	}
+
+	/** {@inheritDoc} */
+	public void setObjectDescription(
+	    Transaction txn, T objectId, Object description)
+	{
+	    TxnInfo info = getTxnInfo(txn);
+	    if (description == null) {
+		checkNull("objectId", objectId);
+	    } else {
+		info.setDescription(new Key(source, objectId), description);
+	    }
+	}
+    }
+
+    /**
+     * A transaction listener that validates the transaction before it
+     * prepares, and calls {@link #endTransaction} after it completes.  Use a
+     * listener instead of a transaction participant to make sure that
+     * validation happens before any participant prepares, and that pending
+     * writes are cleared only after all of the transaction participants have
+     * finished their work.
+     */
+    private class TxnListener implements TransactionListener {
+
+	/** The transaction. */
+	private final Transaction txn;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	txn the transaction we're listening for
+	 */
+	TxnListener(Transaction txn) {
+	    this.txn = txn;
+	}
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation validates the accesses made by the
+	 * transaction.
+	 *
+	 * @throws	TransactionConflictException if validation fails
+	 */
+	public void beforeCompletion() {
+	    validateTransaction(txn);
+	}
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation calls {@link #endTransaction}.
+	 */
+	public void afterCompletion(boolean committed) {
+	    endTransaction(txn, committed);
+	}
+
+	/** {@inheritDoc} */
+	public String getTypeName() {
+	    return TxnListener.class.getName();
+	}
+    }
+}
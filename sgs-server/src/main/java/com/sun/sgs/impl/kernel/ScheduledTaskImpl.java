@@ -59,6 +59,8 @@ final class ScheduledTaskImpl implements ScheduledTask {
     private final KernelRunnable task;
     private final Identity owner;
     private final long period;
+    private final long deadline;
+    private final boolean readOnly;
 
     // the common, mutable aspects of a task
     private volatile Priority priority;
@@ -110,7 +112,9 @@ final class ScheduledTaskImpl implements ScheduledTask {
         private long startTime = System.currentTimeMillis();
         private long period = NON_RECURRING;
         private long timeout = defaultTimeout;
+        private long deadline = NO_DEADLINE;
         private RecurringTaskHandle recurringTaskHandle = null;
+        private boolean readOnly = false;
 
         // default values
         private static long defaultTimeout = -2;
@@ -132,8 +136,9 @@ final class ScheduledTaskImpl implements ScheduledTask {
         /**
          * Constructs a {@code Builder} object to build a
          * {@code ScheduledTaskImpl} object with all of the same values as the
-         * given task except for the {@code startTime}, {@code timeout}, and
-         * {@code maxConcurrency} which are set to their default values.
+         * given task except for the {@code startTime}, {@code timeout},
+         * {@code deadline}, and {@code maxConcurrency} which are set to
+         * their default values.
          *
          * @param task existing {@code ScheduledTaskImpl}
          */
@@ -141,6 +146,7 @@ final class ScheduledTaskImpl implements ScheduledTask {
             this(task.task, task.owner, task.priority);
             this.period = task.period;
             this.recurringTaskHandle = task.recurringTaskHandle;
+            this.readOnly = task.readOnly;
         }
 
         /**
@@ -179,6 +185,31 @@ final class ScheduledTaskImpl implements ScheduledTask {
             return this;
         }
 
+        /**
+         * Setter for setting the deadline of a new {@code ScheduledTaskImpl}
+         *
+         * @param deadline the time by which the task should be started in
+         *                 milliseconds since January 1, 1970, or
+         *                 {@code NO_DEADLINE}
+         * @return this {@code Builder} object
+         */
+        Builder deadline(long deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Setter for specifying whether a new {@code ScheduledTaskImpl}
+         * should run in a read-only transaction
+         *
+         * @param readOnly whether the task's transaction is read-only
+         * @return this {@code Builder} object
+         */
+        Builder readOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
         /**
          * Set the default value of {@code timeout} for new instances
          * of {@code ScheduledTaskImpl} built with a builder.
@@ -229,7 +260,9 @@ final class ScheduledTaskImpl implements ScheduledTask {
         this.startTime = builder.startTime;
         this.period = builder.period;
         this.timeout = builder.timeout;
+        this.deadline = builder.deadline;
         this.recurringTaskHandle = builder.recurringTaskHandle;
+        this.readOnly = builder.readOnly;
     }
 
     /** Implementation of ScheduledTask interface. */
@@ -269,6 +302,11 @@ final class ScheduledTaskImpl implements ScheduledTask {
         return timeout;
     }
     
+    /** {@inheritDoc} */
+    public long getDeadline() {
+        return deadline;
+    }
+
     /** {@inheritDoc} */
     public Throwable getLastFailure() {
         return lastFailure;
@@ -372,6 +410,11 @@ final class ScheduledTaskImpl implements ScheduledTask {
         return result;
     }
 
+    /** Returns whether the task should run in a read-only transaction. */
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
     /** Re-sets the starting time to the now. */
     void resetStartTime() {
         startTime = System.currentTimeMillis();
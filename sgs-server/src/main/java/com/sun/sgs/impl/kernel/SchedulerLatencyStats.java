@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel;
+
+import com.sun.sgs.kernel.Priority;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.management.SchedulerLatencyMXBean;
+import com.sun.sgs.profile.AggregateProfileCounter;
+import com.sun.sgs.profile.AggregateProfileSample;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.profile.ProfileConsumer;
+import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.StandardMBean;
+
+/**
+ * Gathers, for each {@link Priority}, the time tasks wait in the
+ * transaction scheduler's queue before they are run.  The latencies are
+ * reported through a profile consumer named {@value #CONS_NAME}, with one
+ * sample and two counters per priority, and are summarized by the
+ * {@link SchedulerLatencyMXBean}.
+ */
+class SchedulerLatencyStats extends StandardMBean
+    implements SchedulerLatencyMXBean
+{
+    /**
+     * Our consumer name, created with at {@code ProfileLevel.MEDIUM}.
+     */
+    static final String CONS_NAME = "com.sun.sgs.SchedulerLatency";
+
+    /** The number of recent latencies kept for each priority. */
+    static final int SAMPLE_CAPACITY = 1000;
+
+    /** The latencies, in milliseconds, indexed by priority ordinal. */
+    private final AggregateProfileSample[] latencies;
+
+    /** The task counts, indexed by priority ordinal. */
+    private final AggregateProfileCounter[] taskCounts;
+
+    /** The missed deadline counts, indexed by priority ordinal. */
+    private final AggregateProfileCounter[] missedDeadlines;
+
+    /** The last time {@link #clear} was called, or when this object
+     * was created if {@code clear} has not been called.
+     */
+    private volatile long lastClear = System.currentTimeMillis();
+
+    /**
+     * Creates an MXBean object for gathering scheduler latencies.
+     *
+     * @param collector the system profile collector
+     */
+    SchedulerLatencyStats(ProfileCollector collector) {
+        super(SchedulerLatencyMXBean.class, true);
+        ProfileConsumer consumer = collector.getConsumer(CONS_NAME);
+        ProfileLevel level = ProfileLevel.MEDIUM;
+        ProfileDataType type = ProfileDataType.AGGREGATE;
+
+        Priority[] priorities = Priority.values();
+        latencies = new AggregateProfileSample[priorities.length];
+        taskCounts = new AggregateProfileCounter[priorities.length];
+        missedDeadlines = new AggregateProfileCounter[priorities.length];
+        for (Priority priority : priorities) {
+            int i = priority.ordinal();
+            latencies[i] = (AggregateProfileSample)
+                consumer.createSample("latency." + priority, type, level);
+            latencies[i].setCapacity(SAMPLE_CAPACITY);
+            taskCounts[i] = (AggregateProfileCounter)
+                consumer.createCounter("tasks." + priority, type, level);
+            missedDeadlines[i] = (AggregateProfileCounter)
+                consumer.createCounter("missedDeadlines." + priority,
+                                       type, level);
+        }
+    }
+
+    /**
+     * Notes that a task has been taken from the scheduler's queue to run
+     * for the first time.
+     *
+     * @param task the task
+     * @param now the current time, in milliseconds
+     */
+    void taskStarted(ScheduledTask task, long now) {
+        int i = task.getPriority().ordinal();
+        taskCounts[i].incrementCount();
+        latencies[i].addSample(Math.max(0, now - task.getStartTime()));
+        long deadline = task.getDeadline();
+        if ((deadline != ScheduledTask.NO_DEADLINE) && (now > deadline)) {
+            missedDeadlines[i].incrementCount();
+        }
+    }
+
+    /*
+     * Implement MBean.
+     */
+
+    /** {@inheritDoc} */
+    public long getTaskCount(String priority) {
+        return taskCounts[getIndex(priority)].getCount();
+    }
+
+    /** {@inheritDoc} */
+    public long getLatencyPercentile(String priority, double percentile) {
+        if (!(percentile > 0.0 && percentile <= 100.0)) {
+            throw new IllegalArgumentException(
+                "Percentile must be greater than 0.0 and no greater than " +
+                "100.0, was " + percentile);
+        }
+        List<Long> samples = latencies[getIndex(priority)].getSamples();
+        if (samples.isEmpty()) {
+            return -1;
+        }
+        Long[] sorted = samples.toArray(new Long[samples.size()]);
+        Arrays.sort(sorted);
+        // nearest-rank percentile
+        int rank = (int) Math.ceil((percentile / 100.0) * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /** {@inheritDoc} */
+    public double getLatencyAvg(String priority) {
+        return latencies[getIndex(priority)].getAverage();
+    }
+
+    /** {@inheritDoc} */
+    public long getLatencyMax(String priority) {
+        long max = latencies[getIndex(priority)].getMaxSample();
+        // the sample reports Long.MIN_VALUE until it has a sample
+        return (max == Long.MIN_VALUE) ? 0 : max;
+    }
+
+    /** {@inheritDoc} */
+    public long getMissedDeadlineCount(String priority) {
+        return missedDeadlines[getIndex(priority)].getCount();
+    }
+
+    /** {@inheritDoc} */
+    public void clear() {
+        lastClear = System.currentTimeMillis();
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i].clearSamples();
+            taskCounts[i].clearCount();
+            missedDeadlines[i].clearCount();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public long getLastClearTime() {
+        return lastClear;
+    }
+
+    /** Returns the index of the named priority. */
+    private static int getIndex(String priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Priority cannot be null");
+        }
+        return Priority.valueOf(priority).ordinal();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel;
+
+import com.sun.sgs.profile.AggregateProfileCounter;
+import com.sun.sgs.profile.AggregateProfileSample;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.profile.ProfileConsumer;
+import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
+
+/**
+ * Gathers statistics about the transactions the transaction scheduler uses
+ * to run several dependent tasks at once.  The statistics are reported
+ * through a profile consumer named {@value #CONS_NAME}.  The counters are
+ * always collected; the tasks-per-transaction sample is only collected at
+ * {@code ProfileLevel.MEDIUM}.
+ */
+class TaskCoalescingStats {
+
+    /** Our consumer name. */
+    static final String CONS_NAME = "com.sun.sgs.TaskCoalescing";
+
+    /** The number of recent batch sizes kept. */
+    static final int SAMPLE_CAPACITY = 1000;
+
+    /** The number of coalesced transactions that committed. */
+    private final AggregateProfileCounter transactions;
+
+    /** The number of tasks run in coalesced transactions that committed. */
+    private final AggregateProfileCounter tasks;
+
+    /**
+     * The number of coalesced transactions that aborted and whose tasks
+     * were run again one per transaction.
+     */
+    private final AggregateProfileCounter splits;
+
+    /** The number of tasks in each coalesced transaction that committed. */
+    private final AggregateProfileSample tasksPerTransaction;
+
+    /**
+     * Creates an instance for gathering task coalescing statistics.
+     *
+     * @param collector the system profile collector
+     */
+    TaskCoalescingStats(ProfileCollector collector) {
+        ProfileConsumer consumer = collector.getConsumer(CONS_NAME);
+        ProfileDataType type = ProfileDataType.AGGREGATE;
+        transactions = (AggregateProfileCounter)
+            consumer.createCounter("transactions", type, ProfileLevel.MIN);
+        tasks = (AggregateProfileCounter)
+            consumer.createCounter("tasks", type, ProfileLevel.MIN);
+        splits = (AggregateProfileCounter)
+            consumer.createCounter("splits", type, ProfileLevel.MIN);
+        tasksPerTransaction = (AggregateProfileSample)
+            consumer.createSample("tasksPerTransaction", type,
+                                  ProfileLevel.MEDIUM);
+        tasksPerTransaction.setCapacity(SAMPLE_CAPACITY);
+    }
+
+    /**
+     * Notes that a coalesced transaction committed.
+     *
+     * @param count the number of tasks run in the transaction
+     */
+    void committed(int count) {
+        transactions.incrementCount();
+        tasks.incrementCount(count);
+        tasksPerTransaction.addSample(count);
+    }
+
+    /**
+     * Notes that a coalesced transaction aborted, and that its tasks will be
+     * run one per transaction.
+     */
+    void split() {
+        splits.incrementCount();
+    }
+
+    /**
+     * Returns the number of coalesced transactions that committed.
+     *
+     * @return the number of committed coalesced transactions
+     */
+    long getTransactionCount() {
+        return transactions.getCount();
+    }
+
+    /**
+     * Returns the number of tasks run in coalesced transactions that
+     * committed.
+     *
+     * @return the number of tasks run in committed coalesced transactions
+     */
+    long getTaskCount() {
+        return tasks.getCount();
+    }
+
+    /**
+     * Returns the number of coalesced transactions that were split after
+     * aborting.
+     *
+     * @return the number of split transactions
+     */
+    long getSplitCount() {
+        return splits.getCount();
+    }
+}
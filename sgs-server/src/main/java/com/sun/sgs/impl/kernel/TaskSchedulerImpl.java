@@ -27,6 +27,7 @@ import com.sun.sgs.auth.Identity;
 
 import com.sun.sgs.impl.profile.ProfileCollectorHandle;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 import com.sun.sgs.impl.util.NamedThreadFactory;
 
 import com.sun.sgs.kernel.KernelRunnable;
@@ -39,10 +40,10 @@ import com.sun.sgs.kernel.TaskScheduler;
 import java.util.LinkedList;
 import java.util.Properties;
 
-import java.util.concurrent.Executors;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import java.util.concurrent.atomic.AtomicInteger;
@@ -68,6 +69,17 @@ import java.util.logging.Logger;
  *
  * <dd style="padding-top: .5em">The number of initial threads used to process
  *      non-transactional tasks.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #MAX_CONSUMER_THREADS_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> the value of {@value #CONSUMER_THREADS_PROPERTY}
+ *
+ * <dd style="padding-top: .5em">The maximum number of threads used to
+ *      process non-transactional tasks.  When every thread is busy and there
+ *      are tasks ready to run, another thread is added, up to this number.
+ *      Threads are removed again as tasks finish with none ready to run.
+ *      This keeps tasks that block for long periods from holding up the
+ *      others.  The default value disables adding threads.<p>
  * </dl>
  * FIXME: the profiling code needs a way to learn about the thread count
  * from this scheduler separately from the transaction pool. When this gets
@@ -92,8 +104,23 @@ final class TaskSchedulerImpl implements TaskScheduler {
      */
     public static final String DEFAULT_CONSUMER_THREADS = "4";
 
+    /**
+     * The property used to define the maximum number of consumer threads.
+     */
+    public static final String MAX_CONSUMER_THREADS_PROPERTY =
+        "com.sun.sgs.impl.kernel.task.threads.max";
+
     // the executor used to run tasks
-    private final ScheduledExecutorService executor;
+    private final ScheduledThreadPoolExecutor executor;
+
+    // the number of requested consumer threads
+    private final int requestedThreads;
+
+    // the maximum number of consumer threads
+    private final int maxThreads;
+
+    // the number of threads that are running a task
+    private final AtomicInteger busyCount = new AtomicInteger(0);
 
     // the collector handle used for profiling data
     private final ProfileCollectorHandle profileCollectorHandle;
@@ -130,20 +157,24 @@ final class TaskSchedulerImpl implements TaskScheduler {
 
         this.profileCollectorHandle = profileCollectorHandle;
 
-        int requestedThreads =
+        this.requestedThreads =
             Integer.parseInt(properties.getProperty(CONSUMER_THREADS_PROPERTY,
                                                     DEFAULT_CONSUMER_THREADS));
-
-        // NOTE: this is replicating previous behavior where there is a
-        // fixed-size pool for running tasks, but in practice we may
-        // want a flexible pool that allows (e.g.) for tasks that run
-        // for the lifetime of a stack
-        this.executor = Executors.newScheduledThreadPool(
+        this.maxThreads = new PropertiesWrapper(properties).getIntProperty(
+                MAX_CONSUMER_THREADS_PROPERTY, requestedThreads,
+                requestedThreads, Integer.MAX_VALUE);
+
+        // a scheduled pool never grows past its core size on its own, so
+        // the core size is raised while all threads are busy and there are
+        // tasks ready to run (e.g., because tasks are running for the
+        // lifetime of a stack), and lowered again as the work drains
+        this.executor = new ScheduledThreadPoolExecutor(
                 requestedThreads, new NamedThreadFactory("TaskScheduler"));
 
         logger.log(Level.CONFIG,
                    "Created TaskSchedulerImpl with properties:" +
-                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads);
+                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads +
+                   "\n  " + MAX_CONSUMER_THREADS_PROPERTY + "=" + maxThreads);
     }
 
     /**
@@ -252,6 +283,39 @@ final class TaskSchedulerImpl implements TaskScheduler {
         }
     }
 
+    /**
+     * Private method that returns whether the executor has a task that
+     * is ready to run now.
+     */
+    private boolean hasReadyTask() {
+        Runnable next = executor.getQueue().peek();
+        return (next instanceof Delayed) &&
+            (((Delayed) next).getDelay(TimeUnit.MILLISECONDS) <= 0);
+    }
+
+    /**
+     * Private method that adds a thread to the executor if all its threads
+     * are busy and there are tasks ready to run, or removes an added thread
+     * if there is no more work for it.
+     *
+     * @param starting {@code true} if a task is about to be run, and
+     *                 {@code false} if one just finished
+     */
+    private synchronized void adjustPoolSize(boolean starting) {
+        int size = executor.getCorePoolSize();
+        if (starting) {
+            if ((size < maxThreads) && (busyCount.get() >= size) &&
+                hasReadyTask())
+            {
+                executor.setCorePoolSize(size + 1);
+            }
+        } else if ((size > requestedThreads) &&
+                   (busyCount.get() < size - 1) && !hasReadyTask())
+        {
+            executor.setCorePoolSize(size - 1);
+        }
+    }
+
     /** Private implementation of {@code TaskReservation}. */
     private class TaskReservationImpl implements TaskReservation {
         private final TaskDetail taskDetail;
@@ -421,6 +485,12 @@ final class TaskSchedulerImpl implements TaskScheduler {
                 taskDetail.startTime += taskDetail.period;
             }
 
+            // if this leaves no idle threads, see if another one is needed
+            busyCount.incrementAndGet();
+            if (maxThreads > requestedThreads) {
+                adjustPoolSize(true);
+            }
+
             // store the current owner, and then push the new thread detail
             Identity parent = ContextResolver.getCurrentOwner();
             ContextResolver.setTaskState(kernelContext, taskDetail.owner);
@@ -447,6 +517,10 @@ final class TaskSchedulerImpl implements TaskScheduler {
                 if (taskDetail.queue != null) {
                     taskDetail.queue.scheduleNextTask();
                 }
+                busyCount.decrementAndGet();
+                if (maxThreads > requestedThreads) {
+                    adjustPoolSize(false);
+                }
             }
         }
     }
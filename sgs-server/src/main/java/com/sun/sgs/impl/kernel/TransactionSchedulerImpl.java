@@ -29,6 +29,8 @@ import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.kernel.schedule.SchedulerQueue;
 import com.sun.sgs.kernel.schedule.SchedulerRetryPolicy;
 
+import com.sun.sgs.impl.kernel.schedule.ConflictAwareSchedulerQueue;
+
 import com.sun.sgs.impl.profile.ProfileCollectorHandle;
 import com.sun.sgs.impl.service.transaction.TransactionCoordinator;
 import com.sun.sgs.impl.service.transaction.TransactionHandle;
@@ -55,12 +57,14 @@ import java.beans.PropertyChangeEvent;
 
 import java.lang.reflect.InvocationTargetException;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
-import java.util.Queue;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -80,6 +84,18 @@ import java.util.logging.Logger;
  *
  * <dd style="padding-top: .5em">The number of initial threads used to process
  *      transactional tasks.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #MAX_CONSUMER_THREADS_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> the value of {@value #CONSUMER_THREADS_PROPERTY}
+ *
+ * <dd style="padding-top: .5em">The maximum number of threads used to
+ *      process transactional tasks.  When every thread is busy running a
+ *      task and there are more tasks ready to run, another thread is added,
+ *      up to this number.  Added threads finish once there are no more ready
+ *      tasks.  This lets the scheduler keep making progress when tasks spend
+ *      much of their time blocked, for example waiting on a remote data
+ *      store.  The default value disables adding threads.<p>
  * 
  * <dt> <i>Property:</i> <code><b>{@value #SCHEDULER_QUEUE_PROPERTY}
  *	</b></code> <br>
@@ -90,7 +106,10 @@ import java.util.logging.Logger;
  *      The value of this property should be the
  *      name of a public, non-abstract class that implements the
  *      {@link SchedulerQueue} interface, and that provides a public
- *      constructor with the parameters {@link Properties}<p>
+ *      constructor with the parameters {@link Properties}.  If the class
+ *      implements {@link ConflictAwareSchedulerQueue}, then tasks that are
+ *      to be retried later are parked behind the transaction they conflicted
+ *      with, if any.<p>
  *
  * <dt> <i>Property:</i> <code><b>{@value #SCHEDULER_RETRY_PROPERTY}
  *	</b></code> <br>
@@ -103,6 +122,28 @@ import java.util.logging.Logger;
  *      {@link SchedulerRetryPolicy} interface, and that provides a public
  *      constructor with the parameters {@link Properties}<p>
  *
+ * <dt> <i>Property:</i> <code><b>{@value #COALESCE_MAX_TASKS_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_COALESCE_MAX_TASKS}</code>
+ *
+ * <dd style="padding-top: .5em">The maximum number of tasks from a single
+ *      {@link TaskQueue} that are run together in one transaction.  When a
+ *      task from a queue is run, the tasks waiting behind it with the same
+ *      owner are run in the same transaction, up to this number of tasks in
+ *      all.  If the transaction aborts, each of the tasks that ran in it is
+ *      run again in its own transaction, so a failing task does not affect
+ *      the tasks around it.  The default value of {@code 1} disables
+ *      coalescing.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #COALESCE_MAX_TIME_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_COALESCE_MAX_TIME}</code>
+ *
+ * <dd style="padding-top: .5em">The number of milliseconds after which no
+ *      more tasks are started in a coalesced transaction.  Tasks that were
+ *      not started are left at the front of their queue.  This value should
+ *      be well below the transaction timeout.<p>
+ *
  * </dl>
  */
 final class TransactionSchedulerImpl
@@ -152,6 +193,38 @@ final class TransactionSchedulerImpl
      */
     public static final String DEFAULT_CONSUMER_THREADS = "4";
 
+    /**
+     * The property used to define the maximum number of consumer threads.
+     */
+    public static final String MAX_CONSUMER_THREADS_PROPERTY =
+        "com.sun.sgs.impl.kernel.transaction.threads.max";
+
+    /**
+     * The property used to define the maximum number of dependent tasks run
+     * in a single transaction.
+     */
+    public static final String COALESCE_MAX_TASKS_PROPERTY =
+        "com.sun.sgs.impl.kernel.transaction.coalesce.max.tasks";
+
+    /**
+     * The default maximum number of dependent tasks run in a single
+     * transaction, which disables coalescing.
+     */
+    public static final int DEFAULT_COALESCE_MAX_TASKS = 1;
+
+    /**
+     * The property used to define the time in milliseconds after which no
+     * more tasks are started in a coalesced transaction.
+     */
+    public static final String COALESCE_MAX_TIME_PROPERTY =
+        "com.sun.sgs.impl.kernel.transaction.coalesce.max.time";
+
+    /**
+     * The default time in milliseconds after which no more tasks are started
+     * in a coalesced transaction.
+     */
+    public static final long DEFAULT_COALESCE_MAX_TIME = 10;
+
     // the default priority for tasks
     private static final Priority defaultPriority =
         Priority.getDefaultPriority();
@@ -162,12 +235,19 @@ final class TransactionSchedulerImpl
     // the backing scheduler queue used for ordering tasks
     private final SchedulerQueue backingQueue;
 
+    // the backing queue if it wants to be told about transactions and
+    // conflicts, or null
+    private final ConflictAwareSchedulerQueue conflictQueue;
+
     // the retry policy used for this scheduler
     private final SchedulerRetryPolicy retryPolicy;
 
     // the collector handle used for profiling data
     private final ProfileCollectorHandle profileCollectorHandle;
 
+    // the latencies of tasks taken from the backing queue, by priority
+    private final SchedulerLatencyStats latencyStats;
+
     // the coordinator for all transactional object access
     private final AccessCoordinatorHandle accessCoordinator;
 
@@ -180,6 +260,16 @@ final class TransactionSchedulerImpl
     // the number of requested consumer threads
     private final int requestedThreads;
 
+    // the maximum number of consumer threads
+    private final int maxThreads;
+
+    // the number of consumer threads, including ones that have been
+    // submitted to the executor but have not started yet
+    private final AtomicInteger consumerCount = new AtomicInteger(0);
+
+    // the number of consumer threads that are running a task
+    private final AtomicInteger busyCount = new AtomicInteger(0);
+
     // flag to note that this scheduler has shutdown
     private volatile boolean isShutdown = false;
 
@@ -189,6 +279,16 @@ final class TransactionSchedulerImpl
     // the number of dependent tasks sitting in queues
     private final AtomicInteger dependencyCount = new AtomicInteger(0);
 
+    // the maximum number of dependent tasks to run in one transaction
+    private final int coalesceMaxTasks;
+
+    // the time after which no more tasks are started in a coalesced
+    // transaction
+    private final long coalesceMaxTime;
+
+    // the statistics for coalesced transactions
+    private final TaskCoalescingStats coalescingStats;
+
 
     /**
      * Creates an instance of {@code TransactionSchedulerImpl}.
@@ -230,27 +330,43 @@ final class TransactionSchedulerImpl
         this.transactionCoordinator = transactionCoordinator;
         this.profileCollectorHandle = profileCollectorHandle;
         this.accessCoordinator = accessCoordinator;
+        this.latencyStats =
+            new SchedulerLatencyStats(profileCollectorHandle.getCollector());
         
         this.backingQueue = wrappedProps.getClassInstanceProperty(
                 SCHEDULER_QUEUE_PROPERTY, DEFAULT_SCHEDULER_QUEUE,
                 SchedulerQueue.class, new Class[]{Properties.class},
                 properties);
+        this.conflictQueue =
+            (backingQueue instanceof ConflictAwareSchedulerQueue) ?
+            (ConflictAwareSchedulerQueue) backingQueue : null;
         this.retryPolicy = wrappedProps.getClassInstanceProperty(
                 SCHEDULER_RETRY_PROPERTY, DEFAULT_SCHEDULER_RETRY,
                 SchedulerRetryPolicy.class, new Class[]{Properties.class},
                 properties);
-
-        // startup the requested number of consumer threads
-        // NOTE: this is a simple implmentation to replicate the previous
-        // behvavior, with the assumption that it will change if the
-        // scheduler starts trying to add or drop consumers adaptively
+        this.coalesceMaxTasks = wrappedProps.getIntProperty(
+                COALESCE_MAX_TASKS_PROPERTY, DEFAULT_COALESCE_MAX_TASKS,
+                1, Integer.MAX_VALUE);
+        this.coalesceMaxTime = wrappedProps.getLongProperty(
+                COALESCE_MAX_TIME_PROPERTY, DEFAULT_COALESCE_MAX_TIME,
+                0, Long.MAX_VALUE);
+        this.coalescingStats =
+            new TaskCoalescingStats(profileCollectorHandle.getCollector());
+
+        // startup the requested number of consumer threads, which stay
+        // until shutdown; more consumers are added while all of these are
+        // busy, up to the maximum
         this.requestedThreads =
             Integer.parseInt(properties.getProperty(CONSUMER_THREADS_PROPERTY,
                                                     DEFAULT_CONSUMER_THREADS));
+        this.maxThreads = wrappedProps.getIntProperty(
+                MAX_CONSUMER_THREADS_PROPERTY, requestedThreads,
+                requestedThreads, Integer.MAX_VALUE);
         this.executor = Executors.newCachedThreadPool(
                 new NamedThreadFactory("TransactionScheduler"));
+        consumerCount.set(requestedThreads);
         for (int i = 0; i < requestedThreads; i++) {
-            executor.submit(new TaskConsumer());
+            executor.submit(new TaskConsumer(false));
         }
 
         // initialize the default timeout for scheduled tasks
@@ -263,7 +379,41 @@ final class TransactionSchedulerImpl
                    retryPolicy.getClass().getName() +
                    "\n  " + SCHEDULER_QUEUE_PROPERTY + "=" +
                    backingQueue.getClass().getName() +
-                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads);
+                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads +
+                   "\n  " + MAX_CONSUMER_THREADS_PROPERTY + "=" + maxThreads +
+                   "\n  " + COALESCE_MAX_TASKS_PROPERTY + "=" +
+                   coalesceMaxTasks +
+                   "\n  " + COALESCE_MAX_TIME_PROPERTY + "=" +
+                   coalesceMaxTime);
+    }
+
+    /**
+     * Package-private method used to get the queue backing this scheduler.
+     *
+     * @return the {@code SchedulerQueue} backing this scheduler
+     */
+    SchedulerQueue getBackingQueue() {
+        return backingQueue;
+    }
+
+    /**
+     * Package-private method used to get the latencies of the tasks run by
+     * this scheduler.
+     *
+     * @return the {@code SchedulerLatencyStats} for this scheduler
+     */
+    SchedulerLatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    /**
+     * Package-private method used to get the statistics for transactions
+     * that run more than one task.
+     *
+     * @return the {@code TaskCoalescingStats} for this scheduler
+     */
+    TaskCoalescingStats getCoalescingStats() {
+        return coalescingStats;
     }
 
     /**
@@ -364,6 +514,33 @@ final class TransactionSchedulerImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void scheduleReadOnlyTask(KernelRunnable task, Identity owner) {
+        backingQueue.addTask(new ScheduledTaskImpl.Builder(
+                task, owner, defaultPriority).readOnly(true).build());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void runReadOnlyTask(KernelRunnable task, Identity owner)
+        throws Exception
+    {
+        if (isShutdown) {
+            throw new IllegalStateException("Scheduler is shutdown");
+        }
+        if (ContextResolver.isCurrentTransaction()) {
+            // we're already active in a transaction, so just run the task
+            task.run();
+        } else {
+            ScheduledTaskImpl scheduledTask = new ScheduledTaskImpl.Builder(
+                    task, owner, defaultPriority).readOnly(true).build();
+            waitForTask(scheduledTask);
+        }
+    }
+
     /*
      * Implementations of the PriorityScheduler interface.
      */
@@ -389,6 +566,16 @@ final class TransactionSchedulerImpl
                 task, owner, priority).build());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void scheduleTask(KernelRunnable task, Identity owner,
+                             Priority priority, long deadline)
+    {
+        backingQueue.addTask(new ScheduledTaskImpl.Builder(
+                task, owner, priority).deadline(deadline).build());
+    }
+
     /*
      * Implementations for the ProfileListener interface.
      */
@@ -523,22 +710,57 @@ final class TransactionSchedulerImpl
      */
     private void notifyThreadLeaving() {
         profileCollectorHandle.notifyThreadRemoved();
-        // NOTE: we're not yet trying to adapt the number of threads being
-        // used, so we assume that threads are only lost when the system
-        // wants to shutdown...in practice, this should look at some
-        // threshold and see if another consumer needs to be created
+        // the added consumers leave when there is no more work for them,
+        // but the initial consumers only leave when the system wants to
+        // shutdown, so losing the last thread means we're shutting down
         if (threadCount.decrementAndGet() == 0) {
             logger.log(Level.CONFIG, "No more threads are consuming tasks");
             shutdown();
         }
     }
 
+    /**
+     * Private method that adds another consumer thread if there are tasks
+     * ready to run and the maximum number of consumers has not been reached.
+     * This is called when every consumer is busy running a task.
+     */
+    private void maybeAddConsumer() {
+        if ((maxThreads == requestedThreads) || isShutdown ||
+            (backingQueue.getReadyCount() == 0))
+        {
+            return;
+        }
+        while (true) {
+            int count = consumerCount.get();
+            if (count >= maxThreads) {
+                return;
+            }
+            if (consumerCount.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        try {
+            executor.submit(new TaskConsumer(true));
+        } catch (RejectedExecutionException ree) {
+            // the executor is shutting down
+            consumerCount.decrementAndGet();
+        }
+    }
+
     /**
      * Private {@code Runnable} used to consume tasks as they become available
-     * from the {@code SchedulerQueue}. Once started, it will continue
-     * running until it catches an {@code InterruptedException}.
+     * from the {@code SchedulerQueue}. An initial consumer will continue
+     * running until it catches an {@code InterruptedException}. A consumer
+     * that was added because all others were busy also finishes as soon as
+     * there are no tasks ready to run.
      */
     private class TaskConsumer implements Runnable {
+        // whether this consumer was added because all others were busy
+        private final boolean added;
+        /** Creates an instance of {@code TaskConsumer}. */
+        TaskConsumer(boolean added) {
+            this.added = added;
+        }
         /** {@inheritDoc} */
         public void run() {
             logger.log(Level.FINE, "Starting a consumer for transactions");
@@ -547,26 +769,24 @@ final class TransactionSchedulerImpl
             try {
                 while (true) {
                     // wait for the next task, at which point we may get
-                    // interrupted and should therefore return
+                    // interrupted and should therefore return, or stop
+                    // if this consumer was added and there is no more work
                     ScheduledTaskImpl task =
-                        (ScheduledTaskImpl) (backingQueue.getNextTask(true));
-
-                    // run the task, checking if it completed
-                    if (executeTask(task, true)) {
-                        // if it's a recurring task, schedule the next run
-                        if (task.isRecurring()) {
-                            long nextStart =
-                                 task.getStartTime() + task.getPeriod();
-                            task = new ScheduledTaskImpl.Builder(
-                                    task).startTime(nextStart).build();
-                            backingQueue.addTask(task);
-                        }
-                        // if it has dependent tasks, schedule the next one
-                        TaskQueueImpl queue =
-                                      (TaskQueueImpl) (task.getTaskQueue());
-                        if (queue != null) {
-                            queue.scheduleNextTask();
-                        }
+                        (ScheduledTaskImpl) (backingQueue.getNextTask(!added));
+                    if (task == null) {
+                        logger.log(Level.FINE, "Added consumer is finishing");
+                        return;
+                    }
+
+                    // if this was the last idle consumer, see if another
+                    // one should be started for the tasks behind this one
+                    if (busyCount.incrementAndGet() >= consumerCount.get()) {
+                        maybeAddConsumer();
+                    }
+                    try {
+                        consume(task);
+                    } finally {
+                        busyCount.decrementAndGet();
                     }
                 }
             } catch (InterruptedException ie) {
@@ -578,9 +798,48 @@ final class TransactionSchedulerImpl
                 // never throw an exception that isn't handled
                 logger.logThrow(Level.SEVERE, e, "Fatal error for consumer");
             } finally {
+                consumerCount.decrementAndGet();
                 notifyThreadLeaving();
             }
         }
+        /** Runs a task taken from the backing queue. */
+        private void consume(ScheduledTaskImpl task)
+            throws InterruptedException
+        {
+            if (task.getTryCount() == 0) {
+                latencyStats.taskStarted(task, System.currentTimeMillis());
+            }
+
+            // collect any dependent tasks that can share the task's
+            // transaction
+            TaskQueueImpl taskQueue = (TaskQueueImpl) (task.getTaskQueue());
+            List<ScheduledTaskImpl> coalesced = null;
+            if ((coalesceMaxTasks > 1) && (taskQueue != null) &&
+                (task.getTryCount() == 0))
+            {
+                coalesced =
+                    taskQueue.pollCoalescable(task, coalesceMaxTasks - 1);
+            }
+
+            // run the task, checking if it completed
+            boolean completed = (coalesced == null) ?
+                executeTask(task, true) :
+                executeCoalesced(task, coalesced);
+            if (completed) {
+                // if it's a recurring task, schedule the next run
+                if (task.isRecurring()) {
+                    long nextStart = task.getStartTime() + task.getPeriod();
+                    task = new ScheduledTaskImpl.Builder(
+                            task).startTime(nextStart).build();
+                    backingQueue.addTask(task);
+                }
+                // if it has dependent tasks, schedule the next one
+                TaskQueueImpl queue = (TaskQueueImpl) (task.getTaskQueue());
+                if (queue != null) {
+                    queue.scheduleNextTask();
+                }
+            }
+        }
     }
 
     /**
@@ -634,8 +893,12 @@ final class TransactionSchedulerImpl
                     // setup the transaction state
                     TransactionHandle handle = 
                             transactionCoordinator.createTransaction(
-                            task.getTimeout());
+                            task.getTimeout(), task.isReadOnly());
                     transaction = handle.getTransaction();
+                    if (conflictQueue != null) {
+                        conflictQueue.notifyTransactionStarted(task,
+                                                               transaction);
+                    }
                     ContextResolver.setCurrentTransaction(transaction);
                     
                     try {
@@ -663,6 +926,7 @@ final class TransactionSchedulerImpl
                         throw transaction.getAbortCause();
                     }
                     handle.commit();
+                    notifyTransactionFinished(task, transaction, true);
 
                     // the task completed successfully, so we're done
                     profileCollectorHandle.finishTask(task.getTryCount());
@@ -673,6 +937,7 @@ final class TransactionSchedulerImpl
                     if (!transaction.isAborted()) {
                         transaction.abort(ie);
                     }
+                    notifyTransactionFinished(task, transaction, false);
                     profileCollectorHandle.finishTask(task.getTryCount(), ie);
                     task.setLastFailure(ie);
 
@@ -699,6 +964,7 @@ final class TransactionSchedulerImpl
                     if ((transaction != null) && (!transaction.isAborted())) {
                         transaction.abort(t);
                     }
+                    notifyTransactionFinished(task, transaction, false);
                     profileCollectorHandle.finishTask(task.getTryCount(), t);
                     task.setLastFailure(t);
 
@@ -721,7 +987,7 @@ final class TransactionSchedulerImpl
                             return true;
                         case RETRY_LATER:
                             task.setRunning(false);
-                            if (handoff(task)) {
+                            if (handoff(task, transaction)) {
                                 return false;
                             }
                             break;
@@ -739,6 +1005,237 @@ final class TransactionSchedulerImpl
         }
     }
 
+    /**
+     * Private method that runs a task from a {@code TaskQueue} in the same
+     * transaction as the dependent tasks that were removed from behind it in
+     * the queue. No more tasks are started once {@code coalesceMaxTime}
+     * milliseconds have passed, and tasks that were not started are put back
+     * at the front of the queue. Tasks that are already finished, for
+     * example because they were cancelled, are skipped and dropped. The
+     * transaction is profiled as a run of the first task.
+     * <p>
+     * If the transaction does not commit, then the tasks other than the
+     * first one that were started are put back at the front of the queue
+     * with their try count incremented, so that each of them will be run in
+     * its own transaction, and the first task is run by itself by calling
+     * {@code executeTask}. If the thread is interrupted, then the other tasks
+     * are put back in the queue and the first task is handed off to run in
+     * another thread, as in {@code executeTask}.
+     * <p>
+     * Like {@code executeTask}, this method returns {@code true} if the
+     * first task completed or failed permanently, so that the next task in
+     * the queue can be scheduled, and {@code false} if the first task was
+     * handed off to be re-tried.
+     */
+    private boolean executeCoalesced(ScheduledTaskImpl first,
+                                     List<ScheduledTaskImpl> rest)
+        throws InterruptedException
+    {
+        logger.log(Level.FINEST, "starting a coalesced transaction");
+        TaskQueueImpl taskQueue = (TaskQueueImpl) (first.getTaskQueue());
+        if (!first.setRunning(true)) {
+            // this task is already finished
+            taskQueue.requeue(rest);
+            return true;
+        }
+
+        // store the current owner, and then push the new thread detail
+        Identity parent = ContextResolver.getCurrentOwner();
+        ContextResolver.setTaskState(kernelContext, first.getOwner());
+
+        // the tasks after the first one that were started, and the number
+        // of tasks after the first one that were either started or skipped
+        // because they were already finished
+        List<ScheduledTaskImpl> started = new ArrayList<ScheduledTaskImpl>();
+        int processed = 0;
+        Throwable failure = null;
+        try {
+            int waitSize =
+                backingQueue.getReadyCount() +
+                dependencyCount.get();
+            profileCollectorHandle.startTask(first.getTask(),
+                                             first.getOwner(),
+                                             first.getStartTime(),
+                                             waitSize);
+            first.incrementTryCount();
+
+            Transaction transaction = null;
+
+            try {
+                // setup the transaction state
+                TransactionHandle handle =
+                        transactionCoordinator.createTransaction(
+                        first.getTimeout(), first.isReadOnly());
+                transaction = handle.getTransaction();
+                if (conflictQueue != null) {
+                    conflictQueue.notifyTransactionStarted(first,
+                                                           transaction);
+                }
+                ContextResolver.setCurrentTransaction(transaction);
+
+                try {
+                    // notify the profiler and access coordinator
+                    profileCollectorHandle.noteTransactional(
+                                                transaction.getId());
+                    accessCoordinator.
+                        notifyNewTransaction(transaction,
+                                             first.getStartTime(),
+                                             first.getTryCount());
+
+                    // run the tasks, in order, until the time is up
+                    long stop = System.currentTimeMillis() + coalesceMaxTime;
+                    first.getTask().run();
+                    for (ScheduledTaskImpl task : rest) {
+                        long now = System.currentTimeMillis();
+                        if ((now >= stop) || transaction.isAborted()) {
+                            break;
+                        }
+                        processed++;
+                        if (!task.setRunning(true)) {
+                            // this task is already finished
+                            continue;
+                        }
+                        latencyStats.taskStarted(task, now);
+                        started.add(task);
+                        task.getTask().run();
+                    }
+                } finally {
+                    // regardless of the outcome, always clear the current
+                    // transaction state before proceeding...
+                    ContextResolver.clearCurrentTransaction(transaction);
+                }
+
+                // check for a masked failure before trying to commit
+                if (transaction.isAborted()) {
+                    throw transaction.getAbortCause();
+                }
+                handle.commit();
+                notifyTransactionFinished(first, transaction, true);
+
+                // all of the tasks that were started are done
+                profileCollectorHandle.finishTask(first.getTryCount());
+                coalescingStats.committed(started.size() + 1);
+                first.setDone(null);
+                for (ScheduledTaskImpl task : started) {
+                    task.setDone(null);
+                }
+                taskQueue.requeue(rest.subList(processed, rest.size()));
+                return true;
+            } catch (InterruptedException ie) {
+                // make sure the transaction was aborted
+                if ((transaction != null) && (!transaction.isAborted())) {
+                    transaction.abort(ie);
+                }
+                notifyTransactionFinished(first, transaction, false);
+                profileCollectorHandle.finishTask(first.getTryCount(), ie);
+                first.setLastFailure(ie);
+                for (ScheduledTaskImpl task : started) {
+                    task.setRunning(false);
+                }
+                taskQueue.requeue(unfinished(started, rest, processed));
+
+                // re-queue the first task to run in a usable thread
+                if (first.setInterrupted() && !handoff(first)) {
+                    first.setDone(ie);
+                    if (logger.isLoggable(Level.WARNING)) {
+                        logger.logThrow(Level.WARNING, ie,
+                                        "dropping an interrupted task: {0}",
+                                        first);
+                    }
+                }
+                throw ie;
+            } catch (Throwable t) {
+                // make sure the transaction was aborted
+                if ((transaction != null) && (!transaction.isAborted())) {
+                    transaction.abort(t);
+                }
+                notifyTransactionFinished(first, transaction, false);
+                profileCollectorHandle.finishTask(first.getTryCount(), t);
+                failure = t;
+            }
+        } finally {
+            // always restore the previous owner before leaving...
+            ContextResolver.setTaskState(kernelContext, parent);
+        }
+
+        // the transaction aborted, so split it up: the other tasks that
+        // were started will not be coalesced again because they have been
+        // tried, and the first task is run by itself
+        coalescingStats.split();
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.logThrow(Level.FINEST, failure,
+                            "splitting a coalesced transaction of {0} tasks",
+                            started.size() + 1);
+        }
+        for (ScheduledTaskImpl task : started) {
+            task.incrementTryCount();
+            task.setLastFailure(failure);
+            task.setRunning(false);
+        }
+        taskQueue.requeue(unfinished(started, rest, processed));
+        first.setLastFailure(failure);
+        first.setRunning(false);
+        return executeTask(first, true);
+    }
+
+    /**
+     * Returns the tasks from a coalesced transaction that still need to be
+     * run: the tasks that were started, followed by the tasks after the
+     * first {@code processed} tasks in {@code rest}.  Tasks that were skipped
+     * because they were already finished are left out.
+     */
+    private static List<ScheduledTaskImpl> unfinished(
+        List<ScheduledTaskImpl> started, List<ScheduledTaskImpl> rest,
+        int processed)
+    {
+        List<ScheduledTaskImpl> result =
+            new ArrayList<ScheduledTaskImpl>(started);
+        result.addAll(rest.subList(processed, rest.size()));
+        return result;
+    }
+
+    /**
+     * Notifies the backing queue, if it is conflict-aware, that a transaction
+     * started by {@code executeTask} has finished.  Does nothing if the
+     * transaction was never created.
+     *
+     * @param task the task that was run
+     * @param transaction the transaction for the task, or {@code null}
+     * @param committed whether the transaction committed
+     */
+    private void notifyTransactionFinished(ScheduledTaskImpl task,
+                                           Transaction transaction,
+                                           boolean committed)
+    {
+        if ((conflictQueue != null) && (transaction != null)) {
+            conflictQueue.notifyTransactionFinished(task, transaction,
+                                                    committed);
+        }
+    }
+
+    /**
+     * Hands off a task that aborted to the backing queue.  If the backing
+     * queue is conflict-aware, then the task is parked behind the
+     * transaction that caused {@code transaction} to abort, if that
+     * transaction is still active.
+     *
+     * @param task the task to handoff
+     * @param transaction the transaction that aborted, or {@code null}
+     * @return {@code true} if handoff was successful, {@code false} otherwise
+     */
+    private boolean handoff(ScheduledTaskImpl task, Transaction transaction) {
+        if ((conflictQueue == null) || (transaction == null)) {
+            return handoff(task);
+        }
+        try {
+            conflictQueue.parkTask(
+                task, accessCoordinator.getConflictingTransaction(transaction));
+            return true;
+        } catch (TaskRejectedException tre) {
+            return false;
+        }
+    }
+
     /**
      * Hands off the task to the backing queue.
      *
@@ -756,7 +1253,7 @@ final class TransactionSchedulerImpl
 
     /** Private implementation of {@code TaskQueue}. */
     private final class TaskQueueImpl implements TaskQueue {
-        private final Queue<ScheduledTaskImpl> queue =
+        private final LinkedList<ScheduledTaskImpl> queue =
             new LinkedList<ScheduledTaskImpl>();
         private boolean inScheduler = false;
         /** {@inheritDoc} */
@@ -791,6 +1288,50 @@ final class TransactionSchedulerImpl
                 }
             }
         }
+        /**
+         * Private method to remove up to {@code max} tasks from the front of
+         * the queue that can run in the same transaction as {@code task},
+         * returning {@code null} if there are none. Tasks can share the
+         * transaction if they have the same owner and read-only setting,
+         * and have not been tried before.
+         */
+        List<ScheduledTaskImpl> pollCoalescable(ScheduledTaskImpl task,
+                                                int max)
+        {
+            List<ScheduledTaskImpl> result = null;
+            synchronized (this) {
+                while (max > 0) {
+                    ScheduledTaskImpl next = queue.peek();
+                    if ((next == null) ||
+                        (next.getTryCount() != 0) ||
+                        (next.isReadOnly() != task.isReadOnly()) ||
+                        (!next.getOwner().equals(task.getOwner())))
+                    {
+                        break;
+                    }
+                    if (result == null) {
+                        result = new ArrayList<ScheduledTaskImpl>();
+                    }
+                    result.add(queue.poll());
+                    dependencyCount.decrementAndGet();
+                    max--;
+                }
+            }
+            return result;
+        }
+        /**
+         * Private method to put tasks back at the front of the queue, in
+         * order, so that they run before any tasks added since they were
+         * removed.
+         */
+        void requeue(List<ScheduledTaskImpl> tasks) {
+            synchronized (this) {
+                for (int i = tasks.size() - 1; i >= 0; i--) {
+                    dependencyCount.incrementAndGet();
+                    queue.addFirst(tasks.get(i));
+                }
+            }
+        }
     }
 
 }
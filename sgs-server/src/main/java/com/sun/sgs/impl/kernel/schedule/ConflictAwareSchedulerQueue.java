@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.TaskRejectedException;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerQueue;
+import com.sun.sgs.service.Transaction;
+
+/**
+ * A {@code SchedulerQueue} that is told about the transactions that the
+ * scheduler runs, so that it can hold back a task that aborted because of a
+ * conflict until the transaction it conflicted with has completed.  The
+ * scheduler calls {@link #notifyTransactionStarted notifyTransactionStarted}
+ * and {@link #notifyTransactionFinished notifyTransactionFinished} for every
+ * transaction it runs, and calls {@link #parkTask parkTask} instead of {@link
+ * #addTask addTask} when re-queueing a task that should be retried later.
+ */
+public interface ConflictAwareSchedulerQueue extends SchedulerQueue {
+
+    /**
+     * Notifies the queue that a transaction has been started for a task.
+     *
+     * @param task the task being run
+     * @param txn the transaction for the task
+     */
+    void notifyTransactionStarted(ScheduledTask task, Transaction txn);
+
+    /**
+     * Notifies the queue that a transaction previously passed to {@link
+     * #notifyTransactionStarted notifyTransactionStarted} has committed or
+     * aborted.  The transaction's locks will have been released by the time
+     * this method is called.
+     *
+     * @param task the task that was run
+     * @param txn the transaction for the task
+     * @param committed whether the transaction committed
+     */
+    void notifyTransactionFinished(ScheduledTask task, Transaction txn,
+                                   boolean committed);
+
+    /**
+     * Adds a task that should be retried after the given conflicting
+     * transaction completes.  If {@code conflictingTxn} is {@code null}, or
+     * has already finished, then the task is added to the queue immediately.
+     *
+     * @param task the task to add
+     * @param conflictingTxn the transaction that caused the task to abort,
+     *                       or {@code null}
+     *
+     * @throws TaskRejectedException if the task is added immediately and the
+     *                               queue rejects it
+     */
+    void parkTask(ScheduledTask task, Transaction conflictingTxn);
+
+}
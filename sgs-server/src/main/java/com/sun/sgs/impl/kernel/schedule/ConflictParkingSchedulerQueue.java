@@ -0,0 +1,339 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.TaskRejectedException;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+
+import com.sun.sgs.kernel.RecurringTaskHandle;
+import com.sun.sgs.kernel.TaskReservation;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerQueue;
+
+import com.sun.sgs.management.ConflictSchedulerMXBean;
+
+import com.sun.sgs.service.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A {@code ConflictAwareSchedulerQueue} that parks tasks which aborted
+ * because of a conflict until the transaction they conflicted with has
+ * completed, rather than letting them retry, and most likely conflict again,
+ * while that transaction still holds its locks.  Parked tasks are released
+ * to the backing queue in the order they were parked when the conflicting
+ * transaction commits or aborts.  All other operations are passed to the
+ * backing queue.  This queue is intended to be used with the {@link
+ * ConflictRetryPolicy}, which requests that conflicting tasks be retried
+ * later.  This class supports the following configuration properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #BACKING_QUEUE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_BACKING_QUEUE}
+ *
+ * <dd style="padding-top: .5em">The implementation class of the queue used
+ *      to order tasks that are not parked.  The value of this property
+ *      should be the name of a public, non-abstract class that implements
+ *      the {@link SchedulerQueue} interface, and that provides a public
+ *      constructor with the parameters {@link Properties}.
+ *
+ * </dl> <p>
+ *
+ * This class also implements {@link ConflictSchedulerMXBean} to report the
+ * number of tasks that were parked and the number of retries that parking
+ * saved.
+ */
+public class ConflictParkingSchedulerQueue
+    implements ConflictAwareSchedulerQueue, ConflictSchedulerMXBean
+{
+
+    // logger for this class
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(ConflictParkingSchedulerQueue.
+                                           class.getName()));
+
+    /**
+     * The property used to define the queue that orders tasks that are not
+     * parked.
+     */
+    static final String BACKING_QUEUE_PROPERTY =
+            "com.sun.sgs.impl.kernel.schedule.conflict.backing.queue";
+
+    /**
+     * The default backing queue.
+     */
+    static final String DEFAULT_BACKING_QUEUE =
+            "com.sun.sgs.impl.kernel.schedule.FIFOSchedulerQueue";
+
+    // the queue used for tasks that are not parked
+    private final SchedulerQueue backingQueue;
+
+    // the transactions currently being run, mapped to the tasks parked
+    // behind them
+    private final ConcurrentMap<Transaction, Waiters> activeTxns =
+        new ConcurrentHashMap<Transaction, Waiters>();
+
+    // the tasks that have been released and have not yet started running
+    private final ConcurrentMap<ScheduledTask, Boolean> releasedTasks =
+        new ConcurrentHashMap<ScheduledTask, Boolean>();
+
+    // statistics reported through ConflictSchedulerMXBean
+    private final AtomicLong parkedCount = new AtomicLong();
+    private final AtomicInteger currentParkedCount = new AtomicInteger();
+    private final AtomicLong releasedCount = new AtomicLong();
+    private final AtomicLong savedRetryCount = new AtomicLong();
+
+    /**
+     * Creates an instance of {@code ConflictParkingSchedulerQueue}.
+     *
+     * @param properties the available system properties
+     */
+    public ConflictParkingSchedulerQueue(Properties properties) {
+        logger.log(Level.CONFIG, "Creating a Conflict Parking Scheduler Queue");
+
+        if (properties == null) {
+            throw new NullPointerException("Properties cannot be null");
+        }
+
+        PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+        backingQueue = wrappedProps.getClassInstanceProperty(
+                BACKING_QUEUE_PROPERTY, DEFAULT_BACKING_QUEUE,
+                SchedulerQueue.class, new Class[]{Properties.class},
+                properties);
+
+        logger.log(Level.CONFIG,
+                   "Created ConflictParkingSchedulerQueue with properties:" +
+                   "\n  " + BACKING_QUEUE_PROPERTY + "=" +
+                   backingQueue.getClass().getName());
+    }
+
+    /*
+     * Implementations of the SchedulerQueue interface.
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Parked tasks are not counted as ready.
+     */
+    public int getReadyCount() {
+        return backingQueue.getReadyCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScheduledTask getNextTask(boolean wait)
+        throws InterruptedException
+    {
+        return backingQueue.getNextTask(wait);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getNextTasks(Collection<? super ScheduledTask> tasks, int max) {
+        return backingQueue.getNextTasks(tasks, max);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TaskReservation reserveTask(ScheduledTask task) {
+        return backingQueue.reserveTask(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addTask(ScheduledTask task) {
+        backingQueue.addTask(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecurringTaskHandle createRecurringTaskHandle(ScheduledTask task) {
+        return backingQueue.createRecurringTaskHandle(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A cancelled task that is parked stays parked until it is released, at
+     * which point the scheduler will discard it.
+     */
+    public void notifyCancelled(ScheduledTask task) {
+        releasedTasks.remove(task);
+        backingQueue.notifyCancelled(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Any tasks that are still parked are discarded.
+     */
+    public void shutdown() {
+        activeTxns.clear();
+        releasedTasks.clear();
+        backingQueue.shutdown();
+    }
+
+    /*
+     * Implementations of the ConflictAwareSchedulerQueue interface.
+     */
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyTransactionStarted(ScheduledTask task, Transaction txn) {
+        boolean released = releasedTasks.remove(task) != null;
+        activeTxns.put(txn, new Waiters(released));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyTransactionFinished(ScheduledTask task, Transaction txn,
+                                          boolean committed)
+    {
+        Waiters waiters = activeTxns.remove(txn);
+        if (waiters == null) {
+            return;
+        }
+        if (committed && waiters.released) {
+            savedRetryCount.incrementAndGet();
+        }
+        List<ScheduledTask> tasks = waiters.finish();
+        if (tasks == null) {
+            return;
+        }
+        releasedCount.addAndGet(tasks.size());
+        for (ScheduledTask parked : tasks) {
+            releasedTasks.put(parked, Boolean.TRUE);
+            try {
+                backingQueue.addTask(parked);
+            } catch (TaskRejectedException tre) {
+                // there is no scheduler thread left to retry the task, so
+                // the only choice is to cancel it
+                releasedTasks.remove(parked);
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.logThrow(Level.WARNING, tre,
+                                    "dropping a parked task: {0}", parked);
+                }
+                parked.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void parkTask(ScheduledTask task, Transaction conflictingTxn) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+        Waiters waiters =
+            (conflictingTxn == null) ? null : activeTxns.get(conflictingTxn);
+        if ((waiters == null) || (!waiters.park(task))) {
+            backingQueue.addTask(task);
+        } else {
+            parkedCount.incrementAndGet();
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.log(Level.FINEST, "parked task {0} behind {1}",
+                           task, conflictingTxn);
+            }
+        }
+    }
+
+    /*
+     * Implementations of the ConflictSchedulerMXBean interface.
+     */
+
+    /** {@inheritDoc} */
+    public long getParkedTaskCount() {
+        return parkedCount.get();
+    }
+
+    /** {@inheritDoc} */
+    public int getCurrentParkedTaskCount() {
+        return currentParkedCount.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getReleasedTaskCount() {
+        return releasedCount.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getSavedRetryCount() {
+        return savedRetryCount.get();
+    }
+
+    /**
+     * Private class that holds the tasks parked behind an active
+     * transaction.
+     */
+    private final class Waiters {
+        // whether the task running the transaction had been parked
+        final boolean released;
+        // the parked tasks, in order, or null if there are none
+        private List<ScheduledTask> tasks = null;
+        // whether the transaction has finished
+        private boolean finished = false;
+        Waiters(boolean released) {
+            this.released = released;
+        }
+        /**
+         * Parks a task, returning {@code false} if the transaction has
+         * already finished.
+         */
+        synchronized boolean park(ScheduledTask task) {
+            if (finished) {
+                return false;
+            }
+            if (tasks == null) {
+                tasks = new ArrayList<ScheduledTask>(2);
+            }
+            tasks.add(task);
+            currentParkedCount.incrementAndGet();
+            return true;
+        }
+        /**
+         * Marks the transaction finished and returns the parked tasks, or
+         * {@code null} if there are none.
+         */
+        synchronized List<ScheduledTask> finish() {
+            finished = true;
+            List<ScheduledTask> result = tasks;
+            tasks = null;
+            if (result != null) {
+                currentParkedCount.addAndGet(-result.size());
+            }
+            return result;
+        }
+    }
+
+}
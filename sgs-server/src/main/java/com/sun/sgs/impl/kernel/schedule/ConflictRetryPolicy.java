@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.app.TransactionTimeoutException;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
+import java.util.Properties;
+
+/**
+ * A {@code SchedulerRetryPolicy} that works like the {@link
+ * NowOrLaterRetryPolicy}, except that a task that failed with a retryable
+ * {@link TransactionConflictException} or {@link TransactionTimeoutException}
+ * is always scheduled to be retried later rather than immediately.  Timeouts
+ * are included because a transaction that times out waiting for a lock
+ * also records the transaction holding the lock.  When used together with a
+ * {@link ConflictAwareSchedulerQueue} such as the {@link
+ * ConflictParkingSchedulerQueue}, this causes the task to wait for the
+ * transaction it conflicted with to complete before it is retried.  This
+ * class supports the same configuration properties as {@code
+ * NowOrLaterRetryPolicy}.
+ */
+public class ConflictRetryPolicy extends NowOrLaterRetryPolicy {
+
+    /**
+     * Constructs a {@code ConflictRetryPolicy}.
+     *
+     * @param properties the system properties available
+     */
+    public ConflictRetryPolicy(Properties properties) {
+        super(properties);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns a value of {@link
+     * SchedulerRetryAction#RETRY_LATER} for any task that has most recently
+     * failed with a retryable {@code TransactionConflictException} or {@code
+     * TransactionTimeoutException}, and otherwise behaves like {@code
+     * NowOrLaterRetryPolicy}.
+     */
+    @Override
+    public SchedulerRetryAction getRetryAction(ScheduledTask task) {
+        SchedulerRetryAction action = super.getRetryAction(task);
+        Throwable result = task.getLastFailure();
+        if ((action == SchedulerRetryAction.RETRY_NOW) &&
+            (result instanceof TransactionConflictException ||
+             result instanceof TransactionTimeoutException))
+        {
+            return SchedulerRetryAction.RETRY_LATER;
+        }
+        return action;
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.TaskRejectedException;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+
+import com.sun.sgs.kernel.Priority;
+import com.sun.sgs.kernel.RecurringTaskHandle;
+import com.sun.sgs.kernel.TaskReservation;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerQueue;
+
+import java.util.Collection;
+import java.util.Properties;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A {@code SchedulerQueue} that orders ready tasks by their {@link
+ * Priority}, so that latency-critical tasks are not kept waiting behind
+ * background tasks.  Each ready task is assigned a target time, which is
+ * the time it was scheduled to start plus an allowance that grows as its
+ * priority decreases: tasks with priority {@link Priority#HIGH HIGH} get no
+ * allowance, and each lower priority level adds the aging interval.  Tasks
+ * are run in order of their target times, with ties broken by the order in
+ * which the tasks became ready.
+ * <p>
+ * Because the allowance is bounded, a task ages while it waits: once it has
+ * waited for its allowance, it is run ahead of any higher priority task that
+ * becomes ready later, so low priority tasks are not starved by a steady
+ * stream of high priority tasks.  If a task has a {@link
+ * ScheduledTask#getDeadline deadline} that is earlier than its target time,
+ * the deadline is used instead.  This class supports the following
+ * configuration properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #AGING_INTERVAL_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_AGING_INTERVAL}
+ *
+ * <dd style="padding-top: .5em">The number of milliseconds a ready task
+ *      must wait to be run ahead of tasks with the next higher priority that
+ *      become ready after it.  This value must be greater than or equal to
+ *      {@code 0}.  A value of {@code 0} runs tasks in the order they became
+ *      ready, ignoring priority.
+ *
+ * </dl> <p>
+ */
+public class PrioritySchedulerQueue
+    implements SchedulerQueue, TimedTaskListener
+{
+
+    // logger for this class
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(PrioritySchedulerQueue.
+                                           class.getName()));
+
+    /**
+     * The property used to define the aging interval, in milliseconds.
+     */
+    static final String AGING_INTERVAL_PROPERTY =
+            "com.sun.sgs.impl.kernel.schedule.priority.aging.interval";
+
+    /**
+     * The default aging interval, in milliseconds.
+     */
+    static final long DEFAULT_AGING_INTERVAL = 50L;
+
+    // the queue of ready tasks, ordered by target time
+    private final PriorityBlockingQueue<QueueElement> queue =
+        new PriorityBlockingQueue<QueueElement>();
+
+    // the number of tasks that have become ready, used to order tasks with
+    // the same target time
+    private final AtomicLong readySequence = new AtomicLong(0);
+
+    // the allowance added for each priority level below HIGH
+    private final long agingInterval;
+
+    // the handler for all delayed tasks
+    private final TimedTaskHandler timedTaskHandler;
+
+    /**
+     * Creates an instance of {@code PrioritySchedulerQueue}.
+     *
+     * @param properties the available system properties
+     */
+    public PrioritySchedulerQueue(Properties properties) {
+        logger.log(Level.CONFIG, "Creating a Priority Scheduler Queue");
+
+        if (properties == null) {
+            throw new NullPointerException("Properties cannot be null");
+        }
+
+        PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+        agingInterval = wrappedProps.getLongProperty(
+                AGING_INTERVAL_PROPERTY, DEFAULT_AGING_INTERVAL,
+                0, Long.MAX_VALUE / Priority.values().length);
+        timedTaskHandler = new TimedTaskHandler(this);
+
+        logger.log(Level.CONFIG,
+                   "Created PrioritySchedulerQueue with properties:" +
+                   "\n  " + AGING_INTERVAL_PROPERTY + "=" + agingInterval);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getReadyCount() {
+        return queue.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScheduledTask getNextTask(boolean wait)
+        throws InterruptedException
+    {
+        QueueElement element = queue.poll();
+        if (element != null) {
+            return element.task;
+        }
+        if (!wait) {
+            return null;
+        }
+        return queue.take().task;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getNextTasks(Collection<? super ScheduledTask> tasks, int max) {
+        for (int i = 0; i < max; i++) {
+            QueueElement element = queue.poll();
+            if (element == null) {
+                return i;
+            }
+            tasks.add(element.task);
+        }
+        return max;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TaskReservation reserveTask(ScheduledTask task) {
+        if (task.isRecurring()) {
+            throw new TaskRejectedException("Recurring tasks cannot get " +
+                                            "reservations");
+        }
+
+        return new SimpleTaskReservation(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addTask(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+
+        if (!timedTaskHandler.runDelayed(task)) {
+            timedTaskReady(task);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecurringTaskHandle createRecurringTaskHandle(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+        if (!task.isRecurring()) {
+            throw new IllegalArgumentException("Not a recurring task");
+        }
+
+        return new RecurringTaskHandleImpl(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyCancelled(ScheduledTask task) {
+        // cancelled tasks are dropped by the scheduler when they are
+        // taken from the queue
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void timedTaskReady(ScheduledTask task) {
+        queue.offer(new QueueElement(getTargetTime(task),
+                                     readySequence.getAndIncrement(),
+                                     task));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void shutdown() {
+        timedTaskHandler.shutdown();
+    }
+
+    /**
+     * Returns the time by which the given task should be run: the time it
+     * was scheduled to start plus the allowance for its priority, or its
+     * deadline if that is earlier.
+     *
+     * @param task the task
+     * @return the target time for the task
+     */
+    long getTargetTime(ScheduledTask task) {
+        long target = task.getStartTime() +
+            (task.getPriority().ordinal() * agingInterval);
+        long deadline = task.getDeadline();
+        if ((deadline != ScheduledTask.NO_DEADLINE) && (deadline < target)) {
+            target = deadline;
+        }
+        return target;
+    }
+
+    // Private class used to order tasks in the queue
+    private static final class QueueElement
+        implements Comparable<QueueElement>
+    {
+        final long target;
+        final long sequence;
+        final ScheduledTask task;
+        QueueElement(long target, long sequence, ScheduledTask task) {
+            this.target = target;
+            this.sequence = sequence;
+            this.task = task;
+        }
+        /** {@inheritDoc} */
+        public int compareTo(QueueElement other) {
+            if (target != other.target) {
+                return (target < other.target) ? -1 : 1;
+            }
+            if (sequence != other.sequence) {
+                return (sequence < other.sequence) ? -1 : 1;
+            }
+            return 0;
+        }
+        /** {@inheritDoc} */
+        public boolean equals(Object o) {
+            if (!(o instanceof QueueElement)) {
+                return false;
+            }
+            QueueElement other = (QueueElement) o;
+            return (target == other.target) && (sequence == other.sequence);
+        }
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return (int) (sequence ^ (sequence >>> 32));
+        }
+    }
+
+}
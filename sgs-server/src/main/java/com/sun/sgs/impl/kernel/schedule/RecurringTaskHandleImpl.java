@@ -25,13 +25,13 @@ import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.kernel.schedule.SchedulerQueue;
 import com.sun.sgs.kernel.RecurringTaskHandle;
 
-import java.util.TimerTask;
+import com.sun.sgs.impl.util.TimingWheel;
 
 
 /**
  * Simple implementation of <code>RecurringTaskHandle</code> that lets
- * the handle be associated with a <code>TimerTask</code> so that cancelling
- * the handle also cancels the associated <code>TimerTask</code>.
+ * the handle be associated with a <code>TimingWheel.Timeout</code> so that
+ * cancelling the handle also cancels the associated timer.
  */
 class RecurringTaskHandleImpl implements RecurringTaskHandle {
 
@@ -41,8 +41,8 @@ class RecurringTaskHandleImpl implements RecurringTaskHandle {
     // the actual task to run
     private ScheduledTask task;
 
-    // the associated timer task
-    private TimerTask currentTimerTask = null;
+    // the associated timer
+    private TimingWheel.Timeout currentTimeout = null;
 
     // whether or not this task has been cancelled;  synchronize on this
     // handle before using this field
@@ -77,24 +77,24 @@ class RecurringTaskHandleImpl implements RecurringTaskHandle {
     }
 
     /**
-     * Sets the associated <code>TimerTask</code> for this handle. This
-     * method may be called any number of times on a handle. Typically
-     * a recurring task will re-set the associated <code>TimerTask</code>
-     * with each recurrence of execution.
+     * Sets the associated <code>TimingWheel.Timeout</code> for this handle.
+     * This method may be called any number of times on a handle. Typically
+     * a recurring task will re-set the associated timer with each recurrence
+     * of execution.
      *
-     * @param timerTask the associated <code>TimerTask</code>
+     * @param timeout the associated <code>TimingWheel.Timeout</code>
      */
-    synchronized void setTimerTask(TimerTask timerTask) {
-        if (timerTask == null) {
-            throw new NullPointerException("TimerTask cannot be null");
+    synchronized void setTimeout(TimingWheel.Timeout timeout) {
+        if (timeout == null) {
+            throw new NullPointerException("Timeout cannot be null");
         }
 
-        currentTimerTask = timerTask;
+        currentTimeout = timeout;
     }
 
     /**
      * Returns whether this handle has been cancelled. This does not say
-     * anything about the state of any associated <code>TimerTask</code>.
+     * anything about the state of any associated timer.
      *
      * @return <code>true</code> if this handle has been cancelled,
      *         <code>false</code> otherwise
@@ -105,7 +105,7 @@ class RecurringTaskHandleImpl implements RecurringTaskHandle {
 
     /**
      * Cancels this handle, which will also cancel the associated
-     * <code>TimerTask</code> and notify the <code>SchedulerQueue</code>
+     * timer and notify the <code>SchedulerQueue</code>
      * about the task being cancelled. If this handle has already been
      * cancelled, then an exception is thrown.
      *
@@ -121,8 +121,12 @@ class RecurringTaskHandleImpl implements RecurringTaskHandle {
         if (task.cancel(false)) {
             queue.notifyCancelled(task);
         }
-        if (currentTimerTask != null) {
-            currentTimerTask.cancel();
+        TimingWheel.Timeout timeout;
+        synchronized (this) {
+            timeout = currentTimeout;
+        }
+        if (timeout != null) {
+            timeout.cancel();
         }
     }
 
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.TaskRejectedException;
+
+import com.sun.sgs.auth.Identity;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+
+import com.sun.sgs.kernel.RecurringTaskHandle;
+import com.sun.sgs.kernel.TaskReservation;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerQueue;
+
+import java.util.Collection;
+import java.util.Properties;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A {@code SchedulerQueue} that spreads ready tasks over several shards
+ * instead of keeping them in a single queue shared by all consumers.  Each
+ * task is added to the shard chosen by the hash code of its owner, so tasks
+ * of the same owner tend to be run by the same consumer thread.  Each thread
+ * that consumes tasks is assigned a home shard the first time it asks for a
+ * task, and takes tasks from that shard in the order they were added.  When
+ * its home shard is empty, a consumer steals tasks from the other shards, so
+ * no task waits while a consumer is idle.  As with {@link
+ * FIFOSchedulerQueue}, no attempt is made to support priority.  This class
+ * supports the following configuration properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #SHARDS_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> the value of the {@code
+ *	com.sun.sgs.impl.kernel.transaction.threads} property, if specified,
+ *	otherwise {@value #DEFAULT_SHARDS}
+ *
+ * <dd style="padding-top: .5em">The number of shards.  Using one shard per
+ *      consumer thread gives each consumer its own shard.  This value must be
+ *      greater than or equal to {@code 1}.
+ *
+ * </dl> <p>
+ */
+public class ShardedSchedulerQueue
+    implements SchedulerQueue, TimedTaskListener
+{
+
+    // logger for this class
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(ShardedSchedulerQueue.
+                                           class.getName()));
+
+    /**
+     * The property used to define the number of shards.
+     */
+    static final String SHARDS_PROPERTY =
+            "com.sun.sgs.impl.kernel.schedule.sharded.shards";
+
+    /**
+     * The default number of shards if the number of consumer threads is not
+     * specified.
+     */
+    static final int DEFAULT_SHARDS = 4;
+
+    // the property that specifies the number of consumer threads
+    private static final String CONSUMER_THREADS_PROPERTY =
+            "com.sun.sgs.impl.kernel.transaction.threads";
+
+    // the shards of ready tasks
+    private final Shard[] shards;
+
+    // the number of ready tasks in all shards
+    private final AtomicInteger readyCount = new AtomicInteger(0);
+
+    // the number of consumers waiting for a task
+    private final AtomicInteger sleepers = new AtomicInteger(0);
+
+    // the lock used by waiting consumers
+    private final Object sleepLock = new Object();
+
+    // the next home shard to hand out to a consumer thread
+    private final AtomicInteger nextHomeShard = new AtomicInteger(0);
+
+    // the home shard of the current consumer thread, or null if the thread
+    // has not yet asked for a task
+    private final ThreadLocal<Integer> homeShard = new ThreadLocal<Integer>();
+
+    // the handler for all delayed tasks
+    private final TimedTaskHandler timedTaskHandler;
+
+    /**
+     * Creates an instance of {@code ShardedSchedulerQueue}.
+     *
+     * @param properties the available system properties
+     */
+    public ShardedSchedulerQueue(Properties properties) {
+        logger.log(Level.CONFIG, "Creating a Sharded Scheduler Queue");
+
+        if (properties == null) {
+            throw new NullPointerException("Properties cannot be null");
+        }
+
+        PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+        int defaultShards = wrappedProps.getIntProperty(
+                CONSUMER_THREADS_PROPERTY, DEFAULT_SHARDS,
+                1, Integer.MAX_VALUE);
+        int numShards = wrappedProps.getIntProperty(
+                SHARDS_PROPERTY, defaultShards, 1, Integer.MAX_VALUE);
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard();
+        }
+        timedTaskHandler = new TimedTaskHandler(this);
+
+        logger.log(Level.CONFIG,
+                   "Created ShardedSchedulerQueue with properties:" +
+                   "\n  " + SHARDS_PROPERTY + "=" + numShards);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getReadyCount() {
+        // the count can be briefly negative if a task is removed before
+        // the thread that added it has incremented the count
+        return Math.max(0, readyCount.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScheduledTask getNextTask(boolean wait)
+        throws InterruptedException
+    {
+        int home = getHomeShard();
+        ScheduledTask task = poll(home);
+        if ((task != null) || (!wait)) {
+            return task;
+        }
+        sleepers.incrementAndGet();
+        try {
+            synchronized (sleepLock) {
+                // check again while holding the lock, so that a task added
+                // after this check will notify the lock
+                while ((task = poll(home)) == null) {
+                    sleepLock.wait();
+                }
+            }
+        } finally {
+            sleepers.decrementAndGet();
+        }
+        return task;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getNextTasks(Collection<? super ScheduledTask> tasks, int max) {
+        int home = getHomeShard();
+        int count = 0;
+        while (count < max) {
+            ScheduledTask task = poll(home);
+            if (task == null) {
+                break;
+            }
+            tasks.add(task);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TaskReservation reserveTask(ScheduledTask task) {
+        if (task.isRecurring()) {
+            throw new TaskRejectedException("Recurring tasks cannot get " +
+                                            "reservations");
+        }
+
+        return new SimpleTaskReservation(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addTask(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+
+        if (!timedTaskHandler.runDelayed(task)) {
+            timedTaskReady(task);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecurringTaskHandle createRecurringTaskHandle(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+        if (!task.isRecurring()) {
+            throw new IllegalArgumentException("Not a recurring task");
+        }
+
+        return new RecurringTaskHandleImpl(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyCancelled(ScheduledTask task) {
+        // a task is only ever added to its owner's shard, so that is the
+        // only shard to search
+        if (shards[getShard(task.getOwner())].tasks.remove(task)) {
+            readyCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void timedTaskReady(ScheduledTask task) {
+        // the shards are unbounded, so this always succeeds
+        shards[getShard(task.getOwner())].tasks.offer(task);
+        readyCount.incrementAndGet();
+        if (sleepers.get() > 0) {
+            synchronized (sleepLock) {
+                sleepLock.notify();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void shutdown() {
+        timedTaskHandler.shutdown();
+    }
+
+    /**
+     * Returns the home shard for the current thread, assigning one if this
+     * is the first time the thread has asked for a task.
+     */
+    private int getHomeShard() {
+        Integer home = homeShard.get();
+        if (home == null) {
+            home = Integer.valueOf(
+                (nextHomeShard.getAndIncrement() & Integer.MAX_VALUE) %
+                shards.length);
+            homeShard.set(home);
+        }
+        return home.intValue();
+    }
+
+    /** Returns the shard for tasks with the specified owner. */
+    private int getShard(Identity owner) {
+        if (owner == null) {
+            return 0;
+        }
+        // spread the hash bits, as in HashMap
+        int h = owner.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return (h & Integer.MAX_VALUE) % shards.length;
+    }
+
+    /**
+     * Removes a task from the home shard, or steals one from another shard
+     * if the home shard is empty.  Returns {@code null} if all shards are
+     * empty.
+     */
+    private ScheduledTask poll(int home) {
+        if (readyCount.get() <= 0) {
+            return null;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            int shard = home + i;
+            if (shard >= shards.length) {
+                shard -= shards.length;
+            }
+            ScheduledTask task = shards[shard].tasks.poll();
+            if (task != null) {
+                readyCount.decrementAndGet();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /** A shard of ready tasks. */
+    private static final class Shard {
+        // the ready tasks, in the order they were added
+        final ConcurrentLinkedQueue<ScheduledTask> tasks =
+            new ConcurrentLinkedQueue<ScheduledTask>();
+    }
+
+}
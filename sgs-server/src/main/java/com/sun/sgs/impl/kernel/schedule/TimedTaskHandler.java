@@ -21,15 +21,16 @@
 
 package com.sun.sgs.impl.kernel.schedule;
 
+import com.sun.sgs.impl.util.TimingWheel;
 import com.sun.sgs.kernel.schedule.ScheduledTask;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
 
 
 /**
  * Package-private utility class that handles timers for tasks that are
- * scheduled to run in the future.
+ * scheduled to run in the future.  Timers are kept in a {@link TimingWheel},
+ * so scheduling and cancelling a delayed task take constant time no matter
+ * how many delayed tasks are outstanding, and all of the tasks that become
+ * ready on the same tick are handed to the listener together.
  */
 class TimedTaskHandler {
 
@@ -39,16 +40,27 @@ class TimedTaskHandler {
      */
     static final int FUTURE_THRESHOLD = 15;
 
+    /**
+     * The number of milliseconds in a tick of the timing wheel.  The wheel
+     * rounds start times up to the next tick, so a delayed task becomes ready
+     * less than one tick, plus the time to run the tasks that expire before
+     * it on the same tick, after its start time.  Application code expects
+     * delayed tasks to start as promptly as they did with {@code
+     * java.util.Timer}, which waits with millisecond precision, so use the
+     * smallest tick.
+     */
+    static final long TICK_MILLIS = 1;
+
     // the listener that will consume ready tasks
     private final TimedTaskListener listener;
 
-    // the timer used for future execution
-    private Timer timer;
+    // the timing wheel used for future execution
+    private final TimingWheel wheel;
 
     /**
      * Creates an instance of <code>TimedTaskHandler</code>. This has the
-     * effect of creating a new <code>Timer</code> which involves creating
-     * at least one new thread.
+     * effect of creating a new <code>TimingWheel</code> which involves
+     * creating a new thread.
      *
      * @param listener the <code>TimedTaskListener</code> that will consume
      *                 the task when its time comes, causing it to be executed
@@ -59,7 +71,7 @@ class TimedTaskHandler {
         }
 
         this.listener = listener;
-        timer = new Timer();
+        wheel = new TimingWheel("TimedTaskHandler", TICK_MILLIS);
     }
 
     /**
@@ -79,9 +91,9 @@ class TimedTaskHandler {
             return false;
         }
 
-        TimerTask tt = new TimerTaskImpl(task);
+        Runnable timedTask = new TimedTask(task);
 
-        // if this task is recurring, set the timer task if it's still active
+        // if this task is recurring, set the timeout if it's still active
         if (task.isRecurring()) {
             RecurringTaskHandleImpl handle =
                     (RecurringTaskHandleImpl) (task.getRecurringTaskHandle());
@@ -91,49 +103,39 @@ class TimedTaskHandler {
                 if (handle.isCancelled()) {
                     return true;
                 }
-                handle.setTimerTask(tt);
+                handle.setTimeout(
+                    wheel.schedule(timedTask, task.getStartTime()));
             }
+        } else {
+            wheel.schedule(timedTask, task.getStartTime());
         }
 
-        timer.schedule(tt, new Date(task.getStartTime()));
         return true;
     }
 
     /**
-     * Shuts down this handler, cancelling the associated timer.
+     * Shuts down this handler, discarding any delayed tasks.
      */
     void shutdown() {
-        timer.cancel();
+        wheel.shutdown();
     }
 
     /**
-     * Private inner class implementation of <code>TimerTask</code>. This is
-     * used to schedule all delayed tasks.
+     * Private inner class used to hand a delayed task to the listener when
+     * its timer expires.
      */
-    private class TimerTaskImpl extends TimerTask {
+    private class TimedTask implements Runnable {
         private final ScheduledTask task;
-        private boolean cancelled = false;
-        TimerTaskImpl(ScheduledTask task) {
+        TimedTask(ScheduledTask task) {
             this.task = task;
         }
         /** {@inheritDoc} */
-        public synchronized boolean cancel() {
-            if (!cancelled) {
-                cancelled = true;
-                return true;
-            }
-            return false;
-        }
-        /** {@inheritDoc} */
-        public long scheduledExecutionTime() {
-            return task.getStartTime();
+        public void run() {
+            listener.timedTaskReady(task);
         }
         /** {@inheritDoc} */
-        public synchronized void run() {
-            if (!cancelled) {
-                listener.timedTaskReady(task);
-            }
-            cancelled = true;
+        public String toString() {
+            return "TimedTask[" + task + "]";
         }
     }
 
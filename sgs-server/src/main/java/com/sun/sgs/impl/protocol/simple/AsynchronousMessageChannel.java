@@ -24,6 +24,7 @@ package com.sun.sgs.impl.protocol.simple;
 import com.sun.sgs.impl.nio.DelegatingCompletionHandler;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
 import com.sun.sgs.nio.channels.CompletionHandler;
 import com.sun.sgs.nio.channels.IoFuture;
 import com.sun.sgs.nio.channels.ReadPendingException;
@@ -34,6 +35,7 @@ import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -131,7 +133,95 @@ public class AsynchronousMessageChannel implements Channel {
         if (!writePending.compareAndSet(false, true)) {
             throw new WritePendingException();
 	}
-        return new Writer(handler, src).start();
+        return new Writer(handler, src, false).start();
+    }
+
+    /**
+     * Initiates writing a complete message that has already been framed
+     * with its length prefix, and returns a future for controlling the
+     * operation.  Writes bytes starting at the buffer's current position and
+     * up to its limit.  Unlike {@link #write write}, the bytes are not
+     * copied, so the buffer's position is advanced as the bytes are written
+     * and its contents should not be modified until the write completes.
+     * Callers that send the same frame to several channels should pass each
+     * one its own {@linkplain ByteBuffer#duplicate duplicate}.
+     * 
+     * @param	src the buffer containing the length prefix and message,
+     *		typically created by {@link #frame frame}
+     * @param	handler the completion handler object; can be {@code null}
+     * @return	a future representing the result of the operation
+     * @throws	WritePendingException if a write is in progress
+     */
+    public IoFuture<Void, Void> writeFramed(
+	ByteBuffer src, CompletionHandler<Void, Void> handler)
+    {
+        if (!writePending.compareAndSet(false, true)) {
+            throw new WritePendingException();
+	}
+        return new Writer(handler, src, true).start();
+    }
+
+    /**
+     * Initiates writing several complete messages, each already framed with
+     * its length prefix, and returns a future for controlling the operation.
+     * The messages are written in order, from each buffer's current
+     * position up to its limit, and the future completes when all of them
+     * have been written.  If the underlying channel is an {@link
+     * AsynchronousSocketChannel}, the buffers are written with gathering
+     * writes and are not copied, so their contents should not be modified
+     * until the write completes.  Otherwise, the buffers are copied into a
+     * single buffer and written together.
+     * 
+     * @param	srcs the buffers containing the length prefixes and
+     *		messages, typically created by {@link #frame frame}
+     * @param	handler the completion handler object; can be {@code null}
+     * @return	a future representing the result of the operation
+     * @throws	IllegalArgumentException if {@code srcs} is empty
+     * @throws	WritePendingException if a write is in progress
+     */
+    public IoFuture<Void, Void> writeFramed(
+	ByteBuffer[] srcs, CompletionHandler<Void, Void> handler)
+    {
+	if (srcs.length == 0) {
+	    throw new IllegalArgumentException("no buffers to write");
+	}
+        if (!writePending.compareAndSet(false, true)) {
+            throw new WritePendingException();
+	}
+	if (srcs.length == 1) {
+	    return new Writer(handler, srcs[0], true).start();
+	} else if (channel instanceof AsynchronousSocketChannel) {
+	    return new GatheringWriter(
+		handler, (AsynchronousSocketChannel) channel, srcs).start();
+	}
+	int size = 0;
+	for (ByteBuffer src : srcs) {
+	    size += src.remaining();
+	}
+	ByteBuffer all = ByteBuffer.allocate(size);
+	for (ByteBuffer src : srcs) {
+	    all.put(src);
+	}
+	all.flip();
+	return new Writer(handler, all, true).start();
+    }
+
+    /**
+     * Returns a new buffer containing the remaining bytes of the specified
+     * {@code message}, preceded by their length as a {@value
+     * #PREFIX_LENGTH}-byte prefix, that can be passed to {@link #writeFramed
+     * writeFramed}.  The position of {@code message} is not changed.
+     *
+     * @param	message a buffer containing a complete message
+     * @return	a buffer containing the length prefix and message
+     */
+    public static ByteBuffer frame(ByteBuffer message) {
+	int size = message.remaining();
+	ByteBuffer frame = ByteBuffer.allocate(PREFIX_LENGTH + size);
+	frame.putShort((short) size).
+	    put(message.duplicate()).
+	    flip();
+	return frame;
     }
 
     /* -- Implement Channel -- */
@@ -269,10 +359,17 @@ public class AsynchronousMessageChannel implements Channel {
 
 	/**
 	 * Creates an instance with the specified attachment and handler, and
-	 * sending the bytes in the specified buffer.
+	 * sending the bytes in the specified buffer, which already starts
+	 * with the length prefix if {@code framed} is {@code true}.
 	 */
-        Writer(CompletionHandler<Void, Void> handler, ByteBuffer src) {
+        Writer(CompletionHandler<Void, Void> handler, ByteBuffer src,
+	       boolean framed)
+	{
             super(null, handler);
+	    if (framed) {
+		srcWithSize = src;
+		return;
+	    }
 	    int size = src.remaining();
 	    assert size < Short.MAX_VALUE;
 	    /* Prepend the size as a short. */
@@ -316,4 +413,75 @@ public class AsynchronousMessageChannel implements Channel {
             }
         }
     }
+
+    /**
+     * Implement a completion handler for writing several complete messages,
+     * already framed with their length prefixes, to an underlying socket
+     * channel with gathering writes.
+     */
+    private final class GatheringWriter
+	extends DelegatingCompletionHandler<Void, Void, Long, Void>
+    {
+	/** The socket channel. */
+	private final AsynchronousSocketChannel socketChannel;
+
+	/** The buffers containing the bytes to send. */
+	private final ByteBuffer[] srcs;
+
+	/** The index of the first buffer with bytes remaining to send. */
+	private int offset = 0;
+
+	/**
+	 * Creates an instance with the specified handler, sending the bytes
+	 * in the specified buffers to the specified socket channel.
+	 */
+        GatheringWriter(CompletionHandler<Void, Void> handler,
+			AsynchronousSocketChannel socketChannel,
+			ByteBuffer[] srcs)
+	{
+            super(null, handler);
+	    this.socketChannel = socketChannel;
+	    this.srcs = srcs;
+        }
+
+	/** Clear the writePending flag. */
+        @Override
+        protected void done() {
+            writePending.set(false);
+            super.done();
+        }
+
+	/** Start writing from the buffers. */
+        @Override
+        protected IoFuture<Long, Void> implStart() {
+            return writeRemaining();
+        }
+
+	/** Process the results of writing so far and write more if needed. */
+        @Override
+        protected IoFuture<Long, Void> implCompleted(
+	    IoFuture<Long, Void> result)
+            throws ExecutionException
+        {
+	    /* See if computation already failed. */
+	    result.getNow();
+	    while (offset < srcs.length && !srcs[offset].hasRemaining()) {
+		offset++;
+	    }
+            if (offset < srcs.length) {
+                /* Write some more */
+                return writeRemaining();
+            } else {
+                /* Finished */
+                return null;
+            }
+        }
+
+	/** Writes the buffers that have bytes remaining. */
+	private IoFuture<Long, Void> writeRemaining() {
+	    return socketChannel.write(
+		srcs, offset, srcs.length - offset, 0L, TimeUnit.MILLISECONDS,
+		null, this);
+	}
+    }
 }
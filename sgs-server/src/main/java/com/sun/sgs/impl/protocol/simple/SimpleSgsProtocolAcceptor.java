@@ -94,6 +94,20 @@ import javax.security.auth.login.LoginException;
  *	Specifies the read buffer size.<p>
  * 
  * <dt> <i>Property:</i> <code><b>
+ *	{@value #WRITE_BUFFER_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_WRITE_BUFFER_SIZE}<br>
+ *      <i>Minimum:</i> {@value #MIN_WRITE_BUFFER_SIZE}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the maximum number of bytes of queued messages that are
+ *	written to a connection together, with a single gathering write.  A
+ *	write always includes at least one message, so a value of
+ *	<code>0</code> writes messages one at a time.  Messages larger than
+ *	512 bytes, including their length prefix, are always written on
+ *	their own.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
  *	{@value #DISCONNECT_DELAY_PROPERTY}
  *	</b></code><br>
  *	<i>Default:</i> {@value #DEFAULT_DISCONNECT_DELAY}<br>
@@ -133,6 +147,16 @@ public class SimpleSgsProtocolAcceptor
     
     /** The minimum read buffer size value. */
     public static final int MIN_READ_BUFFER_SIZE = 8192;
+
+    /** The name of the write buffer size property. */
+    public static final String WRITE_BUFFER_SIZE_PROPERTY =
+        PKG_NAME + ".write.buffer.size";
+
+    /** The default write buffer size: {@value #DEFAULT_WRITE_BUFFER_SIZE}. */
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 64 * 1024;
+    
+    /** The minimum write buffer size value. */
+    public static final int MIN_WRITE_BUFFER_SIZE = 0;
     
     /**
      * The transport property. The specified transport must support
@@ -172,6 +196,12 @@ public class SimpleSgsProtocolAcceptor
 
     /** The read buffer size for new connections. */
     protected final int readBufferSize;
+
+    /**
+     * The maximum number of bytes of queued messages written together for
+     * new connections.
+     */
+    protected final int writeBufferSize;
     
     /** The transport. */
     protected final Transport transport;
@@ -239,6 +269,9 @@ public class SimpleSgsProtocolAcceptor
             readBufferSize = wrappedProps.getIntProperty(
                 READ_BUFFER_SIZE_PROPERTY, DEFAULT_READ_BUFFER_SIZE,
                 MIN_READ_BUFFER_SIZE, Integer.MAX_VALUE);
+            writeBufferSize = wrappedProps.getIntProperty(
+                WRITE_BUFFER_SIZE_PROPERTY, DEFAULT_WRITE_BUFFER_SIZE,
+                MIN_WRITE_BUFFER_SIZE, Integer.MAX_VALUE);
 	    disconnectDelay = wrappedProps.getLongProperty(
 		DISCONNECT_DELAY_PROPERTY, DEFAULT_DISCONNECT_DELAY,
 		MIN_DISCONNECT_DELAY, Long.MAX_VALUE);
@@ -288,6 +321,8 @@ public class SimpleSgsProtocolAcceptor
                        disconnectDelay +
                        "\n  " + READ_BUFFER_SIZE_PROPERTY + "=" +
                        readBufferSize +
+                       "\n  " + WRITE_BUFFER_SIZE_PROPERTY + "=" +
+                       writeBufferSize +
                        "\n  " + TRANSPORT_PROPERTY + "=" +
                        transport.getClass().getName());
 	    
@@ -365,11 +400,11 @@ public class SimpleSgsProtocolAcceptor
 	    if (protocolVersion == PROTOCOL4) {
 		new SimpleSgsProtocolImpl(
 		    protocolListener, SimpleSgsProtocolAcceptor.this,
-		    byteChannel, readBufferSize);
+		    byteChannel, readBufferSize, writeBufferSize);
 	    } else /* latest SimpleSgsProtocol version */ {
 		new SimpleSgsRelocationProtocolImpl(
 		    protocolListener, SimpleSgsProtocolAcceptor.this,
-		    byteChannel, readBufferSize);
+		    byteChannel, readBufferSize, writeBufferSize);
 	    }
         }
 
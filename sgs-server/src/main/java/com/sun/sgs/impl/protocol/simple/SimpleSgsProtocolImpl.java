@@ -49,6 +49,7 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -84,6 +85,13 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      */
     private static final int DEFAULT_RECONNECT_KEY_LENGTH = 16;
 
+    /**
+     * The largest message, including its length prefix, that is written
+     * together with other queued messages.  Larger messages are written on
+     * their own, because gathering them did not make writing them faster.
+     */
+    private static final int MAX_GATHERED_MESSAGE_SIZE = 512;
+
     /** A random number generator for reconnect keys. */
     private static final SecureRandom random = new SecureRandom();
 
@@ -123,12 +131,30 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
     /** Indicates whether the client's login ack has been sent. */
     private boolean loginHandled = false;
 
-    /** Messages enqueued to be sent after a login ack is sent. */
+    /**
+     * Messages, framed with their length prefix, enqueued to be sent after
+     * a login ack is sent.
+     */
     private List<ByteBuffer> messageQueue = new ArrayList<ByteBuffer>();
 
     /** The set of supported delivery requirements. */
     protected final Set<Delivery> deliverySet = new HashSet<Delivery>();
 
+    /**
+     * The maximum number of bytes of queued messages, including length
+     * prefixes, to write together.
+     */
+    private final int writeBufferSize;
+
+    /**
+     * The number of writes, messages written, and bytes written, for
+     * statistics.  Only updated by the write completion handler, which is
+     * never called concurrently with itself.
+     */
+    private volatile long writeCount = 0;
+    private volatile long writeMessageCount = 0;
+    private volatile long writeByteCount = 0;
+
     /**
      * Creates a new instance of this class.
      *
@@ -136,13 +162,17 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      * @param	acceptor the {@code SimpleSgsProtocol} acceptor
      * @param	byteChannel a byte channel for the underlying connection
      * @param	readBufferSize the read buffer size
+     * @param	writeBufferSize the maximum number of bytes of queued
+     *		messages to write together
      */
     SimpleSgsProtocolImpl(ProtocolListener listener,
                           SimpleSgsProtocolAcceptor acceptor,
                           AsynchronousByteChannel byteChannel,
-                          int readBufferSize)
+                          int readBufferSize,
+			  int writeBufferSize)
     {
-	this(listener, acceptor, byteChannel, readBufferSize, staticLogger);
+	this(listener, acceptor, byteChannel, readBufferSize,
+	     writeBufferSize, staticLogger);
 	/*
 	 * TBD: It might be a good idea to implement high- and low-water marks
 	 * for the buffers, so they don't go into hysteresis when they get
@@ -168,8 +198,34 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 				     int readBufferSize,
 				     LoggerWrapper logger)
     {
-	// The read buffer size lower bound is enforced by the protocol acceptor
+	this(listener, acceptor, byteChannel, readBufferSize,
+	     SimpleSgsProtocolAcceptor.DEFAULT_WRITE_BUFFER_SIZE, logger);
+    }
+
+    /**
+     * Constructs a new instance of this class with the specified write
+     * buffer size.  The subclass should invoke {@code scheduleRead} after
+     * constructing the instance to commence reading.
+     *
+     * @param	listener a protocol listener
+     * @param	acceptor the {@code SimpleSgsProtocol} acceptor
+     * @param	byteChannel a byte channel for the underlying connection
+     * @param	readBufferSize the read buffer size
+     * @param	writeBufferSize the maximum number of bytes of queued
+     *		messages to write together
+     * @param	logger a logger for this instance
+     */
+    protected  SimpleSgsProtocolImpl(ProtocolListener listener,
+				     SimpleSgsProtocolAcceptor acceptor,
+				     AsynchronousByteChannel byteChannel,
+				     int readBufferSize,
+				     int writeBufferSize,
+				     LoggerWrapper logger)
+    {
+	// The buffer size lower bounds are enforced by the protocol acceptor
 	assert readBufferSize >= PREFIX_LENGTH;
+	assert writeBufferSize >= 0;
+	this.writeBufferSize = writeBufferSize;
 	this.asyncMsgChannel =
 	    new AsynchronousMessageChannel(byteChannel, readBufferSize);
 	this.listener = listener;
@@ -252,31 +308,54 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	write(buf);
     }
 
-    /***
+    /**
      * {@inheritDoc}
      *
-     * <p>This implementation invokes the protected method {@link
-     * #writeBuffer writeBuffer} with the channel protocol message (a
-     * {@code ByteBuffer}) and the specified delivery requirement.  A
-     * subclass can override the {@code writeBuffer} method if it supports
-     * other delivery guarantees and can make use of alternate transports
-     * for those other delivery requirements.
+     * <p>This implementation invokes {@link #encodedChannelMessage
+     * encodedChannelMessage} with the result of calling {@link
+     * #encodeChannelMessage encodeChannelMessage}.
      */
     public void channelMessage(BigInteger channelId,
                                ByteBuffer message,
                                Delivery delivery)
+    {
+	encodedChannelMessage(
+	    encodeChannelMessage(channelId, message), delivery);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation returns the channel protocol message, framed
+     * with its length prefix.
+     */
+    public ByteBuffer encodeChannelMessage(BigInteger channelId,
+					   ByteBuffer message)
     {
 	byte[] channelIdBytes = channelId.toByteArray();
 	int messageLength = 3 + channelIdBytes.length + message.remaining();
-        assert messageLength <= SimpleSgsProtocol.MAX_MESSAGE_LENGTH;
-	ByteBuffer buf =
-	    ByteBuffer.allocate(messageLength);
-	buf.put(SimpleSgsProtocol.CHANNEL_MESSAGE).
+	assert messageLength <= SimpleSgsProtocol.MAX_MESSAGE_LENGTH;
+	ByteBuffer frame = ByteBuffer.allocate(PREFIX_LENGTH + messageLength);
+	frame.putShort((short) messageLength).
+	    put(SimpleSgsProtocol.CHANNEL_MESSAGE).
 	    putShort((short) channelIdBytes.length).
 	    put(channelIdBytes).
-	    put(message).
+	    put(message.duplicate()).
 	    flip();
-	writeBuffer(buf, delivery);
+	return frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation invokes the protected method {@link
+     * #writeFramedBuffer writeFramedBuffer} with the encoded message and
+     * the specified delivery requirement.
+     */
+    public void encodedChannelMessage(ByteBuffer encodedMessage,
+				      Delivery delivery)
+    {
+	writeFramedBuffer(encodedMessage, delivery);
     }
 
     /** {@inheritDoc} */
@@ -386,6 +465,12 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	}
 	readHandler = new ClosedReadHandler();
         writeHandler = new ClosedWriteHandler();
+	if (logger.isLoggable(Level.FINE)) {
+	    logger.log(Level.FINE,
+		       "closed protocol:{0} writes:{1,number,#}" +
+		       " messages:{2,number,#} bytes:{3,number,#}",
+		       this, writeCount, writeMessageCount, writeByteCount);
+	}
 	if (protocolHandler != null) {
 	    SessionProtocolHandler handler = protocolHandler;
 	    protocolHandler = null;
@@ -402,6 +487,37 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	    (identity != null ? identity : "<unknown>") + "]";
     }
 
+    /* -- Write statistics -- */
+
+    /**
+     * Returns the number of writes to the underlying channel that have
+     * completed successfully.  Each write may include several messages.
+     *
+     * @return	the number of completed writes
+     */
+    long getWriteCount() {
+	return writeCount;
+    }
+
+    /**
+     * Returns the number of messages included in completed writes.
+     *
+     * @return	the number of messages written
+     */
+    long getWriteMessageCount() {
+	return writeMessageCount;
+    }
+
+    /**
+     * Returns the number of bytes, including length prefixes, included in
+     * completed writes.
+     *
+     * @return	the number of bytes written
+     */
+    long getWriteByteCount() {
+	return writeByteCount;
+    }
+
     /* -- Methods for reading and writing -- */
     
     /**
@@ -439,11 +555,26 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      * @param	buf a buffer containing a complete protocol message
      */
     protected final void write(ByteBuffer buf) {
+	writeFramed(AsynchronousMessageChannel.frame(buf));
+    }
+
+    /**
+     * Writes a message that is already framed with its length prefix to the
+     * underlying connection if login has been handled, otherwise enqueues
+     * the message to be sent when the login has not yet been handled.  The
+     * buffer is written without being copied, so its contents must not be
+     * modified afterwards, and each connection needs its own {@linkplain
+     * ByteBuffer#duplicate duplicate} of a shared buffer.
+     *
+     * @param	frame a buffer containing the length prefix and a complete
+     *		protocol message
+     */
+    protected final void writeFramed(ByteBuffer frame) {
 	synchronized (lock) {
 	    if (!loginHandled) {
-		messageQueue.add(buf);
+		messageQueue.add(frame);
 	    } else {
-		writeNow(buf, false);
+		writeFramedNow(frame, false);
 	    }
 	}
     }
@@ -456,8 +587,21 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      *		flag to {@code true} and flush the message queue
      */
     protected final void writeNow(ByteBuffer message, boolean flush) {
+	writeFramedNow(AsynchronousMessageChannel.frame(message), flush);
+    }
+
+    /**
+     * Writes a message that is already framed with its length prefix to the
+     * underlying connection.
+     *
+     * @param	frame a buffer containing the length prefix and a complete
+     *		protocol message
+     * @param	flush if {@code true}, then set the {@code loginHandled}
+     *		flag to {@code true} and flush the message queue
+     */
+    private void writeFramedNow(ByteBuffer frame, boolean flush) {
 	try {
-	    writeHandler.write(message);
+	    writeHandler.write(frame);
 		    
 	} catch (RuntimeException e) {
 	    if (logger.isLoggable(Level.WARNING)) {
@@ -503,7 +647,34 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
     protected void writeBuffer(ByteBuffer buf, Delivery delivery) {
 	write(buf);
     }
-    
+
+    /**
+     * Writes the specified buffer, which is already framed with its length
+     * prefix, satisfying the specified delivery requirement.  The buffer is
+     * not copied and its contents must not be modified.
+     *
+     * <p>This implementation writes the buffer directly if the delivery
+     * requirement is {@link Delivery#RELIABLE RELIABLE}.  Otherwise, it
+     * passes the message, without its length prefix, to {@link #writeBuffer
+     * writeBuffer}, so that a subclass that overrides {@code writeBuffer} to
+     * use alternate transports for other delivery requirements also
+     * receives channel messages.  Such a subclass can override this method
+     * as well, to avoid copying the message.
+     *
+     * @param	frame a byte buffer containing the length prefix and a
+     *		protocol message
+     * @param	delivery a delivery requirement
+     */
+    protected void writeFramedBuffer(ByteBuffer frame, Delivery delivery) {
+	if (delivery == Delivery.RELIABLE) {
+	    writeFramed(frame);
+	} else {
+	    ByteBuffer buf = frame.duplicate();
+	    buf.position(buf.position() + PREFIX_LENGTH);
+	    writeBuffer(buf.slice(), delivery);
+	}
+    }
+
     /**
      * Returns the next reconnect key.
      *
@@ -521,7 +692,7 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
     private abstract class WriteHandler
         implements CompletionHandler<Void, Void>
     {
-	/** Writes the specified message. */
+	/** Writes the specified message, framed with its length prefix. */
         abstract void write(ByteBuffer message);
     }
 
@@ -556,6 +727,15 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	/** Whether a write is underway. */
         private boolean isWriting = false;
 
+	/**
+	 * The number of messages at the head of the queue being written by
+	 * the current write.
+	 */
+	private int writingCount = 0;
+
+	/** The number of bytes being written by the current write. */
+	private int writingBytes = 0;
+
 	/** Creates an instance of this class. */
         ConnectedWriteHandler() { }
 
@@ -565,9 +745,10 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	 */
         @Override
         void write(ByteBuffer message) {
-            if (message.remaining() > SimpleSgsProtocol.MAX_PAYLOAD_LENGTH) {
+	    int length = message.remaining() - PREFIX_LENGTH;
+            if (length > SimpleSgsProtocol.MAX_PAYLOAD_LENGTH) {
                 throw new IllegalArgumentException(
-                    "message too long: " + message.remaining() + " > " +
+                    "message too long: " + length + " > " +
                         SimpleSgsProtocol.MAX_PAYLOAD_LENGTH);
             }
             boolean first;
@@ -586,9 +767,16 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
             }
         }
 
-	/** Start processing the first element of the queue, if present. */
+	/**
+	 * Start writing the elements at the head of the queue, if present.
+	 * Writes the first message along with as many of the following
+	 * messages as fit within the write buffer size, using a single
+	 * gathering write.  Stops gathering at the first message larger than
+	 * {@link #MAX_GATHERED_MESSAGE_SIZE}.
+	 */
         private void processQueue() {
             ByteBuffer message;
+	    ByteBuffer[] messages = null;
             synchronized (writeLock) {
                 if (isWriting) {
                     return;
@@ -598,17 +786,44 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 		    return;
 		}
 		isWriting = true;
+		int count = 1;
+		int size = message.remaining();
+		boolean gather = size <= MAX_GATHERED_MESSAGE_SIZE;
+		for (Iterator<ByteBuffer> i = pendingWrites.listIterator(1);
+		     gather && i.hasNext(); )
+		{
+		    int next = i.next().remaining();
+		    if (next > MAX_GATHERED_MESSAGE_SIZE ||
+			size + next > writeBufferSize)
+		    {
+			break;
+		    }
+		    size += next;
+		    count++;
+		}
+		if (count > 1) {
+		    messages = pendingWrites.subList(0, count).toArray(
+			new ByteBuffer[count]);
+		}
+		writingCount = count;
+		writingBytes = size;
             }
             if (logger.isLoggable(Level.FINEST)) {
                 logger.log(
 		    Level.FINEST,
-		    "processQueue protocol:{0} size:{1,number,#} head={2}",
+		    "processQueue protocol:{0} size:{1,number,#}" +
+		    " writing:{2,number,#} head={3}",
 		    SimpleSgsProtocolImpl.this, pendingWrites.size(),
+		    (messages == null) ? 1 : messages.length,
 		    HexDumper.format(message, 0x50));
 		message.mark();
             }
             try {
-                asyncMsgChannel.write(message, this);
+		if (messages == null) {
+		    asyncMsgChannel.writeFramed(message, this);
+		} else {
+		    asyncMsgChannel.writeFramed(messages, this);
+		}
             } catch (RuntimeException e) {
                 logger.logThrow(Level.SEVERE, e,
 				"{0} processing message {1}",
@@ -618,11 +833,20 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
             }
         }
 
-	/** Done writing the first request in the queue. */
+	/** Done writing the requests at the head of the queue. */
         public void completed(IoFuture<Void, Void> result) {
 	    ByteBuffer message;
+	    int count;
+	    int bytes;
             synchronized (writeLock) {
+		count = writingCount;
+		bytes = writingBytes;
                 message = pendingWrites.remove();
+		for (int i = 1; i < count; i++) {
+		    pendingWrites.remove();
+		}
+		writingCount = 0;
+		writingBytes = 0;
                 isWriting = false;
             }
             if (logger.isLoggable(Level.FINEST)) {
@@ -635,6 +859,9 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
             }
             try {
                 result.getNow();
+		writeCount++;
+		writeMessageCount += count;
+		writeByteCount += bytes;
                 /* Keep writing */
                 processQueue();
             } catch (ExecutionException e) {
@@ -82,13 +82,17 @@ public class SimpleSgsRelocationProtocolImpl
      * @param	acceptor the {@code SimpleSgsProtocol} acceptor
      * @param	byteChannel a byte channel for the underlying connection
      * @param	readBufferSize the read buffer size
+     * @param	writeBufferSize the maximum number of bytes of queued
+     *		messages to write together
      */
     SimpleSgsRelocationProtocolImpl(ProtocolListener listener,
                           SimpleSgsProtocolAcceptor acceptor,
                           AsynchronousByteChannel byteChannel,
-                          int readBufferSize)
+                          int readBufferSize,
+			  int writeBufferSize)
     {
-	this(listener, acceptor, byteChannel, readBufferSize, staticLogger);
+	this(listener, acceptor, byteChannel, readBufferSize,
+	     writeBufferSize, staticLogger);
 	/*
 	 * TBD: It might be a good idea to implement high- and low-water marks
 	 * for the buffers, so they don't go into hysteresis when they get
@@ -117,6 +121,31 @@ public class SimpleSgsRelocationProtocolImpl
 	super(listener, acceptor, byteChannel, readBufferSize, logger);
     }
 
+    /**
+     * Constructs a new instance of this class with the specified write
+     * buffer size.  The subclass should invoke {@link
+     * SimpleSgsProtocolImpl#scheduleRead} after constructing the instance
+     * to commence reading.
+     *
+     * @param	listener a protocol listener
+     * @param	acceptor the {@code SimpleSgsProtocol} acceptor
+     * @param	byteChannel a byte channel for the underlying connection
+     * @param	readBufferSize the read buffer size
+     * @param	writeBufferSize the maximum number of bytes of queued
+     *		messages to write together
+     * @param	logger a logger for this instance
+     */
+    protected  SimpleSgsRelocationProtocolImpl(ProtocolListener listener,
+				     SimpleSgsProtocolAcceptor acceptor,
+				     AsynchronousByteChannel byteChannel,
+				     int readBufferSize,
+				     int writeBufferSize,
+				     LoggerWrapper logger)
+    {
+	super(listener, acceptor, byteChannel, readBufferSize,
+	      writeBufferSize, logger);
+    }
+
     /**
      * Returns the {@code SimpleSgsProtocol} version supported by this
      * implementation.
@@ -165,6 +194,15 @@ public class SimpleSgsRelocationProtocolImpl
 	checkSuspend();
 	super.channelMessage(channelId, message, delivery);
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encodedChannelMessage(
+	ByteBuffer encodedMessage, Delivery delivery)
+    {
+	checkSuspend();
+	super.encodedChannelMessage(encodedMessage, delivery);
+    }
     
     /* -- Implement SessionRelocationProtocol -- */
 
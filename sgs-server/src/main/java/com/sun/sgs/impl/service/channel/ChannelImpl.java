@@ -70,6 +70,7 @@ import java.util.NoSuchElementException;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static com.sun.sgs.impl.service.channel.ChannelServiceImpl.
@@ -114,7 +115,10 @@ import static com.sun.sgs.impl.service.channel.ChannelServiceImpl.
  *	given channel by timestamp.  The map is used when a client
  *	session relocates to a new node and the channel service discovers
  *	that the session missed one or more channel messages during
- *	relocation.<p> 
+ *	relocation, if the messages are not retained in memory by the
+ *	channel's coordinator or backup node.  Messages are only saved in
+ *	the map while the channel's coordinator is recovering, or if the
+ *	channel service does not retain messages in memory.<p> 
  * </dl> <p>
  */
 final class ChannelImpl implements ManagedObject, Serializable {
@@ -181,6 +185,13 @@ final class ChannelImpl implements ManagedObject, Serializable {
      *  actions can be performed by the new coordinator. */
     private boolean isCoordinatorReassigned;
 
+    /**
+     * The node ID of the server node, other than the coordinator, that
+     * retains this channel's reliable messages in memory as a backup for
+     * the coordinator, or {@code -1} if there is none.
+     */
+    private long backupNodeId = -1L;
+
     /** The transaction. */
     private transient Transaction txn;
 
@@ -516,6 +527,9 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	    throw new ResourceUnavailableException(
 	   	"not enough resources to add channel event");
 	}
+	if (!(event instanceof SendEvent)) {
+	    ChannelServiceImpl.getInstance().addMembershipEvent(channelRefId);
+	}
     }
 
     /**
@@ -639,7 +653,13 @@ final class ChannelImpl implements ManagedObject, Serializable {
     /** Implements {@link Channel#send(ClientSession,ByteBuffer)}.
      *
      * Enqueues a send event to this channel's event queue and notifies
-     * this channel's coordinator to service the event.
+     * this channel's coordinator to service the event.  If this channel's
+     * delivery is {@link Delivery#UNRELIABLE UNRELIABLE}, the fast path
+     * for unreliable messages is enabled, the sender is not known to be a
+     * non-member, and the current transaction has not added a join, leave,
+     * or close event to this channel's event queue, the message is instead
+     * forwarded to this channel's servers when the current transaction
+     * commits.
      */
     void send(ClientSession sender, ByteBuffer message) {
 	try {
@@ -663,14 +683,37 @@ final class ChannelImpl implements ManagedObject, Serializable {
 		sender != null ?
 		getSessionRefId(unwrapSession(sender)) :
 		null;
+	    ChannelServiceImpl channelService =
+		ChannelServiceImpl.getInstance();
 	    boolean isChannelMember =
 		senderRefId != null ?
-		ChannelServiceImpl.getInstance().
-		    isLocalChannelMember(channelRefId, senderRefId) :
+		channelService.isLocalChannelMember(channelRefId, senderRefId) :
 		true;
-	    addEvent(
-		new SendEvent(senderRefId, msgBytes, eventQueueRef.get(),
-			      isChannelMember));
+	    if (isChannelMember && channelService.unreliableFastPath &&
+		delivery.equals(Delivery.UNRELIABLE) &&
+		!channelService.hasMembershipEvent(channelRefId))
+	    {
+		/*
+		 * Bypass the event queue: the message does not need to be
+		 * ordered with respect to other channel events, so forward
+		 * it to the channel's servers on commit.  A sender that is
+		 * not a local member may still be a member on another node,
+		 * so its messages go through the event queue, which checks
+		 * membership on the coordinator.  Messages sent after this
+		 * transaction changed the channel's membership also go
+		 * through the event queue, so that, for example, a session
+		 * removed earlier in the transaction does not receive them.
+		 */
+		channelService.addChannelTaskOnCommit(
+		    channelRefId,
+		    new UnreliableSendTask(
+			channelRefId, getServerNodeIds(), msgBytes,
+			eventQueueRef.get().getNextTimestamp()));
+	    } else {
+		addEvent(
+		    new SendEvent(senderRefId, msgBytes, eventQueueRef.get(),
+				  isChannelMember));
+	    }
 
 
 	    if (logger.isLoggable(Level.FINEST)) {
@@ -905,6 +948,50 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	}
     }
 
+    /**
+     * Returns the ID of the node that retains this channel's reliable
+     * messages as a backup for the coordinator, or {@code -1} if there is
+     * none.  If the current backup node is no longer one of this channel's
+     * server nodes, another live server node, other than the coordinator,
+     * is chosen.  This method should be called within a transaction.
+     */
+    private long getBackupNodeId() {
+	if (backupNodeId != -1L && backupNodeId != coordNodeId &&
+	    servers.contains(backupNodeId))
+	{
+	    return backupNodeId;
+	}
+	long newBackupNodeId = -1L;
+	WatchdogService watchdogService =
+	    ChannelServiceImpl.getWatchdogService();
+	for (long nodeId : servers) {
+	    if (nodeId != coordNodeId) {
+		Node node = watchdogService.getNode(nodeId);
+		if (node != null && node.isAlive()) {
+		    newBackupNodeId = nodeId;
+		    break;
+		}
+	    }
+	}
+	if (newBackupNodeId != backupNodeId) {
+	    getDataService().markForUpdate(this);
+	    backupNodeId = newBackupNodeId;
+	}
+	return newBackupNodeId;
+    }
+
+    /**
+     * Returns an array containing the IDs of the nodes that retain this
+     * channel's reliable messages in memory: the coordinator, followed by
+     * the backup node, if any.
+     */
+    long[] getRetainedMessagesNodeIds() {
+	return
+	    backupNodeId == -1L ?
+	    new long[] { coordNodeId } :
+	    new long[] { coordNodeId, backupNodeId };
+    }
+
     /**
      * Returns the map of saved messages for this channel, for looking up
      * messages by timestamp.
@@ -1381,6 +1468,8 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	private long coordinatorAssignmentTimestamp = 0;
 	/** The timestamp for the last event processed. */
 	private long currentTimestamp = 0;
+	/** The timestamp of the last reliable message processed, or 0. */
+	private long lastMessageTimestamp = 0;
 
 	/**
 	 * The number of bytes of the write buffer that are currently
@@ -1427,6 +1516,23 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	    return timestamp < coordinatorAssignmentTimestamp;
 	}
 
+	/**
+	 * Records the specified {@code timestamp} as the timestamp of the
+	 * last reliable message processed, and returns the timestamp of the
+	 * message processed before it, or {@code 0} if there was none.  This
+	 * method should only be called while servicing a send event, after
+	 * {@link #startProcessingEvent startProcessingEvent} has marked this
+	 * queue for update.
+	 *
+	 * @param timestamp a message timestamp
+	 * @return the timestamp of the previous message, or {@code 0}
+	 */
+	long setLastMessageTimestamp(long timestamp) {
+	    long previousTimestamp = lastMessageTimestamp;
+	    lastMessageTimestamp = timestamp;
+	    return previousTimestamp;
+	}
+
 	/**
 	 * Attempts to enqueue the specified {@code event}, and returns
 	 * {@code true} if successful, and {@code false} otherwise.  If
@@ -2335,6 +2441,9 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	/** Indicates whether the sender is known to be a channel member
 	 * when this event was constructed. */
 	private boolean isChannelMember;
+	/** The timestamp of the channel's previous reliable message, or
+	 * -1 if this event has not been serviced. */
+	private long previousMessageTimestamp = -1L;
 
 	/**
 	 * Constructs a send event with the given {@code senderRefId} and
@@ -2361,6 +2470,7 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	    assert isProcessing() && !isCompleted();
 	    ChannelServiceImpl channelService =
 		ChannelServiceImpl.getInstance();
+	    EventQueue queue = channel.eventQueueRef.get();
 	    if (senderRefId != null) {
 		/*
 		 * Sender is a client, so verify that the sending session
@@ -2378,7 +2488,6 @@ final class ChannelImpl implements ManagedObject, Serializable {
 		    return completed();
 		    
 		} else {
-		    EventQueue queue = channel.eventQueueRef.get();
 		    if (queue.isCoordinatorRecovering(timestamp)) {
 			getDataService().markForUpdate(this);
 			isChannelMember =
@@ -2402,22 +2511,44 @@ final class ChannelImpl implements ManagedObject, Serializable {
 		} 
 	    }
 
+	    /*
+	     * If the message is reliable, note the timestamp of the
+	     * channel's previous message the first time this event is
+	     * serviced, so that nodes retaining the channel's messages can
+	     * tell whether they missed any.  The event queue has already
+	     * marked both this event and itself for update when it started
+	     * processing this event.
+	     */
+	    if (channel.isReliable() && previousMessageTimestamp == -1L) {
+		previousMessageTimestamp =
+		    queue.setLastMessageTimestamp(timestamp);
+	    }
+	    
 	    /*
 	     * Enqueue a channel task to forward the message to the
 	     * channel's servers for delivery.
 	     */
 	    SendNotifyTask task = new SendNotifyTask(channel, this);
-	    ChannelServiceImpl.getInstance().addChannelTaskOnCommit(
-		channel.channelRefId, task);
+	    channelService.addChannelTaskOnCommit(channel.channelRefId, task);
 
 	    /*
-	     * If the message is reliable, store message for a period of
+	     * If the message is reliable, it is retained for a period of
 	     * time so that relocating client sessions belonging to this
 	     * channel can obtain messages sent while those sessions are
-	     * relocating, otherwise, mark this event as completed.
+	     * relocating.  Messages are retained in memory by the notify
+	     * task, and are also saved in the data store while the
+	     * coordinator is recovering, if the channel has no backup node
+	     * to retain them if the coordinator fails, or if the channel
+	     * service does not retain messages in memory.  If the message
+	     * is unreliable, mark this event as completed.
 	     */
 	    if (channel.isReliable()) {
-		channel.saveMessage(message, timestamp);
+		if (channelService.retainedMessagesMax == 0 ||
+		    queue.isCoordinatorRecovering(timestamp) ||
+		    channel.getBackupNodeId() == -1L)
+		{
+		    channel.saveMessage(message, timestamp);
+		}
 	    } else {
 		completed();
 	    }
@@ -2447,15 +2578,23 @@ final class ChannelImpl implements ManagedObject, Serializable {
      * A non-transactional task to transmit a "send" notification to
      * each of the channel's server nodes so that each server node
      * can deliver a channel message to the channel's respective
-     * members.  When all the appropriate channel servers have been
-     * notified, this task marks the associated ChannelEvent complete
-     * (within a transaction).
+     * members.  The message is added to the outbound queue for each
+     * server node, and is sent to the nodes concurrently, batched with
+     * other messages for the same node.  When all the appropriate channel
+     * servers have been notified, the associated ChannelEvent is marked
+     * complete (within a transaction) if the channel is reliable.  Before
+     * a reliable message is sent, it is retained in memory on the local
+     * node (the coordinator), and it is retained by the channel's backup
+     * node, if any, before it is sent to that node's channel members.
      */
     private static class SendNotifyTask extends NotifyTask {
 
 	private final Set<Long> serverNodeIds;
 	private final byte[] message;
 	private final boolean isReliable;
+	private final boolean isRetained;
+	private final long backupNodeId;
+	private final long previousTimestamp;
 
 	/**
 	 * Constructs an instance with the specified {@code channel}
@@ -2466,42 +2605,114 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	    this.serverNodeIds = channel.servers;
 	    this.message = sendEvent.message;
 	    this.isReliable = channel.isReliable();
+	    this.isRetained =
+		isReliable && channelService.retainedMessagesMax > 0;
+	    this.backupNodeId =
+		isRetained ? channel.getBackupNodeId() : -1L;
+	    this.previousTimestamp = sendEvent.previousMessageTimestamp;
 	}
 
 	/** {@inheritDoc} */
 	public void run() {
-	    try {
-		/*
-		 * Send "send" notification to channel's servers.
-		 */ 
-		for (final long nodeId : serverNodeIds) {
-		    boolean success = channelService.runIoTask(
-		      new IoRunnable() {
-			public void run() throws IOException {
-			    ChannelServer server = getChannelServer(nodeId);
-			    if (server != null) {
-				server.send(channelRefId, message, timestamp);
-			    }
-			} },
-		      nodeId);
-		    if (!success) {
-			// Server node has failed, so remove it from
-			// channel's server list.
-			removeNodeIdFromChannel(nodeId);
-		    }
-		}
-	    } finally {
+	    if (isRetained) {
+		channelService.retainMessage(
+		    channelRefId, message, timestamp, previousTimestamp);
+	    }
+	    if (serverNodeIds.isEmpty()) {
 		if (isReliable) {
-		    // Only a reliable send event need to be marked
-		    // completed. An unreliable send is marked completed
-		    // when it is processed by the event queue (before its
-		    // corresponding SendNotifyEvent is run).
 		    completed();
 		}
+		return;
 	    }
+	    /*
+	     * Send "send" notification to channel's servers.
+	     */ 
+	    final AtomicInteger remaining =
+		new AtomicInteger(serverNodeIds.size());
+	    channelService.sendToNodes(
+		serverNodeIds,
+		new ChannelServiceImpl.ChannelSend(
+		    channelRefId, message, timestamp, backupNodeId,
+		    previousTimestamp)
+		{
+		    void sent(final long nodeId, boolean success) {
+			if (!success) {
+			    // Server node has failed, so remove it from
+			    // channel's server list.
+			    channelService.scheduleNonTransactionalTask(
+				new AbstractKernelRunnable(
+				    "RemoveNodeIdFromChannel")
+				{
+				    public void run() {
+					removeNodeIdFromChannel(nodeId);
+				    } });
+			}
+			// Only a reliable send event need to be marked
+			// completed. An unreliable send is marked completed
+			// when it is processed by the event queue (before
+			// its corresponding SendNotifyEvent is run).
+			if (remaining.decrementAndGet() == 0 && isReliable) {
+			    channelService.scheduleNonTransactionalTask(
+				new AbstractKernelRunnable(
+				    "CompleteSendEvent")
+				{
+				    public void run() {
+					completed();
+				    } });
+			}
+		    }
+		});
 	}
     }
     
+    /**
+     * A non-transactional task to transmit an unreliable channel message,
+     * which was not added to the channel's event queue, to each of the
+     * channel's server nodes so that each server node can deliver the
+     * message to the channel's respective members.  The message is
+     * delivered with the timestamp of the next channel event, so it is not
+     * delivered to sessions that join the channel with a later event.  If
+     * the next event is a join, however, the joining session has the same
+     * timestamp and does receive the message, even though it joined after
+     * the message was sent.  The message is added to the outbound queue
+     * for each server node.  Channel servers whose nodes have failed are
+     * not removed here, since the message does not need to be
+     * retransmitted: the channel's coordinator removes them when
+     * processing other events.
+     */
+    private static class UnreliableSendTask extends AbstractKernelRunnable {
+
+	private final BigInteger channelRefId;
+	private final Set<Long> serverNodeIds;
+	private final byte[] message;
+	private final long timestamp;
+
+	/**
+	 * Constructs an instance with the specified {@code channelRefId},
+	 * {@code serverNodeIds}, {@code message}, and {@code timestamp}.
+	 */
+	UnreliableSendTask(BigInteger channelRefId, Set<Long> serverNodeIds,
+			   byte[] message, long timestamp)
+	{
+	    super(null);
+	    this.channelRefId = channelRefId;
+	    this.serverNodeIds = serverNodeIds;
+	    this.message = message;
+	    this.timestamp = timestamp;
+	}
+
+	/** {@inheritDoc} */
+	public void run() {
+	    ChannelServiceImpl.getInstance().sendToNodes(
+		serverNodeIds,
+		new ChannelServiceImpl.ChannelSend(
+		    channelRefId, message, timestamp)
+		{
+		    void sent(long nodeId, boolean success) { }
+		});
+	}
+    }
+
     /**
      * A channel close event, used for closing a channel or removing
      * all members from the channel (as a result of a "leaveAll"
@@ -22,9 +22,11 @@
 package com.sun.sgs.impl.service.channel;
 
 import com.sun.sgs.app.Delivery;
+import com.sun.sgs.impl.service.channel.ChannelImpl.ChannelMessageInfo;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.rmi.Remote;
+import java.util.List;
 
 /**
  * A remote interface for communicating channel events and other
@@ -168,6 +170,66 @@ public interface ChannelServer extends Remote {
     void send(BigInteger channelRefId, byte[] message, long timestamp)
 	throws IOException;
 
+    /**
+     * Sends each of the specified messages to all locally-connected
+     * sessions that are members of the corresponding channel, in array
+     * order.  The effect is the same as invoking {@link
+     * #send(BigInteger,byte[],long) send} for each element of the arrays,
+     * but with a single remote call.
+     *
+     * @param	channelRefIds an array of channel IDs
+     * @param	messages an array of channel messages
+     * @param	timestamps an array of message timestamps
+     * @throws	IOException if a communication problem occurs while
+     * 		invoking this method
+     */
+    void send(BigInteger[] channelRefIds, byte[][] messages,
+	      long[] timestamps)
+	throws IOException;
+
+    /**
+     * Retains each of the specified reliable channel messages in memory
+     * on this node, which is the backup for the messages retained by the
+     * corresponding channel's coordinator.  The messages are retained for
+     * the session relocation timeout, so that client sessions relocating
+     * while the coordinator fails can obtain the channel messages they
+     * missed.  The {@code previousTimestamps} array contains the timestamp
+     * of the channel's reliable message sent before each message, or
+     * {@code 0} if there was none, so that this server can determine
+     * whether it has retained all of the channel's recent messages.
+     *
+     * @param	channelRefIds an array of channel IDs
+     * @param	messages an array of channel messages
+     * @param	timestamps an array of message timestamps
+     * @param	previousTimestamps an array of the timestamps of the
+     *		channels' previous messages
+     * @throws	IOException if a communication problem occurs while
+     * 		invoking this method
+     */
+    void retain(BigInteger[] channelRefIds, byte[][] messages,
+		long[] timestamps, long[] previousTimestamps)
+	throws IOException;
+
+    /**
+     * Returns a list containing the reliable channel messages retained in
+     * memory on this node for the channel with the specified {@code
+     * channelRefId} with timestamps between {@code fromTimestamp} and
+     * {@code toTimestamp} inclusive, or {@code null} if this node may not
+     * have retained all of those messages.  Messages retained for longer
+     * than the session relocation timeout are not returned.
+     *
+     * @param	channelRefId a channel ID
+     * @param	fromTimestamp the timestamp of the first message
+     * @param	toTimestamp the timestamp of the last message
+     * @return	a list of channel messages, in timestamp order, or {@code
+     *		null}
+     * @throws	IOException if a communication problem occurs while
+     * 		invoking this method
+     */
+    List<ChannelMessageInfo> getRetainedMessages(
+	BigInteger channelRefId, long fromTimestamp, long toTimestamp)
+	throws IOException;
+
     /**
      * Notifies this server that the client session with the specified
      * {@code sessionRefId} is relocating from the node (specified by
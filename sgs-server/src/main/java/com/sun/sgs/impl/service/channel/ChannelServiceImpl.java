@@ -45,11 +45,13 @@ import com.sun.sgs.impl.util.CacheMap;
 import com.sun.sgs.impl.util.Exporter;
 import com.sun.sgs.impl.util.IoRunnable;
 import com.sun.sgs.impl.util.KernelCallable;
+import com.sun.sgs.impl.util.NamedThreadFactory;
 import com.sun.sgs.impl.util.TransactionContext;
 import com.sun.sgs.impl.util.TransactionContextFactory;
 import com.sun.sgs.impl.util.TransactionContextMap;
 import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.KernelRunnable;
+import com.sun.sgs.kernel.RecurringTaskHandle;
 import com.sun.sgs.kernel.TaskQueue;
 import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.protocol.SessionProtocol;
@@ -68,6 +70,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -81,6 +84,9 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -122,6 +128,75 @@ import javax.management.JMException;
  *      capacity per channel.<p>
  *
  * <dt> <i>Property:</i> <code><b>
+ *	{@value #UNRELIABLE_FAST_PATH_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@code true}
+ *
+ * <dd style="padding-top: .5em">Specifies whether messages sent on
+ *	channels with {@link Delivery#UNRELIABLE UNRELIABLE} delivery are
+ *	forwarded to the channel's servers when the sending transaction
+ *	commits, rather than being added to the channel's persistent event
+ *	queue.  Such messages are not ordered with respect to other channel
+ *	events, and are not delivered if the sending node fails before
+ *	forwarding them.  A message sent in a transaction that has also
+ *	joined sessions to, removed sessions from, or closed the channel
+ *	still goes through the event queue, so it is delivered after those
+ *	changes.  Otherwise, a session that left the channel in an earlier
+ *	transaction can still receive the message if the channel's
+ *	coordinator has not yet processed the leave.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #SEND_BATCH_WINDOW_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_SEND_BATCH_WINDOW}
+ *
+ * <dd style="padding-top: .5em">Specifies the time, in milliseconds, to
+ *	wait for more channel messages to be sent to a node before sending
+ *	the first one.  Messages for any number of channels that are waiting
+ *	to be sent to a node are sent together, with a single call to the
+ *	node's {@code ChannelServer}.  Messages are sent to each node
+ *	independently of the other nodes.  With a value of {@code 0},
+ *	messages are only combined if they are waiting while a previous batch
+ *	is being sent.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #SEND_BATCH_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_SEND_BATCH_SIZE}
+ *
+ * <dd style="padding-top: .5em">Specifies the maximum number of channel
+ *	messages to send to a node with a single call to the node's {@code
+ *	ChannelServer}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #SEND_THREADS_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_SEND_THREADS}
+ *
+ * <dd style="padding-top: .5em">Specifies the number of threads used to
+ *	send channel messages to other nodes.  These threads are not shared
+ *	with the task scheduler, so a node that is slow to respond does not
+ *	hold up other non-transactional tasks.  If messages are waiting for
+ *	more nodes than there are threads, some nodes wait for a thread.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #RETAINED_MESSAGES_MAX_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_RETAINED_MESSAGES_MAX}
+ *
+ * <dd style="padding-top: .5em">Specifies the maximum number of messages
+ *	retained in memory for each reliable channel, so that relocating
+ *	client sessions can obtain channel messages that were missed during
+ *	relocation.  The messages are retained by the channel's coordinator
+ *	and by one other node with channel members.  They are also saved in
+ *	the data store while the channel's coordinator is recovering from a
+ *	node failure, and when no other node has channel members to retain
+ *	them, so that they survive a failure of the coordinator's node.  If
+ *	more messages are sent within the session relocation timeout, the
+ *	oldest messages are discarded.  With a value of {@code 0}, reliable
+ *	channel messages are always saved in the data store instead.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
  *	{@value
  * com.sun.sgs.impl.kernel.StandardProperties#SESSION_RELOCATION_TIMEOUT_PROPERTY}
  *	</b></code><br>
@@ -186,6 +261,51 @@ public final class ChannelServiceImpl
     /** The default write buffer size: {@value #DEFAULT_WRITE_BUFFER_SIZE}. */
     static final int DEFAULT_WRITE_BUFFER_SIZE = 128 * 1024;
 
+    /**
+     * The property name for whether to forward unreliable channel messages
+     * directly to channel servers, bypassing the channel's event queue.
+     */
+    static final String UNRELIABLE_FAST_PATH_PROPERTY =
+	PKG_NAME + ".unreliable.fast.path";
+
+    /** The property name for the send batching window in milliseconds. */
+    static final String SEND_BATCH_WINDOW_PROPERTY =
+	PKG_NAME + ".send.batch.window";
+
+    /**
+     * The default send batch window: {@value #DEFAULT_SEND_BATCH_WINDOW}.
+     */
+    static final long DEFAULT_SEND_BATCH_WINDOW = 0;
+
+    /** The property name for the maximum number of messages per batch. */
+    static final String SEND_BATCH_SIZE_PROPERTY =
+	PKG_NAME + ".send.batch.size";
+
+    /** The default send batch size: {@value #DEFAULT_SEND_BATCH_SIZE}. */
+    static final int DEFAULT_SEND_BATCH_SIZE = 256;
+
+    /**
+     * The property name for the number of threads that send channel
+     * messages to other nodes.
+     */
+    static final String SEND_THREADS_PROPERTY = PKG_NAME + ".send.threads";
+
+    /** The default number of send threads: {@value #DEFAULT_SEND_THREADS}. */
+    static final int DEFAULT_SEND_THREADS = 4;
+
+    /**
+     * The property name for the maximum number of messages retained in
+     * memory for each reliable channel.
+     */
+    static final String RETAINED_MESSAGES_MAX_PROPERTY =
+	PKG_NAME + ".retained.messages.max";
+
+    /**
+     * The default maximum number of retained messages per channel:
+     * {@value #DEFAULT_RETAINED_MESSAGES_MAX}.
+     */
+    static final int DEFAULT_RETAINED_MESSAGES_MAX = 8192;
+
     /** The transaction context map. */
     private static TransactionContextMap<Context> contextMap = null;
 
@@ -303,6 +423,43 @@ public final class ChannelServiceImpl
     /** The maximum number of channel events to service per transaction. */
     final int eventsPerTxn;
 
+    /**
+     * Whether unreliable channel messages are forwarded to channel servers
+     * on commit, bypassing the channel's event queue.
+     */
+    final boolean unreliableFastPath;
+
+    /** The time to wait for more messages before sending a batch. */
+    private final long sendBatchWindow;
+
+    /** The maximum number of messages to send in a batch. */
+    private final int sendBatchSize;
+
+    /** The queues of messages waiting to be sent, keyed by node ID. */
+    private final ConcurrentHashMap<Long, NodeSendQueue> sendQueues =
+	new ConcurrentHashMap<Long, NodeSendQueue>();
+
+    /** The number of threads that send messages to other nodes. */
+    private final int sendThreads;
+
+    /** The executor that runs the tasks servicing the send queues. */
+    private final ScheduledThreadPoolExecutor sendExecutor;
+
+    /**
+     * The maximum number of messages retained in memory for each reliable
+     * channel, or {@code 0} if messages are saved in the data store.
+     */
+    final int retainedMessagesMax;
+
+    /** The reliable channel messages retained on this node, keyed by
+     * channel ID. */
+    private final ConcurrentHashMap<BigInteger, RetainedMessages>
+	retainedMessagesMap =
+	    new ConcurrentHashMap<BigInteger, RetainedMessages>();
+
+    /** The handle for the task to remove expired retained messages. */
+    private RecurringTaskHandle removeExpiredMessagesTaskHandle = null;
+
     /** The timeout expiration, in milliseconds, for a client session to
      * relocate. */
     final long sessionRelocationTimeout;
@@ -362,6 +519,22 @@ public final class ChannelServiceImpl
 	    eventsPerTxn = wrappedProps.getIntProperty(
 		EVENTS_PER_TXN_PROPERTY, DEFAULT_EVENTS_PER_TXN,
 		1, Integer.MAX_VALUE);
+	    unreliableFastPath = wrappedProps.getBooleanProperty(
+		UNRELIABLE_FAST_PATH_PROPERTY, true);
+	    sendBatchWindow = wrappedProps.getLongProperty(
+		SEND_BATCH_WINDOW_PROPERTY, DEFAULT_SEND_BATCH_WINDOW,
+		0, 1000);
+	    sendBatchSize = wrappedProps.getIntProperty(
+		SEND_BATCH_SIZE_PROPERTY, DEFAULT_SEND_BATCH_SIZE,
+		1, Integer.MAX_VALUE);
+	    sendThreads = wrappedProps.getIntProperty(
+		SEND_THREADS_PROPERTY, DEFAULT_SEND_THREADS,
+		1, Integer.MAX_VALUE);
+	    sendExecutor = new ScheduledThreadPoolExecutor(
+		sendThreads, new NamedThreadFactory("ChannelServiceSend"));
+	    retainedMessagesMax = wrappedProps.getIntProperty(
+		RETAINED_MESSAGES_MAX_PROPERTY, DEFAULT_RETAINED_MESSAGES_MAX,
+		0, Integer.MAX_VALUE);
 	    sessionRelocationTimeout = wrappedProps.getLongProperty(
 		StandardProperties.SESSION_RELOCATION_TIMEOUT_PROPERTY,
 		StandardProperties.DEFAULT_SESSION_RELOCATION_TIMEOUT,
@@ -422,6 +595,18 @@ public final class ChannelServiceImpl
 	    sessionStatusListener = new SessionStatusListener();
             sessionService.addSessionStatusListener(sessionStatusListener);
 
+	    /*
+	     * Set up recurring task to remove expired retained messages.
+	     */
+	    if (retainedMessagesMax > 0) {
+		removeExpiredMessagesTaskHandle =
+		    taskScheduler.scheduleRecurringTask(
+			new RemoveExpiredMessagesTask(), taskOwner,
+			System.currentTimeMillis() + sessionRelocationTimeout,
+			sessionRelocationTimeout);
+		removeExpiredMessagesTaskHandle.start();
+	    }
+
             /* Create our service profiling info and register our MBean. */
             ProfileCollector collector = 
 		systemRegistry.getComponent(ProfileCollector.class);
@@ -439,6 +624,15 @@ public final class ChannelServiceImpl
                        "\n  " + SERVER_PORT_PROPERTY + "=" + serverPort +
                        "\n  " + WRITE_BUFFER_SIZE_PROPERTY + "=" + 
                        writeBufferSize +
+		       "\n  " + UNRELIABLE_FAST_PATH_PROPERTY + "=" +
+		       unreliableFastPath +
+		       "\n  " + SEND_BATCH_WINDOW_PROPERTY + "=" +
+		       sendBatchWindow +
+		       "\n  " + SEND_BATCH_SIZE_PROPERTY + "=" +
+		       sendBatchSize +
+		       "\n  " + SEND_THREADS_PROPERTY + "=" + sendThreads +
+		       "\n  " + RETAINED_MESSAGES_MAX_PROPERTY + "=" +
+		       retainedMessagesMax +
 		       "\n  " +
 		       StandardProperties.SESSION_RELOCATION_TIMEOUT_PROPERTY +
 		       "=" + sessionRelocationTimeout);
@@ -471,6 +665,14 @@ public final class ChannelServiceImpl
     /** {@inheritDoc} */
     protected void doShutdown() {
 	logger.log(Level.FINEST, "shutdown");
+
+	if (removeExpiredMessagesTaskHandle != null) {
+	    removeExpiredMessagesTaskHandle.cancel();
+	}
+
+	if (sendExecutor != null) {
+	    sendExecutor.shutdownNow();
+	}
 	
 	try {
 	    if (exporter != null) {
@@ -722,7 +924,12 @@ public final class ChannelServiceImpl
 					    message);
 		    // Note: the message timestamp may not be consecutive
 		    // because a non-member sender's message can get dropped.
-		    channelInfo.msgTimestamp = timestamp;
+		    // Unreliable messages that bypass the channel's event
+		    // queue share the timestamp of the next event and may
+		    // arrive out of order, so never move the timestamp back.
+		    if (timestamp > channelInfo.msgTimestamp) {
+			channelInfo.msgTimestamp = timestamp;
+		    }
 		    for (BigInteger sessionRefId : channelInfo.members) {
 			// Deliver send request or enqueue for delivery if
 			// the session is relocating to this node.  It is
@@ -742,6 +949,54 @@ public final class ChannelServiceImpl
 	    }
 	}
 
+	/** {@inheritDoc}
+	 *
+	 * Sends each message to all local members of its channel.
+	 */
+	public void send(BigInteger[] channelRefIds, byte[][] messages,
+			 long[] timestamps)
+	{
+	    callStarted();
+	    try {
+		for (int i = 0; i < channelRefIds.length; i++) {
+		    send(channelRefIds[i], messages[i], timestamps[i]);
+		}
+	    } finally {
+		callFinished();
+	    }
+	}
+
+	/** {@inheritDoc}
+	 *
+	 * Adds each message to the messages retained for its channel.
+	 */
+	public void retain(BigInteger[] channelRefIds, byte[][] messages,
+			   long[] timestamps, long[] previousTimestamps)
+	{
+	    callStarted();
+	    try {
+		for (int i = 0; i < channelRefIds.length; i++) {
+		    retainMessage(channelRefIds[i], messages[i],
+				  timestamps[i], previousTimestamps[i]);
+		}
+	    } finally {
+		callFinished();
+	    }
+	}
+
+	/** {@inheritDoc} */
+	public List<ChannelMessageInfo> getRetainedMessages(
+	    BigInteger channelRefId, long fromTimestamp, long toTimestamp)
+	{
+	    callStarted();
+	    try {
+		return getLocalRetainedMessages(
+		    channelRefId, fromTimestamp, toTimestamp);
+	    } finally {
+		callFinished();
+	    }
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -793,11 +1048,13 @@ public final class ChannelServiceImpl
 	 *
 	 * Removes the specified channel from the map of local channels,
 	 * removes the channel from each of its local member's channel maps and
-	 * sends a leave notification to each member.
+	 * sends a leave notification to each member.  Also discards any
+	 * messages retained for the channel.
 	 */
 	public void close(BigInteger channelRefId, long timestamp) {
 	    callStarted();
 	    try {
+		retainedMessagesMap.remove(channelRefId);
 		LocalChannelInfo channelInfo = lockChannel(channelRefId);
 		if (channelInfo == null) {
 		    return;
@@ -1141,12 +1398,41 @@ public final class ChannelServiceImpl
      * Returns a list containing saved channel messages for the channel
      * with the specified {@code channelRefId} with timestamps between
      * {@code fromTimestamp} and {@code toTimestamp} inclusive or
-     * {@code null} if the channel no longer exists.
+     * {@code null} if the channel no longer exists.  The messages are
+     * obtained from those retained in memory by the channel's coordinator
+     * or, if the coordinator has failed, by the channel's backup node.  If
+     * neither node retained all of the messages, the messages are
+     * obtained from the data store and a warning is logged: messages are
+     * only saved there while the coordinator is recovering, so some of
+     * them may be missing.  This method should be invoked outside of a
+     * transaction.
      */
     private List<ChannelMessageInfo> getChannelMessages(
  	final BigInteger channelRefId, final long fromTimestamp,
 	final long toTimestamp)
     {
+	if (retainedMessagesMax > 0) {
+	    long[] nodeIds = getRetainedMessagesNodeIds(channelRefId);
+	    if (nodeIds == null) {
+		return null;
+	    }
+	    for (long nodeId : nodeIds) {
+		List<ChannelMessageInfo> messages =
+		    getRetainedMessages(
+			nodeId, channelRefId, fromTimestamp, toTimestamp);
+		if (messages != null) {
+		    return messages;
+		}
+	    }
+	    if (logger.isLoggable(Level.WARNING)) {
+		logger.log(
+		    Level.WARNING,
+		    "Messages not retained for channel:{0} " +
+		    "fromTimestamp:{1} toTimestamp:{2}; using saved " +
+		    "messages, which may be incomplete",
+		    channelRefId, fromTimestamp, toTimestamp);
+	    }
+	}
 	try {
 	    return runTransactionalCallable(
 		new KernelCallable<List<ChannelMessageInfo>>(
@@ -1180,6 +1466,72 @@ public final class ChannelServiceImpl
 	    return null;
 	}
     }
+
+    /**
+     * Returns an array containing the IDs of the nodes that retain
+     * messages for the channel with the specified {@code channelRefId}:
+     * the channel's coordinator followed by its backup node, if any.
+     * Returns {@code null} if the channel no longer exists.  This method
+     * should be invoked outside of a transaction.
+     */
+    private long[] getRetainedMessagesNodeIds(final BigInteger channelRefId) {
+	try {
+	    return runTransactionalCallable(
+		new KernelCallable<long[]>("getRetainedMessagesNodeIds") {
+		    public long[] call() {
+			ChannelImpl channelImpl = (ChannelImpl)
+			    getObjectForId(channelRefId);
+			return
+			    channelImpl == null || channelImpl.isClosed() ?
+			    null :
+			    channelImpl.getRetainedMessagesNodeIds();
+		    }
+		});
+	} catch (Exception e) {
+	    if (logger.isLoggable(Level.WARNING)) {
+		logger.logThrow(
+		    Level.WARNING, e,
+		    "Obtaining retaining nodes for channel:{0} throws",
+		    channelRefId);
+	    }
+	    return new long[0];
+	}
+    }
+
+    /**
+     * Returns a list containing the channel messages retained by the node
+     * with the specified {@code nodeId} for the channel with the
+     * specified {@code channelRefId} with timestamps between {@code
+     * fromTimestamp} and {@code toTimestamp} inclusive, or {@code null}
+     * if the node may not have retained all of those messages or cannot
+     * be contacted.  This method should be invoked outside of a
+     * transaction.
+     */
+    private List<ChannelMessageInfo> getRetainedMessages(
+	long nodeId, BigInteger channelRefId, long fromTimestamp,
+	long toTimestamp)
+    {
+	if (nodeId == localNodeId) {
+	    return getLocalRetainedMessages(
+		channelRefId, fromTimestamp, toTimestamp);
+	}
+	ChannelServer server = getChannelServer(nodeId);
+	if (server == null) {
+	    return null;
+	}
+	try {
+	    return server.getRetainedMessages(
+		channelRefId, fromTimestamp, toTimestamp);
+	} catch (IOException e) {
+	    if (logger.isLoggable(Level.FINE)) {
+		logger.logThrow(
+		    Level.FINE, e,
+		    "Obtaining retained messages for channel:{0} from " +
+		    "node:{1} throws", channelRefId, nodeId);
+	    }
+	    return null;
+	}
+    }
 	
     /**
      * Removes the specified {@code sessionRefId} ONLY from the local channel
@@ -1436,6 +1788,32 @@ public final class ChannelServiceImpl
 	context.addChannelToService(channelRefId);
     }
 
+    /**
+     * Records that a join, leave, or close event was added to the event
+     * queue of the channel with the specified {@code channelRefId} during
+     * the current transaction.
+     *
+     * @param	channelRefId a channel ID
+     */
+    void addMembershipEvent(BigInteger channelRefId) {
+	Context context = contextFactory.joinTransaction();
+	context.addMembershipEvent(channelRefId);
+    }
+
+    /**
+     * Returns {@code true} if a join, leave, or close event was added to
+     * the event queue of the channel with the specified {@code
+     * channelRefId} during the current transaction.
+     *
+     * @param	channelRefId a channel ID
+     * @return	whether the current transaction added a membership event
+     *		for the channel
+     */
+    boolean hasMembershipEvent(BigInteger channelRefId) {
+	Context context = contextFactory.joinTransaction();
+	return context.hasMembershipEvent(channelRefId);
+    }
+
     /* -- Implement TransactionContext -- */
 
     /**
@@ -1461,6 +1839,16 @@ public final class ChannelServiceImpl
 	private final Set<BigInteger> channelsToService =
 	    new HashSet<BigInteger>();
 
+	/**
+	 * Channels whose event queues had join, leave, or close events
+	 * added during this context's associated transaction.  Unreliable
+	 * messages sent on these channels during the transaction go
+	 * through the event queue, so that they are delivered after the
+	 * membership changes.
+	 */
+	private final Set<BigInteger> channelsWithMembershipEvents =
+	    new HashSet<BigInteger>();
+
 	/**
 	 * Constructs a context with the specified transaction. 
 	 */
@@ -1499,6 +1887,29 @@ public final class ChannelServiceImpl
 	    channelsToService.add(channelRefId);
 	}
 
+	/**
+	 * Records that a join, leave, or close event was added to the
+	 * event queue of the specified channel during this context's
+	 * associated transaction.
+	 *
+	 * @param channelRefId a channel ID
+	 */
+	public void addMembershipEvent(BigInteger channelRefId) {
+	    channelsWithMembershipEvents.add(channelRefId);
+	}
+
+	/**
+	 * Returns {@code true} if a join, leave, or close event was added
+	 * to the event queue of the specified channel during this
+	 * context's associated transaction.
+	 *
+	 * @param channelRefId a channel ID
+	 * @return whether a membership event was added for the channel
+	 */
+	public boolean hasMembershipEvent(BigInteger channelRefId) {
+	    return channelsWithMembershipEvents.contains(channelRefId);
+	}
+
 	/* -- transaction participant methods -- */
 
 	/**
@@ -1569,12 +1980,14 @@ public final class ChannelServiceImpl
     /**
      * Notifies this service that the channel with the specified {@code
      * channelRefId} is closed so that this service can clean up any
-     * per-channel data structures (relating to the channel coordinator).
+     * per-channel data structures (relating to the channel coordinator),
+     * including the channel's retained messages.
      */
     void closedChannel(BigInteger channelRefId) {
 	synchronized (contextList) {
 	    coordinatorMap.remove(channelRefId);
 	}
+	retainedMessagesMap.remove(channelRefId);
     }
     /* -- Implement ClientSessionStatusListener -- */
 
@@ -1836,6 +2249,461 @@ public final class ChannelServiceImpl
 	return KernelCallable.call(callable, transactionScheduler, taskOwner);
     }
 
+    /**
+     * Schedules the specified non-transactional {@code task} to run using
+     * this service's task owner.
+     *
+     * @param	task a non-transactional task
+     */
+    void scheduleNonTransactionalTask(KernelRunnable task) {
+	taskScheduler.scheduleTask(task, taskOwner);
+    }
+
+    /**
+     * Adds the specified channel message {@code send} to the outbound
+     * queue for each of the specified nodes.  The message is sent to the
+     * channel server on each node, in the order it was added to that
+     * node's queue, and the {@code send} is notified as it is sent to
+     * each node.  This method should be called outside of a transaction.
+     *
+     * @param	nodeIds the IDs of the nodes to send the message to
+     * @param	send a channel message to send
+     */
+    void sendToNodes(Set<Long> nodeIds, ChannelSend send) {
+	for (long nodeId : nodeIds) {
+	    NodeSendQueue queue = sendQueues.get(nodeId);
+	    if (queue == null) {
+		NodeSendQueue newQueue = new NodeSendQueue(nodeId);
+		queue = sendQueues.putIfAbsent(nodeId, newQueue);
+		if (queue == null) {
+		    queue = newQueue;
+		}
+	    }
+	    queue.add(send);
+	}
+    }
+
+    /**
+     * A channel message to send to the channel servers of one or more
+     * nodes.
+     */
+    abstract static class ChannelSend {
+
+	/** The channel ID. */
+	final BigInteger channelRefId;
+
+	/** The channel message. */
+	final byte[] message;
+
+	/** The message's timestamp. */
+	final long timestamp;
+
+	/** The ID of the node that should retain the message, or {@code
+	 * -1}. */
+	final long backupNodeId;
+
+	/** The timestamp of the channel's previous retained message. */
+	final long previousTimestamp;
+
+	/**
+	 * Constructs an instance with the specified {@code channelRefId},
+	 * {@code message}, and {@code timestamp}.
+	 */
+	ChannelSend(BigInteger channelRefId, byte[] message, long timestamp) {
+	    this(channelRefId, message, timestamp, -1L, 0L);
+	}
+
+	/**
+	 * Constructs an instance with the specified {@code channelRefId},
+	 * {@code message}, and {@code timestamp}, for a message to be
+	 * retained by the node with the specified {@code backupNodeId}, if
+	 * not {@code -1}.  The {@code previousTimestamp} is the timestamp
+	 * of the channel's previous retained message, or {@code 0}.
+	 */
+	ChannelSend(BigInteger channelRefId, byte[] message, long timestamp,
+		    long backupNodeId, long previousTimestamp)
+	{
+	    this.channelRefId = channelRefId;
+	    this.message = message;
+	    this.timestamp = timestamp;
+	    this.backupNodeId = backupNodeId;
+	    this.previousTimestamp = previousTimestamp;
+	}
+
+	/**
+	 * Notifies this instance that the message has been sent to the
+	 * specified node, or that the node has failed.  This method is
+	 * invoked outside of a transaction, and should not block.
+	 *
+	 * @param	nodeId a node ID
+	 * @param	success {@code true} if the message was sent, and {@code
+	 *		false} if the node is no longer alive
+	 */
+	abstract void sent(long nodeId, boolean success);
+    }
+
+    /**
+     * The queue of channel messages waiting to be sent to the channel
+     * server on a given node.  While a batch of messages is being sent,
+     * messages added for any channel wait to be sent together in the next
+     * batch.  Each node's queue is serviced by its own task, run by the
+     * send executor, so a slow node does not delay sending messages to
+     * other nodes.
+     */
+    private final class NodeSendQueue implements Runnable {
+
+	/** The node ID. */
+	private final long nodeId;
+
+	/** The messages waiting to be sent. */
+	private final LinkedList<ChannelSend> pending =
+	    new LinkedList<ChannelSend>();
+
+	/** Whether a task to send messages is scheduled or running. */
+	private boolean isScheduled = false;
+
+	/** Constructs an instance for the specified {@code nodeId}. */
+	NodeSendQueue(long nodeId) {
+	    this.nodeId = nodeId;
+	}
+
+	/**
+	 * Adds the specified {@code send} to this queue, scheduling a task
+	 * to send it if needed.
+	 */
+	void add(ChannelSend send) {
+	    boolean schedule;
+	    synchronized (this) {
+		pending.add(send);
+		schedule = !isScheduled;
+		isScheduled = true;
+	    }
+	    if (schedule) {
+		try {
+		    sendExecutor.schedule(
+			this, sendBatchWindow, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+		    // The service is shutting down
+		    logger.logThrow(
+			Level.FINEST, e,
+			"scheduling send nodeId:{0} throws", nodeId);
+		}
+	    }
+	}
+
+	/**
+	 * Sends batches of messages until the queue is empty, or until the
+	 * service is shutting down.  The send executor is shut down by
+	 * interrupting its threads, but {@code runIoTask} does not stop
+	 * for interrupts, so this method checks for shutdown before each
+	 * batch.
+	 */
+	public void run() {
+	    boolean done = false;
+	    try {
+		while (!shuttingDown()) {
+		    ChannelSend[] batch;
+		    synchronized (this) {
+			int size = Math.min(pending.size(), sendBatchSize);
+			if (size == 0) {
+			    isScheduled = false;
+			    done = true;
+			    return;
+			}
+			batch = new ChannelSend[size];
+			for (int i = 0; i < size; i++) {
+			    batch[i] = pending.remove();
+			}
+		    }
+		    sendBatch(batch);
+		}
+	    } finally {
+		if (!done) {
+		    synchronized (this) {
+			isScheduled = false;
+		    }
+		}
+	    }
+	}
+
+	/**
+	 * Sends the specified batch of messages to this queue's node, and
+	 * notifies each message's {@code ChannelSend}.  Messages that this
+	 * queue's node should retain as a backup are sent to be retained
+	 * before they are sent to the node's channel members.  If sending
+	 * the batch throws a runtime exception, each message's {@code
+	 * ChannelSend} is notified that the send failed.
+	 */
+	private void sendBatch(ChannelSend[] batch) {
+	    boolean success;
+	    try {
+		success = sendBatchToNode(batch);
+	    } catch (RuntimeException e) {
+		logger.logThrow(
+		    Level.WARNING, e,
+		    "sending batch nodeId:{0} size:{1} throws",
+		    nodeId, batch.length);
+		success = false;
+	    }
+	    for (ChannelSend send : batch) {
+		try {
+		    send.sent(nodeId, success);
+		} catch (RuntimeException e) {
+		    logger.logThrow(
+			Level.WARNING, e,
+			"notifying sent message nodeId:{0} channel:{1} throws",
+			nodeId, send.channelRefId);
+		}
+	    }
+	}
+
+	/**
+	 * Sends the specified batch of messages to this queue's node,
+	 * returning {@code true} if the messages were sent, and {@code
+	 * false} if the node is no longer alive.
+	 */
+	private boolean sendBatchToNode(ChannelSend[] batch) {
+	    final BigInteger[] channelRefIds = new BigInteger[batch.length];
+	    final byte[][] messages = new byte[batch.length][];
+	    final long[] timestamps = new long[batch.length];
+	    int numRetained = 0;
+	    for (int i = 0; i < batch.length; i++) {
+		channelRefIds[i] = batch[i].channelRefId;
+		messages[i] = batch[i].message;
+		timestamps[i] = batch[i].timestamp;
+		if (batch[i].backupNodeId == nodeId) {
+		    numRetained++;
+		}
+	    }
+	    final BigInteger[] retainedRefIds = new BigInteger[numRetained];
+	    final byte[][] retainedMessages = new byte[numRetained][];
+	    final long[] retainedTimestamps = new long[numRetained];
+	    final long[] previousTimestamps = new long[numRetained];
+	    for (int i = 0, j = 0; j < numRetained; i++) {
+		if (batch[i].backupNodeId == nodeId) {
+		    retainedRefIds[j] = batch[i].channelRefId;
+		    retainedMessages[j] = batch[i].message;
+		    retainedTimestamps[j] = batch[i].timestamp;
+		    previousTimestamps[j] = batch[i].previousTimestamp;
+		    j++;
+		}
+	    }
+	    long start = System.currentTimeMillis();
+	    boolean success = runIoTask(
+		new IoRunnable() {
+		    public void run() throws IOException {
+			ChannelServer server = getChannelServer(nodeId);
+			if (server != null) {
+			    if (retainedRefIds.length > 0) {
+				server.retain(
+				    retainedRefIds, retainedMessages,
+				    retainedTimestamps, previousTimestamps);
+			    }
+			    server.send(channelRefIds, messages, timestamps);
+			}
+		    } },
+		nodeId);
+	    serviceStats.sendBatchOp.report();
+	    serviceStats.sendBatchMessages.incrementCount(batch.length);
+	    serviceStats.sendLatency(
+		nodeId, System.currentTimeMillis() - start);
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.log(Level.FINEST,
+			   "sent batch nodeId:{0} size:{1} success:{2}",
+			   nodeId, batch.length, success);
+	    }
+	    return success;
+	}
+    }
+
+    /**
+     * Retains the specified reliable channel {@code message} with the
+     * specified {@code timestamp} in memory on this node, so that
+     * relocating client sessions can obtain it if they miss it.  The
+     * {@code previousTimestamp} is the timestamp of the channel's previous
+     * reliable message, or {@code 0} if there was none.  This method
+     * should be called outside of a transaction, in timestamp order for a
+     * given channel.
+     *
+     * @param	channelRefId a channel ID
+     * @param	message a channel message
+     * @param	timestamp the message's timestamp
+     * @param	previousTimestamp the timestamp of the channel's previous
+     *		message
+     */
+    void retainMessage(BigInteger channelRefId, byte[] message,
+		       long timestamp, long previousTimestamp)
+    {
+	ChannelMessageInfo messageInfo =
+	    new ChannelMessageInfo(message, timestamp);
+	while (true) {
+	    RetainedMessages retained = retainedMessagesMap.get(channelRefId);
+	    if (retained == null) {
+		RetainedMessages newRetained = new RetainedMessages();
+		retained = retainedMessagesMap.putIfAbsent(
+		    channelRefId, newRetained);
+		if (retained == null) {
+		    retained = newRetained;
+		}
+	    }
+	    if (retained.add(messageInfo, previousTimestamp)) {
+		return;
+	    }
+	    // The instance was discarded by RemoveExpiredMessagesTask after
+	    // it was obtained, so try again with a new one.
+	}
+    }
+
+    /**
+     * Returns a list containing the channel messages retained on this
+     * node for the channel with the specified {@code channelRefId} with
+     * timestamps between {@code fromTimestamp} and {@code toTimestamp}
+     * inclusive, or {@code null} if this node may not have retained all of
+     * those messages.
+     */
+    private List<ChannelMessageInfo> getLocalRetainedMessages(
+	BigInteger channelRefId, long fromTimestamp, long toTimestamp)
+    {
+	RetainedMessages retained = retainedMessagesMap.get(channelRefId);
+	return
+	    retained != null ?
+	    retained.get(fromTimestamp, toTimestamp) :
+	    null;
+    }
+
+    /**
+     * The reliable messages retained in memory on this node for a channel,
+     * in timestamp order.  Messages are discarded when they expire, or
+     * when the number of messages exceeds the maximum.  Each message is
+     * added along with the timestamp of the channel's previous message, so
+     * an instance can determine the earliest timestamp from which it has
+     * all of the channel's messages.  A node that misses some of a
+     * channel's messages (because it was not the channel's coordinator or
+     * backup at the time) starts retaining messages again from the next
+     * one added.
+     */
+    private final class RetainedMessages {
+
+	/** The retained messages, in timestamp order. */
+	private final LinkedList<ChannelMessageInfo> messages =
+	    new LinkedList<ChannelMessageInfo>();
+
+	/**
+	 * The earliest timestamp from which all unexpired messages are
+	 * retained, or {@code Long.MAX_VALUE} if no message was added.
+	 */
+	private long retainedFrom = Long.MAX_VALUE;
+
+	/** The timestamp of the last message added, or {@code -1}. */
+	private long lastTimestamp = -1L;
+
+	/**
+	 * Whether this instance has been removed from the retained messages
+	 * map, so messages can no longer be added to it.
+	 */
+	private boolean discarded = false;
+
+	/**
+	 * Adds the specified {@code messageInfo}, whose channel's previous
+	 * message has the specified {@code previousTimestamp}, and returns
+	 * {@code true}, or returns {@code false} if this instance has been
+	 * discarded.  Messages that have already been added are ignored.
+	 */
+	synchronized boolean add(
+	    ChannelMessageInfo messageInfo, long previousTimestamp)
+	{
+	    if (discarded) {
+		return false;
+	    } else if (messageInfo.timestamp <= lastTimestamp) {
+		return true;
+	    } else if (previousTimestamp != lastTimestamp) {
+		// Some messages were missed, so start over.
+		messages.clear();
+		retainedFrom = previousTimestamp + 1;
+	    }
+	    messages.add(messageInfo);
+	    lastTimestamp = messageInfo.timestamp;
+	    while (messages.size() > retainedMessagesMax) {
+		ChannelMessageInfo removed = messages.remove();
+		retainedFrom = removed.timestamp + 1;
+	    }
+	    removeExpired();
+	    return true;
+	}
+
+	/**
+	 * Returns a list containing the unexpired messages with timestamps
+	 * between {@code fromTimestamp} and {@code toTimestamp} inclusive,
+	 * or {@code null} if some of those messages may not have been
+	 * retained.
+	 */
+	synchronized List<ChannelMessageInfo> get(
+	    long fromTimestamp, long toTimestamp)
+	{
+	    if (fromTimestamp < retainedFrom) {
+		return null;
+	    }
+	    removeExpired();
+	    List<ChannelMessageInfo> result =
+		new ArrayList<ChannelMessageInfo>();
+	    for (ChannelMessageInfo messageInfo : messages) {
+		if (messageInfo.timestamp > toTimestamp) {
+		    break;
+		} else if (messageInfo.timestamp >= fromTimestamp) {
+		    result.add(messageInfo);
+		}
+	    }
+	    return result;
+	}
+
+	/**
+	 * Removes expired messages, and returns {@code true} if no
+	 * messages remain.
+	 */
+	synchronized boolean removeExpired() {
+	    while (!messages.isEmpty() && messages.peek().isExpired()) {
+		messages.remove();
+	    }
+	    return messages.isEmpty();
+	}
+
+	/**
+	 * Removes expired messages and, if no messages remain, discards
+	 * this instance and removes it from the retained messages map under
+	 * the specified {@code channelRefId}.  Holding this instance's lock
+	 * while doing so means that a message can't be added to it after it
+	 * has been found to be empty but before it is removed from the map.
+	 */
+	synchronized void discardIfEmpty(BigInteger channelRefId) {
+	    if (removeExpired()) {
+		discarded = true;
+		retainedMessagesMap.remove(channelRefId, this);
+	    }
+	}
+    }
+
+    /**
+     * A periodic task to remove expired retained messages, and to discard
+     * the retained messages of channels that have none left.
+     */
+    private final class RemoveExpiredMessagesTask
+	extends AbstractKernelRunnable
+    {
+	/** Constructs an instance. */
+	RemoveExpiredMessagesTask() {
+	    super(null);
+	}
+
+	/** {@inheritDoc} */
+	public void run() {
+	    for (Map.Entry<BigInteger, RetainedMessages> entry :
+		     retainedMessagesMap.entrySet())
+	    {
+		entry.getValue().discardIfEmpty(entry.getKey());
+	    }
+	}
+    }
+
     /**
      * The {@code RecoveryListener} for handling requests to recover
      * for a failed {@code ChannelService}.
@@ -1906,6 +2774,9 @@ public final class ChannelServiceImpl
 
 	    final long nodeId = node.getId();
 	    channelServerCache.remove(nodeId);
+	    // A task already servicing the node's queue still drains it, so
+	    // the messages' senders are still notified.
+	    sendQueues.remove(nodeId);
 	    final TaskService taskService = getTaskService();
 	    try {
 		if (logger.isLoggable(Level.INFO)) {
@@ -2213,20 +3084,32 @@ public final class ChannelServiceImpl
     }
 
     /**
-     * A task to update local channel membership set and send a leave
-     * request to a client session.
+     * A task to send a channel message to a client session.  The message is
+     * encoded by the protocol of the first session it is sent to, and the
+     * encoded message is shared with other sessions whose protocols are
+     * instances of the same class, so that the message is usually only
+     * encoded once for all of the channel's local members.
      */
     private class ChannelSendTask extends ChannelRequestTask {
 
 	private final Delivery delivery;
-	private final byte[] message;
+	private final ByteBuffer message;
+
+	/**
+	 * The class of the protocol that encoded the message, or {@code
+	 * null} if the message has not been encoded.
+	 */
+	private Class<?> encodedFor = null;
+
+	/** The encoded message, or {@code null}. */
+	private ByteBuffer encodedMessage = null;
 
 	ChannelSendTask(BigInteger channelRefId, Delivery delivery,
 			byte[] message)
 	{
 	    super(channelRefId);
 	    this.delivery = delivery;
-	    this.message = message;
+	    this.message = ByteBuffer.wrap(message).asReadOnlyBuffer();
 	}
 	
 	public void run(BigInteger sessionRefId, long timestamp) {
@@ -2266,13 +3149,15 @@ public final class ChannelServiceImpl
 		    // greater than the timestamp of the message to be
 		    // delivered, then this is an earlier message sent
 		    // before the session joined the channel.  Therefore
-		    // don't deliver the message.
+		    // don't deliver the message.  Equal timestamps are
+		    // delivered, since unreliable messages that bypass the
+		    // event queue share the timestamp of the next event.
 		    return;
 		}
 		memberInfo.msgTimestamp = timestamp;
 		try {
-		    protocol.channelMessage(
-			channelRefId, ByteBuffer.wrap(message), delivery);
+		    protocol.encodedChannelMessage(
+			getEncodedMessage(protocol), delivery);
 		} catch (IOException e) {
 		    logger.logThrow(Level.WARNING, e,  "channelMessage " +
 			"session:{0} channel:{0} throws",
@@ -2280,6 +3165,24 @@ public final class ChannelServiceImpl
 		}
 	    }
 	}
+
+	/**
+	 * Returns a duplicate of the message encoded by the specified
+	 * protocol, encoding it if it has not been encoded by a protocol of
+	 * the same class.  This task may be run for different sessions from
+	 * more than one thread, so access to the encoded message is
+	 * synchronized.
+	 */
+	private synchronized ByteBuffer getEncodedMessage(
+	    SessionProtocol protocol)
+	{
+	    if (encodedFor != protocol.getClass()) {
+		encodedMessage =
+		    protocol.encodeChannelMessage(channelRefId, message);
+		encodedFor = protocol.getClass();
+	    }
+	    return encodedMessage.duplicate();
+	}
     }
     
     /**
@@ -23,12 +23,19 @@ package com.sun.sgs.impl.service.channel;
 
 import com.sun.sgs.impl.profile.ProfileCollectorImpl;
 import com.sun.sgs.management.ChannelServiceMXBean;
+import com.sun.sgs.profile.AggregateProfileCounter;
 import com.sun.sgs.profile.AggregateProfileOperation;
+import com.sun.sgs.profile.AggregateProfileSample;
 import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
 import com.sun.sgs.profile.ProfileConsumer;
 import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
+import com.sun.sgs.profile.ProfileCounter;
 import com.sun.sgs.profile.ProfileOperation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * The Statistics MBean object for the channel service.
@@ -37,9 +44,20 @@ class ChannelServiceStats implements ChannelServiceMXBean {
 
     final ProfileOperation createChannelOp;
     final ProfileOperation getChannelOp;
+
+    // Channel message batches sent to channel servers
+    final ProfileOperation sendBatchOp;
+    final ProfileCounter sendBatchMessages;
+
+    /** The consumer, for creating per-node send latency samples. */
+    private final ProfileConsumer consumer;
+
+    /** The send latency samples, in milliseconds, keyed by node ID. */
+    private final ConcurrentMap<Long, AggregateProfileSample>
+        sendLatencies = new ConcurrentHashMap<Long, AggregateProfileSample>();
     
     ChannelServiceStats(ProfileCollector collector) {
-        ProfileConsumer consumer = 
+        consumer = 
             collector.getConsumer(ProfileCollectorImpl.CORE_CONSUMER_PREFIX + 
                                   "ChannelService");
         ProfileLevel level = ProfileLevel.MAX;
@@ -50,6 +68,35 @@ class ChannelServiceStats implements ChannelServiceMXBean {
             consumer.createOperation("createChannel", type, level);
         getChannelOp =
             consumer.createOperation("getChannel", type, level);
+
+        // Batches are sent outside of the tasks that sent the messages,
+        // so only aggregate their statistics
+        sendBatchOp = consumer.createOperation(
+            "sendBatch", ProfileDataType.AGGREGATE, level);
+        sendBatchMessages = consumer.createCounter(
+            "sendBatchMessages", ProfileDataType.AGGREGATE, level);
+    }
+
+    /**
+     * Records the time, in milliseconds, taken to send a batch of channel
+     * messages to the specified node.
+     *
+     * @param nodeId the node ID
+     * @param latency the time taken to send the batch
+     */
+    void sendLatency(long nodeId, long latency) {
+        AggregateProfileSample sample = sendLatencies.get(nodeId);
+        if (sample == null) {
+            sample = (AggregateProfileSample) consumer.createSample(
+                "sendLatency.node" + nodeId, ProfileDataType.AGGREGATE,
+                ProfileLevel.MAX);
+            AggregateProfileSample existing =
+                sendLatencies.putIfAbsent(nodeId, sample);
+            if (existing != null) {
+                sample = existing;
+            }
+        }
+        sample.addSample(latency);
     }
 
     /** {@inheritDoc} */
@@ -61,4 +108,36 @@ class ChannelServiceStats implements ChannelServiceMXBean {
     public long getGetChannelCalls() {
         return ((AggregateProfileOperation) getChannelOp).getCount();
     }
+
+    /** {@inheritDoc} */
+    public long getSendBatchCalls() {
+        return ((AggregateProfileOperation) sendBatchOp).getCount();
+    }
+
+    /** {@inheritDoc} */
+    public long getSendBatchMessages() {
+        return ((AggregateProfileCounter) sendBatchMessages).getCount();
+    }
+
+    /** {@inheritDoc} */
+    public long[] getSendNodeIds() {
+        List<Long> nodeIds = new ArrayList<Long>(sendLatencies.keySet());
+        long[] result = new long[nodeIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = nodeIds.get(i);
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public double getSendLatencyAvg(long nodeId) {
+        AggregateProfileSample sample = sendLatencies.get(nodeId);
+        return (sample == null) ? 0 : sample.getAverage();
+    }
+
+    /** {@inheritDoc} */
+    public long getSendLatencyMax(long nodeId) {
+        AggregateProfileSample sample = sendLatencies.get(nodeId);
+        return (sample == null) ? 0 : sample.getMaxSample();
+    }
 }
@@ -62,5 +62,23 @@ interface ClassSerialization {
      */
     ObjectStreamClass readClassDescriptor(ObjectInputStream in)
 	throws ClassNotFoundException, IOException;
+
+    /**
+     * Returns the class ID associated with a class descriptor, for use by
+     * serialization formats that write class IDs directly.
+     *
+     * @param	classDesc the class descriptor
+     * @return	the class ID
+     */
+    int getClassId(ObjectStreamClass classDesc);
+
+    /**
+     * Returns the class descriptor associated with a class ID, for use by
+     * serialization formats that read class IDs directly.
+     *
+     * @param	classId the class ID
+     * @return	the class descriptor
+     */
+    ObjectStreamClass getClassDesc(int classId);
 }
 
@@ -37,14 +37,13 @@ import java.io.Serializable;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Manages information about class descriptors used to serialize managed
@@ -65,18 +64,34 @@ final class ClassesTable {
     /*
      * Note that using concurrent maps turned out to be too inefficient to be
      * useful.  Because the maps are likely to quickly include all of the
-     * entries needed for steady state operation, supporting fast concurrent
-     * reads via a shared read lock seems like a better approach than
-     * permitting concurrent modifications.  -tjb@sun.com (05/18/2007)
+     * entries needed for steady state operation, the maps are copied on
+     * write and published through volatile fields, so that lookups neither
+     * lock nor allocate.  Updates, including removing entries for
+     * descriptors that have been garbage collected, are made while holding
+     * the lock, and are rare once the maps are filled.
      */
 
     /**
-     * Maps class IDs to class descriptors and associated information.  Use
-     * soft references to the descriptors since they are still useful if
-     * unreferenced, but can be reconstructed if needed.
+     * The largest class ID stored in classDescArray.  Class IDs are
+     * allocated sequentially, so the array is normally all that is needed.
      */
-    private final Map<Integer, ClassDescInfo> classDescMap =
-	new HashMap<Integer, ClassDescInfo>();
+    private static final int MAX_ARRAY_CLASS_ID = 64 * 1024;
+
+    /**
+     * Maps class IDs no greater than MAX_ARRAY_CLASS_ID to class descriptors
+     * and associated information, indexed by class ID, with null for unknown
+     * class IDs.  Use soft references to the descriptors since they are
+     * still useful if unreferenced, but can be reconstructed if needed.
+     */
+    private volatile ClassDescInfo[] classDescArray = new ClassDescInfo[64];
+
+    /**
+     * Maps class IDs not stored in classDescArray to class descriptors and
+     * associated information.  The map is not modified after it is
+     * stored in this field.
+     */
+    private volatile Map<Integer, ClassDescInfo> classDescMap =
+	Collections.emptyMap();
 
     /** Reference queue for cleared ObjectStreamClass soft references. */
     private final ReferenceQueue<ObjectStreamClass> refQueue =
@@ -87,11 +102,10 @@ final class ClassesTable {
      * including class IDs.  Use weak references to the descriptors since they
      * are compared by identity, and so are not useful if no longer referenced.
      */
-    private final Map<ObjectStreamClass, ClassDescInfo> classIdMap =
-	new WeakHashMap<ObjectStreamClass, ClassDescInfo>();
+    private volatile ClassIdTable classIdTable = ClassIdTable.EMPTY;
 
-    /** Lock this lock when accessing classDescMap and classIdMap. */
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Synchronize on this lock when updating the maps. */
+    private final Object lock = new Object();
 
     /**
      * A soft reference holder for class descriptor objects, and associated
@@ -148,24 +162,6 @@ final class ClassesTable {
 		computeMissingConstructorSuperclass(cl);
 	}
 
-	/**
-	 * Removes entries from the map that have been queued after being
-	 * garbage collected.
-	 */
-	static void processQueue(ReferenceQueue<ObjectStreamClass> queue,
-				 Map<Integer, ?> map)
-	{
-	    ClassDescInfo ref;
-	    /*
-	     * Reference queues don't provide a way to specify that the queue
-	     * contains a particular subclass of reference, so the unchecked
-	     * assignment can't be avoided.  -tjb@sun.com (05/18/2007)
-	     */
-	    while ((ref = (ClassDescInfo) (Object) queue.poll()) != null) {
-		map.remove(ref.classId);
-	    }
-	}
-
 	/** Checks if the class can be instantiated. */
 	void checkInstantiable() throws IOException {
 	    if (hasWriteReplace) {
@@ -185,6 +181,94 @@ final class ClassesTable {
 	}
     }
 
+    /**
+     * An immutable hash table that maps class descriptors, compared by
+     * identity and referred to weakly, to class descriptor information.
+     * Uses open addressing with linear probing.
+     */
+    private static final class ClassIdTable {
+
+	/** An empty table. */
+	static final ClassIdTable EMPTY =
+	    new ClassIdTable(new WeakReference<?>[8], new ClassDescInfo[8]);
+
+	/** The keys, with null for unused slots. */
+	private final WeakReference<?>[] keys;
+
+	/** The values. */
+	private final ClassDescInfo[] values;
+
+	/** Creates an instance with the specified keys and values. */
+	private ClassIdTable(WeakReference<?>[] keys, ClassDescInfo[] values) {
+	    this.keys = keys;
+	    this.values = values;
+	}
+
+	/**
+	 * Returns the information for the class descriptor, or null if not
+	 * found.
+	 */
+	ClassDescInfo get(ObjectStreamClass classDesc) {
+	    int mask = keys.length - 1;
+	    for (int i = System.identityHashCode(classDesc) & mask;
+		 true;
+		 i = (i + 1) & mask)
+	    {
+		WeakReference<?> key = keys[i];
+		if (key == null) {
+		    return null;
+		} else if (key.get() == classDesc) {
+		    return values[i];
+		}
+	    }
+	}
+
+	/**
+	 * Returns a new table that contains the entries in this table whose
+	 * keys have not been garbage collected, plus the specified entry.
+	 */
+	ClassIdTable add(ObjectStreamClass classDesc, ClassDescInfo info) {
+	    int count = 1;
+	    for (WeakReference<?> key : keys) {
+		if (key != null && key.get() != null) {
+		    count++;
+		}
+	    }
+	    int length = 8;
+	    while (length < count * 2) {
+		length <<= 1;
+	    }
+	    WeakReference<?>[] newKeys = new WeakReference<?>[length];
+	    ClassDescInfo[] newValues = new ClassDescInfo[length];
+	    for (int i = 0; i < keys.length; i++) {
+		WeakReference<?> key = keys[i];
+		Object k = (key != null) ? key.get() : null;
+		if (k != null) {
+		    insert(newKeys, newValues, k, key, values[i]);
+		}
+	    }
+	    insert(newKeys, newValues, classDesc,
+		   new WeakReference<ObjectStreamClass>(classDesc), info);
+	    return new ClassIdTable(newKeys, newValues);
+	}
+
+	/** Inserts an entry into the specified arrays. */
+	private static void insert(WeakReference<?>[] keys,
+				   ClassDescInfo[] values,
+				   Object k,
+				   WeakReference<?> key,
+				   ClassDescInfo info)
+	{
+	    int mask = keys.length - 1;
+	    int i = System.identityHashCode(k) & mask;
+	    while (keys[i] != null) {
+		i = (i + 1) & mask;
+	    }
+	    keys[i] = key;
+	    values[i] = info;
+	}
+    }
+
     /** Creates an instance with the specified data store. */
     ClassesTable(DataStore store) {
 	this.store = store;
@@ -201,7 +285,7 @@ final class ClassesTable {
 					     ObjectOutputStream out)
 		throws IOException
 	    {
-		Int30.write(getClassId(txn, classDesc), out);
+		Int30.write(ClassesTable.this.getClassId(txn, classDesc), out);
 	    }
 	    public void checkInstantiable(ObjectStreamClass classDesc)
 		throws IOException
@@ -211,7 +295,13 @@ final class ClassesTable {
 	    public ObjectStreamClass readClassDescriptor(ObjectInputStream in)
 		throws ClassNotFoundException, IOException
 	    {
-		return getClassDesc(txn, Int30.read(in));
+		return ClassesTable.this.getClassDesc(txn, Int30.read(in));
+	    }
+	    public int getClassId(ObjectStreamClass classDesc) {
+		return ClassesTable.this.getClassId(txn, classDesc);
+	    }
+	    public ObjectStreamClass getClassDesc(int classId) {
+		return ClassesTable.this.getClassDesc(txn, classId);
 	    }
 	};
     }
@@ -254,14 +344,9 @@ final class ClassesTable {
     private ClassDescInfo getClassDescInfo(
 	Transaction txn, ObjectStreamClass classDesc)
     {
-	lock.readLock().lock();
-	try {
-	    ClassDescInfo info = classIdMap.get(classDesc);
-	    if (info != null) {
-		return info;
-	    }
-	} finally {
-	    lock.readLock().unlock();
+	ClassDescInfo info = classIdTable.get(classDesc);
+	if (info != null) {
+	    return info;
 	}
 	int classId = store.getClassId(txn, getClassInfo(classDesc));
 	if (classId > Int30.MAX_VALUE) {
@@ -279,25 +364,83 @@ final class ClassesTable {
      * may be different from the one passed in if another one was obtained
      * concurrently.
      */
-    private UpdateMapsResult updateMaps(Integer classId,
+    private UpdateMapsResult updateMaps(int classId,
 					ObjectStreamClass classDesc)
     {
-	lock.writeLock().lock();
-	try {
-	    ClassDescInfo.processQueue(refQueue, classDescMap);
-	    ClassDescInfo info = classDescMap.get(classId);
+	synchronized (lock) {
+	    processQueue();
+	    ClassDescInfo info = getClassDescInfo(classId);
 	    ObjectStreamClass existing = (info != null) ? info.get() : null;
 	    if (existing == null) {
 		info = new ClassDescInfo(classId, classDesc, refQueue);
-		classDescMap.put(classId, info);
+		putClassDescInfo(classId, info);
 	    }
-	    if (!classIdMap.containsKey(classDesc)) {
-		classIdMap.put(classDesc, info);
+	    if (classIdTable.get(classDesc) == null) {
+		classIdTable = classIdTable.add(classDesc, info);
 	    }
 	    return new UpdateMapsResult(
 		(existing != null) ? existing :	classDesc, info);
-	} finally {
-	    lock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * Returns the information for the class ID from the current maps, or
+     * null if not found.  Does not lock.
+     */
+    private ClassDescInfo getClassDescInfo(int classId) {
+	if (classId >= 0 && classId <= MAX_ARRAY_CLASS_ID) {
+	    ClassDescInfo[] array = classDescArray;
+	    return (classId < array.length) ? array[classId] : null;
+	} else {
+	    return classDescMap.get(classId);
+	}
+    }
+
+    /**
+     * Stores the information for the class ID, or removes it if info is
+     * null, by replacing the current map.  Must be called while holding the
+     * lock.
+     */
+    private void putClassDescInfo(int classId, ClassDescInfo info) {
+	assert Thread.holdsLock(lock);
+	if (classId >= 0 && classId <= MAX_ARRAY_CLASS_ID) {
+	    ClassDescInfo[] array = classDescArray;
+	    int length = array.length;
+	    while (length <= classId) {
+		length *= 2;
+	    }
+	    ClassDescInfo[] newArray = new ClassDescInfo[length];
+	    System.arraycopy(array, 0, newArray, 0, array.length);
+	    newArray[classId] = info;
+	    classDescArray = newArray;
+	} else {
+	    Map<Integer, ClassDescInfo> newMap =
+		new HashMap<Integer, ClassDescInfo>(classDescMap);
+	    if (info != null) {
+		newMap.put(classId, info);
+	    } else {
+		newMap.remove(classId);
+	    }
+	    classDescMap = newMap;
+	}
+    }
+
+    /**
+     * Removes entries from the class ID maps for descriptors that have been
+     * queued after being garbage collected.  Must be called while holding
+     * the lock.
+     */
+    private void processQueue() {
+	ClassDescInfo ref;
+	/*
+	 * Reference queues don't provide a way to specify that the queue
+	 * contains a particular subclass of reference, so the unchecked
+	 * assignment can't be avoided.  -tjb@sun.com (05/18/2007)
+	 */
+	while ((ref = (ClassDescInfo) (Object) refQueue.poll()) != null) {
+	    if (getClassDescInfo(ref.classId) == ref) {
+		putClassDescInfo(ref.classId, null);
+	    }
 	}
     }
 
@@ -334,17 +477,12 @@ final class ClassesTable {
      *		transaction
      */
     private ObjectStreamClass getClassDesc(Transaction txn, int classId) {
-	lock.readLock().lock();
-	try {
-	    SoftReference<ObjectStreamClass> ref = classDescMap.get(classId);
-	    if (ref != null) {
-		ObjectStreamClass classDesc = ref.get();
-		if (classDesc != null) {
-		    return classDesc;
-		}
+	SoftReference<ObjectStreamClass> ref = getClassDescInfo(classId);
+	if (ref != null) {
+	    ObjectStreamClass classDesc = ref.get();
+	    if (classDesc != null) {
+		return classDesc;
 	    }
-	} finally {
-	    lock.readLock().unlock();
 	}
 	try {
 	    UpdateMapsResult result = updateMaps(
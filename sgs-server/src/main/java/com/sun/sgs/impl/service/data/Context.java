@@ -55,12 +55,27 @@ final class Context extends TransactionContext implements TransactionListener {
      */
     private final int debugCheckInterval;
 
-    /** Whether to detect modifications. */
+    /** Whether the transaction is read-only. */
+    final boolean readOnly;
+
+    /**
+     * Whether to detect modifications.  Always false for read-only
+     * transactions, which cannot modify objects.
+     */
     final boolean detectModifications;
 
+    /**
+     * Whether to detect modifications by comparing fingerprints rather than
+     * serialized forms.
+     */
+    final boolean fingerprintModifications;
+
     /** Controls serializing classes. */
     final ClassSerialization classSerial;
 
+    /** The serializer for writing managed objects. */
+    final ManagedObjectSerializer serializer;
+
     /**
      * The number of operations performed -- used to determine when to make
      * checks on the reference table.
@@ -87,19 +102,24 @@ final class Context extends TransactionContext implements TransactionListener {
 	    Transaction txn,
 	    int debugCheckInterval,
 	    boolean detectModifications,
+	    boolean fingerprintModifications,
 	    ClassesTable classesTable,
+	    ManagedObjectSerializer serializer,
 	    boolean trackStaleObjects)
     {
 	super(txn);
 	assert service != null && store != null && txn != null &&
-	    classesTable != null;
+	    classesTable != null && serializer != null;
 	this.service = service;
 	this.store = store;
 	this.txn = txn;
 	this.debugCheckInterval = debugCheckInterval;
-	this.detectModifications = detectModifications;
+	readOnly = txn.isReadOnly();
+	this.detectModifications = detectModifications && !readOnly;
+	this.fingerprintModifications = fingerprintModifications;
 	refs = new ReferenceTable(trackStaleObjects);
 	classSerial = classesTable.createClassSerialization(this.txn);
+	this.serializer = serializer;
 	txn.registerListener(this);
 	if (logger.isLoggable(Level.FINER)) {
 	    logger.log(Level.FINER, "join tid:{0,number,#}, thread:{1}",
@@ -154,12 +174,14 @@ final class Context extends TransactionContext implements TransactionListener {
 
     /** Sets the object associated with the specified internal name. */
     void setBinding(String internalName, Object object) {
+	checkWritable("set a binding");
 	store.setBindingDescription(txn, internalName, object);
 	store.setBinding(txn, internalName, getReference(object).oid);
     }
 
     /** Removes the object associated with the specified internal name. */
     void removeBinding(String internalName) {
+	checkWritable("remove a binding");
 	store.removeBinding(txn, internalName);
     }
 
@@ -295,6 +317,18 @@ final class Context extends TransactionContext implements TransactionListener {
 	service.checkState();
     }
 
+    /**
+     * Checks that the transaction is not read-only, throwing
+     * IllegalStateException if it is.  The operation should describe the
+     * attempted modification.
+     */
+    void checkWritable(String operation) {
+	if (readOnly) {
+	    throw new IllegalStateException(
+		"Attempt to " + operation + " in a read-only transaction");
+	}
+    }
+
     /** Calls removingObject on the argument, and checks for recursion. */
     void removingObject(ManagedObjectRemoval object) {
 	if (removing == null) {
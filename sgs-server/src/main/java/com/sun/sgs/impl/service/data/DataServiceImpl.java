@@ -28,15 +28,19 @@ import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.NameNotBoundException;
 import com.sun.sgs.app.TransactionAbortedException;
 import com.sun.sgs.app.TransactionNotActiveException;
+import com.sun.sgs.impl.kernel.OptimisticAccessCoordinator;
 import com.sun.sgs.impl.kernel.StandardProperties;
 import com.sun.sgs.impl.service.data.store.DataStoreImpl;
 import com.sun.sgs.impl.service.data.store.DataStoreProfileProducer;
+import com.sun.sgs.impl.service.data.store.db.bdb.BdbEnvironment;
+import com.sun.sgs.impl.service.data.store.db.je.JeEnvironment;
 import com.sun.sgs.impl.service.data.store.net.DataStoreClient;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 import com.sun.sgs.impl.util.AbstractKernelRunnable;
 import com.sun.sgs.impl.util.TransactionContextFactory;
 import com.sun.sgs.impl.util.TransactionContextMap;
+import com.sun.sgs.kernel.AccessCoordinator;
 import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.NodeType;
 import com.sun.sgs.kernel.TransactionScheduler;
@@ -47,6 +51,8 @@ import com.sun.sgs.service.TransactionProxy;
 import com.sun.sgs.service.store.DataStore;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.Collection;
+import java.util.MissingResourceException;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -90,6 +96,24 @@ import javax.management.JMException;
  *	that the modifications are recorded by the
  *	<code>DataService</code>. <p>
  *
+ * <dt> <i>Property:</i> <code><b>{@value
+ *	#DETECT_MODIFICATIONS_FINGERPRINT_PROPERTY}</b></code> <br>
+ *	<i>Default:</i> <code>false</code>
+ *
+ * <dd style="padding-top: .5em">Whether to detect modifications by comparing
+ *	a 64-bit fingerprint of each object's serialized form, computed
+ *	without creating the serialized data, rather than by comparing the
+ *	serialized data itself.  Using fingerprints reduces the memory
+ *	allocated, and retained until the transaction ends, to detect
+ *	modifications, particularly for transactions that read many objects
+ *	but modify few of them, at the cost of a very small chance that a
+ *	modification to an object that was not marked for update will go
+ *	undetected.  Note that this setting does not reduce the amount of
+ *	serialization performed: each object is still serialized, into the
+ *	fingerprint, when it is fetched and again when the transaction
+ *	commits.  This property has no effect unless the {@value
+ *	#DETECT_MODIFICATIONS_PROPERTY} property is <code>true</code>. <p>
+ *
  * <dt> <i>Property:</i> <code><b>{@value #DEBUG_CHECK_INTERVAL_PROPERTY}
  *	</b></code> <br>
  *	<i>Default:</i> <code>Integer.MAX_VALUE</code>
@@ -102,16 +126,30 @@ import javax.management.JMException;
  *
  * <dt> <i>Property:</i> <code><b>{@value #OPTIMISTIC_WRITE_LOCKS}
  *	</b></code><br>
- *	<i>Default:</i> <code>false</code>
+ *	<i>Default:</i> <code>true</code> if the access coordinator is an
+ *	{@link OptimisticAccessCoordinator}, otherwise <code>false</code>
  *
  * <dd style="padding-top: .5em">Whether to wait until commit time to obtain
- *	write locks.  If <code>false</code>, which is the default, the service
- *	acquires write locks as soon as it knows that an object is being
- *	modified.  If <code>true</code>, the service delays obtaining write
- *	locks until commit time, which may improve performance in some cases,
- *	typically when there is low contention.  Note that setting this flag to
+ *	write locks.  If <code>false</code>, the service acquires write locks
+ *	as soon as it knows that an object is being modified.  If
+ *	<code>true</code>, the service delays obtaining write locks until
+ *	commit time, which may improve performance in some cases, typically
+ *	when there is low contention.  Note that setting this flag to
  *	<code>true</code> does not delay write locks when removing objects.<p>
  *
+ * <dt> <i>Property:</i> <code><b>{@value #SERIALIZATION_FORMAT_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> <code>JAVA</code>
+ *
+ * <dd style="padding-top: .5em">The format to use when writing managed
+ *	objects to the data store.  The value <code>JAVA</code> uses standard
+ *	Java serialization.  The value <code>FAST</code> uses a more compact
+ *	format that writes class IDs directly and accesses fields through
+ *	cached reflection, falling back to Java serialization for objects
+ *	that refer to classes with custom serialization methods.  Objects
+ *	written in either format can be read regardless of the value of this
+ *	property. <p>
+ *
  * <dt> <i>Property:</i> <code><b>{@value #TRACK_STALE_OBJECTS_PROPERTY}
  *	</b></code> <br>
  *	<i>Default:</i> <code>false</code>
@@ -127,6 +165,27 @@ import javax.management.JMException;
  * The constructor also passes the properties to the {@link DataStoreImpl}
  * constructor, which supports additional properties. <p>
  *
+ * If the access coordinator is an {@code OptimisticAccessCoordinator}, which
+ * validates object accesses when transactions prepare rather than locking
+ * them, then the constructor changes two defaults: <ul>
+ *
+ * <li> The {@value #OPTIMISTIC_WRITE_LOCKS} property defaults to {@code true},
+ *	so the data store is not asked to lock modified objects until commit.
+ *
+ * <li> The transaction isolation level for the {@link JeEnvironment} and
+ *	{@link BdbEnvironment} database environments defaults to {@code
+ *	READ_COMMITTED}, so reading an object does not acquire a lock in the
+ *	database.  A transaction may then read a value committed after it
+ *	started.  Because the access is reported to the coordinator before
+ *	the object is read, validation aborts such a transaction when it
+ *	prepares.  Writes still acquire database locks at commit.
+ * </ul> <p>
+ *
+ * Specifying either property explicitly overrides these defaults.  Note
+ * that, with these defaults, a task may see a mix of older and newer object
+ * states until its transaction is validated, and an exception that it throws
+ * because of that state is not retried unless it is retryable. <p>
+ *
  * This class uses the {@link Logger} named
  * <code>com.sun.sgs.impl.service.data.DataServiceImpl</code> to log
  * information at the following logging levels: <p>
@@ -178,6 +237,13 @@ public final class DataServiceImpl implements DataService {
     public static final String DETECT_MODIFICATIONS_PROPERTY =
 	CLASSNAME + ".detect.modifications";
 
+    /**
+     * The property that specifies whether to detect modifications by
+     * comparing fingerprints of the serialized forms of objects.
+     */
+    public static final String DETECT_MODIFICATIONS_FINGERPRINT_PROPERTY =
+	DETECT_MODIFICATIONS_PROPERTY + ".fingerprint";
+
     /**
      * The property that specifies the name of the class that implements
      * {@link DataStore}.
@@ -189,6 +255,12 @@ public final class DataServiceImpl implements DataService {
     public static final String OPTIMISTIC_WRITE_LOCKS =
 	CLASSNAME + ".optimistic.write.locks";
 
+    /**
+     * The property that specifies the format for writing managed objects.
+     */
+    public static final String SERIALIZATION_FORMAT_PROPERTY =
+	CLASSNAME + ".serialization.format";
+
     /** The property that specifies whether to track stale objects. */
     public static final String TRACK_STALE_OBJECTS_PROPERTY =
 	CLASSNAME + ".track.stale.objects";
@@ -230,6 +302,12 @@ public final class DataServiceImpl implements DataService {
     /** Whether to track stale objects. */
     private final boolean trackStaleObjects;
 
+    /** The serializer for writing managed objects. */
+    private final ManagedObjectSerializer serializer;
+
+    /** Whether to detect modifications using fingerprints. */
+    private final boolean fingerprintModifications;
+
     /** The data service profiling information. */
     private final DataServiceStats serviceStats;
     
@@ -312,7 +390,9 @@ public final class DataServiceImpl implements DataService {
 	    }
 	    return new Context(
 		DataServiceImpl.this, store, txn, debugCheckInterval,
-		detectModifications, classesTable, trackStaleObjects);
+		detectModifications, fingerprintModifications, classesTable,
+		serializer,
+		trackStaleObjects);
 	}
     }
 
@@ -356,31 +436,42 @@ public final class DataServiceImpl implements DataService {
 		DEBUG_CHECK_INTERVAL_PROPERTY, Integer.MAX_VALUE);
 	    detectModifications = wrappedProps.getBooleanProperty(
 		DETECT_MODIFICATIONS_PROPERTY, Boolean.TRUE);
+	    fingerprintModifications = wrappedProps.getBooleanProperty(
+		DETECT_MODIFICATIONS_FINGERPRINT_PROPERTY, Boolean.FALSE);
 	    String dataStoreClassName = wrappedProps.getProperty(
 		DATA_STORE_CLASS_PROPERTY);
+	    boolean optimisticAccess =
+		usesOptimisticAccessCoordinator(systemRegistry);
 	    optimisticWriteLocks = wrappedProps.getBooleanProperty(
-		OPTIMISTIC_WRITE_LOCKS, Boolean.FALSE);
+		OPTIMISTIC_WRITE_LOCKS, optimisticAccess);
 	    trackStaleObjects = wrappedProps.getBooleanProperty(
 		TRACK_STALE_OBJECTS_PROPERTY, Boolean.FALSE);
+	    SerialUtil.Format serializationFormat =
+		wrappedProps.getEnumProperty(SERIALIZATION_FORMAT_PROPERTY,
+					     SerialUtil.Format.class,
+					     SerialUtil.Format.JAVA);
+	    serializer = serializationFormat.serializer;
             NodeType nodeType = 
                 wrappedProps.getEnumProperty(StandardProperties.NODE_TYPE, 
                                              NodeType.class, 
                                              NodeType.singleNode);
 
+	    Properties storeProperties = optimisticAccess
+		? getOptimisticStoreProperties(properties) : properties;
 	    DataStore baseStore;
 	    if (dataStoreClassName != null) {
 		baseStore = wrappedProps.getClassInstanceProperty(
 		    DATA_STORE_CLASS_PROPERTY, DataStore.class,
 		    new Class[] { Properties.class, ComponentRegistry.class,
 				  TransactionProxy.class },
-		    properties, systemRegistry, txnProxy);
+		    storeProperties, systemRegistry, txnProxy);
 		logger.log(Level.CONFIG, "Using data store {0}", baseStore);
 	    } else if (nodeType == NodeType.singleNode) {
 		baseStore = new DataStoreImpl(
-		    properties, systemRegistry, txnProxy);
+		    storeProperties, systemRegistry, txnProxy);
 	    } else {
 		baseStore = new DataStoreClient(
-		    properties, systemRegistry, txnProxy);
+		    storeProperties, systemRegistry, txnProxy);
 	    }
             storeToShutdown = baseStore;
             ProfileCollector collector = 
@@ -437,8 +528,12 @@ public final class DataServiceImpl implements DataService {
                        debugCheckInterval +
                        "\n  " + DETECT_MODIFICATIONS_PROPERTY + "=" +
                        detectModifications +
+                       "\n  " + DETECT_MODIFICATIONS_FINGERPRINT_PROPERTY +
+                       "=" + fingerprintModifications +
                        "\n  " + OPTIMISTIC_WRITE_LOCKS + "=" +
                        optimisticWriteLocks +
+                       "\n  " + SERIALIZATION_FORMAT_PROPERTY + "=" +
+                       serializationFormat +
                        "\n  " + TRACK_STALE_OBJECTS_PROPERTY + "=" +
                        trackStaleObjects);
             
@@ -509,6 +604,7 @@ public final class DataServiceImpl implements DataService {
 	try {
 	    checkManagedObject(object);
 	    context = getContext();
+	    context.checkWritable("remove a managed object");
 	    ref = context.findReference(object);
 	    if (object instanceof ManagedObjectRemoval) {
 		context.removingObject((ManagedObjectRemoval) object);
@@ -549,6 +645,7 @@ public final class DataServiceImpl implements DataService {
 	try {
 	    checkManagedObject(object);
 	    context = getContext();
+	    context.checkWritable("mark a managed object for update");
 	    ref = context.findReference(object);
 	    if (ref != null) {
 		ref.markForUpdate();
@@ -869,6 +966,47 @@ public final class DataServiceImpl implements DataService {
 	    ", store:" + store + "\"]";
     }
 
+    /**
+     * Provides a hint that the objects referred to by the specified managed
+     * references are likely to be needed by the current transaction, so that
+     * they can be obtained from the data store with a single request.  The
+     * objects are obtained for read, and the references that are not yet
+     * dereferenced will return the prefetched objects when {@link
+     * ManagedReference#get get} is called.  Objects that are not found, or
+     * references that were not created by the current transaction, are
+     * ignored.
+     *
+     * @param	refs the managed references
+     * @throws	TransactionNotActiveException if the transaction is not active
+     */
+    public void prefetchReferences(
+	Collection<? extends ManagedReference<?>> refs)
+    {
+	Context context = null;
+	try {
+	    if (refs == null) {
+		throw new NullPointerException("The refs must not be null");
+	    }
+	    context = getContext();
+	    ManagedReferenceImpl.fetchAll(context, refs);
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.log(Level.FINEST,
+			   "prefetchReferences tid:{0,number,#}, count:{1}" +
+			   " returns",
+			   contextTxnId(context), refs.size());
+	    }
+	} catch (RuntimeException e) {
+	    LoggerWrapper exceptionLogger = getExceptionLogger(e);
+	    if (exceptionLogger.isLoggable(Level.FINEST)) {
+		exceptionLogger.logThrow(
+		    Level.FINEST, e,
+		    "prefetchReferences tid:{0,number,#} throws",
+		    contextTxnId(context));
+	    }
+	    throw e;
+	}
+    }
+
     /**
      * Specifies the number of operations to skip between checks of the
      * consistency of the managed references table.
@@ -1091,6 +1229,49 @@ public final class DataServiceImpl implements DataService {
 	}
     }
 
+    /**
+     * Returns whether the access coordinator in the registry is an {@link
+     * OptimisticAccessCoordinator}.  Returns false if the registry does not
+     * contain an access coordinator, as may be the case in tests.
+     */
+    private static boolean usesOptimisticAccessCoordinator(
+	ComponentRegistry systemRegistry)
+    {
+	try {
+	    return systemRegistry.getComponent(AccessCoordinator.class)
+		instanceof OptimisticAccessCoordinator;
+	} catch (MissingResourceException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * Returns properties for the data store that default the database
+     * transaction isolation level to READ_COMMITTED, so that reads do not
+     * acquire database locks, leaving read validation to the optimistic
+     * access coordinator.  Explicitly specified isolation levels are
+     * retained.
+     */
+    private static Properties getOptimisticStoreProperties(
+	Properties properties)
+    {
+	Properties result = new Properties();
+	for (String name : properties.stringPropertyNames()) {
+	    result.setProperty(name, properties.getProperty(name));
+	}
+	String readCommitted = "READ_COMMITTED";
+	if (result.getProperty(JeEnvironment.TXN_ISOLATION_PROPERTY) == null) {
+	    result.setProperty(
+		JeEnvironment.TXN_ISOLATION_PROPERTY, readCommitted);
+	}
+	if (result.getProperty(BdbEnvironment.TXN_ISOLATION_PROPERTY) == null)
+	{
+	    result.setProperty(
+		BdbEnvironment.TXN_ISOLATION_PROPERTY, readCommitted);
+	}
+	return result;
+    }
+
     /**
      * Returns the logger that should be used to log the specified exception.
      * In particular, use the abortLogger for TransactionAbortedException, and
@@ -0,0 +1,1386 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.service.data;
+
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ObjectIOException;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.Objects;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a compact, reflection-based serialization format for managed
+ * objects that avoids the overhead of {@link ObjectOutputStream} and {@link
+ * ObjectInputStream}. <p>
+ *
+ * The format writes class IDs obtained from the {@link ClassesTable} rather
+ * than class descriptors, caches per-class field accessors, writes directly
+ * into a buffer that is reused by each thread, and reads directly from the
+ * byte array obtained from the data store.  Serialized data starts with the
+ * {@link #FORMAT} byte, which distinguishes it from data written with Java
+ * serialization. <p>
+ *
+ * The format only supports object graphs whose classes use default
+ * serialization.  If the graph contains an instance of a class that defines
+ * {@code writeObject}, {@code readObject}, {@code readObjectNoData}, {@code
+ * writeReplace}, {@code readResolve}, or {@code serialPersistentFields}, that
+ * implements {@link Externalizable}, or whose fields cannot be accessed
+ * reflectively, then the whole object is written using Java serialization
+ * instead, and objects of the same top level class are written that way from
+ * then on.  Note that data written in this format is read by assigning
+ * fields directly, so classes whose instances have been stored in this
+ * format should not later add custom serialization methods. <p>
+ *
+ * Instances are created when reading the same way Java serialization creates
+ * them, by calling the no-argument constructor of the first non-serializable
+ * superclass.  To do that using only public APIs, this class has an {@link
+ * ObjectInputStream} read a batch of instances from a stream it constructs
+ * whose class descriptors list no fields, and then assigns the fields of
+ * each instance as it is read. <p>
+ *
+ * This class is thread safe.
+ */
+final class FastSerializer implements ManagedObjectSerializer {
+
+    /** The initial byte of data written in this format. */
+    static final byte FORMAT = 3;
+
+    /** The singleton instance. */
+    static final FastSerializer INSTANCE = new FastSerializer();
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger =
+	new LoggerWrapper(Logger.getLogger(FastSerializer.class.getName()));
+
+    /* -- Tags that identify the kind of value that follows -- */
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_HANDLE = 1;
+    private static final byte TAG_REFERENCE = 2;
+    private static final byte TAG_STRING = 3;
+    private static final byte TAG_ENUM = 4;
+    private static final byte TAG_ARRAY = 5;
+    private static final byte TAG_OBJECT = 6;
+    private static final byte TAG_INTEGER = 7;
+    private static final byte TAG_LONG = 8;
+    private static final byte TAG_BOOLEAN = 9;
+    private static final byte TAG_BYTE = 10;
+    private static final byte TAG_SHORT = 11;
+    private static final byte TAG_CHARACTER = 12;
+    private static final byte TAG_FLOAT = 13;
+    private static final byte TAG_DOUBLE = 14;
+
+    /** The number of instances of a class to create at one time. */
+    private static final int INSTANCE_BATCH_SIZE = 16;
+
+    /** Maps classes to information for writing and creating instances. */
+    private final Cache<Class<?>, ClassInfo> classInfoCache =
+	new Cache<Class<?>, ClassInfo>();
+
+    /**
+     * Maps class descriptors obtained from the classes table to information
+     * for reading the fields they describe.
+     */
+    private final Cache<ObjectStreamClass, ReadLevel> readLevelCache =
+	new Cache<ObjectStreamClass, ReadLevel>();
+
+    /** The output buffer for each thread. */
+    private final ThreadLocal<Output> threadOutput =
+	new ThreadLocal<Output>() {
+	    protected Output initialValue() {
+		return new Output();
+	    }
+	};
+
+    /** Creates the singleton instance. */
+    private FastSerializer() { }
+
+    /* -- Implement ManagedObjectSerializer -- */
+
+    /** {@inheritDoc} */
+    public byte[] serialize(ManagedObject object,
+			    ClassSerialization classSerial)
+	throws IOException
+    {
+	ClassInfo topInfo = getClassInfo(object.getClass());
+	if (topInfo.useJava) {
+	    return SerialUtil.JAVA_SERIALIZER.serialize(object, classSerial);
+	}
+	Output out = threadOutput.get();
+	if (out.inUse) {
+	    /* Reentrant call -- use a fresh buffer */
+	    out = new Output();
+	}
+	out.start(object, classSerial);
+	try {
+	    out.writeValue(object);
+	    return out.toByteArray();
+	} catch (UseJavaSerialization e) {
+	    if (logger.isLoggable(Level.FINER)) {
+		logger.log(Level.FINER,
+			   "Using Java serialization for {0}: {1}",
+			   object.getClass().getName(), e.getMessage());
+	    }
+	    topInfo.useJava = true;
+	    return SerialUtil.JAVA_SERIALIZER.serialize(object, classSerial);
+	} finally {
+	    out.finish();
+	}
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation computes the fingerprint over the thread's output
+     * buffer, so it avoids allocating a copy of the serialized data.
+     */
+    public long fingerprint(ManagedObject object,
+			    ClassSerialization classSerial)
+	throws IOException
+    {
+	ClassInfo topInfo = getClassInfo(object.getClass());
+	if (topInfo.useJava) {
+	    return SerialUtil.JAVA_SERIALIZER.fingerprint(object, classSerial);
+	}
+	Output out = threadOutput.get();
+	if (out.inUse) {
+	    out = new Output();
+	}
+	out.start(object, classSerial);
+	try {
+	    out.writeValue(object);
+	    return out.fingerprint();
+	} catch (UseJavaSerialization e) {
+	    topInfo.useJava = true;
+	    return SerialUtil.JAVA_SERIALIZER.fingerprint(object, classSerial);
+	} finally {
+	    out.finish();
+	}
+    }
+
+    /** {@inheritDoc} */
+    public Object deserialize(byte[] data, ClassSerialization classSerial)
+	throws IOException
+    {
+	if (data.length == 0 || data[0] != FORMAT) {
+	    throw new StreamCorruptedException(
+		"Unexpected initial byte: " +
+		(data.length > 0 ? data[0] : -1));
+	}
+	Input in = new Input(data, classSerial);
+	Object result = in.readValue();
+	if (in.pos != data.length) {
+	    throw new StreamCorruptedException(
+		"Unexpected data after object");
+	}
+	return result;
+    }
+
+    /* -- Class information -- */
+
+    /**
+     * Thrown when an object graph contains an instance of a class that this
+     * format does not support, so that the object should be written using
+     * Java serialization.
+     */
+    private static final class UseJavaSerialization
+	extends RuntimeException
+    {
+	private static final long serialVersionUID = 1;
+	UseJavaSerialization(String message) {
+	    super(message);
+	}
+    }
+
+    /** The kinds of classes handled by this format. */
+    private enum Kind {
+	/** Not serializable. */
+	NOT_SERIALIZABLE,
+	/** Requires Java serialization. */
+	JAVA,
+	/** An enum. */
+	ENUM,
+	/** An array. */
+	ARRAY,
+	/** A class using default serialization. */
+	OBJECT
+    }
+
+    /** Information about a local class. */
+    private static final class ClassInfo {
+
+	/** The class. */
+	final Class<?> cl;
+
+	/** The kind of class. */
+	final Kind kind;
+
+	/** Why Java serialization is required, if kind is JAVA. */
+	final String javaReason;
+
+	/** The class descriptor, or null if not serializable. */
+	final ObjectStreamClass desc;
+
+	/**
+	 * For OBJECT classes, the serializable classes in the hierarchy,
+	 * starting with the topmost superclass.
+	 */
+	final WriteLevel[] levels;
+
+	/**
+	 * Whether top level objects of this class should be written using
+	 * Java serialization because their object graph contained an
+	 * unsupported class.
+	 */
+	volatile boolean useJava;
+
+	/**
+	 * A Java serialization stream containing a batch of instances, or null
+	 * if not computed.
+	 */
+	private byte[] instancesStream;
+
+	/** Instances that have been created but not yet returned. */
+	private final ArrayDeque<Object> instances = new ArrayDeque<Object>();
+
+	ClassInfo(Class<?> cl) {
+	    this.cl = cl;
+	    String reason = null;
+	    WriteLevel[] computedLevels = null;
+	    Kind computedKind;
+	    if (!Serializable.class.isAssignableFrom(cl)) {
+		computedKind = Kind.NOT_SERIALIZABLE;
+	    } else if (cl.isEnum() ||
+		       (cl.getSuperclass() != null &&
+			cl.getSuperclass().isEnum()))
+	    {
+		computedKind = Kind.ENUM;
+	    } else if (cl.isArray()) {
+		computedKind = Kind.ARRAY;
+	    } else {
+		reason = checkDefaultSerialization(cl);
+		if (reason == null) {
+		    try {
+			computedLevels = computeLevels(cl);
+		    } catch (RuntimeException e) {
+			/* Includes failures to make fields accessible */
+			reason = "fields are not accessible: " + e;
+		    } catch (NoSuchFieldException e) {
+			reason = "field not found: " + e.getMessage();
+		    }
+		}
+		computedKind = (reason == null) ? Kind.OBJECT : Kind.JAVA;
+	    }
+	    kind = computedKind;
+	    javaReason = reason;
+	    levels = computedLevels;
+	    desc = (kind == Kind.NOT_SERIALIZABLE)
+		? null : ObjectStreamClass.lookup(cl);
+	}
+
+	/**
+	 * Returns a new instance created without calling the constructors of
+	 * serializable classes, as Java serialization does.
+	 */
+	synchronized Object newInstance() throws IOException {
+	    if (instances.isEmpty()) {
+		if (instancesStream == null) {
+		    instancesStream = createInstancesStream(cl);
+		}
+		ObjectInputStream in = new InstancesInputStream(
+		    instancesStream, cl);
+		try {
+		    for (int i = 0; i < INSTANCE_BATCH_SIZE; i++) {
+			instances.add(in.readObject());
+		    }
+		} catch (ClassNotFoundException e) {
+		    IOException ioe = new IOException(
+			"Problem creating instance of " + cl.getName() +
+			": " + e);
+		    ioe.initCause(e);
+		    throw ioe;
+		}
+	    }
+	    return instances.remove();
+	}
+    }
+
+    /**
+     * Returns a Java serialization stream that contains {@link
+     * #INSTANCE_BATCH_SIZE} instances of the class, which must use default
+     * serialization.  The class descriptors in the stream list no fields, so
+     * the fields of the instances read from it have their default values.
+     */
+    private static byte[] createInstancesStream(Class<?> cl)
+	throws IOException
+    {
+	List<ObjectStreamClass> descs = new ArrayList<ObjectStreamClass>();
+	for (Class<?> c = cl;
+	     c != null && Serializable.class.isAssignableFrom(c);
+	     c = c.getSuperclass())
+	{
+	    descs.add(ObjectStreamClass.lookup(c));
+	}
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
+	out.writeShort(ObjectStreamConstants.STREAM_MAGIC);
+	out.writeShort(ObjectStreamConstants.STREAM_VERSION);
+	for (int i = 0; i < INSTANCE_BATCH_SIZE; i++) {
+	    out.writeByte(ObjectStreamConstants.TC_OBJECT);
+	    if (i > 0) {
+		/*
+		 * Refer back to the class descriptor written for the first
+		 * instance, which was assigned the first handle
+		 */
+		out.writeByte(ObjectStreamConstants.TC_REFERENCE);
+		out.writeInt(ObjectStreamConstants.baseWireHandle);
+	    } else {
+		writeClassDescs(out, descs);
+	    }
+	}
+	out.flush();
+	return bytes.toByteArray();
+    }
+
+    /**
+     * Writes class descriptors, without fields, for a class and its
+     * serializable superclasses, starting with the class itself, using the
+     * format of Java serialization.
+     */
+    private static void writeClassDescs(
+	DataOutputStream out, List<ObjectStreamClass> descs)
+	throws IOException
+    {
+	for (ObjectStreamClass desc : descs) {
+	    out.writeByte(ObjectStreamConstants.TC_CLASSDESC);
+	    out.writeUTF(desc.getName());
+	    out.writeLong(desc.getSerialVersionUID());
+	    out.writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+	    out.writeShort(0);
+	    out.writeByte(ObjectStreamConstants.TC_ENDBLOCKDATA);
+	}
+	out.writeByte(ObjectStreamConstants.TC_NULL);
+    }
+
+    /**
+     * An object input stream that reads a stream created by {@link
+     * #createInstancesStream createInstancesStream}, resolving classes to
+     * the ones in the hierarchy of the class being created.
+     */
+    private static final class InstancesInputStream
+	extends ObjectInputStream
+    {
+	/** Maps class names to the serializable classes in the hierarchy. */
+	private final Map<String, Class<?>> classes =
+	    new HashMap<String, Class<?>>();
+
+	InstancesInputStream(byte[] stream, Class<?> cl) throws IOException {
+	    super(new ByteArrayInputStream(stream));
+	    for (Class<?> c = cl; c != null; c = c.getSuperclass()) {
+		classes.put(c.getName(), c);
+	    }
+	}
+
+	@Override
+	protected Class<?> resolveClass(ObjectStreamClass desc)
+	    throws IOException, ClassNotFoundException
+	{
+	    Class<?> cl = classes.get(desc.getName());
+	    return (cl != null) ? cl : super.resolveClass(desc);
+	}
+    }
+
+    /**
+     * Returns a description of why the class cannot use this format, or null
+     * if it uses default serialization throughout its hierarchy.
+     */
+    private static String checkDefaultSerialization(Class<?> cl) {
+	if (Proxy.isProxyClass(cl)) {
+	    return "proxy class";
+	} else if (Externalizable.class.isAssignableFrom(cl)) {
+	    return "class is externalizable";
+	} else if (cl == Class.class || cl == ObjectStreamClass.class) {
+	    return "class has special serialization";
+	}
+	for (Class<?> c = cl; c != null; c = c.getSuperclass()) {
+	    if (hasMethod(c, "writeReplace") || hasMethod(c, "readResolve")) {
+		return "class " + c.getName() +
+		    " defines writeReplace or readResolve";
+	    } else if (!Serializable.class.isAssignableFrom(c)) {
+		continue;
+	    } else if (hasMethod(c, "writeObject", ObjectOutputStream.class) ||
+		       hasMethod(c, "readObject", ObjectInputStream.class) ||
+		       hasMethod(c, "readObjectNoData"))
+	    {
+		return "class " + c.getName() +
+		    " defines custom serialization methods";
+	    }
+	    try {
+		c.getDeclaredField("serialPersistentFields");
+		return "class " + c.getName() +
+		    " defines serialPersistentFields";
+	    } catch (NoSuchFieldException e) {
+	    }
+	}
+	return null;
+    }
+
+    /** Checks if a class declares a method with the specified signature. */
+    private static boolean hasMethod(
+	Class<?> cl, String name, Class<?>... parameterTypes)
+    {
+	try {
+	    Method method = cl.getDeclaredMethod(name, parameterTypes);
+	    return !Modifier.isStatic(method.getModifiers());
+	} catch (NoSuchMethodException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * Computes the serializable classes in the hierarchy of a class using
+     * default serialization, starting with the topmost superclass.
+     */
+    private static WriteLevel[] computeLevels(Class<?> cl)
+	throws NoSuchFieldException
+    {
+	List<WriteLevel> list = new ArrayList<WriteLevel>();
+	for (Class<?> c = cl;
+	     c != null && Serializable.class.isAssignableFrom(c);
+	     c = c.getSuperclass())
+	{
+	    list.add(0, new WriteLevel(c));
+	}
+	return list.toArray(new WriteLevel[list.size()]);
+    }
+
+    /** Information for writing the fields declared by a single class. */
+    private static final class WriteLevel {
+
+	/** The class descriptor. */
+	final ObjectStreamClass desc;
+
+	/** The fields, in the order specified by the class descriptor. */
+	final Field[] fields;
+
+	/** The type codes of the fields. */
+	final char[] typeCodes;
+
+	WriteLevel(Class<?> cl) throws NoSuchFieldException {
+	    desc = ObjectStreamClass.lookup(cl);
+	    ObjectStreamField[] descFields = desc.getFields();
+	    fields = new Field[descFields.length];
+	    typeCodes = new char[descFields.length];
+	    for (int i = 0; i < descFields.length; i++) {
+		Field field = cl.getDeclaredField(descFields[i].getName());
+		field.setAccessible(true);
+		fields[i] = field;
+		typeCodes[i] = descFields[i].getTypeCode();
+	    }
+	}
+    }
+
+    /**
+     * Information for reading the fields described by a class descriptor
+     * obtained from the classes table, which may differ from those of the
+     * current version of the class.
+     */
+    private static final class ReadLevel {
+
+	/** The local class. */
+	final Class<?> cl;
+
+	/** The type codes of the stored fields. */
+	final char[] typeCodes;
+
+	/**
+	 * The local fields to set for each stored field, with null elements
+	 * for stored fields that are no longer present.
+	 */
+	final Field[] fields;
+
+	ReadLevel(ObjectStreamClass desc) throws IOException {
+	    cl = desc.forClass();
+	    if (cl == null) {
+		throw new IOException(
+		    "No local class for " + desc.getName());
+	    }
+	    ObjectStreamField[] descFields = desc.getFields();
+	    typeCodes = new char[descFields.length];
+	    fields = new Field[descFields.length];
+	    ObjectStreamClass localDesc = ObjectStreamClass.lookup(cl);
+	    for (int i = 0; i < descFields.length; i++) {
+		ObjectStreamField descField = descFields[i];
+		typeCodes[i] = descField.getTypeCode();
+		ObjectStreamField localField = (localDesc == null)
+		    ? null : localDesc.getField(descField.getName());
+		if (localField == null) {
+		    continue;
+		} else if (localField.isPrimitive() !=
+			   descField.isPrimitive() ||
+			   (localField.isPrimitive() &&
+			    localField.getTypeCode() != typeCodes[i]))
+		{
+		    throw new IOException(
+			"Incompatible types for field " + descField.getName() +
+			" of class " + cl.getName());
+		}
+		try {
+		    Field field = cl.getDeclaredField(descField.getName());
+		    field.setAccessible(true);
+		    fields[i] = field;
+		} catch (NoSuchFieldException e) {
+		    /* Leave the field unset */
+		} catch (RuntimeException e) {
+		    IOException ioe = new IOException(
+			"Field " + descField.getName() + " of class " +
+			cl.getName() + " is not accessible: " + e);
+		    ioe.initCause(e);
+		    throw ioe;
+		}
+	    }
+	}
+    }
+
+    /** Returns information about a local class. */
+    private ClassInfo getClassInfo(Class<?> cl) {
+	ClassInfo info = classInfoCache.get(cl);
+	if (info == null) {
+	    info = new ClassInfo(cl);
+	    classInfoCache.put(cl, info);
+	}
+	return info;
+    }
+
+    /** Returns information for reading a stored class descriptor. */
+    private ReadLevel getReadLevel(ObjectStreamClass desc)
+	throws IOException
+    {
+	ReadLevel level = readLevelCache.get(desc);
+	if (level == null) {
+	    level = new ReadLevel(desc);
+	    readLevelCache.put(desc, level);
+	}
+	return level;
+    }
+
+    /**
+     * A concurrent cache whose keys are compared by identity and held weakly,
+     * and whose values are held softly, so that neither prevents classes from
+     * being unloaded.
+     */
+    private static final class Cache<K, V> {
+
+	/** The map. */
+	private final ConcurrentMap<Object, SoftReference<V>> map =
+	    new ConcurrentHashMap<Object, SoftReference<V>>();
+
+	/** The queue of keys that have been garbage collected. */
+	private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+	/** Returns the value for a key, or null. */
+	V get(K key) {
+	    SoftReference<V> ref = map.get(new LookupKey(key));
+	    return (ref == null) ? null : ref.get();
+	}
+
+	/** Stores a value for a key. */
+	void put(K key, V value) {
+	    Reference<? extends K> cleared;
+	    while ((cleared = queue.poll()) != null) {
+		map.remove(cleared);
+	    }
+	    map.put(new WeakKey<K>(key, queue), new SoftReference<V>(value));
+	}
+    }
+
+    /** A key that refers to its object weakly and compares by identity. */
+    private static final class WeakKey<K> extends WeakReference<K> {
+	private final int hash;
+	WeakKey(K key, ReferenceQueue<K> queue) {
+	    super(key, queue);
+	    hash = System.identityHashCode(key);
+	}
+	public int hashCode() {
+	    return hash;
+	}
+	public boolean equals(Object other) {
+	    if (this == other) {
+		return true;
+	    }
+	    Object key = get();
+	    if (key == null) {
+		return false;
+	    } else if (other instanceof WeakKey) {
+		return key == ((WeakKey<?>) other).get();
+	    } else if (other instanceof LookupKey) {
+		return key == ((LookupKey) other).key;
+	    } else {
+		return false;
+	    }
+	}
+    }
+
+    /** A temporary key for lookups, which compares by identity. */
+    private static final class LookupKey {
+	final Object key;
+	LookupKey(Object key) {
+	    this.key = key;
+	}
+	public int hashCode() {
+	    return System.identityHashCode(key);
+	}
+	public boolean equals(Object other) {
+	    if (other instanceof LookupKey) {
+		return key == ((LookupKey) other).key;
+	    } else if (other instanceof WeakKey) {
+		return key == ((WeakKey<?>) other).get();
+	    } else {
+		return false;
+	    }
+	}
+    }
+
+    /* -- Writing -- */
+
+    /**
+     * A reusable buffer for writing serialized data, along with the state
+     * for a single call to serialize.
+     */
+    private final class Output {
+
+	/** The initial buffer size. */
+	private static final int INITIAL_SIZE = 256;
+
+	/**
+	 * The largest buffer to retain between calls, to avoid holding on to
+	 * the space used by an unusually large object.
+	 */
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	/** The buffer. */
+	private byte[] buf = new byte[INITIAL_SIZE];
+
+	/** The number of bytes written. */
+	private int count;
+
+	/** Maps objects written to their handles. */
+	private final IdentityHashMap<Object, Integer> handles =
+	    new IdentityHashMap<Object, Integer>();
+
+	/** Maps class descriptors written to their class IDs. */
+	private final IdentityHashMap<ObjectStreamClass, Integer> classIds =
+	    new IdentityHashMap<ObjectStreamClass, Integer>();
+
+	/** The top level object being written. */
+	private ManagedObject topLevelObject;
+
+	/** Controls writing of class information. */
+	private ClassSerialization classSerial;
+
+	/** Whether this buffer is being used by a call to serialize. */
+	boolean inUse;
+
+	/** Prepares for writing the specified top level object. */
+	void start(ManagedObject topLevelObject,
+		   ClassSerialization classSerial)
+	{
+	    inUse = true;
+	    this.topLevelObject = topLevelObject;
+	    this.classSerial = classSerial;
+	    count = 0;
+	    writeByte(FORMAT);
+	}
+
+	/** Clears the state after a call to serialize. */
+	void finish() {
+	    inUse = false;
+	    topLevelObject = null;
+	    classSerial = null;
+	    handles.clear();
+	    classIds.clear();
+	    if (buf.length > MAX_RETAINED_SIZE) {
+		buf = new byte[INITIAL_SIZE];
+	    }
+	}
+
+	/** Returns a copy of the data written. */
+	byte[] toByteArray() {
+	    byte[] result = new byte[count];
+	    System.arraycopy(buf, 0, result, 0, count);
+	    return result;
+	}
+
+	/** Returns a fingerprint of the data written. */
+	long fingerprint() {
+	    return SerialUtil.fingerprint(
+		SerialUtil.FINGERPRINT_INIT, buf, 0, count);
+	}
+
+	/** Writes an object, null, or reference. */
+	void writeValue(Object object) throws IOException {
+	    if (object == null) {
+		writeByte(TAG_NULL);
+		return;
+	    } else if (object instanceof ManagedReferenceImpl) {
+		writeByte(TAG_REFERENCE);
+		writeLong(((ManagedReferenceImpl<?>) object).oid);
+		return;
+	    }
+	    Integer handle = handles.get(object);
+	    if (handle != null) {
+		writeByte(TAG_HANDLE);
+		writeVarInt(handle);
+		return;
+	    } else if (object != topLevelObject &&
+		       object instanceof ManagedObject)
+	    {
+		throw new ObjectIOException(
+		    "ManagedObject was not referenced through a " +
+		    "ManagedReference: " + Objects.safeToString(object),
+		    false);
+	    }
+	    handles.put(object, handles.size());
+	    Class<?> cl = object.getClass();
+	    if (cl == String.class) {
+		writeByte(TAG_STRING);
+		writeString((String) object);
+	    } else if (cl == Integer.class) {
+		writeByte(TAG_INTEGER);
+		writeInt((Integer) object);
+	    } else if (cl == Long.class) {
+		writeByte(TAG_LONG);
+		writeLong((Long) object);
+	    } else if (cl == Boolean.class) {
+		writeByte(TAG_BOOLEAN);
+		writeByte(((Boolean) object) ? 1 : 0);
+	    } else if (cl == Byte.class) {
+		writeByte(TAG_BYTE);
+		writeByte((Byte) object);
+	    } else if (cl == Short.class) {
+		writeByte(TAG_SHORT);
+		writeShort((Short) object);
+	    } else if (cl == Character.class) {
+		writeByte(TAG_CHARACTER);
+		writeShort((Character) object);
+	    } else if (cl == Float.class) {
+		writeByte(TAG_FLOAT);
+		writeInt(Float.floatToIntBits((Float) object));
+	    } else if (cl == Double.class) {
+		writeByte(TAG_DOUBLE);
+		writeLong(Double.doubleToLongBits((Double) object));
+	    } else {
+		writeOther(object, cl);
+	    }
+	}
+
+	/** Writes an enum, array, or object using default serialization. */
+	private void writeOther(Object object, Class<?> cl)
+	    throws IOException
+	{
+	    ClassInfo info = getClassInfo(cl);
+	    switch (info.kind) {
+	    case NOT_SERIALIZABLE:
+		throw new NotSerializableException(cl.getName());
+	    case JAVA:
+		throw new UseJavaSerialization(info.javaReason);
+	    case ENUM:
+		Class<?> enumClass = ((Enum<?>) object).getDeclaringClass();
+		writeByte(TAG_ENUM);
+		writeClassId(ObjectStreamClass.lookup(enumClass), enumClass);
+		writeString(((Enum<?>) object).name());
+		break;
+	    case ARRAY:
+		writeByte(TAG_ARRAY);
+		writeClassId(info.desc, cl);
+		writeArray(object, cl.getComponentType());
+		break;
+	    case OBJECT:
+		writeByte(TAG_OBJECT);
+		WriteLevel[] levels = info.levels;
+		writeVarInt(levels.length);
+		for (WriteLevel level : levels) {
+		    writeClassId(level.desc, level.desc.forClass());
+		}
+		for (WriteLevel level : levels) {
+		    writeFields(object, level);
+		}
+		break;
+	    default:
+		throw new AssertionError();
+	    }
+	}
+
+	/**
+	 * Writes the class ID for a class descriptor, checking that the class
+	 * can be instantiated the first time the class is written.
+	 */
+	private void writeClassId(ObjectStreamClass desc, Class<?> cl)
+	    throws IOException
+	{
+	    Integer classId = classIds.get(desc);
+	    if (classId == null) {
+		classSerial.checkInstantiable(desc);
+		classId = classSerial.getClassId(desc);
+		classIds.put(desc, classId);
+		if (cl.isAnonymousClass()) {
+		    if (logger.isLoggable(Level.FINE)) {
+			logger.log(Level.FINE,
+				   "Storing an instance of an anonymous " +
+				   "class: {0}",
+				   cl);
+		    }
+		} else if (cl.isLocalClass()) {
+		    if (logger.isLoggable(Level.FINE)) {
+			logger.log(Level.FINE,
+				   "Storing an instance of a local class: {0}",
+				   cl);
+		    }
+		}
+	    }
+	    writeVarInt(classId);
+	}
+
+	/** Writes the fields declared by one class in an object's hierarchy. */
+	private void writeFields(Object object, WriteLevel level)
+	    throws IOException
+	{
+	    Field[] fields = level.fields;
+	    char[] typeCodes = level.typeCodes;
+	    try {
+		for (int i = 0; i < fields.length; i++) {
+		    Field field = fields[i];
+		    switch (typeCodes[i]) {
+		    case 'B':
+			writeByte(field.getByte(object));
+			break;
+		    case 'Z':
+			writeByte(field.getBoolean(object) ? 1 : 0);
+			break;
+		    case 'C':
+			writeShort(field.getChar(object));
+			break;
+		    case 'S':
+			writeShort(field.getShort(object));
+			break;
+		    case 'I':
+			writeInt(field.getInt(object));
+			break;
+		    case 'J':
+			writeLong(field.getLong(object));
+			break;
+		    case 'F':
+			writeInt(Float.floatToIntBits(field.getFloat(object)));
+			break;
+		    case 'D':
+			writeLong(
+			    Double.doubleToLongBits(field.getDouble(object)));
+			break;
+		    default:
+			writeValue(field.get(object));
+			break;
+		    }
+		}
+	    } catch (IllegalAccessException e) {
+		throw new UseJavaSerialization(e.toString());
+	    }
+	}
+
+	/** Writes the length and elements of an array. */
+	private void writeArray(Object array, Class<?> componentType)
+	    throws IOException
+	{
+	    int length = Array.getLength(array);
+	    writeVarInt(length);
+	    if (!componentType.isPrimitive()) {
+		Object[] objects = (Object[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeValue(objects[i]);
+		}
+	    } else if (componentType == byte.class) {
+		ensureCapacity(length);
+		System.arraycopy(array, 0, buf, count, length);
+		count += length;
+	    } else if (componentType == boolean.class) {
+		boolean[] booleans = (boolean[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeByte(booleans[i] ? 1 : 0);
+		}
+	    } else if (componentType == char.class) {
+		char[] chars = (char[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeShort(chars[i]);
+		}
+	    } else if (componentType == short.class) {
+		short[] shorts = (short[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeShort(shorts[i]);
+		}
+	    } else if (componentType == int.class) {
+		int[] ints = (int[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeInt(ints[i]);
+		}
+	    } else if (componentType == long.class) {
+		long[] longs = (long[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeLong(longs[i]);
+		}
+	    } else if (componentType == float.class) {
+		float[] floats = (float[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeInt(Float.floatToIntBits(floats[i]));
+		}
+	    } else if (componentType == double.class) {
+		double[] doubles = (double[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeLong(Double.doubleToLongBits(doubles[i]));
+		}
+	    } else {
+		throw new AssertionError();
+	    }
+	}
+
+	/**
+	 * Writes a string as its length followed by its characters, using one
+	 * byte for ASCII characters and three bytes for others.
+	 */
+	private void writeString(String s) {
+	    int length = s.length();
+	    writeVarInt(length);
+	    ensureCapacity(length * 3);
+	    for (int i = 0; i < length; i++) {
+		char c = s.charAt(i);
+		if (c < 0x80) {
+		    buf[count++] = (byte) c;
+		} else {
+		    buf[count++] = (byte) 0x80;
+		    buf[count++] = (byte) (c >>> 8);
+		    buf[count++] = (byte) c;
+		}
+	    }
+	}
+
+	/** Writes a non-negative int using 1 to 5 bytes. */
+	private void writeVarInt(int n) {
+	    assert n >= 0;
+	    ensureCapacity(5);
+	    while (n >= 0x80) {
+		buf[count++] = (byte) (n | 0x80);
+		n >>>= 7;
+	    }
+	    buf[count++] = (byte) n;
+	}
+
+	private void writeByte(int b) {
+	    ensureCapacity(1);
+	    buf[count++] = (byte) b;
+	}
+
+	private void writeShort(int s) {
+	    ensureCapacity(2);
+	    buf[count++] = (byte) (s >>> 8);
+	    buf[count++] = (byte) s;
+	}
+
+	private void writeInt(int i) {
+	    ensureCapacity(4);
+	    buf[count++] = (byte) (i >>> 24);
+	    buf[count++] = (byte) (i >>> 16);
+	    buf[count++] = (byte) (i >>> 8);
+	    buf[count++] = (byte) i;
+	}
+
+	private void writeLong(long l) {
+	    writeInt((int) (l >>> 32));
+	    writeInt((int) l);
+	}
+
+	/** Makes sure the buffer has room for the specified number of bytes. */
+	private void ensureCapacity(int n) {
+	    if (count + n > buf.length) {
+		byte[] newBuf = new byte[Math.max(buf.length * 2, count + n)];
+		System.arraycopy(buf, 0, newBuf, 0, count);
+		buf = newBuf;
+	    }
+	}
+    }
+
+    /* -- Reading -- */
+
+    /** Reads serialized data directly from the array supplied. */
+    private final class Input {
+
+	/** The data. */
+	private final byte[] buf;
+
+	/** The position of the next byte to read. */
+	int pos = 1;
+
+	/** Controls reading of class information. */
+	private final ClassSerialization classSerial;
+
+	/** The objects read, indexed by handle. */
+	private final List<Object> handles = new ArrayList<Object>();
+
+	Input(byte[] buf, ClassSerialization classSerial) {
+	    this.buf = buf;
+	    this.classSerial = classSerial;
+	}
+
+	/** Reads an object, null, or reference. */
+	Object readValue() throws IOException {
+	    byte tag = readByte();
+	    switch (tag) {
+	    case TAG_NULL:
+		return null;
+	    case TAG_HANDLE:
+		int handle = readVarInt();
+		if (handle >= handles.size()) {
+		    throw new StreamCorruptedException(
+			"Invalid handle: " + handle);
+		}
+		return handles.get(handle);
+	    case TAG_REFERENCE:
+		return ManagedReferenceImpl.resolveReference(readLong());
+	    case TAG_STRING:
+		return handle(readString());
+	    case TAG_INTEGER:
+		return handle(Integer.valueOf(readInt()));
+	    case TAG_LONG:
+		return handle(Long.valueOf(readLong()));
+	    case TAG_BOOLEAN:
+		return handle(Boolean.valueOf(readByte() != 0));
+	    case TAG_BYTE:
+		return handle(Byte.valueOf(readByte()));
+	    case TAG_SHORT:
+		return handle(Short.valueOf(readShort()));
+	    case TAG_CHARACTER:
+		return handle(Character.valueOf((char) readShort()));
+	    case TAG_FLOAT:
+		return handle(Float.valueOf(Float.intBitsToFloat(readInt())));
+	    case TAG_DOUBLE:
+		return handle(
+		    Double.valueOf(Double.longBitsToDouble(readLong())));
+	    case TAG_ENUM:
+		return handle(readEnum());
+	    case TAG_ARRAY:
+		return readArray();
+	    case TAG_OBJECT:
+		return readObject();
+	    default:
+		throw new StreamCorruptedException("Unexpected tag: " + tag);
+	    }
+	}
+
+	/** Records the handle for an object, returning the object. */
+	private Object handle(Object object) {
+	    handles.add(object);
+	    return object;
+	}
+
+	/** Returns the local class for a class ID. */
+	private Class<?> readClass() throws IOException {
+	    ObjectStreamClass desc = classSerial.getClassDesc(readVarInt());
+	    Class<?> cl = desc.forClass();
+	    if (cl == null) {
+		throw new IOException("No local class for " + desc.getName());
+	    }
+	    return cl;
+	}
+
+	/** Reads an enum constant. */
+	@SuppressWarnings("unchecked")
+	private Object readEnum() throws IOException {
+	    Class<?> cl = readClass();
+	    String name = readString();
+	    if (!cl.isEnum()) {
+		throw new IOException("Class is not an enum: " + cl.getName());
+	    }
+	    try {
+		return Enum.valueOf((Class) cl, name);
+	    } catch (IllegalArgumentException e) {
+		IOException ioe = new IOException(
+		    "Enum constant not found: " + cl.getName() + "." + name);
+		ioe.initCause(e);
+		throw ioe;
+	    }
+	}
+
+	/** Reads an array. */
+	private Object readArray() throws IOException {
+	    Class<?> componentType = readClass().getComponentType();
+	    if (componentType == null) {
+		throw new StreamCorruptedException("Expected an array class");
+	    }
+	    int length = readVarInt();
+	    Object array = Array.newInstance(componentType, length);
+	    handle(array);
+	    if (!componentType.isPrimitive()) {
+		Object[] objects = (Object[]) array;
+		try {
+		    for (int i = 0; i < length; i++) {
+			objects[i] = readValue();
+		    }
+		} catch (ArrayStoreException e) {
+		    IOException ioe = new IOException(
+			"Incompatible array element: " + e.getMessage());
+		    ioe.initCause(e);
+		    throw ioe;
+		}
+	    } else if (componentType == byte.class) {
+		checkAvailable(length);
+		System.arraycopy(buf, pos, array, 0, length);
+		pos += length;
+	    } else if (componentType == boolean.class) {
+		boolean[] booleans = (boolean[]) array;
+		for (int i = 0; i < length; i++) {
+		    booleans[i] = readByte() != 0;
+		}
+	    } else if (componentType == char.class) {
+		char[] chars = (char[]) array;
+		for (int i = 0; i < length; i++) {
+		    chars[i] = (char) readShort();
+		}
+	    } else if (componentType == short.class) {
+		short[] shorts = (short[]) array;
+		for (int i = 0; i < length; i++) {
+		    shorts[i] = readShort();
+		}
+	    } else if (componentType == int.class) {
+		int[] ints = (int[]) array;
+		for (int i = 0; i < length; i++) {
+		    ints[i] = readInt();
+		}
+	    } else if (componentType == long.class) {
+		long[] longs = (long[]) array;
+		for (int i = 0; i < length; i++) {
+		    longs[i] = readLong();
+		}
+	    } else if (componentType == float.class) {
+		float[] floats = (float[]) array;
+		for (int i = 0; i < length; i++) {
+		    floats[i] = Float.intBitsToFloat(readInt());
+		}
+	    } else if (componentType == double.class) {
+		double[] doubles = (double[]) array;
+		for (int i = 0; i < length; i++) {
+		    doubles[i] = Double.longBitsToDouble(readLong());
+		}
+	    } else {
+		throw new AssertionError();
+	    }
+	    return array;
+	}
+
+	/** Reads an object that uses default serialization. */
+	private Object readObject() throws IOException {
+	    int numLevels = readVarInt();
+	    if (numLevels == 0) {
+		throw new StreamCorruptedException("No classes for object");
+	    }
+	    ReadLevel[] levels = new ReadLevel[numLevels];
+	    for (int i = 0; i < numLevels; i++) {
+		levels[i] = getReadLevel(
+		    classSerial.getClassDesc(readVarInt()));
+	    }
+	    Class<?> cl = levels[numLevels - 1].cl;
+	    Object object;
+	    try {
+		object = getClassInfo(cl).newInstance();
+	    } catch (IOException e) {
+		throw e;
+	    } catch (Exception e) {
+		IOException ioe = new IOException(
+		    "Problem creating instance of " + cl.getName() + ": " + e);
+		ioe.initCause(e);
+		throw ioe;
+	    }
+	    handle(object);
+	    for (ReadLevel level : levels) {
+		readFields(object, level, level.cl.isInstance(object));
+	    }
+	    return object;
+	}
+
+	/**
+	 * Reads the fields described by a stored class descriptor, setting
+	 * them in the object if requested and the field is still present.
+	 */
+	private void readFields(Object object, ReadLevel level, boolean set)
+	    throws IOException
+	{
+	    Field[] fields = level.fields;
+	    char[] typeCodes = level.typeCodes;
+	    try {
+		for (int i = 0; i < fields.length; i++) {
+		    Field field = set ? fields[i] : null;
+		    switch (typeCodes[i]) {
+		    case 'B':
+			byte b = readByte();
+			if (field != null) {
+			    field.setByte(object, b);
+			}
+			break;
+		    case 'Z':
+			boolean z = readByte() != 0;
+			if (field != null) {
+			    field.setBoolean(object, z);
+			}
+			break;
+		    case 'C':
+			char c = (char) readShort();
+			if (field != null) {
+			    field.setChar(object, c);
+			}
+			break;
+		    case 'S':
+			short s = readShort();
+			if (field != null) {
+			    field.setShort(object, s);
+			}
+			break;
+		    case 'I':
+			int n = readInt();
+			if (field != null) {
+			    field.setInt(object, n);
+			}
+			break;
+		    case 'J':
+			long l = readLong();
+			if (field != null) {
+			    field.setLong(object, l);
+			}
+			break;
+		    case 'F':
+			float f = Float.intBitsToFloat(readInt());
+			if (field != null) {
+			    field.setFloat(object, f);
+			}
+			break;
+		    case 'D':
+			double d = Double.longBitsToDouble(readLong());
+			if (field != null) {
+			    field.setDouble(object, d);
+			}
+			break;
+		    default:
+			Object value = readValue();
+			if (field != null) {
+			    field.set(object, value);
+			}
+			break;
+		    }
+		}
+	    } catch (IllegalAccessException e) {
+		IOException ioe = new IOException(
+		    "Problem setting field: " + e.getMessage());
+		ioe.initCause(e);
+		throw ioe;
+	    } catch (IllegalArgumentException e) {
+		/* Thrown for an object field with an incompatible value */
+		IOException ioe = new IOException(
+		    "Problem setting field: " + e.getMessage());
+		ioe.initCause(e);
+		throw ioe;
+	    }
+	}
+
+	/** Reads a string written by Output.writeString. */
+	private String readString() throws IOException {
+	    int length = readVarInt();
+	    char[] chars = new char[length];
+	    for (int i = 0; i < length; i++) {
+		byte b = readByte();
+		if (b >= 0) {
+		    chars[i] = (char) b;
+		} else {
+		    chars[i] = (char) readShort();
+		}
+	    }
+	    return new String(chars);
+	}
+
+	private int readVarInt() throws IOException {
+	    int result = 0;
+	    for (int shift = 0; shift < 35; shift += 7) {
+		byte b = readByte();
+		result |= (b & 0x7f) << shift;
+		if (b >= 0) {
+		    return result;
+		}
+	    }
+	    throw new StreamCorruptedException("Invalid variable length int");
+	}
+
+	private byte readByte() throws IOException {
+	    checkAvailable(1);
+	    return buf[pos++];
+	}
+
+	private short readShort() throws IOException {
+	    checkAvailable(2);
+	    int result = ((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff);
+	    pos += 2;
+	    return (short) result;
+	}
+
+	private int readInt() throws IOException {
+	    checkAvailable(4);
+	    int result = ((buf[pos] & 0xff) << 24) |
+		((buf[pos + 1] & 0xff) << 16) |
+		((buf[pos + 2] & 0xff) << 8) |
+		(buf[pos + 3] & 0xff);
+	    pos += 4;
+	    return result;
+	}
+
+	private long readLong() throws IOException {
+	    long high = readInt();
+	    return (high << 32) | (readInt() & 0xffffffffL);
+	}
+
+	/** Checks that the specified number of bytes remain. */
+	private void checkAvailable(int n) throws IOException {
+	    if (n < 0 || pos + n > buf.length) {
+		throw new StreamCorruptedException("Unexpected end of data");
+	    }
+	}
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.service.data;
+
+import com.sun.sgs.app.ManagedObject;
+import java.io.IOException;
+
+/**
+ * Defines the interface for converting managed objects to and from the byte
+ * arrays stored in the data store.  The first byte of the serialized form
+ * identifies the format, so that {@link SerialUtil#deserialize
+ * SerialUtil.deserialize} can select the right implementation when reading
+ * data regardless of which format is currently used for writing.
+ * Implementations need to be thread safe.
+ */
+interface ManagedObjectSerializer {
+
+    /**
+     * Converts a managed object into serialized data.
+     *
+     * @param	object the object
+     * @param	classSerial controls writing of class information
+     * @return	the serialized data
+     * @throws	IOException if a problem occurs serializing the object
+     */
+    byte[] serialize(ManagedObject object, ClassSerialization classSerial)
+	throws IOException;
+
+    /**
+     * Returns a fingerprint of the serialized form of a managed object
+     * without necessarily creating the serialized data.  Objects whose
+     * serialized forms are equal have equal fingerprints, and objects whose
+     * serialized forms differ have different fingerprints with very high
+     * probability.
+     *
+     * @param	object the object
+     * @param	classSerial controls writing of class information
+     * @return	the fingerprint
+     * @throws	IOException if a problem occurs serializing the object
+     */
+    long fingerprint(ManagedObject object, ClassSerialization classSerial)
+	throws IOException;
+
+    /**
+     * Converts serialized data into an object.
+     *
+     * @param	data the serialized data
+     * @param	classSerial controls reading of class information
+     * @return	the object
+     * @throws	ClassNotFoundException if a class referred to by the data
+     *		cannot be found
+     * @throws	IOException if a problem occurs deserializing the object
+     */
+    Object deserialize(byte[] data, ClassSerialization classSerial)
+	throws ClassNotFoundException, IOException;
+}
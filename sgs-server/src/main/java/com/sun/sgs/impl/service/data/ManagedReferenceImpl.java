@@ -32,6 +32,9 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,7 +66,9 @@ final class ManagedReferenceImpl<T>
      * The possible states of a reference.
      *
      * Here's a table relating state values to the values of the object and
-     * unmodifiedBytes fields:
+     * unmodifiedBytes fields.  When modifications are detected using
+     * fingerprints, the unmodifiedBytes field is always null, and the
+     * unmodifiedFingerprint field is set instead for MAYBE_MODIFIED:
      *
      *   State		  object    unmodifiedBytes
      *   NEW		  non-null  null
@@ -147,6 +152,15 @@ final class ManagedReferenceImpl<T>
      */
     private transient byte[] unmodifiedBytes;
 
+    /**
+     * The fingerprint of the serialized form of the object before it was
+     * modified, if the state is MAYBE_MODIFIED and modifications are being
+     * detected using fingerprints.  Like unmodifiedBytes, this value is
+     * computed by serializing the fetched object, not from the bytes used to
+     * deserialize it, because the serialized form may not be stable.
+     */
+    private transient long unmodifiedFingerprint;
+
     /** The current state. */
     private transient State state;
 
@@ -239,6 +253,7 @@ final class ManagedReferenceImpl<T>
 
     /** Creates a NEW reference to an object. */
     private ManagedReferenceImpl(Context context, T object) {
+	context.checkWritable("create a managed object");
 	this.context = context;
 	oid = context.store.createObject(context.txn);
 	this.object = (ManagedObject) object;
@@ -352,19 +367,7 @@ final class ManagedReferenceImpl<T>
 	    }
 	    switch (state) {
 	    case EMPTY:
-		ManagedObject tempObject = deserialize(
-		    context.store.getObject(context.txn, oid, false));
-		if (context.detectModifications) {
-		    unmodifiedBytes = SerialUtil.serialize(
-			tempObject, context.classSerial);
-		    state = State.MAYBE_MODIFIED;
-		} else {
-		    state = State.NOT_MODIFIED;
-		}
-		/* Do after creating unmodified bytes, in case that fails */
-		object = tempObject;
-		context.refs.registerObject(this);
-		context.store.setObjectDescription(context.txn, oid, object);
+		fetched(context.store.getObject(context.txn, oid, false));
 		break;
 	    case NEW:
 	    case NOT_MODIFIED:
@@ -429,6 +432,7 @@ final class ManagedReferenceImpl<T>
 	    if (checkContext) {
 		DataServiceImpl.checkContext(context);
 	    }
+	    context.checkWritable("get a managed object for update");
 	    switch (state) {
 	    case EMPTY:
 		object = deserialize(
@@ -550,6 +554,23 @@ final class ManagedReferenceImpl<T>
 	}
     }
 
+    /**
+     * Returns the reference associated with the specified object ID in the
+     * current context, for use by serialization formats that read object IDs
+     * directly.  Like {@link #readResolve readResolve}, creates an EMPTY
+     * reference if none is found and does not check whether the object has
+     * been removed.
+     */
+    static ManagedReferenceImpl<?> resolveReference(long oid) {
+	Context context = DataServiceImpl.getContextNoJoin();
+	ManagedReferenceImpl<?> ref = context.refs.find(oid);
+	if (ref == null) {
+	    ref = new ManagedReferenceImpl<ManagedObject>(context, oid);
+	    context.refs.add(ref);
+	}
+	return ref;
+    }
+
     /* -- Object methods -- */
 
     public String toString() {
@@ -608,9 +629,16 @@ final class ManagedReferenceImpl<T>
 	    if (object == null) {
 		throw new AssertionError(
 		    "MAYBE_MODIFIED with no object");
-	    } else if (unmodifiedBytes == null) {
+	    } else if (unmodifiedBytes == null &&
+		       !context.fingerprintModifications)
+	    {
 		throw new AssertionError(
 		    "MAYBE_MODIFIED with no unmodifiedBytes");
+	    } else if (unmodifiedBytes != null &&
+		       context.fingerprintModifications)
+	    {
+		throw new AssertionError(
+		    "MAYBE_MODIFIED with unmodifiedBytes and fingerprint");
 	    }
 	    break;
 	default:
@@ -618,6 +646,45 @@ final class ManagedReferenceImpl<T>
 	}
     }
 
+    /**
+     * Obtains the objects for the EMPTY references in the collection that are
+     * associated with the context using a single call to the data store.
+     * References to objects that are not found are left EMPTY, so that
+     * dereferencing them reports the problem in the usual way.
+     */
+    static void fetchAll(
+	Context context, Collection<? extends ManagedReference<?>> refs)
+    {
+	Map<Long, ManagedReferenceImpl<?>> empty =
+	    new LinkedHashMap<Long, ManagedReferenceImpl<?>>();
+	for (ManagedReference<?> ref : refs) {
+	    if (ref instanceof ManagedReferenceImpl) {
+		ManagedReferenceImpl<?> refImpl = (ManagedReferenceImpl<?>) ref;
+		if (refImpl.context == context &&
+		    refImpl.state == State.EMPTY)
+		{
+		    empty.put(refImpl.oid, refImpl);
+		}
+	    }
+	}
+	if (empty.isEmpty()) {
+	    return;
+	}
+	long[] oids = new long[empty.size()];
+	int i = 0;
+	for (long oid : empty.keySet()) {
+	    oids[i++] = oid;
+	}
+	byte[][] dataArray = context.store.getObjects(context.txn, oids, false);
+	i = 0;
+	for (ManagedReferenceImpl<?> ref : empty.values()) {
+	    byte[] data = dataArray[i++];
+	    if (data != null) {
+		ref.fetched(data);
+	    }
+	}
+    }
+
     /** Saves all object modifications to the data store. */
     static void flushAll(Context context) {
 	FlushInfo info = context.refs.flushModifiedObjects();
@@ -665,14 +732,13 @@ final class ManagedReferenceImpl<T>
 	    break;
 	case NEW:
 	case MODIFIED:
-	    result = SerialUtil.serialize(object, context.classSerial);
+	    result = SerialUtil.serialize(
+		object, context.classSerial, context.serializer);
 	    context.refs.unregisterObject(object);
 	    break;
 	case MAYBE_MODIFIED:
-	    byte[] modified =
-		SerialUtil.serialize(object, context.classSerial);
-	    if (!Arrays.equals(modified, unmodifiedBytes)) {
-		result = modified;
+	    result = serializeIfModified();
+	    if (result != null) {
 		if (debugDetectLogger.isLoggable(Level.FINEST)) {
 		    debugDetectLogger.log(
 			Level.FINEST,
@@ -696,6 +762,28 @@ final class ManagedReferenceImpl<T>
 	return result;
     }
 
+    /**
+     * Returns the serialized form of the object if it differs from the
+     * unmodified form recorded when the object was fetched, else null.  When
+     * using fingerprints, unmodified objects are detected without creating
+     * the serialized form, although the object is still serialized to
+     * compute its fingerprint.
+     */
+    private byte[] serializeIfModified() {
+	if (context.fingerprintModifications) {
+	    long fingerprint = SerialUtil.fingerprint(
+		object, context.classSerial, context.serializer);
+	    if (fingerprint == unmodifiedFingerprint) {
+		return null;
+	    }
+	    return SerialUtil.serialize(
+		object, context.classSerial, context.serializer);
+	}
+	byte[] modified = SerialUtil.serialize(
+	    object, context.classSerial, context.serializer);
+	return Arrays.equals(modified, unmodifiedBytes) ? null : modified;
+    }
+
     /**
      * Checks if the object has been marked removed.  This method will return
      * false if the object was not removed in this transaction.
@@ -717,6 +805,31 @@ final class ManagedReferenceImpl<T>
 	return object;
     }
 
+    /**
+     * Sets the object for an EMPTY reference from the data obtained from the
+     * data store.
+     */
+    private void fetched(byte[] data) {
+	assert state == State.EMPTY;
+	ManagedObject tempObject = deserialize(data);
+	if (context.detectModifications) {
+	    if (context.fingerprintModifications) {
+		unmodifiedFingerprint = SerialUtil.fingerprint(
+		    tempObject, context.classSerial, context.serializer);
+	    } else {
+		unmodifiedBytes = SerialUtil.serialize(
+		    tempObject, context.classSerial, context.serializer);
+	    }
+	    state = State.MAYBE_MODIFIED;
+	} else {
+	    state = State.NOT_MODIFIED;
+	}
+	/* Do after creating unmodified bytes, in case that fails */
+	object = tempObject;
+	context.refs.registerObject(this);
+	context.store.setObjectDescription(context.txn, oid, object);
+    }
+
     /** Validates the values of the context and oid fields. */
     private void validate() {
 	if (context == null) {
@@ -24,11 +24,9 @@ package com.sun.sgs.impl.service.data;
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.impl.util.WeakIdentityMap;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 /**
  * Stores information about managed references within a particular transaction.
@@ -43,8 +41,7 @@ final class ReferenceTable {
 	staleObjects = new WeakIdentityMap<Object, Boolean>();
 
     /** Maps object IDs to managed references. */
-    private final SortedMap<Long, ManagedReferenceImpl<?>> oids =
-	new TreeMap<Long, ManagedReferenceImpl<?>>();
+    private final OidTable oids = new OidTable();
 
     /**
      * Maps managed objects to managed references.  The objects are compared by
@@ -95,7 +92,7 @@ final class ReferenceTable {
 
     /** Adds a new managed reference to this table. */
     void add(ManagedReferenceImpl<?> ref) {
-	assert !oids.containsKey(ref.oid)
+	assert oids.get(ref.oid) == null
 	    : "Found existing reference for oid:" + ref.oid;
 	oids.put(ref.oid, ref);
 	ManagedObject object = ref.getObject();
@@ -150,11 +147,12 @@ final class ReferenceTable {
      * objects.  Specifying -1 requests the first ID.
      */
     long nextNewObjectId(long oid) {
-	for (Entry<Long, ManagedReferenceImpl<?>> entry :
-		 oids.tailMap(oid).entrySet())
-	{
-	    long key = entry.getKey();
-	    if (key > oid && entry.getValue().isNew()) {
+	long[] sorted = oids.sortedOids();
+	int i = Arrays.binarySearch(sorted, oid);
+	i = (i < 0) ? -(i + 1) : i + 1;
+	for ( ; i < sorted.length; i++) {
+	    long key = sorted[i];
+	    if (oids.get(key).isNew()) {
 		return key;
 	    }
 	}
@@ -167,7 +165,8 @@ final class ReferenceTable {
      */
     FlushInfo flushModifiedObjects() {
 	FlushInfo flushInfo = null;
-	for (ManagedReferenceImpl<?> ref : oids.values()) {
+	for (long oid : oids.sortedOids()) {
+	    ManagedReferenceImpl<?> ref = oids.get(oid);
 	    byte[] data = ref.flush();
 	    if (data != null) {
 		if (flushInfo == null) {
@@ -185,9 +184,9 @@ final class ReferenceTable {
      */
     void checkAllState() {
 	int objectCount = 0;
-	for (Entry<Long, ManagedReferenceImpl<?>> entry : oids.entrySet()) {
-	    long oid = entry.getKey();
-	    ManagedReferenceImpl<?> ref = entry.getValue();
+	oids.checkState();
+	for (long oid : oids.sortedOids()) {
+	    ManagedReferenceImpl<?> ref = oids.get(oid);
 	    ref.checkState();
 	    if (oid != ref.oid) {
 		throw new AssertionError(
@@ -213,4 +212,177 @@ final class ReferenceTable {
 		", expected " + objectCount);
 	}
     }
+
+    /**
+     * A hash table that maps object IDs to managed references, using open
+     * addressing with linear probing so that object IDs are stored as
+     * primitive longs rather than as boxed keys.  Removals shift later
+     * entries back rather than leaving markers, so lookups never need to
+     * skip removed entries.  A sorted array of the object IDs is created when
+     * requested and is cached until the table is next modified.
+     */
+    private static final class OidTable {
+
+	/** The initial capacity, which must be a power of two. */
+	private static final int INITIAL_CAPACITY = 32;
+
+	/** The keys, with unused slots holding an unspecified value. */
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	/** The values, with null for unused slots. */
+	private ManagedReferenceImpl<?>[] values =
+	    new ManagedReferenceImpl<?>[INITIAL_CAPACITY];
+
+	/** The number of entries. */
+	private int size;
+
+	/** The sorted keys, or null if they need to be computed. */
+	private long[] sorted;
+
+	/** Creates an empty table. */
+	OidTable() { }
+
+	/** Returns the reference for the object ID, or null if not found. */
+	ManagedReferenceImpl<?> get(long oid) {
+	    int mask = keys.length - 1;
+	    for (int i = index(oid, mask); true; i = (i + 1) & mask) {
+		ManagedReferenceImpl<?> value = values[i];
+		if (value == null) {
+		    return null;
+		} else if (keys[i] == oid) {
+		    return value;
+		}
+	    }
+	}
+
+	/**
+	 * Associates the reference with the object ID, returning the previous
+	 * reference or null.
+	 */
+	ManagedReferenceImpl<?> put(long oid, ManagedReferenceImpl<?> ref) {
+	    assert ref != null;
+	    int mask = keys.length - 1;
+	    int i = index(oid, mask);
+	    for ( ; values[i] != null; i = (i + 1) & mask) {
+		if (keys[i] == oid) {
+		    ManagedReferenceImpl<?> previous = values[i];
+		    values[i] = ref;
+		    return previous;
+		}
+	    }
+	    keys[i] = oid;
+	    values[i] = ref;
+	    sorted = null;
+	    if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+		resize();
+	    }
+	    return null;
+	}
+
+	/**
+	 * Removes the reference for the object ID, returning the reference or
+	 * null if not found.
+	 */
+	ManagedReferenceImpl<?> remove(long oid) {
+	    int mask = keys.length - 1;
+	    int i = index(oid, mask);
+	    while (true) {
+		if (values[i] == null) {
+		    return null;
+		} else if (keys[i] == oid) {
+		    break;
+		}
+		i = (i + 1) & mask;
+	    }
+	    ManagedReferenceImpl<?> result = values[i];
+	    /* Shift back later entries in the same run of used slots */
+	    int gap = i;
+	    for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask)
+	    {
+		int home = index(keys[j], mask);
+		/* Move the entry if its home is not between the gap and j */
+		if (((j - home) & mask) >= ((j - gap) & mask)) {
+		    keys[gap] = keys[j];
+		    values[gap] = values[j];
+		    gap = j;
+		}
+	    }
+	    values[gap] = null;
+	    size--;
+	    sorted = null;
+	    return result;
+	}
+
+	/**
+	 * Returns the object IDs in ascending order.  The caller should not
+	 * modify the array returned.
+	 */
+	long[] sortedOids() {
+	    if (sorted == null) {
+		long[] result = new long[size];
+		int n = 0;
+		for (int i = 0; i < values.length; i++) {
+		    if (values[i] != null) {
+			result[n++] = keys[i];
+		    }
+		}
+		Arrays.sort(result);
+		sorted = result;
+	    }
+	    return sorted;
+	}
+
+	/**
+	 * Checks the consistency of this table, throwing an assertion error
+	 * if a problem is found.
+	 */
+	void checkState() {
+	    int count = 0;
+	    for (int i = 0; i < values.length; i++) {
+		if (values[i] != null) {
+		    count++;
+		    if (get(keys[i]) != values[i]) {
+			throw new AssertionError(
+			    "Entry for oid = " + keys[i] + " is not reachable");
+		    }
+		}
+	    }
+	    if (count != size) {
+		throw new AssertionError(
+		    "Oids table has wrong size: was " + size +
+		    ", expected " + count);
+	    }
+	    if (sorted != null && sorted.length != size) {
+		throw new AssertionError("Sorted oids have wrong size");
+	    }
+	}
+
+	/** Doubles the capacity of the table. */
+	private void resize() {
+	    long[] oldKeys = keys;
+	    ManagedReferenceImpl<?>[] oldValues = values;
+	    keys = new long[oldKeys.length * 2];
+	    values = new ManagedReferenceImpl<?>[oldKeys.length * 2];
+	    int mask = keys.length - 1;
+	    for (int i = 0; i < oldValues.length; i++) {
+		if (oldValues[i] != null) {
+		    int j = index(oldKeys[i], mask);
+		    while (values[j] != null) {
+			j = (j + 1) & mask;
+		    }
+		    keys[j] = oldKeys[i];
+		    values[j] = oldValues[i];
+		}
+	    }
+	}
+
+	/**
+	 * Returns the home slot for an object ID, mixing the bits since
+	 * object IDs are often allocated sequentially.
+	 */
+	private static int index(long oid, int mask) {
+	    long h = oid * 0x9e3779b97f4a7c15L;
+	    return (int) (h ^ (h >>> 32)) & mask;
+	}
+    }
 }
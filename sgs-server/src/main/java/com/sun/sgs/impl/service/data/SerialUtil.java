@@ -27,7 +27,6 @@ import com.sun.sgs.app.ObjectIOException;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.Objects;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -69,6 +68,16 @@ final class SerialUtil {
      */
     private static final byte SERIAL_PROTOCOL_OTHER = 2;
 
+    /** The initial value for computing fingerprints. */
+    static final long FINGERPRINT_INIT = 0xcbf29ce484222325L;
+
+    /** The multiplier for computing fingerprints of single bytes. */
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    /** The multiplier for computing fingerprints of 8-byte words. */
+    private static final long FINGERPRINT_WORD_MULTIPLIER =
+	0x9e3779b97f4a7c15L;
+
     /** The logger for this class. */
     private static final LoggerWrapper logger =
 	new LoggerWrapper(Logger.getLogger(SerialUtil.class.getName()));
@@ -79,7 +88,8 @@ final class SerialUtil {
     }
 
     /**
-     * Converts serialized data into an object.
+     * Converts serialized data into an object, using the serializer that
+     * matches the format recorded in the data.
      *
      * @param	data the serialized data
      * @param	classSerial controls reading of class descriptors
@@ -87,11 +97,11 @@ final class SerialUtil {
      * @throws	ObjectIOException if a problem occurs deserializing the object
      */
     static Object deserialize(byte[] data, ClassSerialization classSerial) {
-	ObjectInputStream in = null;
+	ManagedObjectSerializer serializer =
+	    (data.length > 0 && data[0] == FastSerializer.FORMAT)
+	    ? FastSerializer.INSTANCE : JAVA_SERIALIZER;
 	try {
-	    in = new CustomClassDescriptorObjectInputStream(
-		new CompressByteArrayInputStream(data), classSerial);
-	    return in.readObject();
+	    return serializer.deserialize(data, classSerial);
 	} catch (ClassNotFoundException e) {
 	    throw new ObjectIOException(
 		"Class not found while deserializing object: " +
@@ -100,13 +110,70 @@ final class SerialUtil {
 	} catch (IOException e) {
 	    throw new ObjectIOException(
 		"Problem deserializing object: " + e.getMessage(), e, false);
-	} finally {
-	    if (in != null) {
+	}
+    }
+
+    /** The serializer that uses standard Java serialization. */
+    static final ManagedObjectSerializer JAVA_SERIALIZER =
+	new ManagedObjectSerializer() {
+	    public byte[] serialize(ManagedObject object,
+				    ClassSerialization classSerial)
+		throws IOException
+	    {
+		JavaOutput out = JavaOutput.acquire();
 		try {
-		    in.close();
-		} catch (IOException e) {
+		    out.write(object, classSerial);
+		    return out.bytes.toByteArray();
+		} finally {
+		    out.release();
+		}
+	    }
+	    public long fingerprint(ManagedObject object,
+				    ClassSerialization classSerial)
+		throws IOException
+	    {
+		JavaOutput out = JavaOutput.acquire();
+		try {
+		    out.write(object, classSerial);
+		    return out.bytes.fingerprint();
+		} finally {
+		    out.release();
+		}
+	    }
+	    public Object deserialize(byte[] data,
+				      ClassSerialization classSerial)
+		throws ClassNotFoundException, IOException
+	    {
+		ObjectInputStream in = null;
+		try {
+		    in = new CustomClassDescriptorObjectInputStream(
+			new CompressByteArrayInputStream(data), classSerial);
+		    return in.readObject();
+		} finally {
+		    if (in != null) {
+			try {
+			    in.close();
+			} catch (IOException e) {
+			}
+		    }
 		}
 	    }
+	};
+
+    /** The serialization formats that can be selected for writing. */
+    enum Format {
+
+	/** Standard Java serialization. */
+	JAVA(JAVA_SERIALIZER),
+
+	/** The compact format implemented by {@link FastSerializer}. */
+	FAST(FastSerializer.INSTANCE);
+
+	/** The serializer for writing this format. */
+	final ManagedObjectSerializer serializer;
+
+	Format(ManagedObjectSerializer serializer) {
+	    this.serializer = serializer;
 	}
     }
 
@@ -139,33 +206,88 @@ final class SerialUtil {
      * SERIAL_PROTOCOL_2 or SERIAL_PROTOCOL_OTHER.  If the value is
      * SERIAL_PROTOCOL_2, then that byte is replaced with
      * SERIAL_PROTOCOL_2_HEADER.  If it is SERIAL_PROTOCOL_OTHER, then the real
-     * header is expected to follow.
+     * header is expected to follow.  The stream reads directly from the
+     * array it is given, supplying the replacement header separately, so it
+     * does not copy the data.
      */
     private static final class CompressByteArrayInputStream
-	extends ByteArrayInputStream
+	extends InputStream
     {
+	/** The header to return before the data, or null. */
+	private final byte[] header;
+
+	/** The position of the next header byte to read. */
+	private int headerPos;
+
+	/** The data. */
+	private final byte[] bytes;
+
+	/** The position of the next data byte to read. */
+	private int pos;
+
 	CompressByteArrayInputStream(byte[] bytes) throws IOException {
-	    super(getBytes(bytes));
-	}
-	private static byte[] getBytes(byte[] bytes) throws IOException {
 	    int b = (bytes.length > 0) ? bytes[0] : -1;
 	    if (b == SERIAL_PROTOCOL_2) {
-		byte[] result = new byte[bytes.length + 3];
-		System.arraycopy(SERIAL_PROTOCOL_2_HEADER, 0, result, 0, 4);
-		System.arraycopy(bytes, 1, result, 4, bytes.length - 1);
-		return result;
+		header = SERIAL_PROTOCOL_2_HEADER;
 	    } else if (b == SERIAL_PROTOCOL_OTHER) {
-		byte[] result = new byte[bytes.length - 1];
-		System.arraycopy(bytes, 1, result, 0, bytes.length - 1);
-		return result;
+		header = null;
 	    } else {
 		throw new IOException("Unexpected initial byte: " + b);
 	    }
+	    this.bytes = bytes;
+	    pos = 1;
+	}
+	public int read() {
+	    if (header != null && headerPos < header.length) {
+		return header[headerPos++] & 0xff;
+	    } else if (pos < bytes.length) {
+		return bytes[pos++] & 0xff;
+	    } else {
+		return -1;
+	    }
+	}
+	public int read(byte[] b, int off, int len) {
+	    if (len == 0) {
+		return 0;
+	    }
+	    int n = 0;
+	    if (header != null && headerPos < header.length) {
+		n = Math.min(len, header.length - headerPos);
+		System.arraycopy(header, headerPos, b, off, n);
+		headerPos += n;
+	    }
+	    int m = Math.min(len - n, bytes.length - pos);
+	    if (m > 0) {
+		System.arraycopy(bytes, pos, b, off + n, m);
+		pos += m;
+		n += m;
+	    }
+	    return (n == 0) ? -1 : n;
+	}
+	public long skip(long n) {
+	    long skipped = 0;
+	    while (skipped < n && header != null &&
+		   headerPos < header.length)
+	    {
+		headerPos++;
+		skipped++;
+	    }
+	    int m = (int) Math.min(n - skipped, bytes.length - pos);
+	    pos += m;
+	    return skipped + m;
+	}
+	public int available() {
+	    int result = bytes.length - pos;
+	    if (header != null) {
+		result += header.length - headerPos;
+	    }
+	    return result;
 	}
     }
 
     /**
-     * Converts an managed object into serialized data.
+     * Converts an managed object into serialized data using standard Java
+     * serialization.
      *
      * @param	object the object
      * @param	classSerial controls writing of class descriptors
@@ -177,14 +299,60 @@ final class SerialUtil {
     static byte[] serialize(ManagedObject object,
 			    ClassSerialization classSerial)
     {
-	ObjectOutputStream out = null;
+	return serialize(object, classSerial, JAVA_SERIALIZER);
+    }
+
+    /**
+     * Converts an managed object into serialized data using the specified
+     * serializer.
+     *
+     * @param	object the object
+     * @param	classSerial controls writing of class descriptors
+     * @param	serializer the serializer
+     * @return	the serialized data
+     * @throws	ObjectIOException if a problem occurs serializing the object
+     *		and, in particular, if a <code>ManagedObject</code> is
+     *		referenced without an intervening <code>ManagedReference</code>
+     */
+    static byte[] serialize(ManagedObject object,
+			    ClassSerialization classSerial,
+			    ManagedObjectSerializer serializer)
+    {
+	try {
+	    return serializer.serialize(object, classSerial);
+	} catch (ObjectIOException e) {
+	    check(object, e);
+	    throw e;
+	} catch (TransactionNotActiveException e) {
+	    throw new TransactionNotActiveException(
+		"Attempt to perform an operation during serialization that " +
+		"requires a active transaction: " + e.getMessage(),
+		e);
+	} catch (IOException e) {
+	    throw new ObjectIOException(
+		"Problem serializing object: " + e.getMessage(), e, false);
+	}
+    }
+
+    /**
+     * Returns a fingerprint of the serialized form of a managed object using
+     * the specified serializer, without necessarily creating the serialized
+     * data.
+     *
+     * @param	object the object
+     * @param	classSerial controls writing of class descriptors
+     * @param	serializer the serializer
+     * @return	the fingerprint
+     * @throws	ObjectIOException if a problem occurs serializing the object
+     *		and, in particular, if a <code>ManagedObject</code> is
+     *		referenced without an intervening <code>ManagedReference</code>
+     */
+    static long fingerprint(ManagedObject object,
+			    ClassSerialization classSerial,
+			    ManagedObjectSerializer serializer)
+    {
 	try {
-	    ByteArrayOutputStream baos = new CompressByteArrayOutputStream();
-	    out = new CheckReferencesObjectOutputStream(
-		baos, object, classSerial);
-	    out.writeObject(object);
-	    out.flush();
-	    return baos.toByteArray();
+	    return serializer.fingerprint(object, classSerial);
 	} catch (ObjectIOException e) {
 	    check(object, e);
 	    throw e;
@@ -196,13 +364,146 @@ final class SerialUtil {
 	} catch (IOException e) {
 	    throw new ObjectIOException(
 		"Problem serializing object: " + e.getMessage(), e, false);
-	} finally {
+	}
+    }
+
+    /**
+     * Computes a 64-bit hash of the specified bytes, for use as a fingerprint
+     * of serialized data.  The bytes are mixed in 8 at a time, with any
+     * remaining bytes mixed in using FNV-1a, so that the hash is not limited
+     * by the latency of a multiplication for each byte.  Fingerprints
+     * computed in several calls are only comparable if the calls cover the
+     * same ranges of bytes.
+     *
+     * @param	fingerprint the fingerprint of the preceding bytes, or {@link
+     *		#FINGERPRINT_INIT} if there are none
+     * @param	bytes the bytes
+     * @param	offset the offset of the first byte
+     * @param	length the number of bytes
+     * @return	the fingerprint
+     */
+    static long fingerprint(
+	long fingerprint, byte[] bytes, int offset, int length)
+    {
+	long hash = fingerprint;
+	int end = offset + length;
+	int i = offset;
+	for (; i <= end - 8; i += 8) {
+	    long word = (bytes[i] & 0xffL) |
+		((bytes[i + 1] & 0xffL) << 8) |
+		((bytes[i + 2] & 0xffL) << 16) |
+		((bytes[i + 3] & 0xffL) << 24) |
+		((bytes[i + 4] & 0xffL) << 32) |
+		((bytes[i + 5] & 0xffL) << 40) |
+		((bytes[i + 6] & 0xffL) << 48) |
+		((long) bytes[i + 7] << 56);
+	    hash = (hash ^ word) * FINGERPRINT_WORD_MULTIPLIER;
+	    hash ^= hash >>> 29;
+	}
+	for (; i < end; i++) {
+	    hash ^= bytes[i] & 0xff;
+	    hash *= FINGERPRINT_PRIME;
+	}
+	return hash;
+    }
+
+    /**
+     * Holds the output buffer and object output stream used by a thread for
+     * Java serialization, so that they can be reused across calls rather than
+     * being allocated for each object.  The object output stream is reset
+     * after each use, and the bytes it writes when reset, as well as its
+     * initial stream header, are discarded from the buffer and replaced with
+     * the stream header before writing the next object, so the data produced
+     * is the same as for a newly created stream.  If a call fails, the object
+     * output stream is discarded, since it may be left in an inconsistent
+     * state.
+     */
+    private static final class JavaOutput {
+
+	/** The output buffer for each thread. */
+	private static final ThreadLocal<JavaOutput> threadOutput =
+	    new ThreadLocal<JavaOutput>() {
+		protected JavaOutput initialValue() {
+		    return new JavaOutput();
+		}
+	    };
+
+	/** The buffer holding the serialized data. */
+	final CompressByteArrayOutputStream bytes =
+	    new CompressByteArrayOutputStream();
+
+	/** The object output stream, or null if it needs to be created. */
+	private CheckReferencesObjectOutputStream out;
+
+	/** The stream header written by the object output stream. */
+	private byte[] streamHeader;
+
+	/** Whether this instance is being used by a call to serialize. */
+	private boolean inUse;
+
+	/** Creates an instance. */
+	private JavaOutput() { }
+
+	/**
+	 * Returns the instance for the current thread, or a new instance if
+	 * the thread's instance is already in use by a reentrant call.
+	 */
+	static JavaOutput acquire() {
+	    JavaOutput result = threadOutput.get();
+	    if (result.inUse) {
+		result = new JavaOutput();
+	    }
+	    result.inUse = true;
+	    return result;
+	}
+
+	/**
+	 * Writes the top level object, leaving the serialized data in the
+	 * buffer.
+	 */
+	void write(ManagedObject object, ClassSerialization classSerial)
+	    throws IOException
+	{
+	    boolean done = false;
+	    try {
+		if (out == null) {
+		    bytes.reset();
+		    out = new CheckReferencesObjectOutputStream(
+			bytes, object, classSerial);
+		    out.flush();
+		    streamHeader = bytes.toRawByteArray();
+		} else {
+		    out.setTopLevelObject(object, classSerial);
+		}
+		bytes.reset();
+		bytes.write(streamHeader);
+		out.writeObject(object);
+		out.flush();
+		done = true;
+	    } finally {
+		if (!done) {
+		    out = null;
+		}
+	    }
+	}
+
+	/**
+	 * Clears the state after a call to serialize, resetting the object
+	 * output stream so that it does not retain references to the objects
+	 * written.
+	 */
+	void release() {
+	    inUse = false;
 	    if (out != null) {
+		out.setTopLevelObject(null, null);
 		try {
-		    out.close();
+		    out.reset();
+		    out.flush();
 		} catch (IOException e) {
+		    out = null;
 		}
 	    }
+	    bytes.recycle();
 	}
     }
 
@@ -215,7 +516,38 @@ final class SerialUtil {
     private static final class CompressByteArrayOutputStream
 	extends ByteArrayOutputStream
     {
-	CompressByteArrayOutputStream() { }
+	/** The initial buffer size. */
+	private static final int INITIAL_SIZE = 256;
+
+	/**
+	 * The largest buffer to retain between uses, to avoid holding on to
+	 * the space used by an unusually large object.
+	 */
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	CompressByteArrayOutputStream() {
+	    super(INITIAL_SIZE);
+	}
+	/** Returns a copy of the uncompressed data written. */
+	byte[] toRawByteArray() {
+	    return super.toByteArray();
+	}
+	/**
+	 * Returns a fingerprint of the data written, without copying it.
+	 */
+	long fingerprint() {
+	    return SerialUtil.fingerprint(FINGERPRINT_INIT, buf, 0, count);
+	}
+	/**
+	 * Clears the data written, replacing the buffer with a smaller one if
+	 * it has grown too large.
+	 */
+	void recycle() {
+	    count = 0;
+	    if (buf.length > MAX_RETAINED_SIZE) {
+		buf = new byte[INITIAL_SIZE];
+	    }
+	}
 	public byte[] toByteArray() {
 	    byte[] newbuf;
 	    if (startsWith(SERIAL_PROTOCOL_2_HEADER)) {
@@ -249,7 +581,8 @@ final class SerialUtil {
     private static class CustomClassDescriptorObjectOutputStream
 	extends ObjectOutputStream
     {
-	final ClassSerialization classSerial;
+	/** Controls writing of class descriptors. */
+	ClassSerialization classSerial;
 
 	CustomClassDescriptorObjectOutputStream(OutputStream out,
 						ClassSerialization classSerial)
@@ -276,7 +609,7 @@ final class SerialUtil {
 	extends CustomClassDescriptorObjectOutputStream
     {
 	/** The top level managed object being serialized. */
-	private final ManagedObject topLevelObject;
+	private ManagedObject topLevelObject;
 
 	/**
 	 * Creates an instance that writes to a stream for a managed object
@@ -298,6 +631,17 @@ final class SerialUtil {
 		});
 	}
 
+	/**
+	 * Sets the top level managed object to be serialized and how to write
+	 * class descriptors, when reusing this stream.
+	 */
+	void setTopLevelObject(ManagedObject topLevelObject,
+			       ClassSerialization classSerial)
+	{
+	    this.topLevelObject = topLevelObject;
+	    this.classSerial = classSerial;
+	}
+
 	/** Check for references to managed objects. */
 	protected Object replaceObject(Object object) throws IOException {
 	    if (object == null) {
@@ -270,6 +270,75 @@ public abstract class AbstractDataStore
     protected abstract byte[] getObjectInternal(
 	Transaction txn, long oid, boolean forUpdate);
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation does logging, checks that {@code oids} is not {@code
+     * null} and its elements are valid, reports object accesses, and calls
+     * {@link #getObjectsInternal getObjectsInternal} to perform the actual
+     * operation.
+     */
+    public byte[][] getObjects(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	if (logger.isLoggable(FINEST)) {
+	    logger.log(FINEST, "getObjects txn:{0}, oids:[{1}], forUpdate:{2}",
+		       txn, Arrays.toString(oids), forUpdate);
+	}
+	try {
+	    AccessType type = forUpdate ? WRITE : READ;
+	    for (long oid : oids) {
+		reportObjectAccess(txn, oid, type);
+	    }
+	    byte[][] result = getObjectsInternal(txn, oids, forUpdate);
+	    if (logger.isLoggable(FINEST)) {
+		logger.log(FINEST,
+			   "getObjects txn:{0}, oids:[{1}], forUpdate:{2}" +
+			   " returns",
+			   txn, Arrays.toString(oids), forUpdate);
+	    }
+	    return result;
+	} catch (RuntimeException e) {
+	    throw handleException(txn, FINEST, e,
+				  "getObjects txn:" + txn +
+				  ", oids:[" + Arrays.toString(oids) + "]" +
+				  ", forUpdate:" + forUpdate);
+	}
+    }
+
+    /**
+     * Performs the actual operation for {@link #getObjects getObjects}. <p>
+     *
+     * The default implementation calls {@link #getObjectInternal
+     * getObjectInternal} for each object ID, storing {@code null} for objects
+     * that are not found.  Subclasses that can obtain the data for several
+     * objects more efficiently should override this method.
+     *
+     * @param	txn the transaction under which the operation should take place
+     * @param	oids the object IDs
+     * @param	forUpdate whether the caller intends to modify the objects
+     * @return	the data associated with the object IDs, with {@code null}
+     *		elements for objects that are not found
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    protected byte[][] getObjectsInternal(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	byte[][] result = new byte[oids.length][];
+	for (int i = 0; i < oids.length; i++) {
+	    try {
+		result[i] = getObjectInternal(txn, oids[i], forUpdate);
+	    } catch (ObjectNotFoundException e) {
+		result[i] = null;
+	    }
+	}
+	return result;
+    }
+
     /**
      * {@inheritDoc} <p>
      *
@@ -131,6 +131,34 @@ public class DataStoreImpl extends AbstractDataStore {
     public static final String DEFAULT_ENVIRONMENT_CLASS =
         "com.sun.sgs.impl.service.data.store.db.je.JeEnvironment";
 
+    /**
+     * The property that specifies whether to share log flushes among
+     * concurrently committing transactions.
+     */
+    public static final String GROUP_COMMIT_PROPERTY =
+	CLASSNAME + ".group.commit";
+
+    /**
+     * The property that specifies the maximum number of transactions whose
+     * commits share a single log flush when group commit is enabled.
+     */
+    public static final String GROUP_COMMIT_MAX_BATCH_PROPERTY =
+	CLASSNAME + ".group.commit.max.batch";
+
+    /** The default maximum number of transactions in a group commit. */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_BATCH = 64;
+
+    /**
+     * The property that specifies the maximum number of milliseconds to wait
+     * for additional transactions before flushing the log when group commit
+     * is enabled.
+     */
+    public static final String GROUP_COMMIT_MAX_WAIT_PROPERTY =
+	CLASSNAME + ".group.commit.max.wait";
+
+    /** The default maximum group commit wait in milliseconds. */
+    public static final long DEFAULT_GROUP_COMMIT_MAX_WAIT = 2;
+
     /** The object data for a placeholder. */
     private static final byte[] PLACEHOLDER_DATA = { PLACEHOLDER_OBJ_VALUE };
 
@@ -143,6 +171,12 @@ public class DataStoreImpl extends AbstractDataStore {
     /** The database environment. */
     private final DbEnvironment env;
 
+    /**
+     * The object for sharing log flushes among committing transactions, or
+     * {@code null} if group commit is not enabled.
+     */
+    private final GroupCommitter groupCommitter;
+
     /**
      * The database that holds version and next object ID information.  This
      * information is stored in a separate database to avoid concurrency
@@ -337,12 +371,20 @@ public class DataStoreImpl extends AbstractDataStore {
 
 	/**
 	 * Prepares and commits the transaction, first updating object ID
-	 * information and closing cursors.
+	 * information and closing cursors.  A transaction that made no writes
+	 * has nothing to make durable, so it commits without waiting for a
+	 * log flush.
 	 */
 	void prepareAndCommit() {
+	    boolean writes = modified || objectIdInfo != null ||
+		emptyObjectIdInfo != null;
 	    prepareFreeObjectIds();
 	    maybeCloseCursors(false);
-	    dbTxn.commit();
+	    if (writes) {
+		commitDbTxn();
+	    } else {
+		dbTxn.commitNoSync();
+	    }
 	}
 
 	/**
@@ -385,7 +427,19 @@ public class DataStoreImpl extends AbstractDataStore {
 	 * Commits the transaction, which should already have been prepared.
 	 */
 	void commit() {
-	    dbTxn.commit();
+	    commitDbTxn();
+	}
+
+	/**
+	 * Commits the database transaction, sharing the log flush with other
+	 * transactions if group commit is enabled.
+	 */
+	private void commitDbTxn() {
+	    if (groupCommitter != null) {
+		groupCommitter.commit(dbTxn);
+	    } else {
+		dbTxn.commit();
+	    }
 	}
 
 	/**
@@ -758,6 +812,14 @@ public class DataStoreImpl extends AbstractDataStore {
 	 * -tjb@sun.com (02/16/2007)
 	 */
 	directory = new File(specifiedDirectory).getAbsolutePath();
+	boolean groupCommit =
+	    wrappedProps.getBooleanProperty(GROUP_COMMIT_PROPERTY, false);
+	int groupCommitMaxBatch = wrappedProps.getIntProperty(
+	    GROUP_COMMIT_MAX_BATCH_PROPERTY, DEFAULT_GROUP_COMMIT_MAX_BATCH,
+	    1, Integer.MAX_VALUE);
+	long groupCommitMaxWait = wrappedProps.getLongProperty(
+	    GROUP_COMMIT_MAX_WAIT_PROPERTY, DEFAULT_GROUP_COMMIT_MAX_WAIT,
+	    0, Long.MAX_VALUE);
 	txnInfoTable = getTxnInfoTable(TxnInfo.class);
 	DbTransaction dbTxn = null;
 	boolean done = false;
@@ -781,6 +843,10 @@ public class DataStoreImpl extends AbstractDataStore {
 			ComponentRegistry.class, TransactionProxy.class
                     },
                     directory, properties, systemRegistry, txnProxy);
+	    groupCommitter = groupCommit
+		? new GroupCommitter(
+		    env, groupCommitMaxBatch, groupCommitMaxWait)
+		: null;
 	    dbTxn = env.beginTransaction(Long.MAX_VALUE);
 	    Databases dbs = DbUtilities.getDatabases(env, dbTxn, logger);
 	    infoDb = dbs.info();
@@ -800,7 +866,12 @@ public class DataStoreImpl extends AbstractDataStore {
                        "Created DataStoreImpl with properties:" +
                        "\n  " + DIRECTORY_PROPERTY + "=" + specifiedDirectory +
                        "\n  " + ENVIRONMENT_CLASS_PROPERTY + "=" +
-                       env.getClass().getName());
+                       env.getClass().getName() +
+                       "\n  " + GROUP_COMMIT_PROPERTY + "=" + groupCommit +
+                       "\n  " + GROUP_COMMIT_MAX_BATCH_PROPERTY + "=" +
+                       groupCommitMaxBatch +
+                       "\n  " + GROUP_COMMIT_MAX_WAIT_PROPERTY + "=" +
+                       groupCommitMaxWait);
             
 	} catch (RuntimeException e) { 
 	    throw handleException(
@@ -936,6 +1007,28 @@ public class DataStoreImpl extends AbstractDataStore {
 	return decodeValue(result);
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation reads all of the objects from the database using
+     * the same database transaction, checking the transaction only once.
+     */
+    @Override
+    protected byte[][] getObjectsInternal(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	TxnInfo txnInfo = checkTxn(txn);
+	byte[][] result = new byte[oids.length][];
+	for (int i = 0; i < oids.length; i++) {
+	    byte[] value = oidsDb.get(
+		txnInfo.dbTxn, DataEncoding.encodeLong(oids[i]), forUpdate);
+	    if (value != null && !isPlaceholderValue(value)) {
+		result[i] = decodeValue(value);
+	    }
+	}
+	return result;
+    }
+
     /** {@inheritDoc} */
     protected void setObjectInternal(Transaction txn, long oid, byte[] data) {
 	TxnInfo txnInfo = checkTxn(txn);
@@ -1021,6 +1114,18 @@ public class DataStoreImpl extends AbstractDataStore {
 	return txnInfo.nextName(name, namesDb);
     }
 
+    /**
+     * Specifies the statistics object to update with group commit batch
+     * sizes and wait times.  Has no effect if group commit is not enabled.
+     *
+     * @param	stats the statistics or {@code null}
+     */
+    void setStats(DataStoreStats stats) {
+	if (groupCommitter != null) {
+	    groupCommitter.setStats(stats);
+	}
+    }
+
     /** {@inheritDoc} */
     protected void shutdownInternal() {
 	synchronized (txnCountLock) {
@@ -1262,6 +1367,36 @@ public class DataStoreImpl extends AbstractDataStore {
 	return getNextId(DataStoreHeader.NEXT_NODE_ID_KEY, 1, Long.MAX_VALUE);
     }
 
+    /**
+     * Reserves a block of object IDs for creating objects outside of this
+     * data store's own allocation, for use by a remote node, and returns the
+     * first ID in the block.  The IDs are not associated with any
+     * transaction, and are not returned to the free list if they are not
+     * used.  The number of IDs reserved is rounded up to a multiple of the
+     * allocation block size, so that allocation block placeholders remain
+     * aligned, but only the requested number of IDs should be used.
+     *
+     * @param	numIds the number of object IDs to reserve
+     * @return	the first object ID in the block
+     * @throws	IllegalArgumentException if {@code numIds} is less than
+     *		{@code 1}, or is too large to be rounded up to a multiple of
+     *		the allocation block size as an {@code int}
+     */
+    protected long newObjectIds(int numIds) {
+	if (numIds < 1) {
+	    throw new IllegalArgumentException(
+		"The numIds argument must be greater than 0");
+	}
+	long size = ((numIds + (long) ALLOCATION_BLOCK_SIZE - 1) /
+		     ALLOCATION_BLOCK_SIZE) * ALLOCATION_BLOCK_SIZE;
+	if (size > Integer.MAX_VALUE) {
+	    throw new IllegalArgumentException(
+		"The numIds argument is too large: " + numIds);
+	}
+	return getNextId(
+	    DataStoreHeader.NEXT_OBJ_ID_KEY, (int) size, Long.MAX_VALUE);
+    }
+
     /* -- Private methods -- */
 
     /**
@@ -21,6 +21,7 @@
 
 package com.sun.sgs.impl.service.data.store;
 
+import com.sun.sgs.impl.service.data.store.net.DataStoreClient;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.management.DataStoreStatsMXBean;
 import com.sun.sgs.profile.ProfileCollector;
@@ -84,6 +85,11 @@ public class DataStoreProfileProducer
 	participant = (TransactionParticipant) dataStore;
 
         stats = new DataStoreStats(collector);
+        if (dataStore instanceof DataStoreImpl) {
+            ((DataStoreImpl) dataStore).setStats(stats);
+        } else if (dataStore instanceof DataStoreClient) {
+            stats.setDataStoreClient((DataStoreClient) dataStore);
+        }
         try {
             collector.registerMBean(stats, DataStoreStatsMXBean.MXBEAN_NAME);
         } catch (JMException e) {
@@ -145,6 +151,22 @@ public class DataStoreProfileProducer
 	return result;
     }
 
+    /** {@inheritDoc} */
+    public byte[][] getObjects(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	byte[][] result = dataStore.getObjects(txn, oids, forUpdate);
+	stats.getObjectsOp.report();
+	for (byte[] data : result) {
+	    if (data != null) {
+		stats.readBytesCounter.incrementCount(data.length);
+		stats.readObjectsCounter.incrementCount();
+		stats.readBytesSample.addSample(data.length);
+	    }
+	}
+	return result;
+    }
+
     /** {@inheritDoc} */
     public void setObject(Transaction txn, long oid, byte[] data) {
 	dataStore.setObject(txn, oid, data);
@@ -22,6 +22,9 @@
 package com.sun.sgs.impl.service.data.store;
 
 import com.sun.sgs.impl.profile.ProfileCollectorImpl;
+import com.sun.sgs.impl.service.data.store.net.DataStoreClient;
+import com.sun.sgs.impl.profile.util.Histogram;
+import com.sun.sgs.impl.profile.util.PowerOfTwoHistogram;
 import com.sun.sgs.management.DataStoreStatsMXBean;
 import com.sun.sgs.profile.AggregateProfileCounter;
 import com.sun.sgs.profile.AggregateProfileOperation;
@@ -47,6 +50,7 @@ class DataStoreStats implements DataStoreStatsMXBean {
     final ProfileOperation markForUpdateOp;
     final ProfileOperation getObjectOp;
     final ProfileOperation getObjectForUpdateOp;
+    final ProfileOperation getObjectsOp;
     final ProfileOperation setObjectOp;
     final ProfileOperation setObjectsOp;
     final ProfileOperation removeObjectOp;
@@ -58,10 +62,16 @@ class DataStoreStats implements DataStoreStatsMXBean {
     final ProfileOperation getClassInfoOp;
     final ProfileOperation nextObjectIdOp;
 
-    /** Records the number of bytes read by the getObject method. */
+    /**
+     * Records the number of bytes read by the getObject and getObjects
+     * methods.
+     */
     final ProfileCounter readBytesCounter;
 
-    /** Records the number of objects read by the getObject method. */
+    /**
+     * Records the number of objects read by the getObject and getObjects
+     * methods.
+     */
     final ProfileCounter readObjectsCounter;
 
     /**
@@ -87,7 +97,33 @@ class DataStoreStats implements DataStoreStatsMXBean {
      * and setObjects methods.
      */
     final ProfileSample writtenBytesSample;
+
+    /** Records the number of log flushes performed by group commit. */
+    final ProfileCounter groupCommitFlushesCounter;
+
+    /** Records the number of transactions in each group commit batch. */
+    final ProfileSample groupCommitBatchSizeSample;
+
+    /**
+     * Records the number of milliseconds each transaction waited for its
+     * group commit log flush.
+     */
+    final ProfileSample groupCommitWaitTimeSample;
+
+    /** A histogram of group commit batch sizes. */
+    private final Histogram groupCommitBatchSizeHistogram =
+	new PowerOfTwoHistogram();
+
+    /** A histogram of group commit wait times, in milliseconds. */
+    private final Histogram groupCommitWaitTimeHistogram =
+	new PowerOfTwoHistogram();
     
+    /**
+     * The data store client whose object ID allocation stalls should be
+     * reported, or null.
+     */
+    private volatile DataStoreClient client;
+
     /**
      * Create a data store statistics object.
      * @param collector the profile collector used to create profiling
@@ -107,6 +143,7 @@ class DataStoreStats implements DataStoreStatsMXBean {
 	getObjectOp = consumer.createOperation("getObject", type, level);
 	getObjectForUpdateOp =
 	    consumer.createOperation("getObjectForUpdate", type, level);
+	getObjectsOp = consumer.createOperation("getObjects", type, level);
 	setObjectOp = consumer.createOperation("setObject", type, level);
 	setObjectsOp = consumer.createOperation("setObjects", type, level);
 	removeObjectOp = 
@@ -137,8 +174,52 @@ class DataStoreStats implements DataStoreStatsMXBean {
             consumer.createSample("readBytes", type, level);
 	writtenBytesSample = 
             consumer.createSample("writtenBytes", type, level);
+
+        // Group commit, which happens outside of task accounting
+        ProfileDataType aggregate = ProfileDataType.AGGREGATE;
+        groupCommitFlushesCounter =
+            consumer.createCounter("groupCommitFlushes", aggregate, level);
+        groupCommitBatchSizeSample =
+            consumer.createSample("groupCommitBatchSize", aggregate, level);
+        groupCommitWaitTimeSample =
+            consumer.createSample("groupCommitWaitTime", aggregate, level);
+    }
+
+    /**
+     * Records a group commit log flush for a batch of the specified size.
+     *
+     * @param	size the number of transactions in the batch
+     */
+    void groupCommitBatch(int size) {
+        groupCommitFlushesCounter.incrementCount();
+        groupCommitBatchSizeSample.addSample(size);
+        synchronized (groupCommitBatchSizeHistogram) {
+            groupCommitBatchSizeHistogram.bin(size);
+        }
+    }
+
+    /**
+     * Records the time a transaction waited for its group commit log flush.
+     *
+     * @param	waitTime the wait time in milliseconds
+     */
+    void groupCommitWait(long waitTime) {
+        groupCommitWaitTimeSample.addSample(waitTime);
+        synchronized (groupCommitWaitTimeHistogram) {
+            groupCommitWaitTimeHistogram.bin(waitTime);
+        }
     }
     
+    /**
+     * Specifies the data store client whose object ID allocation stalls
+     * should be reported.
+     *
+     * @param	client the data store client
+     */
+    void setDataStoreClient(DataStoreClient client) {
+        this.client = client;
+    }
+
     /** {@inheritDoc} */
     public long getGetBindingCalls() {
         return ((AggregateProfileOperation) getBindingOp).getCount();
@@ -179,6 +260,11 @@ class DataStoreStats implements DataStoreStatsMXBean {
         return ((AggregateProfileOperation) getObjectForUpdateOp).getCount();
     }
 
+    /** {@inheritDoc} */
+    public long getGetObjectsCalls() {
+        return ((AggregateProfileOperation) getObjectsOp).getCount();
+    }
+
     /** {@inheritDoc} */
     public long getReadBytesCount() {
         return ((AggregateProfileCounter) readBytesCounter).getCount();
@@ -259,6 +345,62 @@ class DataStoreStats implements DataStoreStatsMXBean {
         return ((AggregateProfileSample) writtenBytesSample).getMinSample();
     }
 
+    /** {@inheritDoc} */
+    public long getGroupCommitFlushCount() {
+        return ((AggregateProfileCounter) groupCommitFlushesCounter).
+            getCount();
+    }
+
+    /** {@inheritDoc} */
+    public double getAvgGroupCommitBatchSize() {
+        return ((AggregateProfileSample) groupCommitBatchSizeSample).
+            getAverage();
+    }
+
+    /** {@inheritDoc} */
+    public long getMaxGroupCommitBatchSize() {
+        return ((AggregateProfileSample) groupCommitBatchSizeSample).
+            getMaxSample();
+    }
+
+    /** {@inheritDoc} */
+    public double getAvgGroupCommitWaitTime() {
+        return ((AggregateProfileSample) groupCommitWaitTimeSample).
+            getAverage();
+    }
+
+    /** {@inheritDoc} */
+    public long getMaxGroupCommitWaitTime() {
+        return ((AggregateProfileSample) groupCommitWaitTimeSample).
+            getMaxSample();
+    }
+
+    /** {@inheritDoc} */
+    public String getGroupCommitBatchSizeHistogram() {
+        synchronized (groupCommitBatchSizeHistogram) {
+            return groupCommitBatchSizeHistogram.toString();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public String getGroupCommitWaitTimeHistogram() {
+        synchronized (groupCommitWaitTimeHistogram) {
+            return groupCommitWaitTimeHistogram.toString("ms");
+        }
+    }
+
+    /** {@inheritDoc} */
+    public long getObjectIdAllocationStallCount() {
+        DataStoreClient c = client;
+        return (c == null) ? 0 : c.getObjectIdAllocationStallCount();
+    }
+
+    /** {@inheritDoc} */
+    public long getObjectIdAllocationStallTime() {
+        DataStoreClient c = client;
+        return (c == null) ? 0 : c.getObjectIdAllocationStallTime();
+    }
+
     /** {@inheritDoc} */
     public double getSmoothingFactor() {
         return ((AggregateProfileSample) readBytesSample).getSmoothingFactor();
@@ -269,5 +411,9 @@ class DataStoreStats implements DataStoreStatsMXBean {
         ((AggregateProfileSample) readBytesSample).setSmoothingFactor(smooth);
         ((AggregateProfileSample) writtenBytesSample).
                                                    setSmoothingFactor(smooth);
+        ((AggregateProfileSample) groupCommitBatchSizeSample).
+                                                   setSmoothingFactor(smooth);
+        ((AggregateProfileSample) groupCommitWaitTimeSample).
+                                                   setSmoothingFactor(smooth);
     }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.service.data.store;
+
+import com.sun.sgs.service.store.db.DbDatabaseException;
+import com.sun.sgs.service.store.db.DbEnvironment;
+import com.sun.sgs.service.store.db.DbTransaction;
+
+/**
+ * Shares database log flushes among concurrently committing transactions.
+ * Each transaction is committed without syncing the log, and then waits for
+ * the log to be flushed.  The first transaction to find no flush in
+ * progress becomes the leader for the current batch: it waits until either
+ * the batch reaches the maximum size or the maximum wait time has elapsed
+ * since the first transaction joined the batch, and then performs a single
+ * log flush on behalf of all members of the batch.  Transactions that
+ * arrive while a flush is underway form the next batch.  The {@link
+ * #commit commit} method does not return until the log flush covering the
+ * transaction has completed, so commits remain durable. <p>
+ *
+ * This class is thread safe.
+ */
+final class GroupCommitter {
+
+    /** The database environment. */
+    private final DbEnvironment env;
+
+    /** The maximum number of transactions to include in a batch. */
+    private final int maxBatchSize;
+
+    /**
+     * The maximum number of milliseconds to wait for additional
+     * transactions before flushing a batch.
+     */
+    private final long maxWait;
+
+    /** The lock for synchronizing access to the fields that follow. */
+    private final Object lock = new Object();
+
+    /** The batch currently accepting transactions, or {@code null}. */
+    private Batch current = null;
+
+    /** Whether a leader is currently collecting or flushing a batch. */
+    private boolean leading = false;
+
+    /** The statistics to update, or {@code null}. */
+    private volatile DataStoreStats stats = null;
+
+    /** Records information about a group of transactions to flush. */
+    private static final class Batch {
+
+	/** The time the first transaction joined the batch. */
+	final long start;
+
+	/** The number of transactions in the batch. */
+	int size = 0;
+
+	/** Whether the log flush for the batch has completed. */
+	boolean done = false;
+
+	/** The exception thrown by the log flush, or {@code null}. */
+	RuntimeException failure = null;
+
+	Batch(long start) {
+	    this.start = start;
+	}
+    }
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param	env the database environment
+     * @param	maxBatchSize the maximum number of transactions in a batch
+     * @param	maxWait the maximum number of milliseconds to wait for
+     *		additional transactions before flushing a batch
+     * @throws	IllegalArgumentException if {@code maxBatchSize} is less than
+     *		{@code 1} or {@code maxWait} is negative
+     */
+    GroupCommitter(DbEnvironment env, int maxBatchSize, long maxWait) {
+	if (maxBatchSize < 1) {
+	    throw new IllegalArgumentException(
+		"The maxBatchSize must not be less than 1");
+	} else if (maxWait < 0) {
+	    throw new IllegalArgumentException(
+		"The maxWait must not be negative");
+	}
+	this.env = env;
+	this.maxBatchSize = maxBatchSize;
+	this.maxWait = maxWait;
+    }
+
+    /**
+     * Specifies the statistics object to update with batch sizes and wait
+     * times.
+     *
+     * @param	stats the statistics or {@code null}
+     */
+    void setStats(DataStoreStats stats) {
+	this.stats = stats;
+    }
+
+    /**
+     * Commits the database transaction, returning after the commit has been
+     * flushed to disk.
+     *
+     * @param	dbTxn the database transaction
+     * @throws	DbDatabaseException if an unexpected database problem occurs
+     */
+    void commit(DbTransaction dbTxn) {
+	dbTxn.commitNoSync();
+	long start = System.currentTimeMillis();
+	Batch batch;
+	boolean interrupted = false;
+	try {
+	    synchronized (lock) {
+		if (current == null) {
+		    current = new Batch(start);
+		}
+		batch = current;
+		batch.size++;
+		if (batch.size >= maxBatchSize) {
+		    lock.notifyAll();
+		}
+		while (true) {
+		    if (batch.done) {
+			reportWait(start);
+			if (batch.failure != null) {
+			    throw batch.failure;
+			}
+			return;
+		    } else if (!leading) {
+			/*
+			 * Since only the leader closes a batch, and the
+			 * leader completes each batch it closes, a batch that
+			 * is not done when no leader is present must be the
+			 * current one.
+			 */
+			assert batch == current;
+			leading = true;
+			interrupted |= collect(batch);
+			current = null;
+			break;
+		    }
+		    try {
+			lock.wait();
+		    } catch (InterruptedException e) {
+			/*
+			 * The transaction has already been committed, so
+			 * keep waiting for it to become durable.
+			 */
+			interrupted = true;
+		    }
+		}
+	    }
+	    flush(batch);
+	    reportWait(start);
+	} finally {
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    /**
+     * Waits, as leader, for the batch to fill or for the maximum wait time to
+     * elapse.  Returns whether the thread was interrupted while waiting.
+     * Must be called while synchronized on {@code lock}.
+     */
+    private boolean collect(Batch batch) {
+	assert Thread.holdsLock(lock);
+	boolean interrupted = false;
+	long deadline = batch.start + maxWait;
+	while (batch.size < maxBatchSize) {
+	    long wait = deadline - System.currentTimeMillis();
+	    if (wait <= 0) {
+		break;
+	    }
+	    try {
+		lock.wait(wait);
+	    } catch (InterruptedException e) {
+		interrupted = true;
+	    }
+	}
+	return interrupted;
+    }
+
+    /**
+     * Flushes the log on behalf of the batch, notifying its other members
+     * and passing leadership on to the next batch when done.  Must be called
+     * without synchronizing on {@code lock}.
+     */
+    private void flush(Batch batch) {
+	RuntimeException failure = null;
+	try {
+	    env.flushLog();
+	} catch (RuntimeException e) {
+	    failure = e;
+	    throw e;
+	} catch (Error e) {
+	    failure = new DbDatabaseException(
+		"Log flush failed: " + e, e);
+	    throw e;
+	} finally {
+	    int size;
+	    synchronized (lock) {
+		batch.failure = failure;
+		batch.done = true;
+		size = batch.size;
+		leading = false;
+		lock.notifyAll();
+	    }
+	    DataStoreStats currentStats = stats;
+	    if (currentStats != null) {
+		currentStats.groupCommitBatch(size);
+	    }
+	}
+    }
+
+    /**
+     * Reports the time a transaction spent waiting for its commit to be
+     * flushed.
+     */
+    private void reportWait(long start) {
+	DataStoreStats currentStats = stats;
+	if (currentStats != null) {
+	    currentStats.groupCommitWait(System.currentTimeMillis() - start);
+	}
+    }
+}
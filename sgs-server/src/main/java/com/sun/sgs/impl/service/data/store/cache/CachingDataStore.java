@@ -0,0 +1,1447 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.service.data.store.cache;
+
+import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.TransactionAbortedException;
+import com.sun.sgs.app.TransactionNotActiveException;
+import com.sun.sgs.app.TransactionTimeoutException;
+import com.sun.sgs.impl.kernel.StandardProperties;
+import com.sun.sgs.impl.service.data.store.AbstractDataStore;
+import com.sun.sgs.impl.service.data.store.BindingValue;
+import com.sun.sgs.impl.service.data.store.NetworkException;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.impl.util.Exporter;
+import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.kernel.NodeType;
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.TransactionInterruptedException;
+import com.sun.sgs.service.TransactionProxy;
+import com.sun.sgs.service.store.ClassInfoNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.rmi.NotBoundException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides an implementation of {@code DataStore} that caches committed
+ * object data and name bindings on the local node, communicating over the
+ * network with a {@link CachingDataStoreServer} to obtain leases on cached
+ * items and to commit modifications, and optionally runs the server. <p>
+ *
+ * A node may only use a cached item while it holds a lease for it: a read
+ * lease for reading, or a write lease for modifying.  Items read under a
+ * lease are served from the cache without contacting the server.  Object
+ * modifications are buffered locally and sent to the server when the
+ * transaction prepares, while name binding modifications are sent to the
+ * server immediately so that iteration over bound names observes them.  When
+ * another node needs a conflicting lease, the server calls back this node to
+ * evict or downgrade the item, which this node does as soon as no local
+ * transactions are using the item.  The cache holds a bounded number of
+ * entries, giving up the leases for the least recently used ones when it
+ * becomes full. <p>
+ *
+ * This class relies on the {@link com.sun.sgs.kernel.AccessCoordinator} to
+ * provide isolation between transactions running on the same node, and so
+ * should be used with {@link
+ * com.sun.sgs.impl.kernel.LockingAccessCoordinator}.  All nodes sharing a
+ * server must use this class. <p>
+ *
+ * The {@link #CachingDataStore constructor} supports the following
+ * properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.net.server.host
+ *	</b></code><br>
+ *	<i>Default</i> the value of the {@code com.sun.sgs.server.host}
+ *	property, if present, or {@code localhost} if this node is starting the
+ *	server.
+ *
+ * <dd style="padding-top: .5em">The name of the host running the {@code
+ *	CachingDataStoreServer}. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.net.server.port
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 44530}
+ *
+ * <dd style="padding-top: .5em">The network port for the {@code
+ *	CachingDataStoreServer}.  This value must be no less than {@code 0} and
+ *	no greater than {@code 65535}.  The value {@code 0} can only be
+ *	specified if the {@code com.sun.sgs.node.type} property is not {@code
+ *	appNode}, and means that an anonymous port will be chosen for running
+ *	the server. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.cache.size
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 5000}
+ *
+ * <dd style="padding-top: .5em">The maximum number of objects and name
+ *	bindings to hold in the cache.  This value must be greater than {@code
+ *	0}. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.cache.eviction.wait
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 50}
+ *
+ * <dd style="padding-top: .5em">The maximum amount of time in milliseconds
+ *	that a callback from the server will wait for local transactions to
+ *	stop using an item before reporting that the item could not be evicted
+ *	or downgraded.  This value should be smaller than the server's lock
+ *	timeout, and must be greater than {@code 0}. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.cache.callback.port
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 0}
+ *
+ * <dd style="padding-top: .5em">The network port for the callback server
+ *	that receives eviction requests.  This value must be no less than
+ *	{@code 0} and no greater than {@code 65535}.  The value {@code 0} means
+ *	that an anonymous port will be chosen. <p>
+ *
+ * </dl> <p>
+ *
+ * This class uses the {@link Logger} named {@code
+ * com.sun.sgs.impl.service.data.store.cache} to log information at the
+ * following levels: <p>
+ *
+ * <ul>
+ * <li> {@link Level#SEVERE SEVERE} - Problems starting the server
+ * <li> {@link Level#WARNING WARNING} - Problems releasing leases
+ * <li> {@link Level#INFO INFO} - Starting the server
+ * <li> {@link Level#CONFIG CONFIG} - Constructor properties
+ * <li> {@link Level#FINER FINER} - Callbacks and evictions
+ * <li> {@link Level#FINEST FINEST} - Object operations, cache misses
+ * </ul>
+ */
+public final class CachingDataStore extends AbstractDataStore {
+
+    /** The package for this class. */
+    private static final String PACKAGE =
+	"com.sun.sgs.impl.service.data.store.cache";
+
+    /** The package for the network data store properties. */
+    private static final String NET_PACKAGE =
+	"com.sun.sgs.impl.service.data.store.net";
+
+    /** The property that specifies the name of the server host. */
+    private static final String SERVER_HOST_PROPERTY =
+	NET_PACKAGE + ".server.host";
+
+    /** The property that specifies the server port. */
+    private static final String SERVER_PORT_PROPERTY =
+	NET_PACKAGE + ".server.port";
+
+    /** The default for the server port. */
+    private static final int DEFAULT_SERVER_PORT = 44530;
+
+    /** The property that specifies the maximum number of cache entries. */
+    private static final String CACHE_SIZE_PROPERTY = PACKAGE + ".size";
+
+    /** The default maximum number of cache entries. */
+    private static final int DEFAULT_CACHE_SIZE = 5000;
+
+    /**
+     * The property that specifies how long callbacks wait for local
+     * transactions to stop using an item.
+     */
+    private static final String EVICTION_WAIT_PROPERTY =
+	PACKAGE + ".eviction.wait";
+
+    /** The default eviction wait. */
+    private static final long DEFAULT_EVICTION_WAIT = 50;
+
+    /** The property that specifies the callback server port. */
+    private static final String CALLBACK_PORT_PROPERTY =
+	PACKAGE + ".callback.port";
+
+    /** The server host name. */
+    private final String serverHost;
+
+    /** The server port. */
+    private final int serverPort;
+
+    /** The local server or null. */
+    private final CachingDataStoreServerImpl localServer;
+
+    /** The remote server. */
+    private final CachingDataStoreServer server;
+
+    /** The exporter for the callback server. */
+    private final Exporter<CallbackServer> callbackExporter;
+
+    /** The local node ID. */
+    private final long nodeId;
+
+    /** The maximum number of cache entries. */
+    private final int cacheSize;
+
+    /** The eviction wait in milliseconds. */
+    private final long evictionWait;
+
+    /**
+     * The cache entries, keyed by {@link Long} object IDs and {@link String}
+     * names, in least recently used order.  Synchronize on this map when
+     * accessing it or the state of its entries, and notify it when the state
+     * of an entry changes.
+     */
+    private final LinkedHashMap<Object, Entry> cache =
+	new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+    /** Provides information about the transaction for the current thread. */
+    private final ThreadLocal<TxnInfo> threadTxnInfo =
+	new ThreadLocal<TxnInfo>();
+
+    /** Object to synchronize on when accessing txnCount and shuttingDown. */
+    private final Object txnCountLock = new Object();
+
+    /** The number of currently active transactions. */
+    private int txnCount = 0;
+
+    /** Whether the client is in the process of shutting down. */
+    private boolean shuttingDown = false;
+
+    /** The states of a cache entry. */
+    private enum State {
+
+	/** A lease is being obtained, and the data is not yet available. */
+	FETCHING,
+
+	/** A read lease is held. */
+	READ,
+
+	/** A read lease is held and a write lease is being obtained. */
+	UPGRADING,
+
+	/** A write lease is held. */
+	WRITE,
+
+	/** A write lease is being downgraded to a read lease. */
+	DOWNGRADING,
+
+	/** The lease is being released. */
+	EVICTING;
+    }
+
+    /**
+     * A cache entry for an object or a name binding.  Synchronize on the cache
+     * when accessing the fields of an entry.
+     */
+    private static final class Entry {
+
+	/** The key, either a {@link Long} object ID or a {@link String}. */
+	final Object key;
+
+	/** The current state. */
+	State state;
+
+	/**
+	 * For objects, the committed data, or {@code null} if the object was
+	 * not found.
+	 */
+	byte[] data;
+
+	/**
+	 * For name bindings, the committed value, or {@code null} if the value
+	 * is not known.
+	 */
+	BindingValue binding;
+
+	/** The number of transactions using the entry for read. */
+	int readPins;
+
+	/** The number of transactions using the entry for write. */
+	int writePins;
+
+	/**
+	 * Whether the lease held from the server may not match the state
+	 * because a request to upgrade the lease failed, in which case the
+	 * entry should be evicted once it is no longer in use.
+	 */
+	boolean revalidate;
+
+	/** Creates an instance of this class. */
+	Entry(Object key, State state) {
+	    this.key = key;
+	    this.state = state;
+	}
+
+	/** Returns whether any transactions are using the entry. */
+	boolean pinned() {
+	    return readPins > 0 || writePins > 0;
+	}
+
+	@Override
+	public String toString() {
+	    return "Entry[key:" + key + ", state:" + state + "]";
+	}
+    }
+
+    /** Stores transaction information. */
+    private static class TxnInfo {
+
+	/** The transaction. */
+	final Transaction txn;
+
+	/** The associated server transaction ID, or -1 if not created. */
+	long tid = -1;
+
+	/** Whether preparation of the transaction has started. */
+	boolean prepared;
+
+	/** Whether the server side has already aborted. */
+	boolean serverAborted;
+
+	/** The entries used by this transaction for read only. */
+	final Map<Object, Entry> readPinned = new HashMap<Object, Entry>();
+
+	/** The entries used by this transaction for write. */
+	final Map<Object, Entry> writePinned = new HashMap<Object, Entry>();
+
+	/**
+	 * The objects modified by this transaction, with {@code null} values
+	 * for removed objects.
+	 */
+	final Map<Long, byte[]> modifiedObjects =
+	    new LinkedHashMap<Long, byte[]>();
+
+	/**
+	 * The name bindings modified by this transaction, with {@code -1}
+	 * values for removed bindings.
+	 */
+	final Map<String, Long> modifiedBindings = new HashMap<String, Long>();
+
+	/** Creates an instance. */
+	TxnInfo(Transaction txn) {
+	    this.txn = txn;
+	}
+    }
+
+    /** Receives eviction and downgrade requests from the server. */
+    private class CallbackServerImpl implements CallbackServer {
+
+	/** Creates an instance of this class. */
+	CallbackServerImpl() { }
+
+	/* -- Implement CallbackServer -- */
+
+	/** {@inheritDoc} */
+	public boolean evictObject(long oid) {
+	    return callback(oid, false);
+	}
+
+	/** {@inheritDoc} */
+	public boolean downgradeObject(long oid) {
+	    return callback(oid, true);
+	}
+
+	/** {@inheritDoc} */
+	public boolean evictBinding(String name) {
+	    return callback(name, false);
+	}
+
+	/** {@inheritDoc} */
+	public boolean downgradeBinding(String name) {
+	    return callback(name, true);
+	}
+    }
+
+    /**
+     * Creates an instance of this class configured with the specified
+     * properties and access coordinator.  See the {@link CachingDataStore
+     * class documentation} for a list of supported properties.
+     *
+     * @param	properties the properties for configuring this instance
+     * @param	systemRegistry the registry of available system components
+     * @param	txnProxy the transaction proxy
+     * @throws	IllegalArgumentException if the server host is not specified
+     *		for an application node, if the value of a property is
+     *		illegal, or if the server found is not a {@code
+     *		CachingDataStoreServer}
+     * @throws	IOException if a network problem occurs
+     * @throws	NotBoundException if the server is not found in the Java RMI
+     *		registry
+     */
+    public CachingDataStore(Properties properties,
+			    ComponentRegistry systemRegistry,
+			    TransactionProxy txnProxy)
+	throws IOException, NotBoundException
+    {
+	super(systemRegistry,
+	      new LoggerWrapper(Logger.getLogger(PACKAGE)),
+	      new LoggerWrapper(Logger.getLogger(PACKAGE + ".abort")));
+	logger.log(Level.CONFIG, "Creating CachingDataStore properties:{0}",
+		   properties);
+	PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+	NodeType nodeType =
+	    wrappedProps.getEnumProperty(StandardProperties.NODE_TYPE,
+					 NodeType.class,
+					 NodeType.singleNode);
+	boolean serverStart = nodeType != NodeType.appNode;
+	if (serverStart) {
+	    String localHost = InetAddress.getLocalHost().getHostName();
+	    serverHost = wrappedProps.getProperty(
+		SERVER_HOST_PROPERTY,
+		wrappedProps.getProperty(
+		    StandardProperties.SERVER_HOST, localHost));
+	} else {
+	    serverHost = wrappedProps.getProperty(
+		SERVER_HOST_PROPERTY,
+		wrappedProps.getProperty(StandardProperties.SERVER_HOST));
+	    if (serverHost == null) {
+		throw new IllegalArgumentException(
+		    "A server host must be specified");
+	    }
+	}
+	int specifiedServerPort = wrappedProps.getIntProperty(
+	    SERVER_PORT_PROPERTY, DEFAULT_SERVER_PORT, serverStart ? 0 : 1,
+	    65535);
+	cacheSize = wrappedProps.getIntProperty(
+	    CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE, 1, Integer.MAX_VALUE);
+	evictionWait = wrappedProps.getLongProperty(
+	    EVICTION_WAIT_PROPERTY, DEFAULT_EVICTION_WAIT, 1, Long.MAX_VALUE);
+	int callbackPort = wrappedProps.getIntProperty(
+	    CALLBACK_PORT_PROPERTY, 0, 0, 65535);
+	if (serverStart) {
+	    try {
+		localServer = new CachingDataStoreServerImpl(
+		    properties, systemRegistry, txnProxy);
+		serverPort = localServer.getPort();
+		logger.log(Level.INFO, "Started server: {0}", localServer);
+	    } catch (IOException t) {
+		logger.logThrow(Level.SEVERE, t, "Problem starting server");
+		throw t;
+	    } catch (RuntimeException t) {
+		logger.logThrow(Level.SEVERE, t, "Problem starting server");
+		throw t;
+	    }
+	} else {
+	    localServer = null;
+	    serverPort = specifiedServerPort;
+	}
+	server = getServer();
+	callbackExporter = new Exporter<CallbackServer>(CallbackServer.class);
+	callbackExporter.export(new CallbackServerImpl(), callbackPort);
+	nodeId = server.registerNode(callbackExporter.getProxy());
+	logger.log(Level.CONFIG,
+		   "Created CachingDataStore with properties:" +
+		   "\n  " + SERVER_HOST_PROPERTY + "=" + serverHost +
+		   "\n  " + SERVER_PORT_PROPERTY + "=" + serverPort +
+		   "\n  " + CACHE_SIZE_PROPERTY + "=" + cacheSize +
+		   "\n  " + EVICTION_WAIT_PROPERTY + "=" + evictionWait +
+		   "\n  " + CALLBACK_PORT_PROPERTY + "=" + callbackPort);
+    }
+
+    /* -- Implement AbstractDataStore's DataStore methods -- */
+
+    /** {@inheritDoc} */
+    protected long getLocalNodeIdInternal() {
+	return nodeId;
+    }
+
+    /** {@inheritDoc} */
+    protected long createObjectInternal(Transaction txn) {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    long oid = server.newObject(nodeId, getTid(txnInfo));
+	    Long key = oid;
+	    synchronized (cache) {
+		Entry entry = new Entry(key, State.WRITE);
+		cache.put(key, entry);
+		addPin(txnInfo, entry, true);
+	    }
+	    evictIfNeeded();
+	    return oid;
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected void markForUpdateInternal(Transaction txn, long oid) {
+	TxnInfo txnInfo = checkTxn(txn);
+	pin(txnInfo, oid, true);
+    }
+
+    /** {@inheritDoc} */
+    protected byte[] getObjectInternal(
+	Transaction txn, long oid, boolean forUpdate)
+    {
+	TxnInfo txnInfo = checkTxn(txn);
+	byte[] data;
+	if (txnInfo.modifiedObjects.containsKey(oid)) {
+	    data = txnInfo.modifiedObjects.get(oid);
+	} else {
+	    Entry entry = pin(txnInfo, oid, forUpdate);
+	    synchronized (cache) {
+		data = entry.data;
+	    }
+	}
+	if (data == null) {
+	    throw new ObjectNotFoundException("Object not found: " + oid);
+	}
+	return data;
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation obtains leases for all objects that are not
+     * already cached with a single call to the server.
+     */
+    @Override
+    protected byte[][] getObjectsInternal(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	TxnInfo txnInfo = checkTxn(txn);
+	fetchObjects(txnInfo, oids, forUpdate);
+	byte[][] result = new byte[oids.length][];
+	for (int i = 0; i < oids.length; i++) {
+	    long oid = oids[i];
+	    if (txnInfo.modifiedObjects.containsKey(oid)) {
+		result[i] = txnInfo.modifiedObjects.get(oid);
+	    } else {
+		Entry entry = pin(txnInfo, oid, forUpdate);
+		synchronized (cache) {
+		    result[i] = entry.data;
+		}
+	    }
+	}
+	return result;
+    }
+
+    /** {@inheritDoc} */
+    protected void setObjectInternal(Transaction txn, long oid, byte[] data) {
+	TxnInfo txnInfo = checkTxn(txn);
+	pin(txnInfo, oid, true);
+	txnInfo.modifiedObjects.put(oid, data);
+    }
+
+    /** {@inheritDoc} */
+    protected void setObjectsInternal(
+	Transaction txn, long[] oids, byte[][] dataArray)
+    {
+	TxnInfo txnInfo = checkTxn(txn);
+	for (int i = 0; i < oids.length; i++) {
+	    pin(txnInfo, oids[i], true);
+	    txnInfo.modifiedObjects.put(oids[i], dataArray[i]);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected void removeObjectInternal(Transaction txn, long oid) {
+	TxnInfo txnInfo = checkTxn(txn);
+	Entry entry = pin(txnInfo, oid, true);
+	boolean found;
+	if (txnInfo.modifiedObjects.containsKey(oid)) {
+	    found = txnInfo.modifiedObjects.get(oid) != null;
+	} else {
+	    synchronized (cache) {
+		found = entry.data != null;
+	    }
+	}
+	if (!found) {
+	    throw new ObjectNotFoundException("Object not found: " + oid);
+	}
+	txnInfo.modifiedObjects.put(oid, null);
+    }
+
+    /** {@inheritDoc} */
+    protected BindingValue getBindingInternal(Transaction txn, String name) {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    Long modified = txnInfo.modifiedBindings.get(name);
+	    if (modified != null) {
+		return (modified != -1) ? new BindingValue(modified, null)
+		    : server.getBinding(getTid(txnInfo), name);
+	    }
+	    Entry entry = pin(txnInfo, name, false);
+	    BindingValue result;
+	    synchronized (cache) {
+		result = entry.binding;
+	    }
+	    if (result == null) {
+		/*
+		 * The binding was removed by a transaction on this node, so
+		 * only the server knows the next name.  Since this
+		 * transaction has not modified the binding, the value it sees
+		 * is the committed one.
+		 */
+		result = server.getBinding(getTid(txnInfo), name);
+		synchronized (cache) {
+		    entry.binding = result;
+		}
+	    }
+	    return result;
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected BindingValue setBindingInternal(
+	Transaction txn, String name, long oid)
+    {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    pin(txnInfo, name, true);
+	    BindingValue result =
+		server.setBinding(getTid(txnInfo), name, oid);
+	    txnInfo.modifiedBindings.put(name, oid);
+	    return result;
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected BindingValue removeBindingInternal(
+	Transaction txn, String name)
+    {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    pin(txnInfo, name, true);
+	    BindingValue result =
+		server.removeBinding(getTid(txnInfo), name);
+	    if (result.isNameBound()) {
+		txnInfo.modifiedBindings.put(name, -1L);
+	    }
+	    return result;
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected String nextBoundNameInternal(Transaction txn, String name) {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    return server.nextBoundName(getTid(txnInfo), name);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected void shutdownInternal() {
+	synchronized (txnCountLock) {
+	    shuttingDown = true;
+	    while (txnCount > 0) {
+		try {
+		    logger.log(Level.FINEST,
+			       "shutdown waiting for {0} transactions",
+			       txnCount);
+		    txnCountLock.wait();
+		} catch (InterruptedException e) {
+		    // loop until shutdown is complete
+		    logger.log(Level.FINEST, "Interrupt ignored during" +
+			       "shutdown");
+		}
+	    }
+	    if (txnCount < 0) {
+		return; // return silently
+	    }
+	    txnCount = -1;
+	}
+	try {
+	    server.unregisterNode(nodeId);
+	} catch (IOException e) {
+	    logger.logThrow(Level.WARNING, e, "Problem unregistering node");
+	} catch (RuntimeException e) {
+	    logger.logThrow(Level.WARNING, e, "Problem unregistering node");
+	}
+	callbackExporter.unexport();
+	synchronized (cache) {
+	    cache.clear();
+	}
+	if (localServer != null) {
+	    localServer.shutdown();
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected int getClassIdInternal(Transaction txn, byte[] classInfo) {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    return server.getClassId(getTid(txnInfo), classInfo);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected byte[] getClassInfoInternal(Transaction txn, int classId)
+	throws ClassInfoNotFoundException
+    {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    return server.getClassInfo(getTid(txnInfo), classId);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected long nextObjectIdInternal(Transaction txn, long oid) {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    return server.nextObjectId(getTid(txnInfo), oid);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /* -- Implement AbstractDataStore's TransactionParticipant methods -- */
+
+    /** {@inheritDoc} */
+    protected boolean prepareInternal(Transaction txn) {
+	try {
+	    TxnInfo txnInfo = checkTxnNoJoin(txn, true);
+	    checkTimeout(txn);
+	    if (txnInfo.prepared) {
+		throw new IllegalStateException(
+		    "Transaction has already been prepared");
+	    }
+	    flushModifiedObjects(txnInfo);
+	    boolean result = (txnInfo.tid == -1) || server.prepare(txnInfo.tid);
+	    txnInfo.prepared = true;
+	    if (result) {
+		endTxn(txnInfo);
+	    }
+	    return result;
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected void commitInternal(Transaction txn) {
+	try {
+	    TxnInfo txnInfo = checkTxnNoJoin(txn, true);
+	    if (!txnInfo.prepared) {
+		throw new IllegalStateException(
+		    "Transaction has not been prepared");
+	    }
+	    server.commit(txnInfo.tid);
+	    updateCache(txnInfo);
+	    endTxn(txnInfo);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected void prepareAndCommitInternal(Transaction txn) {
+	try {
+	    TxnInfo txnInfo = checkTxnNoJoin(txn, true);
+	    checkTimeout(txn);
+	    if (txnInfo.prepared) {
+		throw new IllegalStateException(
+		    "Transaction has already been prepared");
+	    }
+	    flushModifiedObjects(txnInfo);
+	    if (txnInfo.tid != -1) {
+		server.prepareAndCommit(txnInfo.tid);
+		updateCache(txnInfo);
+	    }
+	    endTxn(txnInfo);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /** {@inheritDoc} */
+    protected void abortInternal(Transaction txn) {
+	try {
+	    TxnInfo txnInfo = checkTxnNoJoin(txn, false);
+	    if (txnInfo.tid != -1 && !txnInfo.serverAborted) {
+		try {
+		    server.abort(txnInfo.tid);
+		} catch (TransactionNotActiveException e) {
+		    logger.logThrow(Level.FINEST, e,
+				    "abort txn:{0} - Transaction already " +
+				    "aborted by server",
+				    txn);
+		}
+	    }
+	    endTxn(txnInfo);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
+    /* -- Other AbstractDataStore methods -- */
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * In addition to the operations performed by the superclass, this
+     * implementation includes the operation in the exception message for
+     * {@link NetworkException}s, converts {@link
+     * TransactionNotActiveException} to {@link TransactionTimeoutException} if
+     * the transaction timeout has passed, and notes in the information for the
+     * transaction if the transaction has been aborted on the server side.
+     */
+    @Override
+    protected RuntimeException handleException(Transaction txn,
+					       Level level,
+					       RuntimeException e,
+					       String operation)
+    {
+	if (e instanceof NetworkException) {
+	    /* Include the operation in the message */
+	    Throwable cause = e.getCause();
+	    e = new NetworkException(
+		operation + " failed due to a communication problem: " +
+		cause.getMessage(), cause);
+	} else if (e instanceof TransactionNotActiveException && txn != null) {
+	    long duration = System.currentTimeMillis() - txn.getCreationTime();
+	    if (duration > txn.getTimeout()) {
+		e = new TransactionTimeoutException(
+		    operation + " failed: Transaction timed out after " +
+		    duration + " ms",
+		    e);
+	    }
+	}
+	if (e instanceof TransactionAbortedException) {
+	    TxnInfo txnInfo = threadTxnInfo.get();
+	    if (txnInfo != null) {
+		txnInfo.serverAborted = true;
+	    }
+	}
+	return super.handleException(txn, level, e, operation);
+    }
+
+    /* -- Other public methods -- */
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return	a string representation of this object
+     */
+    public String toString() {
+	return "CachingDataStore[" +
+	    "nodeId:" + nodeId +
+	    ", serverHost:" + serverHost +
+	    ", serverPort:" + serverPort + "]";
+    }
+
+    /* -- Private methods -- */
+
+    /** Obtains the server. */
+    private CachingDataStoreServer getServer()
+	throws IOException, NotBoundException
+    {
+	Registry registry = LocateRegistry.getRegistry(serverHost, serverPort);
+	Object result = registry.lookup("DataStoreServer");
+	if (!(result instanceof CachingDataStoreServer)) {
+	    throw new IllegalArgumentException(
+		"The data store server at " + serverHost + ":" + serverPort +
+		" does not support caching");
+	}
+	return (CachingDataStoreServer) result;
+    }
+
+    /**
+     * Makes sure that the transaction holds the appropriate lease for an item
+     * and is using its cache entry, obtaining the lease from the server if
+     * needed, and returns the entry.
+     */
+    private Entry pin(TxnInfo txnInfo, Object key, boolean forWrite) {
+	Entry entry = txnInfo.writePinned.get(key);
+	if (entry == null && !forWrite) {
+	    entry = txnInfo.readPinned.get(key);
+	}
+	if (entry != null) {
+	    return entry;
+	}
+	Transaction txn = txnInfo.txn;
+	long stop = txn.getCreationTime() + txn.getTimeout();
+	boolean upgrade;
+	synchronized (cache) {
+	    while (true) {
+		entry = cache.get(key);
+		if (entry == null) {
+		    entry = new Entry(key, State.FETCHING);
+		    cache.put(key, entry);
+		    upgrade = false;
+		    break;
+		}
+		State state = entry.state;
+		if (state == State.WRITE ||
+		    (!forWrite &&
+		     (state == State.READ || state == State.UPGRADING ||
+		      state == State.DOWNGRADING)))
+		{
+		    addPin(txnInfo, entry, forWrite);
+		    return entry;
+		} else if (state == State.READ) {
+		    entry.state = State.UPGRADING;
+		    upgrade = true;
+		    break;
+		}
+		waitForCache(key, stop);
+	    }
+	}
+	if (logger.isLoggable(Level.FINEST)) {
+	    logger.log(Level.FINEST, "cache miss {0}, forWrite:{1}",
+		       key, forWrite);
+	}
+	boolean done = false;
+	boolean release = false;
+	try {
+	    if (key instanceof Long) {
+		byte[] data =
+		    server.getObjectLease(nodeId, (Long) key, forWrite);
+		synchronized (cache) {
+		    entry.data = data;
+		}
+	    } else {
+		BindingValue binding =
+		    server.getBindingLease(nodeId, (String) key, forWrite);
+		synchronized (cache) {
+		    entry.binding = binding;
+		}
+	    }
+	    done = true;
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	} finally {
+	    synchronized (cache) {
+		if (done) {
+		    entry.state = forWrite ? State.WRITE : State.READ;
+		    if (forWrite) {
+			entry.revalidate = false;
+		    }
+		    addPin(txnInfo, entry, forWrite);
+		} else if (upgrade && entry.pinned()) {
+		    /*
+		     * The server may have granted the write lease even though
+		     * the request failed.  Other transactions are still
+		     * reading the entry, so keep it readable, but evict it
+		     * once they are done.
+		     */
+		    entry.state = State.READ;
+		    entry.revalidate = true;
+		} else {
+		    entry.state = State.EVICTING;
+		    release = true;
+		}
+		cache.notifyAll();
+	    }
+	    if (release) {
+		/*
+		 * The server may have granted the lease even though the
+		 * request failed, so release it before letting others obtain
+		 * it again.
+		 */
+		releaseLeases(entry);
+	    }
+	}
+	evictIfNeeded();
+	return entry;
+    }
+
+    /**
+     * Obtains leases from the server for objects that have no cache entries,
+     * using a single request.  Objects that are already cached, or that are
+     * in the process of being fetched or evicted, are left for {@link #pin
+     * pin} to handle individually.
+     */
+    private void fetchObjects(
+	TxnInfo txnInfo, long[] oids, boolean forUpdate)
+    {
+	List<Entry> fetching = new ArrayList<Entry>(oids.length);
+	synchronized (cache) {
+	    for (long oid : oids) {
+		Long key = oid;
+		if (!txnInfo.modifiedObjects.containsKey(key) &&
+		    !cache.containsKey(key))
+		{
+		    Entry entry = new Entry(key, State.FETCHING);
+		    cache.put(key, entry);
+		    fetching.add(entry);
+		}
+	    }
+	}
+	if (fetching.isEmpty()) {
+	    return;
+	}
+	long[] fetchOids = new long[fetching.size()];
+	for (int i = 0; i < fetchOids.length; i++) {
+	    fetchOids[i] = (Long) fetching.get(i).key;
+	}
+	if (logger.isLoggable(Level.FINEST)) {
+	    logger.log(Level.FINEST, "cache miss oids:{0}, forUpdate:{1}",
+		       Arrays.toString(fetchOids), forUpdate);
+	}
+	boolean done = false;
+	try {
+	    byte[][] dataArray =
+		server.getObjectLeases(nodeId, fetchOids, forUpdate);
+	    synchronized (cache) {
+		for (int i = 0; i < fetchOids.length; i++) {
+		    Entry entry = fetching.get(i);
+		    entry.data = dataArray[i];
+		    entry.state = forUpdate ? State.WRITE : State.READ;
+		    addPin(txnInfo, entry, forUpdate);
+		}
+		cache.notifyAll();
+	    }
+	    done = true;
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	} finally {
+	    if (!done) {
+		synchronized (cache) {
+		    for (Entry entry : fetching) {
+			entry.state = State.EVICTING;
+		    }
+		    cache.notifyAll();
+		}
+		releaseLeases(fetching.toArray(new Entry[fetching.size()]));
+	    }
+	}
+	evictIfNeeded();
+    }
+
+    /**
+     * Waits for a change to the state of the cache, throwing
+     * TransactionTimeoutException if the stop time has passed and
+     * TransactionInterruptedException if the thread is interrupted.
+     */
+    private void waitForCache(Object key, long stop) {
+	assert Thread.holdsLock(cache);
+	long wait = stop - System.currentTimeMillis();
+	if (wait <= 0) {
+	    throw new TransactionTimeoutException(
+		"Transaction timed out waiting for cache entry: " + key);
+	}
+	try {
+	    cache.wait(wait);
+	} catch (InterruptedException e) {
+	    throw new TransactionInterruptedException(
+		"Interrupted waiting for cache entry: " + key, e);
+	}
+    }
+
+    /** Records that a transaction is using a cache entry. */
+    private void addPin(TxnInfo txnInfo, Entry entry, boolean forWrite) {
+	assert Thread.holdsLock(cache);
+	Object key = entry.key;
+	if (txnInfo.readPinned.remove(key) != null) {
+	    if (!forWrite) {
+		txnInfo.readPinned.put(key, entry);
+		return;
+	    }
+	    entry.readPins--;
+	}
+	if (forWrite) {
+	    if (txnInfo.writePinned.put(key, entry) == null) {
+		entry.writePins++;
+	    }
+	} else if (!txnInfo.writePinned.containsKey(key)) {
+	    txnInfo.readPinned.put(key, entry);
+	    entry.readPins++;
+	}
+    }
+
+    /**
+     * Sends the data for modified objects to the server, creating the server
+     * transaction if needed.
+     */
+    private void flushModifiedObjects(TxnInfo txnInfo) throws IOException {
+	if (txnInfo.modifiedObjects.isEmpty()) {
+	    return;
+	}
+	long tid = getTid(txnInfo);
+	List<Long> oids = new ArrayList<Long>();
+	List<byte[]> dataList = new ArrayList<byte[]>();
+	for (Map.Entry<Long, byte[]> modified :
+		 txnInfo.modifiedObjects.entrySet())
+	{
+	    Long oid = modified.getKey();
+	    byte[] data = modified.getValue();
+	    if (data != null) {
+		oids.add(oid);
+		dataList.add(data);
+	    } else {
+		boolean committed;
+		synchronized (cache) {
+		    committed = txnInfo.writePinned.get(oid).data != null;
+		}
+		if (committed) {
+		    server.removeObject(tid, oid);
+		}
+	    }
+	}
+	if (!oids.isEmpty()) {
+	    long[] oidArray = new long[oids.size()];
+	    for (int i = 0; i < oidArray.length; i++) {
+		oidArray[i] = oids.get(i);
+	    }
+	    server.setObjects(
+		tid, oidArray, dataList.toArray(new byte[oidArray.length][]));
+	}
+    }
+
+    /**
+     * Stores the values committed by a transaction in the cache entries that
+     * it holds for write.
+     */
+    private void updateCache(TxnInfo txnInfo) {
+	synchronized (cache) {
+	    for (Map.Entry<Long, byte[]> modified :
+		     txnInfo.modifiedObjects.entrySet())
+	    {
+		txnInfo.writePinned.get(modified.getKey()).data =
+		    modified.getValue();
+	    }
+	    for (Map.Entry<String, Long> modified :
+		     txnInfo.modifiedBindings.entrySet())
+	    {
+		long oid = modified.getValue();
+		txnInfo.writePinned.get(modified.getKey()).binding =
+		    (oid == -1) ? null : new BindingValue(oid, null);
+	    }
+	}
+    }
+
+    /**
+     * Releases the cache entries used by the transaction, and marks the
+     * transaction as no longer active.
+     */
+    private void endTxn(TxnInfo txnInfo) {
+	List<Entry> stale = null;
+	synchronized (cache) {
+	    for (Entry entry : txnInfo.readPinned.values()) {
+		entry.readPins--;
+		stale = checkRevalidate(entry, stale);
+	    }
+	    for (Entry entry : txnInfo.writePinned.values()) {
+		entry.writePins--;
+	    }
+	    cache.notifyAll();
+	}
+	if (stale != null) {
+	    releaseLeases(stale.toArray(new Entry[stale.size()]));
+	}
+	threadTxnInfo.set(null);
+	decrementTxnCount();
+    }
+
+    /**
+     * Marks the entry for eviction and adds it to the list if it needs
+     * revalidating and is no longer in use, returning the possibly newly
+     * created list.
+     */
+    private List<Entry> checkRevalidate(Entry entry, List<Entry> stale) {
+	assert Thread.holdsLock(cache);
+	if (entry.revalidate && entry.state == State.READ && !entry.pinned()) {
+	    entry.state = State.EVICTING;
+	    if (stale == null) {
+		stale = new ArrayList<Entry>();
+	    }
+	    stale.add(entry);
+	}
+	return stale;
+    }
+
+    /**
+     * Handles a request from the server to evict or downgrade an item,
+     * returning whether the request was honored.
+     */
+    private boolean callback(Object key, boolean downgrade) {
+	if (logger.isLoggable(Level.FINER)) {
+	    logger.log(Level.FINER, "callback {0} {1}",
+		       downgrade ? "downgrade" : "evict", key);
+	}
+	long stop = System.currentTimeMillis() + evictionWait;
+	Entry entry;
+	State previous;
+	synchronized (cache) {
+	    while (true) {
+		entry = cache.get(key);
+		if (entry == null) {
+		    /*
+		     * Release the lease even though there is no entry, in case
+		     * the server granted a lease that this node did not
+		     * receive.  Use a placeholder entry so that requests for
+		     * the item wait until the release is complete.
+		     */
+		    entry = new Entry(key, State.EVICTING);
+		    cache.put(key, entry);
+		    previous = null;
+		    downgrade = false;
+		    break;
+		}
+		State state = entry.state;
+		if (state == State.READ || state == State.WRITE) {
+		    if (downgrade && state == State.READ && !entry.revalidate) {
+			return true;
+		    }
+		    previous = state;
+		    entry.state =
+			downgrade ? State.DOWNGRADING : State.EVICTING;
+		    break;
+		}
+		if (!waitForCallback(stop)) {
+		    return false;
+		}
+	    }
+	    while (downgrade ? entry.writePins > 0 : entry.pinned()) {
+		if (!waitForCallback(stop)) {
+		    entry.state = previous;
+		    cache.notifyAll();
+		    logger.log(Level.FINER, "callback {0} {1} returns false",
+			       downgrade ? "downgrade" : "evict", key);
+		    return false;
+		}
+	    }
+	}
+	if (downgrade) {
+	    try {
+		if (key instanceof Long) {
+		    server.downgradeLeases(
+			nodeId, new long[] { (Long) key }, new String[0]);
+		} else {
+		    server.downgradeLeases(
+			nodeId, new long[0], new String[] { (String) key });
+		}
+		synchronized (cache) {
+		    entry.revalidate = false;
+		}
+	    } catch (IOException e) {
+		logger.logThrow(
+		    Level.WARNING, e, "Problem downgrading lease for {0}", key);
+	    } finally {
+		synchronized (cache) {
+		    entry.state = State.READ;
+		    cache.notifyAll();
+		}
+	    }
+	} else {
+	    releaseLeases(entry);
+	}
+	return true;
+    }
+
+    /**
+     * Waits for a change to the state of the cache during a callback,
+     * returning false if the stop time has passed or the thread is
+     * interrupted.
+     */
+    private boolean waitForCallback(long stop) {
+	assert Thread.holdsLock(cache);
+	long wait = stop - System.currentTimeMillis();
+	if (wait <= 0) {
+	    return false;
+	}
+	try {
+	    cache.wait(wait);
+	    return true;
+	} catch (InterruptedException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * Evicts unused entries, least recently used first, if the cache holds
+     * more entries than permitted.
+     */
+    private void evictIfNeeded() {
+	List<Entry> victims = new ArrayList<Entry>();
+	synchronized (cache) {
+	    int excess = cache.size() - cacheSize;
+	    if (excess <= 0) {
+		return;
+	    }
+	    for (Entry entry : cache.values()) {
+		if (excess == 0) {
+		    break;
+		}
+		if ((entry.state == State.READ || entry.state == State.WRITE) &&
+		    !entry.pinned())
+		{
+		    entry.state = State.EVICTING;
+		    victims.add(entry);
+		    excess--;
+		}
+	    }
+	}
+	if (!victims.isEmpty()) {
+	    if (logger.isLoggable(Level.FINER)) {
+		logger.log(Level.FINER, "evicting {0} entries", victims.size());
+	    }
+	    releaseLeases(victims.toArray(new Entry[victims.size()]));
+	}
+    }
+
+    /**
+     * Releases the server leases for entries in the EVICTING state, and then
+     * removes the entries from the cache.
+     */
+    private void releaseLeases(Entry... entries) {
+	List<Long> oids = new ArrayList<Long>();
+	List<String> names = new ArrayList<String>();
+	for (Entry entry : entries) {
+	    if (entry.key instanceof Long) {
+		oids.add((Long) entry.key);
+	    } else {
+		names.add((String) entry.key);
+	    }
+	}
+	long[] oidArray = new long[oids.size()];
+	for (int i = 0; i < oidArray.length; i++) {
+	    oidArray[i] = oids.get(i);
+	}
+	try {
+	    server.releaseLeases(
+		nodeId, oidArray, names.toArray(new String[names.size()]));
+	} catch (IOException e) {
+	    logger.logThrow(Level.WARNING, e, "Problem releasing leases");
+	} catch (RuntimeException e) {
+	    logger.logThrow(Level.WARNING, e, "Problem releasing leases");
+	} finally {
+	    synchronized (cache) {
+		for (Entry entry : entries) {
+		    assert entry.state == State.EVICTING;
+		    cache.remove(entry.key);
+		}
+		cache.notifyAll();
+	    }
+	}
+    }
+
+    /**
+     * Returns the ID of the server transaction associated with the
+     * transaction, creating it if needed.
+     */
+    private long getTid(TxnInfo txnInfo) throws IOException {
+	if (txnInfo.tid == -1) {
+	    txnInfo.tid = server.createTransaction(txnInfo.txn.getTimeout());
+	    if (logger.isLoggable(Level.FINER)) {
+		logger.log(Level.FINER,
+			   "Created server transaction stid:{0,number,#} " +
+			   "for transaction {1}",
+			   txnInfo.tid, txnInfo.txn);
+	    }
+	}
+	return txnInfo.tid;
+    }
+
+    /**
+     * Checks that the correct transaction is in progress, and join if none is
+     * in progress.
+     */
+    private TxnInfo checkTxn(Transaction txn) {
+	if (txn == null) {
+	    throw new NullPointerException("Transaction must not be null");
+	}
+	TxnInfo txnInfo = threadTxnInfo.get();
+	if (txnInfo == null) {
+	    txnInfo = joinTransaction(txn);
+	} else if (!txnInfo.txn.equals(txn)) {
+	    throw new IllegalStateException(
+		"Wrong transaction: Found " + txnInfo.txn +
+		", expected " + txn);
+	} else if (txnInfo.prepared) {
+	    throw new IllegalStateException("Transaction has been prepared");
+	}
+	checkTimeout(txn);
+	return txnInfo;
+    }
+
+    /**
+     * Joins the specified transaction, checking first to see if the data store
+     * is currently shutting down, and returning the new TxnInfo.
+     */
+    private TxnInfo joinTransaction(Transaction txn) {
+	synchronized (txnCountLock) {
+	    if (txnCount < 0) {
+		throw new IllegalStateException("Service is shut down");
+	    } else if (shuttingDown) {
+		throw new IllegalStateException("Service is shutting down");
+	    }
+	    txnCount++;
+	}
+	boolean joined = false;
+	try {
+	    txn.join(this);
+	    joined = true;
+	} finally {
+	    if (!joined) {
+		decrementTxnCount();
+	    }
+	}
+	TxnInfo txnInfo = new TxnInfo(txn);
+	threadTxnInfo.set(txnInfo);
+	return txnInfo;
+    }
+
+    /**
+     * Checks that the correct transaction is in progress, throwing an
+     * exception if the transaction has not been joined.  If notAborting is
+     * true, then checks if the store is shutting down.
+     */
+    private TxnInfo checkTxnNoJoin(Transaction txn, boolean notAborting) {
+	if (txn == null) {
+	    throw new NullPointerException("Transaction must not be null");
+	}
+	TxnInfo txnInfo = threadTxnInfo.get();
+	if (txnInfo == null) {
+	    throw new IllegalStateException("Transaction is not active");
+	} else if (notAborting && getTxnCount() < 0) {
+	    throw new IllegalStateException("DataStore is shutting down");
+	} else if (!txnInfo.txn.equals(txn)) {
+	    throw new IllegalStateException("Wrong transaction");
+	}
+	return txnInfo;
+    }
+
+    /** Returns the current transaction count. */
+    private int getTxnCount() {
+	synchronized (txnCountLock) {
+	    return txnCount;
+	}
+    }
+
+    /** Decrements the current transaction count. */
+    private void decrementTxnCount() {
+	synchronized (txnCountLock) {
+	    txnCount--;
+	    if (txnCount <= 0) {
+		txnCountLock.notifyAll();
+	    }
+	}
+    }
+
+    /** Checks that the transaction has not timed out. */
+    private void checkTimeout(Transaction txn) {
+	long runningTime = System.currentTimeMillis() - txn.getCreationTime();
+	if (runningTime > txn.getTimeout()) {
+	    throw new TransactionTimeoutException(
+		"Transaction timed out: " + runningTime + " ms");
+	}
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.service.data.store.cache;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.service.data.store.BindingValue;
+import com.sun.sgs.impl.service.data.store.net.DataStoreServer;
+import java.io.IOException;
+
+/**
+ * Defines the network interface for a data store server that grants leases
+ * to caching nodes.  A node may only cache an object or name binding while it
+ * holds a lease for it.  Read leases may be shared by multiple nodes, while a
+ * write lease excludes leases held by all other nodes.  The server obtains
+ * conflicting leases by calling back the nodes that hold them through their
+ * {@link CallbackServer}s. <p>
+ *
+ * In addition to the lease methods, the server supports all of the
+ * transactional operations of {@link DataStoreServer}, which nodes use to
+ * modify the data while holding write leases.
+ */
+public interface CachingDataStoreServer extends DataStoreServer {
+
+    /**
+     * Registers a node with the server, returning the new node ID.
+     *
+     * @param	callbackServer the callback server for the node
+     * @return	the new node ID
+     * @throws	IOException if a network problem occurs
+     */
+    long registerNode(CallbackServer callbackServer) throws IOException;
+
+    /**
+     * Unregisters a node, releasing all of the leases it holds.
+     *
+     * @param	nodeId the node ID
+     * @throws	IllegalArgumentException if the node is not registered
+     * @throws	IOException if a network problem occurs
+     */
+    void unregisterNode(long nodeId) throws IOException;
+
+    /**
+     * Reserves an object ID for a new object in the specified transaction,
+     * and grants the node a write lease for the new object.
+     *
+     * @param	nodeId the node ID
+     * @param	tid the ID of the transaction under which the operation should
+     *		take place
+     * @return	the new object ID
+     * @throws	IllegalArgumentException if the node is not registered
+     * @throws	IOException if a network problem occurs
+     */
+    long newObject(long nodeId, long tid) throws IOException;
+
+    /**
+     * Obtains a lease on an object for the node and returns the committed
+     * data for the object, or {@code null} if the object is not found.
+     *
+     * @param	nodeId the node ID
+     * @param	oid the object ID
+     * @param	forUpdate whether a write lease is requested
+     * @return	the data associated with the object ID or {@code null}
+     * @throws	IllegalArgumentException if the node is not registered
+     * @throws	TransactionConflictException if the lease could not be obtained
+     * @throws	IOException if a network problem occurs
+     */
+    byte[] getObjectLease(long nodeId, long oid, boolean forUpdate)
+	throws IOException;
+
+    /**
+     * Obtains leases on a series of objects for the node and returns the
+     * committed data for the objects, with {@code null} elements for objects
+     * that are not found.  If the method throws an exception, the node may
+     * have been granted some of the leases, and should release them.
+     *
+     * @param	nodeId the node ID
+     * @param	oids the object IDs
+     * @param	forUpdate whether write leases are requested
+     * @return	the data associated with the object IDs, with {@code null}
+     *		elements for objects that are not found
+     * @throws	IllegalArgumentException if the node is not registered
+     * @throws	TransactionConflictException if a lease could not be obtained
+     * @throws	IOException if a network problem occurs
+     */
+    byte[][] getObjectLeases(long nodeId, long[] oids, boolean forUpdate)
+	throws IOException;
+
+    /**
+     * Obtains a lease on a name binding for the node and returns information
+     * about the committed value of the binding.  If the name is bound, the
+     * return value contains the object ID that the name is bound to and a next
+     * name of {@code null}.  If the name is not bound, the return value
+     * contains an object ID of {@code -1} and the next name found, which may
+     * be {@code null}.
+     *
+     * @param	nodeId the node ID
+     * @param	name the name
+     * @param	forUpdate whether a write lease is requested
+     * @return	information about the object ID and the next name
+     * @throws	IllegalArgumentException if the node is not registered
+     * @throws	TransactionConflictException if the lease could not be obtained
+     * @throws	IOException if a network problem occurs
+     */
+    BindingValue getBindingLease(long nodeId, String name, boolean forUpdate)
+	throws IOException;
+
+    /**
+     * Releases the leases the node holds for the specified objects and name
+     * bindings.
+     *
+     * @param	nodeId the node ID
+     * @param	oids the object IDs
+     * @param	names the names
+     * @throws	IllegalArgumentException if the node is not registered
+     * @throws	IOException if a network problem occurs
+     */
+    void releaseLeases(long nodeId, long[] oids, String[] names)
+	throws IOException;
+
+    /**
+     * Downgrades the write leases the node holds for the specified objects and
+     * name bindings to read leases.
+     *
+     * @param	nodeId the node ID
+     * @param	oids the object IDs
+     * @param	names the names
+     * @throws	IllegalArgumentException if the node is not registered
+     * @throws	IOException if a network problem occurs
+     */
+    void downgradeLeases(long nodeId, long[] oids, String[] names)
+	throws IOException;
+}
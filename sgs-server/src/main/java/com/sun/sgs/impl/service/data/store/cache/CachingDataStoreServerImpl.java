@@ -0,0 +1,420 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.service.data.store.cache;
+
+import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.service.data.store.BindingValue;
+import com.sun.sgs.impl.service.data.store.net.DataStoreServerImpl;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import static com.sun.sgs.impl.sharedutil.Objects.checkNull;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.impl.util.lock.LockConflict;
+import com.sun.sgs.impl.util.lock.LockConflictType;
+import com.sun.sgs.impl.util.lock.LockRequest;
+import com.sun.sgs.impl.util.lock.MultiLockManager;
+import com.sun.sgs.impl.util.lock.MultiLocker;
+import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.service.TransactionProxy;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import static java.util.logging.Level.FINER;
+import static java.util.logging.Level.FINEST;
+import java.util.logging.Logger;
+
+/**
+ * Provides an implementation of {@link CachingDataStoreServer} by extending
+ * {@link DataStoreServerImpl} with a table of leases held by caching
+ * nodes. <p>
+ *
+ * Leases are represented as locks held by nodes in a {@link
+ * MultiLockManager}.  When a node requests a lease that conflicts with leases
+ * held by other nodes, the server calls back those nodes asking them to evict
+ * or downgrade the item, and then waits for the lease to become available.
+ * Nodes give up leases by calling {@link #releaseLeases releaseLeases} or
+ * {@link #downgradeLeases downgradeLeases}, either in response to a callback
+ * or when evicting items to make room in their caches.  The server only
+ * releases leases on its own if a callback to the node fails with an {@link
+ * IOException}, in which case it treats the node as having failed. <p>
+ *
+ * All nodes that use a server of this type must use {@link
+ * CachingDataStore}: nodes using {@link
+ * com.sun.sgs.impl.service.data.store.net.DataStoreClient DataStoreClient}
+ * modify data without obtaining leases, and so would not see coherent
+ * data. <p>
+ *
+ * In addition to the properties supported by the {@link DataStoreServerImpl}
+ * class, the {@link #CachingDataStoreServerImpl constructor} supports the
+ * following properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.cache.server.lock.timeout
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 100}
+ *
+ * <dd style="padding-top: .5em">The maximum amount of time in milliseconds
+ *	that a request for a lease will wait for conflicting leases to be
+ *	given up by other nodes.  This value must be greater than {@code
+ *	0}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.cache.server.num.key.maps
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 8}
+ *
+ * <dd style="padding-top: .5em">The number of maps to use for storing
+ *	leases.  Larger numbers reduce contention between requests for leases
+ *	on different items.  This value must be greater than {@code 0}. <p>
+ *
+ * </dl> <p>
+ *
+ * In addition to any logging performed by the {@code DataStoreServerImpl}
+ * class, this class uses the {@link Logger} named {@code
+ * com.sun.sgs.impl.service.data.store.cache.server} to log information at the
+ * following levels: <p>
+ *
+ * <ul>
+ * <li> {@link Level#WARNING WARNING} - Failed callbacks
+ * <li> {@link Level#CONFIG CONFIG} - Server properties
+ * <li> {@link Level#FINE FINE} - Registering and unregistering nodes
+ * <li> {@link Level#FINER FINER} - Callbacks
+ * <li> {@link Level#FINEST FINEST} - Lease operations
+ * </ul>
+ */
+public class CachingDataStoreServerImpl extends DataStoreServerImpl
+    implements CachingDataStoreServer
+{
+    /** The package for this class. */
+    private static final String PACKAGE =
+	"com.sun.sgs.impl.service.data.store.cache";
+
+    /** The logger for this class. */
+    static final LoggerWrapper logger =
+	new LoggerWrapper(Logger.getLogger(PACKAGE + ".server"));
+
+    /** The property that specifies the lock timeout for leases. */
+    private static final String LOCK_TIMEOUT_PROPERTY =
+	PACKAGE + ".server.lock.timeout";
+
+    /** The default lock timeout for leases. */
+    private static final long DEFAULT_LOCK_TIMEOUT = 100;
+
+    /** The property that specifies the number of maps for storing leases. */
+    private static final String NUM_KEY_MAPS_PROPERTY =
+	PACKAGE + ".server.num.key.maps";
+
+    /** The default number of maps for storing leases. */
+    private static final int DEFAULT_NUM_KEY_MAPS = 8;
+
+    /**
+     * The timeout in milliseconds for the transactions used to read committed
+     * data on behalf of nodes.
+     */
+    private static final long READ_TXN_TIMEOUT = 10000;
+
+    /**
+     * The lock manager that records leases.  Object leases use {@link Long}
+     * keys, and name binding leases use {@link String} keys.
+     */
+    private final MultiLockManager<Object> lockManager;
+
+    /** Maps node IDs to information about registered nodes. */
+    private final ConcurrentMap<Long, NodeInfo> nodes =
+	new ConcurrentHashMap<Long, NodeInfo>();
+
+    /** Records information about a registered node. */
+    private static class NodeInfo extends MultiLocker<Object> {
+
+	/** The node ID. */
+	final long nodeId;
+
+	/** The callback server for the node. */
+	final CallbackServer callbackServer;
+
+	/** The keys of the items for which the node holds leases. */
+	final Set<Object> leased = Collections.newSetFromMap(
+	    new ConcurrentHashMap<Object, Boolean>());
+
+	/** Creates an instance of this class. */
+	NodeInfo(MultiLockManager<Object> lockManager,
+		 long nodeId,
+		 CallbackServer callbackServer)
+	{
+	    super(lockManager);
+	    this.nodeId = nodeId;
+	    this.callbackServer = callbackServer;
+	}
+
+	@Override
+	public String toString() {
+	    return "NodeInfo[nodeId:" + nodeId + "]";
+	}
+    }
+
+    /**
+     * Creates an instance of this class configured with the specified
+     * properties.  See the {@link CachingDataStoreServerImpl class
+     * documentation} for a list of supported properties.
+     *
+     * @param	properties the properties for configuring this instance
+     * @param	systemRegistry the registry of available system components
+     * @param	txnProxy the transaction proxy
+     * @throws	IllegalArgumentException if thrown by the {@link
+     *		DataStoreServerImpl#DataStoreServerImpl DataStoreServerImpl
+     *		constructor}, or if the value of a property is illegal
+     * @throws	IOException if a network problem occurs
+     */
+    public CachingDataStoreServerImpl(Properties properties,
+				      ComponentRegistry systemRegistry,
+				      TransactionProxy txnProxy)
+	throws IOException
+    {
+	super(properties, systemRegistry, txnProxy);
+	PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+	long lockTimeout = wrappedProps.getLongProperty(
+	    LOCK_TIMEOUT_PROPERTY, DEFAULT_LOCK_TIMEOUT, 1, Long.MAX_VALUE);
+	int numKeyMaps = wrappedProps.getIntProperty(
+	    NUM_KEY_MAPS_PROPERTY, DEFAULT_NUM_KEY_MAPS, 1, Integer.MAX_VALUE);
+	lockManager = new MultiLockManager<Object>(lockTimeout, numKeyMaps);
+	logger.log(Level.CONFIG,
+		   "Created CachingDataStoreServerImpl with properties:" +
+		   "\n  " + LOCK_TIMEOUT_PROPERTY + "=" + lockTimeout +
+		   "\n  " + NUM_KEY_MAPS_PROPERTY + "=" + numKeyMaps);
+    }
+
+    /* -- Implement CachingDataStoreServer -- */
+
+    /** {@inheritDoc} */
+    public long registerNode(CallbackServer callbackServer) {
+	checkNull("callbackServer", callbackServer);
+	long nodeId = newNodeId();
+	nodes.put(nodeId,
+		  new NodeInfo(lockManager, nodeId, callbackServer));
+	logger.log(Level.FINE, "Registered node nodeId:{0,number,#}", nodeId);
+	return nodeId;
+    }
+
+    /** {@inheritDoc} */
+    public void unregisterNode(long nodeId) {
+	NodeInfo node = nodes.remove(nodeId);
+	if (node == null) {
+	    throw new IllegalArgumentException(
+		"Node is not registered: " + nodeId);
+	}
+	releaseAll(node);
+	logger.log(
+	    Level.FINE, "Unregistered node nodeId:{0,number,#}", nodeId);
+    }
+
+    /** {@inheritDoc} */
+    public long newObject(long nodeId, long tid) {
+	NodeInfo node = getNode(nodeId);
+	long oid = createObject(tid);
+	/* No other node knows about the object, so this should not block */
+	acquireLease(node, oid, true);
+	return oid;
+    }
+
+    /** {@inheritDoc} */
+    public byte[] getObjectLease(long nodeId, long oid, boolean forUpdate) {
+	if (logger.isLoggable(FINEST)) {
+	    logger.log(FINEST,
+		       "getObjectLease nodeId:{0,number,#}, oid:{1,number,#}" +
+		       ", forUpdate:{2}",
+		       nodeId, oid, forUpdate);
+	}
+	NodeInfo node = getNode(nodeId);
+	acquireLease(node, oid, forUpdate);
+	long tid = createTransaction(READ_TXN_TIMEOUT);
+	try {
+	    return getObject(tid, oid, false);
+	} catch (ObjectNotFoundException e) {
+	    return null;
+	} finally {
+	    abort(tid);
+	}
+    }
+
+    /** {@inheritDoc} */
+    public byte[][] getObjectLeases(
+	long nodeId, long[] oids, boolean forUpdate)
+    {
+	if (logger.isLoggable(FINEST)) {
+	    logger.log(FINEST,
+		       "getObjectLeases nodeId:{0,number,#}, oids:{1}" +
+		       ", forUpdate:{2}",
+		       nodeId, Arrays.toString(oids), forUpdate);
+	}
+	NodeInfo node = getNode(nodeId);
+	for (long oid : oids) {
+	    acquireLease(node, oid, forUpdate);
+	}
+	long tid = createTransaction(READ_TXN_TIMEOUT);
+	try {
+	    return getObjects(tid, oids, false);
+	} finally {
+	    abort(tid);
+	}
+    }
+
+    /** {@inheritDoc} */
+    public BindingValue getBindingLease(
+	long nodeId, String name, boolean forUpdate)
+    {
+	if (logger.isLoggable(FINEST)) {
+	    logger.log(FINEST,
+		       "getBindingLease nodeId:{0,number,#}, name:{1}" +
+		       ", forUpdate:{2}",
+		       nodeId, name, forUpdate);
+	}
+	checkNull("name", name);
+	NodeInfo node = getNode(nodeId);
+	acquireLease(node, name, forUpdate);
+	long tid = createTransaction(READ_TXN_TIMEOUT);
+	try {
+	    return getBinding(tid, name);
+	} finally {
+	    abort(tid);
+	}
+    }
+
+    /** {@inheritDoc} */
+    public void releaseLeases(long nodeId, long[] oids, String[] names) {
+	NodeInfo node = getNode(nodeId);
+	for (long oid : oids) {
+	    releaseLease(node, oid);
+	}
+	for (String name : names) {
+	    releaseLease(node, name);
+	}
+    }
+
+    /** {@inheritDoc} */
+    public void downgradeLeases(long nodeId, long[] oids, String[] names) {
+	NodeInfo node = getNode(nodeId);
+	for (long oid : oids) {
+	    lockManager.downgradeLock(node, oid);
+	}
+	for (String name : names) {
+	    lockManager.downgradeLock(node, name);
+	}
+    }
+
+    /* -- Other public methods -- */
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return	a string representation of this object
+     */
+    @Override
+    public String toString() {
+	return "CachingDataStoreServerImpl[" + super.toString() + "]";
+    }
+
+    /* -- Private methods -- */
+
+    /**
+     * Returns information about the node with the specified ID, throwing
+     * IllegalArgumentException if the node is not registered.
+     */
+    private NodeInfo getNode(long nodeId) {
+	NodeInfo node = nodes.get(nodeId);
+	if (node == null) {
+	    throw new IllegalArgumentException(
+		"Node is not registered: " + nodeId);
+	}
+	return node;
+    }
+
+    /**
+     * Obtains a lease for the node, calling back other nodes that hold
+     * conflicting leases, and throwing TransactionConflictException if the
+     * lease cannot be obtained.
+     */
+    private void acquireLease(NodeInfo node, Object key, boolean forWrite) {
+	LockConflict<Object> conflict =
+	    lockManager.lockNoWait(node, key, forWrite);
+	if (conflict != null &&
+	    conflict.getType() == LockConflictType.BLOCKED)
+	{
+	    for (LockRequest<Object> owner : lockManager.getOwners(key)) {
+		NodeInfo ownerNode = (NodeInfo) owner.getLocker();
+		if (ownerNode != node) {
+		    callback(ownerNode, key, forWrite);
+		}
+	    }
+	    conflict = lockManager.waitForLock(node);
+	}
+	if (conflict != null) {
+	    throw new TransactionConflictException(
+		"Lease " + (forWrite ? "for write" : "for read") +
+		" on " + key + " for " + node + " was not granted: " +
+		conflict);
+	}
+	node.leased.add(key);
+    }
+
+    /**
+     * Asks the owner of a conflicting lease to evict or downgrade the item.
+     * Nodes that honor the request release or downgrade the lease themselves.
+     * If the callback fails because of a network problem, treats the node as
+     * failed and releases all of its leases.
+     */
+    private void callback(NodeInfo ownerNode, Object key, boolean evict) {
+	if (logger.isLoggable(FINER)) {
+	    logger.log(FINER, "callback {0} {1} {2}",
+		       ownerNode, evict ? "evict" : "downgrade", key);
+	}
+	CallbackServer callbackServer = ownerNode.callbackServer;
+	try {
+	    boolean result;
+	    if (key instanceof Long) {
+		long oid = (Long) key;
+		result = evict ? callbackServer.evictObject(oid)
+		    : callbackServer.downgradeObject(oid);
+	    } else {
+		String name = (String) key;
+		result = evict ? callbackServer.evictBinding(name)
+		    : callbackServer.downgradeBinding(name);
+	    }
+	    if (logger.isLoggable(FINER)) {
+		logger.log(FINER, "callback {0} {1} {2} returns {3}",
+			   ownerNode, evict ? "evict" : "downgrade", key,
+			   result);
+	    }
+	} catch (IOException e) {
+	    logger.logThrow(Level.WARNING, e,
+			    "Callback to {0} failed, releasing its leases",
+			    ownerNode);
+	    if (nodes.remove(ownerNode.nodeId) != null) {
+		releaseAll(ownerNode);
+	    }
+	}
+    }
+
+    /** Releases a lease held by a node. */
+    private void releaseLease(NodeInfo node, Object key) {
+	node.leased.remove(key);
+	lockManager.releaseLock(node, key);
+    }
+
+    /** Releases all leases held by a node. */
+    private void releaseAll(NodeInfo node) {
+	for (Object key : node.leased) {
+	    releaseLease(node, key);
+	}
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.service.data.store.cache;
+
+import java.io.IOException;
+import java.rmi.Remote;
+
+/**
+ * Defines the network interface that a {@link CachingDataStoreServer} uses to
+ * ask a node to give up the leases it holds for cached items.  Each method
+ * returns {@code true} if the node was able to honor the request, and {@code
+ * false} if transactions on the node are still using the item.  If the node
+ * honors the request, it notifies the server of the change by calling {@link
+ * CachingDataStoreServer#releaseLeases releaseLeases} or {@link
+ * CachingDataStoreServer#downgradeLeases downgradeLeases} before returning.
+ */
+public interface CallbackServer extends Remote {
+
+    /**
+     * Requests that the node evict an object from its cache, giving up its
+     * lease.
+     *
+     * @param	oid the object ID
+     * @return	whether the request was honored
+     * @throws	IOException if a network problem occurs
+     */
+    boolean evictObject(long oid) throws IOException;
+
+    /**
+     * Requests that the node downgrade its lease on an object from write to
+     * read access.
+     *
+     * @param	oid the object ID
+     * @return	whether the request was honored
+     * @throws	IOException if a network problem occurs
+     */
+    boolean downgradeObject(long oid) throws IOException;
+
+    /**
+     * Requests that the node evict a name binding from its cache, giving up
+     * its lease.
+     *
+     * @param	name the name
+     * @return	whether the request was honored
+     * @throws	IOException if a network problem occurs
+     */
+    boolean evictBinding(String name) throws IOException;
+
+    /**
+     * Requests that the node downgrade its lease on a name binding from write
+     * to read access.
+     *
+     * @param	name the name
+     * @return	whether the request was honored
+     * @throws	IOException if a network problem occurs
+     */
+    boolean downgradeBinding(String name) throws IOException;
+}
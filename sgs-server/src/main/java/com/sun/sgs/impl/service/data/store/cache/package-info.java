@@ -0,0 +1,13 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+/**
+ * Provides an implementation of {@link com.sun.sgs.service.store.DataStore}
+ * that caches object data and name bindings on each node, using leases
+ * obtained from a shared data store server and callbacks from that server to
+ * keep the caches coherent.
+ */
+package com.sun.sgs.impl.service.data.store.cache;
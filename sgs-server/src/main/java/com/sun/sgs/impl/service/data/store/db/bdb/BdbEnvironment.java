@@ -490,6 +490,15 @@ public class BdbEnvironment implements DbEnvironment {
 	}
     }
 
+    /** {@inheritDoc} */
+    public void flushLog() {
+	try {
+	    env.logFlush(null);
+	} catch (DatabaseException e) {
+	    throw convertException(e, false);
+	}
+    }
+
     /**
      * {@inheritDoc} <p>
      *
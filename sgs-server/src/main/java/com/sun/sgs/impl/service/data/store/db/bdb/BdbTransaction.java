@@ -92,6 +92,15 @@ class BdbTransaction implements DbTransaction {
 	}
     }
 
+    /** {@inheritDoc} */
+    public void commitNoSync() {
+	try {
+	    txn.commitNoSync();
+	} catch (DatabaseException e) {
+	    throw BdbEnvironment.convertException(e, false);
+	}
+    }
+
     /** {@inheritDoc} */
     public void abort() {
 	try {
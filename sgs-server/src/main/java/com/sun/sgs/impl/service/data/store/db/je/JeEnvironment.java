@@ -529,6 +529,15 @@ public class JeEnvironment implements DbEnvironment {
 	}
     }
 
+    /** {@inheritDoc} */
+    public void flushLog() {
+	try {
+	    env.flushLog(true);
+	} catch (DatabaseException e) {
+	    throw convertException(e, false);
+	}
+    }
+
     /**
      * {@inheritDoc} <p>
      *
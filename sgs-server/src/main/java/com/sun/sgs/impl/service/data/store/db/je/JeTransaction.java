@@ -154,6 +154,25 @@ class JeTransaction implements DbTransaction {
 	}
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation commits prepared transactions using the
+     * environment's default durability, since the XA interface provides no
+     * way to request a no-sync commit.
+     */
+    public void commitNoSync() {
+	if (xid != null) {
+	    commit();
+	    return;
+	}
+	try {
+	    txn.commitNoSync();
+	} catch (DatabaseException e) {
+	    throw JeEnvironment.convertException(e, false);
+	}
+    }
+
     /** {@inheritDoc} */
     public void abort() {
 	try {
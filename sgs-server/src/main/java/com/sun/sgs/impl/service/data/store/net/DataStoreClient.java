@@ -91,6 +91,29 @@ import java.util.logging.Logger;
  *      and means that an anonymous port will be chosen for running the 
  *      server. <p>
  *
+ * <dt>	<i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.net.object.id.block.size
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 1024}
+ *
+ * <dd style="padding-top: .5em">The initial and minimum number of object IDs
+ *	to obtain from the server in each block.  Object IDs for new objects
+ *	are allocated locally from these blocks, and the next block is
+ *	requested in the background before the current one is used up.  This
+ *	value must be greater than {@code 0}. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.service.data.store.net.object.id.max.block.size
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 65536}
+ *
+ * <dd style="padding-top: .5em">The maximum number of object IDs to obtain
+ *	from the server in each block.  The block size grows up to this value
+ *	when objects are created quickly.  This value must not be less than
+ *	the value of the {@code
+ *	com.sun.sgs.impl.service.data.store.net.object.id.block.size}
+ *	property. <p>
+ *
  * </dl> <p>
  *
  * This class uses the {@link Logger} named {@code
@@ -141,6 +164,17 @@ public final class DataStoreClient extends AbstractDataStore {
     private static final boolean noRmi = Boolean.getBoolean(
 	PACKAGE + ".no.rmi");
 
+    /**
+     * Whether the socket-based facility should use the pipelined protocol
+     * that multiplexes requests over shared connections.
+     */
+    private static final boolean pipelined = Boolean.getBoolean(
+	PACKAGE + ".pipelined");
+
+    /** The number of connections used by the pipelined protocol. */
+    private static final int pipelinedConnections = Integer.getInteger(
+	PACKAGE + ".pipelined.connections", 2);
+
     /** The property that specifies the maximum transaction timeout. */
     private static final String MAX_TXN_TIMEOUT_PROPERTY =
 	PACKAGE + ".max.txn.timeout";
@@ -148,6 +182,26 @@ public final class DataStoreClient extends AbstractDataStore {
     /** The default maximum transaction timeout. */
     private static final long DEFAULT_MAX_TXN_TIMEOUT = 600000;
 
+    /**
+     * The property that specifies the initial and minimum size of blocks of
+     * object IDs obtained from the server.
+     */
+    private static final String OBJECT_ID_BLOCK_SIZE_PROPERTY =
+	PACKAGE + ".object.id.block.size";
+
+    /** The default initial and minimum object ID block size. */
+    private static final int DEFAULT_OBJECT_ID_BLOCK_SIZE = 1024;
+
+    /**
+     * The property that specifies the maximum size of blocks of object IDs
+     * obtained from the server.
+     */
+    private static final String OBJECT_ID_MAX_BLOCK_SIZE_PROPERTY =
+	PACKAGE + ".object.id.max.block.size";
+
+    /** The default maximum object ID block size. */
+    private static final int DEFAULT_OBJECT_ID_MAX_BLOCK_SIZE = 65536;
+
     /** The server host name. */
     private final String serverHost;
 
@@ -166,6 +220,9 @@ public final class DataStoreClient extends AbstractDataStore {
     /** The maximum transaction timeout. */
     private final long maxTxnTimeout;
 
+    /** Allocates object IDs for new objects. */
+    private final NewObjectIds newObjectIds;
+
     /** Provides information about the transaction for the current thread. */
     private final ThreadLocal<TxnInfo> threadTxnInfo =
 	new ThreadLocal<TxnInfo>();
@@ -260,6 +317,13 @@ public final class DataStoreClient extends AbstractDataStore {
 	maxTxnTimeout = wrappedProps.getLongProperty(
 	    MAX_TXN_TIMEOUT_PROPERTY, DEFAULT_MAX_TXN_TIMEOUT, 1,
 	    Long.MAX_VALUE);
+	int objectIdBlockSize = wrappedProps.getIntProperty(
+	    OBJECT_ID_BLOCK_SIZE_PROPERTY, DEFAULT_OBJECT_ID_BLOCK_SIZE, 1,
+	    Integer.MAX_VALUE);
+	int objectIdMaxBlockSize = wrappedProps.getIntProperty(
+	    OBJECT_ID_MAX_BLOCK_SIZE_PROPERTY,
+	    Math.max(objectIdBlockSize, DEFAULT_OBJECT_ID_MAX_BLOCK_SIZE),
+	    objectIdBlockSize, Integer.MAX_VALUE);
 	if (serverStart) {
 	    try {
 		localServer = new DataStoreServerImpl(
@@ -279,6 +343,8 @@ public final class DataStoreClient extends AbstractDataStore {
 	}
 	server = getServer();
 	nodeId = server.newNodeId();
+	newObjectIds = new NewObjectIds(
+	    server, objectIdBlockSize, objectIdMaxBlockSize, logger);
     }
 
     /* -- Implement AbstractDataStore's DataStore methods -- */
@@ -291,8 +357,8 @@ public final class DataStoreClient extends AbstractDataStore {
     /** {@inheritDoc} */
     protected long createObjectInternal(Transaction txn) {
 	try {
-	    TxnInfo txnInfo = checkTxn(txn);
-	    return server.createObject(txnInfo.tid);
+	    checkTxn(txn);
+	    return newObjectIds.next();
 	} catch (IOException e) {
 	    throw new NetworkException("", e);
 	}
@@ -320,6 +386,24 @@ public final class DataStoreClient extends AbstractDataStore {
 	}
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation obtains all of the objects with a single call to
+     * the server.
+     */
+    @Override
+    protected byte[][] getObjectsInternal(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    return server.getObjects(txnInfo.tid, oids, forUpdate);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
     /** {@inheritDoc} */
     protected void setObjectInternal(Transaction txn, long oid, byte[] data) {
 	try {
@@ -417,6 +501,10 @@ public final class DataStoreClient extends AbstractDataStore {
 	    }
 	    
 	    txnCount = -1;
+	    newObjectIds.shutdown();
+	    if (server instanceof DataStoreClientMultiplexed) {
+		((DataStoreClientMultiplexed) server).shutdown();
+	    }
 	    if (localServer != null) {
 		localServer.shutdown();
 	    }
@@ -597,6 +685,26 @@ public final class DataStoreClient extends AbstractDataStore {
 	    ", serverPort:" + serverPort + "]";
     }
 
+    /**
+     * Returns the number of times that creating an object had to wait for
+     * object IDs to be obtained from the server.
+     *
+     * @return	the number of object ID allocation stalls
+     */
+    public long getObjectIdAllocationStallCount() {
+	return newObjectIds.getStallCount();
+    }
+
+    /**
+     * Returns the total number of milliseconds that creating objects waited
+     * for object IDs to be obtained from the server.
+     *
+     * @return	the total object ID allocation stall time
+     */
+    public long getObjectIdAllocationStallTime() {
+	return newObjectIds.getStallTime();
+    }
+
     /* -- Private methods -- */
 
     /** Obtains the server. */
@@ -612,6 +720,9 @@ public final class DataStoreClient extends AbstractDataStore {
 			serverHost, serverPort);
 		    return (DataStoreServer) registry.lookup(
 			"DataStoreServer");
+		} else if (pipelined) {
+		    return new DataStoreClientMultiplexed(
+			serverHost, serverPort, pipelinedConnections);
 		} else {
 		    return new DataStoreClientRemote(serverHost, serverPort);
 		}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The client side of an experimental network protocol, not currently used, for
+ * implementing DataStoreServer using a small number of shared connections
+ * instead of RMI. <p>
+ *
+ * Each thread that calls the server is assigned a channel, identified by an
+ * integer channel ID, and each channel is assigned to one of a fixed number of
+ * connections.  A request is sent as a single frame made up of the channel
+ * ID, the length of the request, and the request bytes as written by {@link
+ * DataStoreProtocol}, and the reply comes back as a frame with the same
+ * channel ID.  Requests from different threads are written to a connection
+ * without waiting for earlier replies, and a single reader thread per
+ * connection routes the replies to the waiting threads.  See {@link
+ * DataStoreServerMultiplexed} for the server side. <p>
+ *
+ * A connection refers to its channels weakly.  The channel for a thread is
+ * only strongly referenced by that thread's protocol handler, so the channel
+ * for a thread that has exited is removed from its connection once it has
+ * been garbage collected.  If a thread is interrupted, or the connection
+ * fails, while waiting for a reply, the thread's channel and protocol handler
+ * are discarded, and the thread's next request uses a new channel ID.  A
+ * reply that arrives late for the abandoned request is dropped, rather than
+ * being returned as the reply to the next request.
+ */
+class DataStoreClientMultiplexed extends DataStoreProtocolClient {
+
+    /** The size of the frame header: a channel ID and a length. */
+    static final int HEADER_SIZE = 8;
+
+    /** The server host name. */
+    private final String host;
+
+    /** The server network port. */
+    private final int port;
+
+    /** The connections. */
+    private final Connection[] connections;
+
+    /** The next channel ID. */
+    private final AtomicInteger nextChannelId = new AtomicInteger();
+
+    /** Creates an instance for the specified host, port, and connections. */
+    DataStoreClientMultiplexed(String host, int port, int numConnections) {
+	if (numConnections < 1) {
+	    throw new IllegalArgumentException(
+		"The number of connections must be greater than 0");
+	}
+	this.host = host;
+	this.port = port;
+	connections = new Connection[numConnections];
+	for (int i = 0; i < numConnections; i++) {
+	    connections[i] = new Connection(i);
+	}
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation creates a new channel on one of the shared
+     * connections.
+     */
+    @Override
+    DataStoreProtocol createHandler() throws IOException {
+	int channelId = nextChannelId.getAndIncrement() & Integer.MAX_VALUE;
+	Channel channel = new Channel(
+	    channelId, connections[channelId % connections.length]);
+	return new DataStoreProtocol(channel.in, channel.out);
+    }
+
+    /** Closes all connections. */
+    void shutdown() {
+	for (Connection connection : connections) {
+	    connection.close(new IOException("Client is shut down"));
+	}
+    }
+
+    /**
+     * A connection to the server that carries requests for multiple channels.
+     */
+    private class Connection {
+
+	/** The index of this connection, for naming the reader thread. */
+	private final int index;
+
+	/** The channels using this connection, keyed by channel ID. */
+	private final ConcurrentMap<Integer, ChannelRef> channels =
+	    new ConcurrentHashMap<Integer, ChannelRef>();
+
+	/** Reference queue for cleared channel references. */
+	private final ReferenceQueue<Channel> refQueue =
+	    new ReferenceQueue<Channel>();
+
+	/**
+	 * The socket channel, or null if not connected.  Synchronize on this
+	 * connection when accessing this field.
+	 */
+	private SocketChannel socketChannel;
+
+	/** Creates an unconnected instance. */
+	Connection(int index) {
+	    this.index = index;
+	}
+
+	/**
+	 * Registers a channel, first removing channels that have been garbage
+	 * collected, and returns the reference used to register it.
+	 */
+	ChannelRef addChannel(Channel channel) {
+	    ChannelRef ref;
+	    while ((ref = (ChannelRef) refQueue.poll()) != null) {
+		channels.remove(ref.channelId, ref);
+	    }
+	    ref = new ChannelRef(channel, refQueue);
+	    channels.put(channel.channelId, ref);
+	    return ref;
+	}
+
+	/** Unregisters a channel. */
+	void removeChannel(Channel channel) {
+	    channels.remove(channel.channelId, channel.ref);
+	}
+
+	/**
+	 * Sends a frame to the server, connecting if needed.  Frames from
+	 * different threads are written atomically, one after the other.
+	 */
+	void send(int channelId, byte[] bytes, int length) throws IOException {
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	    header.putInt(channelId).putInt(length).flip();
+	    ByteBuffer[] buffers = {
+		header, ByteBuffer.wrap(bytes, 0, length)
+	    };
+	    synchronized (this) {
+		SocketChannel sc = getSocketChannel();
+		try {
+		    while (buffers[0].hasRemaining() ||
+			   buffers[1].hasRemaining())
+		    {
+			sc.write(buffers);
+		    }
+		} catch (IOException e) {
+		    close(e);
+		    throw e;
+		}
+	    }
+	}
+
+	/** Returns the socket channel, connecting if needed. */
+	private SocketChannel getSocketChannel() throws IOException {
+	    assert Thread.holdsLock(this);
+	    if (socketChannel == null) {
+		final SocketChannel sc =
+		    SocketChannel.open(new InetSocketAddress(host, port));
+		setSocketOptions(sc);
+		socketChannel = sc;
+		Thread reader = new Thread(
+		    new Runnable() {
+			public void run() {
+			    readReplies(sc);
+			}
+		    },
+		    "DataStoreClientMultiplexed-reader-" + index);
+		reader.setDaemon(true);
+		reader.start();
+	    }
+	    return socketChannel;
+	}
+
+	/** Reads replies and delivers them to channels until failure. */
+	private void readReplies(SocketChannel sc) {
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	    try {
+		while (true) {
+		    header.clear();
+		    readFully(sc, header);
+		    header.flip();
+		    int channelId = header.getInt();
+		    int length = header.getInt();
+		    if (length < 0) {
+			throw new IOException(
+			    "Negative reply length: " + length);
+		    }
+		    ByteBuffer reply = ByteBuffer.allocate(length);
+		    readFully(sc, reply);
+		    ChannelRef ref = channels.get(channelId);
+		    Channel channel = (ref != null) ? ref.get() : null;
+		    if (channel != null) {
+			channel.deliver(reply.array());
+		    }
+		}
+	    } catch (IOException e) {
+		synchronized (this) {
+		    if (socketChannel == sc) {
+			close(e);
+		    }
+		}
+	    }
+	}
+
+	/**
+	 * Closes the current socket channel, if any, and notifies the waiting
+	 * channels of the failure.  The next request will reconnect.
+	 */
+	synchronized void close(IOException cause) {
+	    if (socketChannel != null) {
+		try {
+		    socketChannel.close();
+		} catch (IOException e) {
+		}
+		socketChannel = null;
+	    }
+	    for (ChannelRef ref : channels.values()) {
+		Channel channel = ref.get();
+		if (channel != null) {
+		    channel.fail(cause);
+		}
+	    }
+	}
+    }
+
+    /** A weak reference to a channel that records the channel ID. */
+    private static class ChannelRef extends WeakReference<Channel> {
+
+	/** The channel ID. */
+	final int channelId;
+
+	/** Creates an instance. */
+	ChannelRef(Channel channel, ReferenceQueue<Channel> queue) {
+	    super(channel, queue);
+	    channelId = channel.channelId;
+	}
+    }
+
+    /**
+     * A channel used by a single thread to make requests, providing the
+     * streams used by the thread's {@link DataStoreProtocol}.
+     */
+    private class Channel {
+
+	/** The channel ID. */
+	final int channelId;
+
+	/** The connection. */
+	final Connection connection;
+
+	/** The reference that registers this channel with the connection. */
+	final ChannelRef ref;
+
+	/**
+	 * The stream for writing requests, which sends the request to the
+	 * server when flushed.
+	 */
+	final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+	    @Override
+	    public synchronized void flush() throws IOException {
+		if (count > 0) {
+		    synchronized (Channel.this) {
+			reply = null;
+			replyPos = 0;
+			failure = null;
+		    }
+		    connection.send(channelId, buf, count);
+		    reset();
+		}
+	    }
+	};
+
+	/** The stream for reading replies. */
+	final InputStream in = new InputStream() {
+	    public int read() throws IOException {
+		synchronized (Channel.this) {
+		    waitForReply();
+		    return reply[replyPos++] & 0xff;
+		}
+	    }
+	    @Override
+	    public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+		    return 0;
+		}
+		synchronized (Channel.this) {
+		    waitForReply();
+		    int n = Math.min(len, reply.length - replyPos);
+		    System.arraycopy(reply, replyPos, b, off, n);
+		    replyPos += n;
+		    return n;
+		}
+	    }
+	    @Override
+	    public int available() {
+		synchronized (Channel.this) {
+		    return (reply == null) ? 0 : reply.length - replyPos;
+		}
+	    }
+	};
+
+	/**
+	 * The current reply, or null if none has arrived.  Synchronize on this
+	 * channel when accessing this field, replyPos, or failure.
+	 */
+	private byte[] reply;
+
+	/** The position of the next byte to read from the reply. */
+	private int replyPos;
+
+	/** The connection failure, or null. */
+	private IOException failure;
+
+	/** Creates a channel and registers it with the connection. */
+	Channel(int channelId, Connection connection) {
+	    this.channelId = channelId;
+	    this.connection = connection;
+	    ref = connection.addChannel(this);
+	}
+
+	/** Stores a reply and notifies the waiting thread. */
+	synchronized void deliver(byte[] bytes) {
+	    reply = bytes;
+	    replyPos = 0;
+	    notifyAll();
+	}
+
+	/** Records a connection failure and notifies the waiting thread. */
+	synchronized void fail(IOException cause) {
+	    failure = cause;
+	    notifyAll();
+	}
+
+	/**
+	 * Waits for reply bytes to be available, throwing IOException if the
+	 * connection failed or the thread is interrupted.  In either case,
+	 * discards this channel, which is not used again.  Called by the thread
+	 * that owns this channel.
+	 */
+	private void waitForReply() throws IOException {
+	    assert Thread.holdsLock(this);
+	    while (reply == null || replyPos >= reply.length) {
+		if (failure != null) {
+		    discard();
+		    IOException e = new IOException(
+			"Connection failed: " + failure.getMessage());
+		    e.initCause(failure);
+		    throw e;
+		}
+		try {
+		    wait();
+		} catch (InterruptedException e) {
+		    discard();
+		    Thread.currentThread().interrupt();
+		    throw new InterruptedIOException(
+			"Interrupted waiting for reply");
+		}
+	    }
+	}
+
+	/**
+	 * Unregisters this channel and discards the current thread's protocol
+	 * handler, so that the thread's next request uses a new channel.
+	 */
+	private void discard() {
+	    connection.removeChannel(this);
+	    discardHandler();
+	}
+    }
+
+    /** Reads from the socket channel until the buffer is full. */
+    static void readFully(SocketChannel sc, ByteBuffer buffer)
+	throws IOException
+    {
+	while (buffer.hasRemaining()) {
+	    if (sc.read(buffer) < 0) {
+		throw new IOException("Connection closed");
+	    }
+	}
+    }
+
+    /** Sets TcpNoDelay and KeepAlive options, if possible. */
+    private static void setSocketOptions(SocketChannel sc) {
+	try {
+	    sc.socket().setTcpNoDelay(true);
+	} catch (Exception e) {
+	}
+	try {
+	    sc.socket().setKeepAlive(true);
+	} catch (Exception e) {
+	}
+    }
+}
@@ -22,9 +22,11 @@
 package com.sun.sgs.impl.service.data.store.net;
 
 import com.sun.sgs.impl.service.data.store.BindingValue;
+import static com.sun.sgs.impl.util.DataStreamUtil.readByteArrays;
 import static com.sun.sgs.impl.util.DataStreamUtil.readBytes;
 import static com.sun.sgs.impl.util.DataStreamUtil.readLongs;
 import static com.sun.sgs.impl.util.DataStreamUtil.readString;
+import static com.sun.sgs.impl.util.DataStreamUtil.writeByteArrays;
 import static com.sun.sgs.impl.util.DataStreamUtil.writeBytes;
 import static com.sun.sgs.impl.util.DataStreamUtil.writeLongs;
 import static com.sun.sgs.impl.util.DataStreamUtil.writeString;
@@ -68,6 +70,8 @@ class DataStoreProtocol implements DataStoreServer {
     private static final short GET_CLASS_ID = 12;
     private static final short GET_CLASS_INFO = 13;
     private static final short NEXT_OBJECT_ID = 14;
+    private static final short GET_OBJECTS = 15;
+    private static final short NEW_OBJECT_IDS = 16;
     private static final short CREATE_TRANSACTION = 100;
     private static final short PREPARE = 101;
     private static final short COMMIT = 102;
@@ -132,6 +136,12 @@ class DataStoreProtocol implements DataStoreServer {
 	case NEXT_OBJECT_ID:
 	    handleNextObjectId(server);
 	    break;
+	case GET_OBJECTS:
+	    handleGetObjects(server);
+	    break;
+	case NEW_OBJECT_IDS:
+	    handleNewObjectIds(server);
+	    break;
 	case CREATE_TRANSACTION:
 	    handleCreateTransaction(server);
 	    break;
@@ -171,6 +181,27 @@ class DataStoreProtocol implements DataStoreServer {
 	}
     }
 
+    public long newObjectIds(int numIds) throws IOException {
+	out.writeShort(NEW_OBJECT_IDS);
+	out.writeInt(numIds);
+	checkResult();
+	return in.readLong();
+    }
+
+    private void handleNewObjectIds(DataStoreServer server)
+	throws IOException
+    {
+	try {
+	    int numIds = in.readInt();
+	    long result = server.newObjectIds(numIds);
+	    out.writeBoolean(true);
+	    out.writeLong(result);
+	    out.flush();
+	} catch (Throwable t) {
+	    failure(t);
+	}
+    }
+
     public long createObject(long tid) throws IOException {
 	out.writeShort(CREATE_OBJECT);
 	out.writeLong(tid);
@@ -238,6 +269,31 @@ class DataStoreProtocol implements DataStoreServer {
 	}
     }
 
+    public byte[][] getObjects(long tid, long[] oids, boolean forUpdate)
+	throws IOException
+    {
+	out.writeShort(GET_OBJECTS);
+	out.writeLong(tid);
+	writeLongs(oids, out);
+	out.writeBoolean(forUpdate);
+	checkResult();
+	return readByteArrays(in);
+    }
+
+    private void handleGetObjects(DataStoreServer server) throws IOException {
+	try {
+	    long tid = in.readLong();
+	    long[] oids = readLongs(in);
+	    boolean forUpdate = in.readBoolean();
+	    byte[][] result = server.getObjects(tid, oids, forUpdate);
+	    out.writeBoolean(true);
+	    writeByteArrays(result, out);
+	    out.flush();
+	} catch (Throwable t) {
+	    failure(t);
+	}
+    }
+
     public void setObject(long tid, long oid, byte[] data)
 	throws IOException
     {
@@ -61,6 +61,14 @@ abstract class DataStoreProtocolClient implements DataStoreServer {
 	return h;
     }
 
+    /**
+     * Discards the protocol handler for the current thread, if any, so that
+     * the next call creates a new one.
+     */
+    void discardHandler() {
+	handler.remove();
+    }
+
     /* -- Implement DataStoreServer -- */
 
     /** {@inheritDoc} */
@@ -68,6 +76,11 @@ abstract class DataStoreProtocolClient implements DataStoreServer {
 	return getHandler().newNodeId();
     }
 
+    /** {@inheritDoc} */
+    public long newObjectIds(int numIds) throws IOException {
+	return getHandler().newObjectIds(numIds);
+    }
+
     /** {@inheritDoc} */
     public long createObject(long tid) throws IOException {
 	return getHandler().createObject(tid);
@@ -85,6 +98,13 @@ abstract class DataStoreProtocolClient implements DataStoreServer {
 	return getHandler().getObject(tid, oid, forUpdate);
     }
 
+    /** {@inheritDoc} */
+    public byte[][] getObjects(long tid, long[] oids, boolean forUpdate)
+	throws IOException
+    {
+	return getHandler().getObjects(tid, oids, forUpdate);
+    }
+
     /** {@inheritDoc} */
     public void setObject(long tid, long oid, byte[] data) throws IOException {
 	getHandler().setObject(tid, oid, data);
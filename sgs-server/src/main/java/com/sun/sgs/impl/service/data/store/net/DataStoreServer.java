@@ -62,6 +62,22 @@ public interface DataStoreServer extends Remote {
      */
     long createObject(long tid) throws IOException;
 
+    /**
+     * Reserves a block of object IDs for new objects, returning the first ID
+     * in the block.  The caller may use the IDs from the returned value
+     * through that value plus {@code numIds - 1} to create objects by calling
+     * {@link #setObject setObject} or {@link #setObjects setObjects} in any
+     * transaction.  The IDs are not associated with a transaction, and are
+     * not reused if the caller does not use them.
+     *
+     * @param	numIds the number of object IDs to reserve
+     * @return	the first object ID in the block
+     * @throws	IllegalArgumentException if {@code numIds} is less than
+     *		{@code 1}
+     * @throws	IOException if a network problem occurs
+     */
+    long newObjectIds(int numIds) throws IOException;
+
     /**
      * Notifies the server that an object is going to be modified.
      *
@@ -102,6 +118,30 @@ public interface DataStoreServer extends Remote {
     byte[] getObject(long tid, long oid, boolean forUpdate)
 	throws IOException;
 
+    /**
+     * Obtains the data associated with a series of object IDs, using {@code
+     * null} elements in the result for objects that are not found.  If the
+     * {@code forUpdate} parameter is {@code true}, the caller is stating its
+     * intention to modify the objects.
+     *
+     * @param	tid the ID of the transaction under which the operation should
+     *		take place
+     * @param	oids the object IDs
+     * @param	forUpdate whether the caller intends to modify the objects
+     * @return	the data associated with the object IDs, with {@code null}
+     *		elements for objects that are not found
+     * @throws	IllegalArgumentException if {@code tid} is negative, or if
+     *		{@code oids} contains a value that is negative
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     * @throws	IOException if a network problem occurs
+     */
+    byte[][] getObjects(long tid, long[] oids, boolean forUpdate)
+	throws IOException;
+
     /**
      * Specifies data to associate with an object ID.
      *
@@ -154,6 +154,20 @@ public class DataStoreServerImpl implements DataStoreServer {
     private static final boolean noRmi = Boolean.getBoolean(
 	PACKAGE + ".no.rmi");
 
+    /**
+     * Whether the socket-based facility should use the pipelined protocol
+     * that multiplexes requests over shared connections.
+     */
+    private static final boolean pipelined = Boolean.getBoolean(
+	PACKAGE + ".pipelined");
+
+    /**
+     * The number of worker threads used to perform requests for the pipelined
+     * protocol.
+     */
+    private static final int pipelinedWorkers = Integer.getInteger(
+	PACKAGE + ".pipelined.workers", 32);
+
     /** The underlying data store. */
     private final CustomDataStoreImpl store;
 
@@ -327,6 +341,10 @@ public class DataStoreServerImpl implements DataStoreServer {
 	    return timeout;
 	}
 
+	public boolean isReadOnly() {
+	    return false;
+	}
+
 	public void checkTimeout() {
 	    if (inactive) {
 		throw new TransactionNotActiveException(
@@ -705,6 +723,11 @@ public class DataStoreServerImpl implements DataStoreServer {
 	long localNewNodeId() {
 	    return super.newNodeId();
 	}
+
+	/** Provide access to newObjectIds. */
+	long localNewObjectIds(int numIds) {
+	    return super.newObjectIds(numIds);
+	}
     }
 
     /**
@@ -794,6 +817,39 @@ public class DataStoreServerImpl implements DataStoreServer {
 	}
     }
 
+    /**
+     * An alternative exporter that uses an experimental socket-based facility
+     * which multiplexes pipelined requests over shared connections.
+     */
+    private static class MultiplexedSocketExporter
+	extends Exporter<DataStoreServer>
+    {
+	private DataStoreServerMultiplexed remote;
+	MultiplexedSocketExporter(Class<DataStoreServer> type) {
+	    super(type);
+	}
+	public int export(DataStoreServer server, String name, int port)
+	    throws IOException
+	{
+	    remote = new DataStoreServerMultiplexed(
+		server, port, pipelinedWorkers);
+	    return remote.getLocalPort();
+	}
+	public void unexport() {
+	    if (remote == null) {
+		return;
+	    }
+	    try {
+		remote.shutdown();
+		remote = null;
+	    } catch (IOException e) {
+		logger.logThrow(
+		    Level.FINE, e, "Problem shutting down server");
+		return;
+	    }
+	}
+    }
+
     /**
      * Creates an instance of this class configured with the specified
      * properties.  See the {@link DataStoreServerImpl class documentation} for
@@ -823,9 +879,13 @@ public class DataStoreServerImpl implements DataStoreServer {
 	    1, Long.MAX_VALUE);
 	int requestedPort = wrappedProps.getIntProperty(
 	    PORT_PROPERTY, DEFAULT_PORT, 0, 65535);
-	exporter = noRmi ?
-	    new SocketExporter(DataStoreServer.class) :
-	    new Exporter<DataStoreServer>(DataStoreServer.class);
+	if (!noRmi) {
+	    exporter = new Exporter<DataStoreServer>(DataStoreServer.class);
+	} else if (pipelined) {
+	    exporter = new MultiplexedSocketExporter(DataStoreServer.class);
+	} else {
+	    exporter = new SocketExporter(DataStoreServer.class);
+	}
 	port = exporter.export(this, "DataStoreServer", requestedPort);
 	if (requestedPort == 0) {
 	    logger.log(Level.INFO, "Server is using port {0,number,#}", port);
@@ -864,6 +924,11 @@ public class DataStoreServerImpl implements DataStoreServer {
 	return store.localNewNodeId();
     }
 
+    /** {@inheritDoc} */
+    public long newObjectIds(int numIds) {
+	return store.localNewObjectIds(numIds);
+    }
+
     /** {@inheritDoc} */
     public long createObject(long tid) {
 	Txn txn = getTxn(tid);
@@ -894,6 +959,16 @@ public class DataStoreServerImpl implements DataStoreServer {
 	}
     }
 
+    /** {@inheritDoc} */
+    public byte[][] getObjects(long tid, long[] oids, boolean forUpdate) {
+	Txn txn = getTxn(tid);
+	try {
+	    return store.getObjects(txn, oids, forUpdate);
+	} finally {
+	    txnTable.notInUse(txn);
+	}
+    }
+
     /** {@inheritDoc} */
     public void setObject(long tid, long oid, byte[] data) {
 	Txn txn = getTxn(tid);
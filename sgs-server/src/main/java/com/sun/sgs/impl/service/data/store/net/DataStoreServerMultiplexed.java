@@ -0,0 +1,404 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import com.sun.sgs.impl.util.NamedThreadFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The server side of an experimental network protocol, not currently used, for
+ * implementing DataStoreServer using a small number of shared connections
+ * instead of RMI.  See {@link DataStoreClientMultiplexed} for a description
+ * of the framing. <p>
+ *
+ * A single selector thread accepts connections, reads request frames, and
+ * writes reply frames using non-blocking I/O.  Each request is dispatched to
+ * a fixed-size pool of worker threads, so requests from different client
+ * threads sharing a connection are processed concurrently.  The number of
+ * requests that have been read but not yet answered is bounded.  When the
+ * bound is reached, the selector thread removes read interest from the
+ * connection, leaving any unread requests in its buffer, and restores it
+ * once a worker thread finishes a request. <p>
+ *
+ * The server keeps no state for client channels, so client threads that exit
+ * leave nothing behind on the server.  Each client opens a fixed number of
+ * connections and keeps them open for as long as it runs, so connections are
+ * not closed just for being idle.  A connection is closed when the client
+ * closes it or when reading or writing it fails, and connections are created
+ * with the keep-alive option so that a connection to a client that
+ * disappears without closing it eventually fails.
+ */
+class DataStoreServerMultiplexed implements Runnable {
+
+    /**
+     * The maximum number of pending requests per worker thread before the
+     * selector stops reading requests.
+     */
+    private static final int PENDING_PER_WORKER = 4;
+
+    /** The size of the header for each frame. */
+    private static final int HEADER_SIZE =
+	DataStoreClientMultiplexed.HEADER_SIZE;
+
+    /** The initial size of the per-connection read buffer. */
+    private static final int INITIAL_READ_BUFFER_SIZE = 8192;
+
+    /** The data store server, for up calls. */
+    private final DataStoreServer server;
+
+    /** The server socket channel. */
+    private final ServerSocketChannel serverChannel;
+
+    /** The selector. */
+    private final Selector selector;
+
+    /** The worker threads. */
+    private final ExecutorService workers;
+
+    /** The maximum number of requests that have not been answered. */
+    private final int maxPending;
+
+    /** The number of requests that have not been answered. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Connections whose reads were suspended because too many requests were
+     * pending, only used by the selector thread.
+     */
+    private final Queue<Connection> suspended = new LinkedList<Connection>();
+
+    /**
+     * Whether any connections have their reads suspended, so that worker
+     * threads need to wake up the selector when they finish a request.
+     */
+    private volatile boolean readsSuspended;
+
+    /** Connections that have replies queued that need write interest. */
+    private final Queue<Connection> needWrite =
+	new ConcurrentLinkedQueue<Connection>();
+
+    /** Whether the server has been shut down. */
+    private volatile boolean shutdown;
+
+    /**
+     * Creates an instance for the specified server, port, and number of
+     * worker threads.
+     */
+    DataStoreServerMultiplexed(DataStoreServer server, int port, int numWorkers)
+	throws IOException
+    {
+	if (numWorkers < 1) {
+	    throw new IllegalArgumentException(
+		"The number of workers must be greater than 0");
+	}
+	this.server = server;
+	serverChannel = ServerSocketChannel.open();
+	serverChannel.socket().bind(new InetSocketAddress(port));
+	serverChannel.configureBlocking(false);
+	selector = Selector.open();
+	serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	workers = Executors.newFixedThreadPool(
+	    numWorkers,
+	    new NamedThreadFactory("DataStoreServerMultiplexed-worker"));
+	maxPending = numWorkers * PENDING_PER_WORKER;
+	new Thread(this, "DataStoreServerMultiplexed").start();
+    }
+
+    /** Shuts down the server. */
+    void shutdown() throws IOException {
+	shutdown = true;
+	selector.wakeup();
+	workers.shutdownNow();
+	serverChannel.close();
+    }
+
+    /** Returns the local port. */
+    int getLocalPort() throws IOException {
+	if (shutdown) {
+	    throw new IOException("Server is shut down");
+	}
+	return serverChannel.socket().getLocalPort();
+    }
+
+    /** Accepts connections and transfers frames until shut down. */
+    public void run() {
+	try {
+	    while (!shutdown) {
+		selector.select();
+		Connection connection;
+		while ((connection = needWrite.poll()) != null) {
+		    if (connection.key.isValid()) {
+			connection.writing = true;
+			connection.updateInterest();
+		    }
+		}
+		resumeReads();
+		Iterator<SelectionKey> iter =
+		    selector.selectedKeys().iterator();
+		while (iter.hasNext()) {
+		    SelectionKey key = iter.next();
+		    iter.remove();
+		    try {
+			if (key.isAcceptable()) {
+			    accept();
+			} else {
+			    connection = (Connection) key.attachment();
+			    if (key.isWritable()) {
+				connection.write();
+			    }
+			    if (key.isValid() && key.isReadable()) {
+				connection.read();
+			    }
+			}
+		    } catch (IOException e) {
+			if (key.attachment() != null) {
+			    ((Connection) key.attachment()).close();
+			}
+		    }
+		}
+	    }
+	} catch (Throwable t) {
+	} finally {
+	    for (SelectionKey key : selector.keys()) {
+		try {
+		    key.channel().close();
+		} catch (IOException e) {
+		}
+	    }
+	    try {
+		selector.close();
+	    } catch (IOException e) {
+	    }
+	}
+    }
+
+    /**
+     * Resumes reading on suspended connections while the number of pending
+     * requests is below the maximum.
+     */
+    private void resumeReads() {
+	while (!suspended.isEmpty() && pending.get() < maxPending) {
+	    Connection connection = suspended.remove();
+	    try {
+		connection.resume();
+	    } catch (IOException e) {
+		connection.close();
+	    }
+	}
+	readsSuspended = !suspended.isEmpty();
+    }
+
+    /** Accepts a new connection. */
+    private void accept() throws IOException {
+	SocketChannel sc = serverChannel.accept();
+	if (sc == null) {
+	    return;
+	}
+	sc.configureBlocking(false);
+	setSocketOptions(sc);
+	SelectionKey key = sc.register(selector, SelectionKey.OP_READ);
+	key.attach(new Connection(sc, key));
+    }
+
+    /** Sets TcpNoDelay and KeepAlive options, if possible. */
+    private static void setSocketOptions(SocketChannel sc) {
+	try {
+	    sc.socket().setTcpNoDelay(true);
+	} catch (Exception e) {
+	}
+	try {
+	    sc.socket().setKeepAlive(true);
+	} catch (Exception e) {
+	}
+    }
+
+    /** The state of an accepted connection. */
+    private class Connection {
+
+	/** The socket channel. */
+	private final SocketChannel sc;
+
+	/** The selection key. */
+	final SelectionKey key;
+
+	/** The buffer for reading requests, only used by the selector. */
+	private ByteBuffer readBuffer =
+	    ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+	/**
+	 * The replies waiting to be written.  Synchronize on this queue when
+	 * accessing it.
+	 */
+	private final Queue<ByteBuffer> replies = new LinkedList<ByteBuffer>();
+
+	/**
+	 * Whether reading is suspended because too many requests are pending,
+	 * only used by the selector.
+	 */
+	private boolean readSuspended;
+
+	/** Whether replies are waiting to be written, only used by selector. */
+	boolean writing;
+
+	/** Creates an instance. */
+	Connection(SocketChannel sc, SelectionKey key) {
+	    this.sc = sc;
+	    this.key = key;
+	}
+
+	/** Reads available bytes and dispatches complete request frames. */
+	void read() throws IOException {
+	    if (sc.read(readBuffer) < 0) {
+		throw new IOException("Connection closed");
+	    }
+	    dispatchFrames();
+	}
+
+	/**
+	 * Resumes reading after it was suspended, first dispatching the
+	 * request frames that were already read.
+	 */
+	void resume() throws IOException {
+	    if (!key.isValid()) {
+		return;
+	    }
+	    readSuspended = false;
+	    updateInterest();
+	    dispatchFrames();
+	}
+
+	/** Sets the interest operations to match the state of the connection. */
+	void updateInterest() {
+	    key.interestOps((readSuspended ? 0 : SelectionKey.OP_READ) |
+			    (writing ? SelectionKey.OP_WRITE : 0));
+	}
+
+	/**
+	 * Dispatches the complete request frames in the read buffer, suspending
+	 * reading if too many requests are pending.
+	 */
+	private void dispatchFrames() throws IOException {
+	    readBuffer.flip();
+	    while (readBuffer.remaining() >= HEADER_SIZE) {
+		if (pending.get() >= maxPending) {
+		    readSuspended = true;
+		    updateInterest();
+		    suspended.add(this);
+		    readsSuspended = true;
+		    break;
+		}
+		int start = readBuffer.position();
+		int channelId = readBuffer.getInt(start);
+		int length = readBuffer.getInt(start + 4);
+		if (length < 0) {
+		    throw new IOException("Negative request length: " + length);
+		} else if (readBuffer.remaining() < HEADER_SIZE + length) {
+		    if (readBuffer.capacity() < HEADER_SIZE + length) {
+			ByteBuffer larger =
+			    ByteBuffer.allocate(HEADER_SIZE + length);
+			larger.put(readBuffer);
+			larger.flip();
+			readBuffer = larger;
+		    }
+		    break;
+		}
+		byte[] request = new byte[length];
+		readBuffer.position(start + HEADER_SIZE);
+		readBuffer.get(request);
+		dispatch(channelId, request);
+	    }
+	    readBuffer.compact();
+	}
+
+	/** Dispatches a request to a worker thread. */
+	private void dispatch(final int channelId, final byte[] request)
+	    throws IOException
+	{
+	    pending.incrementAndGet();
+	    try {
+		workers.execute(new Runnable() {
+		    public void run() {
+			try {
+			    handle(channelId, request);
+			} finally {
+			    pending.decrementAndGet();
+			    if (readsSuspended) {
+				selector.wakeup();
+			    }
+			}
+		    }
+		});
+	    } catch (RejectedExecutionException e) {
+		pending.decrementAndGet();
+		throw new IOException("Server is shut down");
+	    }
+	}
+
+	/** Performs a request and queues the reply. */
+	private void handle(int channelId, byte[] request) {
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    try {
+		new DataStoreProtocol(new ByteArrayInputStream(request), out)
+		    .dispatch(server);
+	    } catch (IOException e) {
+		/* The request was malformed */
+		close();
+		return;
+	    }
+	    byte[] bytes = out.toByteArray();
+	    ByteBuffer reply = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+	    reply.putInt(channelId).putInt(bytes.length).put(bytes).flip();
+	    synchronized (replies) {
+		replies.add(reply);
+	    }
+	    needWrite.add(this);
+	    selector.wakeup();
+	}
+
+	/** Writes queued replies, removing write interest when done. */
+	void write() throws IOException {
+	    synchronized (replies) {
+		while (!replies.isEmpty()) {
+		    ByteBuffer reply = replies.peek();
+		    sc.write(reply);
+		    if (reply.hasRemaining()) {
+			return;
+		    }
+		    replies.remove();
+		}
+		writing = false;
+		updateInterest();
+	    }
+	}
+
+	/** Closes the connection. */
+	void close() {
+	    key.cancel();
+	    try {
+		sc.close();
+	    } catch (IOException e) {
+	    }
+	}
+    }
+}
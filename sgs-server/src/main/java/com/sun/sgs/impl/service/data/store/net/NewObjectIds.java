@@ -0,0 +1,269 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.util.NamedThreadFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * Allocates object IDs for new objects from blocks of IDs leased from the
+ * data store server, so that creating an object does not normally require a
+ * call to the server.  When the number of IDs remaining in the current block
+ * falls to half of the block size, the next block is requested in the
+ * background.  The block size doubles, up to a maximum, each time a block is
+ * used up in less than a target amount of time, and halves, down to the
+ * initial size, when a block lasts much longer than that. <p>
+ *
+ * IDs are not returned to the server if the transaction that used them
+ * aborts, or if the client shuts down before using them.  Since object IDs
+ * are 64 bits, the IDs lost this way are not a concern. <p>
+ *
+ * Callers that need an ID when none are available wait for the next block to
+ * arrive.  The number and duration of these allocation stalls are recorded
+ * so that they can be reported through the data store statistics.
+ */
+class NewObjectIds {
+
+    /**
+     * The number of milliseconds that each block should last.  The block
+     * size grows if blocks are used up faster than this, and shrinks if they
+     * last more than four times as long.
+     */
+    private static final long TARGET_BLOCK_TIME = 1000;
+
+    /** The server to lease blocks from. */
+    private final DataStoreServer server;
+
+    /** The initial and minimum block size. */
+    private final int minBlockSize;
+
+    /** The maximum block size. */
+    private final int maxBlockSize;
+
+    /** The logger. */
+    private final LoggerWrapper logger;
+
+    /** The executor for requesting blocks in the background. */
+    private final ExecutorService executor =
+	Executors.newSingleThreadExecutor(
+	    new NamedThreadFactory("DataStoreClient-NewObjectIds"));
+
+    /*
+     * Synchronize on this instance when accessing the following fields.
+     */
+
+    /**
+     * The next object ID in the current block.  Valid if not greater than
+     * lastObjectId.
+     */
+    private long nextObjectId = 0;
+
+    /** The last object ID in the current block. */
+    private long lastObjectId = -1;
+
+    /** The first object ID in the next block, if nextBlockReady is true. */
+    private long nextBlockFirst;
+
+    /** The last object ID in the next block, if nextBlockReady is true. */
+    private long nextBlockLast;
+
+    /** Whether the next block has been obtained. */
+    private boolean nextBlockReady;
+
+    /** Whether a request for the next block is in progress. */
+    private boolean requesting;
+
+    /**
+     * The exception thrown by the most recent request for a block, or null.
+     */
+    private Throwable requestFailure;
+
+    /** The size to use when requesting the next block. */
+    private int blockSize;
+
+    /** The time in milliseconds that the current block was installed. */
+    private long blockStartTime;
+
+    /** Whether this instance has been shut down. */
+    private boolean shutdown;
+
+    /** The number of times a caller waited for a block. */
+    private long stallCount;
+
+    /** The total number of milliseconds callers waited for blocks. */
+    private long stallTime;
+
+    /**
+     * Creates an instance.
+     *
+     * @param	server the server to lease blocks from
+     * @param	minBlockSize the initial and minimum block size
+     * @param	maxBlockSize the maximum block size
+     * @param	logger the logger
+     */
+    NewObjectIds(DataStoreServer server,
+		 int minBlockSize,
+		 int maxBlockSize,
+		 LoggerWrapper logger)
+    {
+	assert minBlockSize > 0 && maxBlockSize >= minBlockSize;
+	this.server = server;
+	this.minBlockSize = minBlockSize;
+	this.maxBlockSize = maxBlockSize;
+	this.logger = logger;
+	blockSize = minBlockSize;
+    }
+
+    /**
+     * Returns a new object ID, waiting for a new block if none are
+     * available.
+     *
+     * @return	the new object ID
+     * @throws	IOException if a network problem occurs when requesting a
+     *		block, or if the thread is interrupted while waiting, in which
+     *		case the thread's interrupt status is set
+     * @throws	IllegalStateException if this instance has been shut down
+     */
+    synchronized long next() throws IOException {
+	long stallStart = -1;
+	while (true) {
+	    if (shutdown) {
+		throw new IllegalStateException(
+		    "The data store client is shut down");
+	    } else if (nextObjectId <= lastObjectId) {
+		long result = nextObjectId++;
+		if (stallStart != -1) {
+		    stallCount++;
+		    stallTime += System.currentTimeMillis() - stallStart;
+		}
+		if (!requesting && !nextBlockReady &&
+		    lastObjectId - nextObjectId < blockSize / 2)
+		{
+		    requestBlock();
+		}
+		return result;
+	    } else if (nextBlockReady) {
+		installNextBlock();
+	    } else if (requestFailure != null) {
+		Throwable failure = requestFailure;
+		requestFailure = null;
+		if (failure instanceof IOException) {
+		    throw (IOException) failure;
+		} else if (failure instanceof RuntimeException) {
+		    throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+		    throw (Error) failure;
+		} else {
+		    throw new IOException(
+			"Problem obtaining object IDs: " + failure, failure);
+		}
+	    } else {
+		if (stallStart == -1) {
+		    stallStart = System.currentTimeMillis();
+		}
+		if (!requesting) {
+		    requestBlock();
+		}
+		try {
+		    wait();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new InterruptedIOException(
+			"Interrupted while waiting for object IDs");
+		}
+	    }
+	}
+    }
+
+    /** Returns the number of times a caller waited for a block. */
+    synchronized long getStallCount() {
+	return stallCount;
+    }
+
+    /**
+     * Returns the total number of milliseconds that callers waited for
+     * blocks.
+     */
+    synchronized long getStallTime() {
+	return stallTime;
+    }
+
+    /** Shuts down this instance, causing waiting callers to fail. */
+    void shutdown() {
+	synchronized (this) {
+	    shutdown = true;
+	    notifyAll();
+	}
+	executor.shutdownNow();
+    }
+
+    /**
+     * Makes the next block the current block, and adjusts the block size
+     * based on how long the previous block lasted.
+     */
+    private void installNextBlock() {
+	assert Thread.holdsLock(this);
+	long now = System.currentTimeMillis();
+	if (lastObjectId >= 0) {
+	    long elapsed = now - blockStartTime;
+	    if (elapsed < TARGET_BLOCK_TIME && blockSize < maxBlockSize) {
+		blockSize = Math.min(maxBlockSize, blockSize * 2);
+	    } else if (elapsed > 4 * TARGET_BLOCK_TIME &&
+		       blockSize > minBlockSize)
+	    {
+		blockSize = Math.max(minBlockSize, blockSize / 2);
+	    }
+	}
+	nextObjectId = nextBlockFirst;
+	lastObjectId = nextBlockLast;
+	nextBlockReady = false;
+	blockStartTime = now;
+    }
+
+    /** Starts a background request for the next block. */
+    private void requestBlock() {
+	assert Thread.holdsLock(this);
+	assert !requesting && !nextBlockReady;
+	requesting = true;
+	final int size = blockSize;
+	executor.execute(new Runnable() {
+		public void run() {
+		    long first = -1;
+		    Throwable failure = null;
+		    try {
+			first = server.newObjectIds(size);
+			if (logger.isLoggable(Level.FINE)) {
+			    logger.log(Level.FINE,
+				       "Allocated object IDs" +
+				       " first:{0,number,#}, count:{1}",
+				       first, size);
+			}
+		    } catch (Throwable t) {
+			logger.logThrow(
+			    Level.FINE, t, "Allocating object IDs failed");
+			failure = t;
+		    }
+		    synchronized (NewObjectIds.this) {
+			requesting = false;
+			if (failure == null) {
+			    nextBlockFirst = first;
+			    nextBlockLast = first + size - 1;
+			    nextBlockReady = true;
+			} else {
+			    requestFailure = failure;
+			}
+			NewObjectIds.this.notifyAll();
+		    }
+		}
+	    });
+    }
+}
@@ -38,6 +38,7 @@ import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 
 import com.sun.sgs.impl.util.AbstractService;
+import com.sun.sgs.impl.util.TimingWheel;
 import com.sun.sgs.impl.util.TransactionContext;
 import com.sun.sgs.impl.util.TransactionContextFactory;
 
@@ -70,8 +71,6 @@ import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -211,8 +210,14 @@ public class TaskServiceImpl
     // the transient set of identities thought to be mapped to this node
     private HashSet<Identity> mappedIdentitySet;
 
-    // a timer used to delay status votes
-    private final Timer statusUpdateTimer;
+    // a timing wheel used to delay status votes
+    private final TimingWheel statusUpdateTimer;
+
+    // the number of milliseconds in a tick of the status vote timing wheel,
+    // which rounds each vote up to the next tick, so votes may be sent up to
+    // this much later than the vote delay, which is fine since the delay
+    // only exists to avoid voting too often
+    private static final long STATUS_UPDATE_TICK_MILLIS = 10;
 
     /** The property key to set the delay in milliseconds for status votes. */
     public static final String VOTE_DELAY_PROPERTY =
@@ -225,7 +230,7 @@ public class TaskServiceImpl
     private final long voteDelay;
 
     // a map of any pending status change timer tasks
-    private ConcurrentHashMap<Identity, TimerTask> statusTaskMap;
+    private ConcurrentHashMap<Identity, StatusChangeTask> statusTaskMap;
 
     // the base namespace where all tasks are handed off (this name is always
     // followed by the recipient node's identifier)
@@ -329,7 +334,7 @@ public class TaskServiceImpl
         // create the transient local collections
         activeIdentityMap = new HashMap<Identity, Integer>();
         mappedIdentitySet = new HashSet<Identity>();
-        statusTaskMap = new ConcurrentHashMap<Identity, TimerTask>();
+        statusTaskMap = new ConcurrentHashMap<Identity, StatusChangeTask>();
         recurringMap = new ConcurrentHashMap<BigInteger, RecurringDetail>();
         identityRecurringMap =
                 new HashMap<Identity, Set<RecurringTaskHandle>>();
@@ -404,7 +409,8 @@ public class TaskServiceImpl
 
         // finally, create a timer for delaying the status votes and get
         // the delay used in submitting status votes
-        statusUpdateTimer = new Timer("TaskServiceImpl Status Vote Timer");
+        statusUpdateTimer = new TimingWheel(
+            "TaskServiceImpl Status Vote Timer", STATUS_UPDATE_TICK_MILLIS);
         voteDelay = wrappedProps.getLongProperty(VOTE_DELAY_PROPERTY,
                                                  VOTE_DELAY_DEFAULT);
         if (voteDelay < 0) {
@@ -494,7 +500,7 @@ public class TaskServiceImpl
             handoffTaskHandle.cancel();
         }
 
-        statusUpdateTimer.cancel();
+        statusUpdateTimer.shutdown();
     }
 
     /**
@@ -1641,24 +1647,28 @@ public class TaskServiceImpl
 
             // if we got here then there is a change in the status, as noted
             // by the "active" boolean flag
-            TimerTask task = statusTaskMap.remove(identity);
+            StatusChangeTask task = statusTaskMap.remove(identity);
             if (task != null) {
                 // if there was a timer task pending, then we've just negated
                 // it with the new status, so cancel the task
-                task.cancel();
+                task.timeout.cancel();
             } else {
                 // there was no pending task, so set one up
                 task = new StatusChangeTask(identity, active);
                 statusTaskMap.put(identity, task);
-                statusUpdateTimer.schedule(task, voteDelay);
+                task.timeout = statusUpdateTimer.schedule(
+                    task, System.currentTimeMillis() + voteDelay);
             }
         }
     }
 
-    /** Private TimerTask implementation for delaying status votes. */
-    private class StatusChangeTask extends TimerTask {
+    /** Private timer implementation for delaying status votes. */
+    private class StatusChangeTask implements Runnable {
         private final Identity identity;
         private final boolean active;
+        // the timer for this task, set and read while synchronized on
+        // activeIdentityMap
+        TimingWheel.Timeout timeout = null;
         StatusChangeTask(Identity identity, boolean active) {
             this.identity = identity;
             this.active = active;
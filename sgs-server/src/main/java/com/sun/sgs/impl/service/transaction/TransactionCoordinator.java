@@ -55,6 +55,22 @@ public interface TransactionCoordinator {
      */
     TransactionHandle createTransaction(long timeout);
 
+    /**
+     * Creates a new transaction with the specified timeout, marking it as
+     * read-only if requested, and returns a handle for managing it.  The
+     * timeout is interpreted as for {@link #createTransaction(long)}.
+     * Participants in a read-only transaction may refuse requests to modify
+     * data, and may skip work needed only to support modifications.
+     *
+     * @param timeout the timeout, in milliseconds, to be used for this
+     *        transaction
+     * @param readOnly whether the transaction is read-only
+     *
+     * @return	a handle for managing the newly created transaction.
+     * @see	com.sun.sgs.service.Transaction#isReadOnly
+     */
+    TransactionHandle createTransaction(long timeout, boolean readOnly);
+
     /**
      * Returns the default transaction timeout to use for bounded transactions.
      * This value is specified using the property
@@ -89,15 +89,17 @@ public final class TransactionCoordinatorImpl
 
 	/**
 	 * Creates a transaction with the specified ID, timeout, 
-         * prepareAndCommit optimization boolean, and collectorHandle.
+         * prepareAndCommit optimization boolean, read-only flag, and
+         * collectorHandle.
 	 */
 	TransactionHandleImpl(long tid, long timeout,
                               boolean disablePrepareAndCommitOpt,
+			      boolean readOnly,
 			      ProfileCollectorHandle collectorHandle) 
         {
 	    txn = new TransactionImpl(tid, timeout, 
                                       disablePrepareAndCommitOpt, 
-                                      collectorHandle);
+                                      readOnly, collectorHandle);
 	}
 
 	public String toString() {
@@ -159,11 +161,18 @@ public final class TransactionCoordinatorImpl
 
     /** {@inheritDoc} */
     public TransactionHandle createTransaction(long timeout) {
+        return createTransaction(timeout, false);
+    }
+
+    /** {@inheritDoc} */
+    public TransactionHandle createTransaction(long timeout,
+                                               boolean readOnly)
+    {
         if (timeout == ScheduledTask.UNBOUNDED) {
 	    return new TransactionHandleImpl(nextTid.getAndIncrement(),
 					     unboundedTimeout, 
                                              disablePrepareAndCommitOpt,
-                                             collectorHandle);
+                                             readOnly, collectorHandle);
         } else if (timeout <= 0) {
             throw new IllegalArgumentException(
                     "Timeout value must be greater than 0 : " + timeout);
@@ -171,7 +180,7 @@ public final class TransactionCoordinatorImpl
         return new TransactionHandleImpl(nextTid.getAndIncrement(),
                                          timeout,
                                          disablePrepareAndCommitOpt,
-                                         collectorHandle);
+                                         readOnly, collectorHandle);
     }
 
     /** {@inheritDoc} */
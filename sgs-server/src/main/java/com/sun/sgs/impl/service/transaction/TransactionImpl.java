@@ -83,6 +83,9 @@ final class TransactionImpl implements Transaction {
 
     /** Whether the prepareAndCommit optimization should be used. */
     private final boolean disablePrepareAndCommitOpt;
+
+    /** Whether this transaction is read-only. */
+    private final boolean readOnly;
     
     /** The state of the transaction. */
     private State state;
@@ -130,14 +133,16 @@ final class TransactionImpl implements Transaction {
 
     /**
      * Creates an instance with the specified transaction ID, timeout, 
-     * prepare and commit optimization flag, and collectorHandle.
+     * prepare and commit optimization flag, read-only flag, and
+     * collectorHandle.
      */
     TransactionImpl(long tid, long timeout, boolean usePrepareAndCommitOpt,
-                    ProfileCollectorHandle collectorHandle) 
+		    boolean readOnly, ProfileCollectorHandle collectorHandle) 
     {
 	this.tid = tid;
 	this.timeout = timeout;
         this.disablePrepareAndCommitOpt = usePrepareAndCommitOpt;
+	this.readOnly = readOnly;
 	this.collectorHandle = collectorHandle;
 	creationTime = System.currentTimeMillis();
 	owner = Thread.currentThread();
@@ -174,6 +179,11 @@ final class TransactionImpl implements Transaction {
 	return timeout;
     }
 
+    /** {@inheritDoc} */
+    public boolean isReadOnly() {
+	return readOnly;
+    }
+
     /** {@inheritDoc} */
     public void checkTimeout() {
 	checkThread("checkTimeout");
@@ -341,6 +351,7 @@ final class TransactionImpl implements Transaction {
 	return "TransactionImpl[tid:" + tid +
 	    ", creationTime:" + creationTime +
 	    ", timeout:" + timeout +
+	    (readOnly ? ", readOnly" : "") +
 	    ", state:" + state + "]";
     }
 
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.util;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.Objects;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hierarchical timing wheel that runs {@code Runnable}s at specified
+ * times, for use in place of {@link java.util.Timer} when there are many
+ * outstanding timers.  Scheduling and cancelling a timer take constant time,
+ * rather than the logarithmic time needed to update the binary heap used by
+ * {@code Timer}. <p>
+ *
+ * Time is divided into ticks of a fixed number of milliseconds.  The wheel
+ * has {@value #LEVELS} levels of {@value #SLOTS} slots each: the first level
+ * holds timers due in the next {@value #SLOTS} ticks, one slot per tick, and
+ * each slot of a higher level covers a whole rotation of the level below it.
+ * Timers in a higher level slot are moved to the level below when the wheel
+ * reaches that slot.  Each slot holds a doubly linked list of timers, so
+ * timers can be removed in constant time when they are cancelled. <p>
+ *
+ * A single thread advances the wheel.  On each tick it removes all of the
+ * timers that have expired and then runs them together, without holding
+ * the wheel's lock.  A timer never runs
+ * before its scheduled time, but may run up to one tick after it.  As with
+ * {@code Timer}, timers should complete quickly, since they delay the
+ * timers that follow them.  Unlike {@code Timer}, a timer that throws an
+ * exception does not stop the wheel: the exception is logged and the
+ * remaining timers are run. <p>
+ *
+ * This class uses the {@link Logger} named {@code
+ * com.sun.sgs.impl.util.TimingWheel} to log information at the following
+ * logging levels: <p>
+ *
+ * <ul>
+ * <li> {@link Level#WARNING WARNING} - A timer threw an exception
+ * </ul>
+ */
+public class TimingWheel {
+
+    /** The number of bits used to index the slots in a level. */
+    private static final int SLOT_BITS = 8;
+
+    /** The number of slots in each level. */
+    public static final int SLOTS = 1 << SLOT_BITS;
+
+    /** The mask for slot indexes. */
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /** The number of levels. */
+    public static final int LEVELS = 4;
+
+    /**
+     * The largest number of ticks from the current tick that the wheel can
+     * represent.  Timers further in the future are placed at this distance
+     * and moved again when they are reached.
+     */
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger =
+	new LoggerWrapper(Logger.getLogger(TimingWheel.class.getName()));
+
+    /** The number of milliseconds in a tick. */
+    private final long tickMillis;
+
+    /** The time in milliseconds of tick {@code 0}. */
+    private final long baseTime;
+
+    /**
+     * The slots, indexed by level and slot.  Each slot is the sentinel of a
+     * circular doubly linked list.  Synchronize on this instance when
+     * accessing the slots.
+     */
+    private final Timeout[][] slots;
+
+    /**
+     * The last tick that has been processed.  Synchronize on this instance
+     * when accessing this field.
+     */
+    private long currentTick = 0;
+
+    /**
+     * The number of scheduled timers.  Synchronize on this instance when
+     * accessing this field.
+     */
+    private int size = 0;
+
+    /**
+     * Whether the wheel has been shut down.  Synchronize on this instance
+     * when accessing this field.
+     */
+    private boolean shutdown = false;
+
+    /** The thread that advances the wheel. */
+    private final Thread thread;
+
+    /**
+     * Creates an instance of this class, and starts the thread that
+     * advances the wheel.
+     *
+     * @param	name the name of the thread that runs timers
+     * @param	tickMillis the number of milliseconds in a tick
+     * @throws	IllegalArgumentException if {@code tickMillis} is less than
+     *		{@code 1}
+     */
+    public TimingWheel(String name, long tickMillis) {
+	Objects.checkNull("name", name);
+	if (tickMillis < 1) {
+	    throw new IllegalArgumentException(
+		"The tickMillis must not be less than 1");
+	}
+	this.tickMillis = tickMillis;
+	baseTime = System.currentTimeMillis();
+	slots = new Timeout[LEVELS][SLOTS];
+	for (int level = 0; level < LEVELS; level++) {
+	    for (int slot = 0; slot < SLOTS; slot++) {
+		slots[level][slot] = new Timeout(null, 0);
+	    }
+	}
+	thread = new Thread(new Ticker(), name);
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+     * Schedules a {@code Runnable} to run at the specified time.  If the time
+     * has already passed, the {@code Runnable} is run on the next tick.
+     *
+     * @param	runnable the {@code Runnable}
+     * @param	time the time in milliseconds at which to run {@code runnable}
+     * @return	a {@code Timeout} for cancelling the timer
+     * @throws	IllegalStateException if the wheel has been shut down
+     */
+    public Timeout schedule(Runnable runnable, long time) {
+	Objects.checkNull("runnable", runnable);
+	Timeout timeout = new Timeout(runnable, time);
+	synchronized (this) {
+	    if (shutdown) {
+		throw new IllegalStateException("Wheel has been shut down");
+	    }
+	    long delta = time - baseTime;
+	    long tick =
+		(delta <= 0) ? 0 : (delta + tickMillis - 1) / tickMillis;
+	    timeout.tick = Math.max(tick, currentTick + 1);
+	    place(timeout);
+	    if (size++ == 0) {
+		/* The thread may be waiting with no timers scheduled */
+		notifyAll();
+	    }
+	}
+	return timeout;
+    }
+
+    /**
+     * Returns the number of scheduled timers that have not run or been
+     * cancelled.
+     *
+     * @return	the number of scheduled timers
+     */
+    public synchronized int size() {
+	return size;
+    }
+
+    /**
+     * Shuts down the wheel, discarding any timers that have not run.  Does
+     * not wait for timers that are running to complete.
+     */
+    public void shutdown() {
+	synchronized (this) {
+	    if (shutdown) {
+		return;
+	    }
+	    shutdown = true;
+	    for (Timeout[] level : slots) {
+		for (Timeout sentinel : level) {
+		    while (sentinel.next != sentinel) {
+			sentinel.next.unlink();
+		    }
+		}
+	    }
+	    size = 0;
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Adds a timer to the slot for its tick.  Callers must synchronize on
+     * this instance.
+     */
+    private void place(Timeout timeout) {
+	long ticks = timeout.tick - currentTick;
+	long tick = timeout.tick;
+	if (ticks > MAX_TICKS) {
+	    ticks = MAX_TICKS;
+	    tick = currentTick + MAX_TICKS;
+	}
+	int level = 0;
+	while (ticks >= SLOTS && level < LEVELS - 1) {
+	    ticks >>>= SLOT_BITS;
+	    level++;
+	}
+	int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+	timeout.linkBefore(slots[level][slot]);
+    }
+
+    /**
+     * Advances the wheel by one tick, moving the timers that have expired to
+     * the specified list.  Callers must synchronize on this instance.
+     */
+    private void advance(List<Timeout> expired) {
+	currentTick++;
+	/*
+	 * When the lower bits of the tick wrap to zero, move the timers in
+	 * the next slot of each higher level down, starting with the
+	 * highest level that wrapped.
+	 */
+	int level = 0;
+	while (level < LEVELS - 1 &&
+	       ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK) == 0)
+	{
+	    level++;
+	}
+	for (; level > 0; level--) {
+	    int slot =
+		(int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+	    Timeout sentinel = slots[level][slot];
+	    while (sentinel.next != sentinel) {
+		Timeout timeout = sentinel.next;
+		timeout.unlink();
+		place(timeout);
+	    }
+	}
+	Timeout sentinel = slots[0][(int) currentTick & SLOT_MASK];
+	while (sentinel.next != sentinel) {
+	    Timeout timeout = sentinel.next;
+	    timeout.unlink();
+	    size--;
+	    expired.add(timeout);
+	}
+    }
+
+    /** Returns the current tick based on the current time. */
+    private long nowTick() {
+	return (System.currentTimeMillis() - baseTime) / tickMillis;
+    }
+
+    /**
+     * A scheduled timer, which can be used to cancel the timer.  Instances
+     * also serve as the sentinels of the lists of timers in each slot.
+     */
+    public final class Timeout {
+
+	/** The runnable, or {@code null} for a sentinel. */
+	private final Runnable runnable;
+
+	/** The requested time in milliseconds. */
+	private final long time;
+
+	/** The tick at which the timer expires. */
+	long tick;
+
+	/** The next and previous timers in the slot, or {@code null}. */
+	Timeout next;
+	Timeout prev;
+
+	/** Creates an instance of this class. */
+	Timeout(Runnable runnable, long time) {
+	    this.runnable = runnable;
+	    this.time = time;
+	    if (runnable == null) {
+		next = this;
+		prev = this;
+	    }
+	}
+
+	/**
+	 * Returns the time in milliseconds at which this timer was scheduled
+	 * to run.
+	 *
+	 * @return	the scheduled time
+	 */
+	public long getTime() {
+	    return time;
+	}
+
+	/**
+	 * Cancels this timer.  Returns {@code true} if the timer had not run
+	 * and was not already cancelled, otherwise {@code false}.
+	 *
+	 * @return	whether this call cancelled the timer
+	 */
+	public boolean cancel() {
+	    synchronized (TimingWheel.this) {
+		if (next == null) {
+		    return false;
+		}
+		unlink();
+		size--;
+		return true;
+	    }
+	}
+
+	/** Adds this timer to the end of the list with the given sentinel. */
+	void linkBefore(Timeout sentinel) {
+	    next = sentinel;
+	    prev = sentinel.prev;
+	    prev.next = this;
+	    sentinel.prev = this;
+	}
+
+	/** Removes this timer from its list. */
+	void unlink() {
+	    prev.next = next;
+	    next.prev = prev;
+	    next = null;
+	    prev = null;
+	}
+    }
+
+    /** Advances the wheel and runs timers as they expire. */
+    private class Ticker implements Runnable {
+	public void run() {
+	    List<Timeout> expired = new ArrayList<Timeout>();
+	    while (true) {
+		synchronized (TimingWheel.this) {
+		    try {
+			while (!shutdown) {
+			    long now = nowTick();
+			    if (size == 0) {
+				/* Nothing to expire, so skip ahead */
+				currentTick = Math.max(currentTick, now);
+				TimingWheel.this.wait();
+			    } else if (now <= currentTick) {
+				long next = baseTime +
+				    (currentTick + 1) * tickMillis;
+				TimingWheel.this.wait(Math.max(
+				    1, next - System.currentTimeMillis()));
+			    } else {
+				break;
+			    }
+			}
+		    } catch (InterruptedException e) {
+			return;
+		    }
+		    if (shutdown) {
+			return;
+		    }
+		    long now = nowTick();
+		    while (currentTick < now) {
+			if (size == 0) {
+			    currentTick = now;
+			    break;
+			}
+			advance(expired);
+		    }
+		}
+		for (Timeout timeout : expired) {
+		    try {
+			timeout.runnable.run();
+		    } catch (RuntimeException e) {
+			logger.logThrow(
+			    Level.WARNING, e, "Timer {0} failed",
+			    timeout.runnable);
+		    }
+		}
+		expired.clear();
+	    }
+	}
+    }
+}
@@ -37,10 +37,13 @@ import static java.util.logging.Level.FINEST;
 import java.util.logging.Logger;
 
 /**
- * A class used to represent locks. <p>
+ * A class used to represent locks that have more than one owner, or that
+ * have waiters. <p>
  *
  * Callers should only call non-{@code Object} methods on instances of this
- * class if they hold the lock on the key map associated with the instance.
+ * class if they are synchronized on the instance, and should check that the
+ * instance has not been {@linkplain #isRemoved removed} from the lock table
+ * before using it.
  *
  * @param	<K> the type of key
  * @see		LockManager
@@ -71,14 +74,20 @@ final class Lock<K> {
     private final List<LockRequest<K>> waiters =
 	new ArrayList<LockRequest<K>>(2);
 
+    /** Whether this lock has been removed from the lock table. */
+    private boolean removed = false;
+
     /**
-     * Creates a lock.
+     * Creates a lock with a single owner.
      *
      * @param	key the key that identifies this lock
+     * @param	owner the request of the current owner
      */
-    Lock(K key) {
+    Lock(K key, LockRequest<K> owner) {
 	checkNull("key", key);
+	checkNull("owner", owner);
 	this.key = key;
+	owners.add(owner);
     }
 
     /**
@@ -92,15 +101,21 @@ final class Lock<K> {
      * lock was acquired or a conflicting transaction if the lock could not be
      * obtained.  Adds the locker to the waiters list if the lock was not
      * obtained and the conflict type was {@link LockConflictType#BLOCKED
-     * BLOCKED}.
+     * BLOCKED}.  If {@code newRequest} is not {@code null}, it is used
+     * instead of creating a new request if a new request of the same type
+     * is needed.
      *
      * @param	locker the locker requesting the lock
      * @param	forWrite whether a write lock is requested
      * @param	waiting whether the locker is known to be a waiter
+     * @param	newRequest a request already created for this attempt, or
+     *		{@code null}
      * @return	a {@code LockAttemptResult} or {@code null}
      */
-    LockAttemptResult<K> lock(
-	Locker<K> locker, boolean forWrite, boolean waiting)
+    LockAttemptResult<K> lock(Locker<K> locker,
+			      boolean forWrite,
+			      boolean waiting,
+			      LockRequest<K> newRequest)
     {
 	assert locker.lockManager.checkKeySync(key);
 	boolean upgrade = false;
@@ -169,17 +184,19 @@ final class Lock<K> {
 	    assert owners.size() == 1 && owners.get(0).getLocker() == locker;
 	    owners.remove(0);
 	}
-	if (conflict == null) {
-	    if (request == null) {
-		request = locker.newLockRequest(key, forWrite, upgrade);
-	    }
-	    owners.add(request);
-	} else if (request == null) {
-	    request = locker.newLockRequest(key, forWrite, upgrade);
+	if (request == null) {
+	    request = (newRequest != null &&
+		       newRequest.getForWrite() == forWrite &&
+		       newRequest.getUpgrade() == upgrade)
+		? newRequest
+		: locker.newLockRequest(key, forWrite, upgrade);
 	    if (conflictType == LockConflictType.BLOCKED) {
 		addWaiter(request);
 	    }
 	}
+	if (conflict == null) {
+	    owners.add(request);
+	}
 	assert validateInUse();
 	return new LockAttemptResult<K>(request, conflict, conflictType);
     }
@@ -267,7 +284,8 @@ final class Lock<K> {
 		    lockersToNotify.add(locker);
 		} else if (!conflict) {
 		    LockAttemptResult<K> result =
-			lock(waiter.getLocker(), waiter.getForWrite(), true);
+			lock(waiter.getLocker(), waiter.getForWrite(), true,
+			     null);
 		    if (logger.isLoggable(FINEST)) {
 			logger.log(FINEST,
 				   "attempt to lock waiter {0} returns {1}",
@@ -384,6 +402,31 @@ final class Lock<K> {
 	return !owners.isEmpty() || !waiters.isEmpty();
     }
 
+    /**
+     * Returns the request of the only owner of this lock if it has a single
+     * owner and no waiters, else {@code null}.
+     */
+    LockRequest<K> getOnlyOwner(LockManager<K> lockManager) {
+	assert lockManager.checkKeySync(key);
+	return (owners.size() == 1 && waiters.isEmpty()) ? owners.get(0) : null;
+    }
+
+    /**
+     * Returns whether this lock has been removed from the lock table.  A
+     * lock that has been removed should not be used.
+     */
+    boolean isRemoved() {
+	assert Thread.holdsLock(this);
+	return removed;
+    }
+
+    /** Marks that this lock has been removed from the lock table. */
+    void setRemoved(LockManager<K> lockManager) {
+	assert lockManager.checkKeySync(key);
+	assert Thread.holdsLock(this);
+	removed = true;
+    }
+
     /**
      * Returns a possibly read-only copy of the lock requests for the owners.
      */
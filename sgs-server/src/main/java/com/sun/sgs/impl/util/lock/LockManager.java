@@ -30,9 +30,9 @@ package com.sun.sgs.impl.util.lock;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import static com.sun.sgs.impl.sharedutil.Objects.uncheckedCast;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import static java.util.logging.Level.FINER;
 import static java.util.logging.Level.FINEST;
@@ -52,13 +52,28 @@ import java.util.logging.Logger;
  *	releasing locks, results of attempting to assign locks to waiters
  * </ul> <p>
  *
+ * The lock table maps each key that is in use to either the {@link LockRequest}
+ * of the lock's only owner, wrapped in an object that is compared by identity,
+ * or a {@link Lock}.  A lock request in the table means that the requesting
+ * locker is the lock's only owner and that there are no waiters.  Acquiring a
+ * lock that is not in use, upgrading a lock that has no other owners, and
+ * releasing a lock that has a single owner and no waiters are each performed
+ * with a single atomic operation on the table, without synchronization.  When a
+ * second locker requests a lock held this way, the request in the table is
+ * replaced by a {@code Lock} that records the owner, and that lock is used to
+ * manage owners and waiters until the lock again has a single owner and no
+ * waiters, at which point the table goes back to holding just the owner's
+ * request.  A {@code Lock} that has been taken out of the table is marked as
+ * removed, and callers that find a removed lock look up the key in the table
+ * again. <p>
+ *
  * The implementation of this class uses the following thread synchronization
  * scheme to avoid internal deadlocks:
  *
  * <ul>
  *
- * <li>Synchronization is only used on {@link Locker} objects and on the {@code
- *     Map}s that hold {@link Lock} objects
+ * <li>Synchronization is only used on {@link Locker} objects and on {@link
+ *     Lock} objects
  *
  * <li>A thread can synchronize on at most one locker and one lock at a time,
  *     always synchronizing on the locker first
@@ -73,7 +88,7 @@ import java.util.logging.Logger;
  * <li>The {@code Lock} class is not synchronized <p>
  *
  *     Callers of non-{@code Object} methods on the {@code Lock} class should
- *     make sure that they are synchronized on the associated key map.
+ *     make sure that they are synchronized on the lock.
  *
  * <li>The {@code Locker} class and its subclasses only use synchronization for
  *     getter and setter methods
@@ -82,8 +97,8 @@ import java.util.logging.Logger;
  *     else <p>
  *
  *     The implementation enforces this requirement by having lock methods not
- *     make calls to other classes, and by performing minimal work while
- *     synchronized on the associated key map.
+ *     make calls to other classes, other than to the lock table, and by
+ *     performing minimal work while synchronized on the lock.
  *
  * <li>Blocks synchronized on a {@code Locker} should not synchronize on a
  *     different locker, but can synchronize on a {@code Lock}
@@ -113,19 +128,13 @@ public class LockManager<K> {
     private final long lockTimeout;
 
     /**
-     * The number of separate maps to use for storing keys in order to support
-     * concurrent access.
+     * Maps keys to an {@link OnlyOwner} holding the request of the only owner
+     * of an uncontended lock, or to the {@link Lock} that manages a lock with
+     * multiple owners or with waiters.  Keys for locks that are not in use
+     * are not present.  Non-{@code Object} methods on locks should not be
+     * used without synchronizing on the lock.
      */
-    private final int numKeyMaps;
-
-    /**
-     * An array of maps from key to lock.  The map to use is chosen by using
-     * the key's hash code mod the number of key maps.  Synchronization for
-     * locks is based on locking the associated key map.  Non-{@code Object}
-     * methods on locks should not be used without synchronizing on the
-     * associated key map lock.
-     */
-    private final Map<K, Lock<K>>[] keyMaps;
+    private final ConcurrentMap<K, Object> lockTable;
 
     /**
      * When assertions are enabled, holds the {@code Locker} that the
@@ -136,7 +145,7 @@ public class LockManager<K> {
 
     /**
      * When assertions are enabled, hold the {@code Key} whose associated
-     * {@code Map} the current thread is synchronized on, if any.
+     * {@code Lock} the current thread is synchronized on, if any.
      */
     private final ThreadLocal<K> currentKeySync = new ThreadLocal<K>();
 
@@ -147,7 +156,8 @@ public class LockManager<K> {
      *
      * @param	lockTimeout the maximum number of milliseconds to acquire a
      *		lock
-     * @param	numKeyMaps the number of separate maps to use for storing keys
+     * @param	numKeyMaps the number of separate maps to use for storing
+     *		keys, which is used as the concurrency level of the lock table
      * @throws	IllegalArgumentException if {@code lockTimeout} or {@code
      *		numKeyMaps} is less than {@code 1}
      */
@@ -160,11 +170,7 @@ public class LockManager<K> {
 		"The numKeyMaps must not be less than 1");
 	}
 	this.lockTimeout = lockTimeout;
-	this.numKeyMaps = numKeyMaps;
-	keyMaps = uncheckedCast(new Map[numKeyMaps]);
-	for (int i = 0; i < numKeyMaps; i++) {
-	    keyMaps[i] = new HashMap<K, Lock<K>>();
-	}
+	lockTable = new ConcurrentHashMap<K, Object>(16, 0.75f, numKeyMaps);
     }
 
     /* -- Public methods -- */
@@ -267,14 +273,25 @@ public class LockManager<K> {
      * @return	a list of the requests
      */
     public List<LockRequest<K>> getOwners(K key) {
-	Map<K, Lock<K>> keyMap = getKeyMap(key);
-	assert noteKeySync(key);
-	try {
-	    synchronized (keyMap) {
-		return getLock(key, keyMap).copyOwners(this);
+	while (true) {
+	    Object entry = lockTable.get(key);
+	    if (entry == null) {
+		return Collections.emptyList();
+	    } else if (entry instanceof OnlyOwner) {
+		OnlyOwner<K> owner = uncheckedCast(entry);
+		return Collections.singletonList(owner.request);
+	    }
+	    Lock<K> lock = uncheckedCast(entry);
+	    assert noteKeySync(key);
+	    try {
+		synchronized (lock) {
+		    if (!lock.isRemoved()) {
+			return lock.copyOwners(this);
+		    }
+		}
+	    } finally {
+		assert noteKeyUnsync(key);
 	    }
-	} finally {
-	    assert noteKeyUnsync(key);
 	}
     }
 
@@ -286,50 +303,28 @@ public class LockManager<K> {
      * @return	a list of the requests
      */
     public List<LockRequest<K>> getWaiters(K key) {
-	Map<K, Lock<K>> keyMap = getKeyMap(key);
-	assert noteKeySync(key);
-	try {
-	    synchronized (keyMap) {
-		return getLock(key, keyMap).copyWaiters(this);
+	while (true) {
+	    Object entry = lockTable.get(key);
+	    if (!(entry instanceof Lock)) {
+		/* Uncontended locks have no waiters */
+		return Collections.emptyList();
+	    }
+	    Lock<K> lock = uncheckedCast(entry);
+	    assert noteKeySync(key);
+	    try {
+		synchronized (lock) {
+		    if (!lock.isRemoved()) {
+			return lock.copyWaiters(this);
+		    }
+		}
+	    } finally {
+		assert noteKeyUnsync(key);
 	    }
-	} finally {
-	    assert noteKeyUnsync(key);
 	}
     }
 
     /* -- Package access methods -- */
 
-    /**
-     * Returns the key map to use for the specified key.
-     *
-     * @param	key the key
-     * @return	the associated key map
-     */
-    Map<K, Lock<K>> getKeyMap(K key) {
-	/* Mask off the sign bit to get a positive value */
-	int index = (key.hashCode() & Integer.MAX_VALUE) % numKeyMaps;
-	return keyMaps[index];
-    }
-
-    /**
-     * Returns the lock associated with the specified key from the key map,
-     * which should be the one returned by calling {@link #getKeyMap
-     * getKeyMap}.  The lock on {@code keyMap} should be held.
-     *
-     * @param	key the key
-     * @param	keyMap the keyMap
-     * @return	the associated lock
-     */
-    Lock<K> getLock(K key, Map<K, Lock<K>> keyMap) {
-	assert Thread.holdsLock(keyMap);
-	Lock<K> lock = keyMap.get(key);
-	if (lock == null) {
-	    lock = new Lock<K>(key);
-	    keyMap.put(key, lock);
-	}
-	return lock;
-    }
-
     /**
      * Attempts to acquire a lock, returning immediately.  Like {@link
      * #lockNoWait}, but does not check that the correct lock manager was
@@ -371,17 +366,7 @@ public class LockManager<K> {
 		    locker.clearConflict();
 		}
 	    }
-	    LockAttemptResult<K> result;
-	    Map<K, Lock<K>> keyMap = getKeyMap(key);
-	    assert noteKeySync(key);
-	    try {
-		synchronized (keyMap) {
-		    Lock<K> lock = getLock(key, keyMap);
-		    result = lock.lock(locker, forWrite, false);
-		}
-	    } finally {
-		assert noteKeyUnsync(key);
-	    }
+	    LockAttemptResult<K> result = lockTableEntry(locker, key, forWrite);
 	    if (result == null) {
 		if (logger.isLoggable(FINER)) {
 		    logger.log(FINER,
@@ -448,17 +433,8 @@ public class LockManager<K> {
 				   locker);
 			return null;
 		    }
-		    Lock<K> lock;
 		    K key = result.request.getKey();
-		    Map<K, Lock<K>> keyMap = getKeyMap(key);
-		    assert noteKeySync(key);
-		    try {
-			synchronized (keyMap) {
-			    lock = getLock(key, keyMap);
-			}
-		    } finally {
-			assert noteKeyUnsync(key);
-		    }
+		    boolean upgrade = result.request.getUpgrade();
 		    long now = System.currentTimeMillis();
 		    long stop = locker.getLockTimeoutTime(now, lockTimeout);
 		    LockConflict<K> conflict = null;
@@ -466,29 +442,19 @@ public class LockManager<K> {
 			if (conflict == null) {
 			    conflict = locker.getConflict();
 			}
-			boolean isOwner;
 			boolean timedOut = false;
 			boolean upgradeFailed = false;
-			assert noteKeySync(key);
-			try {
-			    synchronized (keyMap) {
-				LockRequest<K> owner = lock.getOwner(locker);
-				boolean upgrade = result.request.getUpgrade();
-				isOwner = (owner != null) &&
-				    (!upgrade || owner.getUpgrade());
-				if (!isOwner) {
-				    if (conflict != null) {
-					lock.flushWaiter(locker);
-				    } else if (now >= stop) {
-					timedOut = true;
-					lock.flushWaiter(locker);
-				    } else if (upgrade && owner == null) {
-					upgradeFailed = true;
-				    }
-				}
+			LockRequest<K> owner = checkWaiter(
+			    locker, key, upgrade,
+			    conflict != null || now >= stop);
+			boolean isOwner = (owner != null) &&
+			    (!upgrade || owner.getUpgrade());
+			if (!isOwner && conflict == null) {
+			    if (now >= stop) {
+				timedOut = true;
+			    } else if (upgrade && owner == null) {
+				upgradeFailed = true;
 			    }
-			} finally {
-			    assert noteKeyUnsync(key);
 			}
 			if (isOwner) {
 			    if (conflict != null &&
@@ -512,8 +478,16 @@ public class LockManager<K> {
 			    }
 			    return null;
 			} else if (timedOut) {
+			    /*
+			     * Report a current owner, if any, since the
+			     * locker that blocked the original request may
+			     * have finished long ago
+			     */
+			    Locker<K> conflicting = getOtherOwner(locker, key);
 			    conflict = new LockConflict<K>(
-				LockConflictType.TIMEOUT, result.conflict);
+				LockConflictType.TIMEOUT,
+				(conflicting != null)
+				? conflicting : result.conflict);
 			    break;
 			} else if (upgradeFailed) {
 			    conflict = new LockConflict<K>(
@@ -574,21 +548,51 @@ public class LockManager<K> {
     void releaseLockInternal(Locker<K> locker, K key, boolean downgrade) {
 	checkLockManager(locker);
 	List<Locker<K>> lockersToNotify = Collections.emptyList();
-	Map<K, Lock<K>> keyMap = getKeyMap(key);
-	assert noteKeySync(key);
-	try {
-	    synchronized (keyMap) {
-		/* Don't create the lock if it isn't present */
-		Lock<K> lock = keyMap.get(key);
-		if (lock != null) {
-		    lockersToNotify = lock.release(locker, downgrade);
-		    if (!lock.inUse(this)) {
-			keyMap.remove(key);
+	LockRequest<K> downgraded = null;
+	while (true) {
+	    /* Don't create the lock if it isn't present */
+	    Object entry = lockTable.get(key);
+	    if (entry == null) {
+		break;
+	    } else if (entry instanceof OnlyOwner) {
+		OnlyOwner<K> owner = uncheckedCast(entry);
+		if (owner.request.getLocker() != locker) {
+		    /* Not the owner */
+		    break;
+		} else if (!downgrade) {
+		    if (lockTable.remove(key, owner)) {
+			break;
+		    }
+		} else if (!owner.request.getForWrite()) {
+		    /* Already downgraded */
+		    break;
+		} else {
+		    if (downgraded == null) {
+			downgraded = locker.newLockRequest(key, false, false);
+		    }
+		    if (lockTable.replace(
+			    key, owner, new OnlyOwner<K>(downgraded)))
+		    {
+			break;
 		    }
 		}
+		/* The entry changed -- try again */
+		continue;
 	    }
-	} finally {
-	    assert noteKeyUnsync(key);
+	    Lock<K> lock = uncheckedCast(entry);
+	    assert noteKeySync(key);
+	    try {
+		synchronized (lock) {
+		    if (lock.isRemoved()) {
+			continue;
+		    }
+		    lockersToNotify = lock.release(locker, downgrade);
+		    maybeRemoveLock(lock);
+		}
+	    } finally {
+		assert noteKeyUnsync(key);
+	    }
+	    break;
 	}
 	for (Locker<K> newOwner : lockersToNotify) {
 	    logger.log(FINEST, "notify new owner {0}", newOwner);
@@ -604,7 +608,188 @@ public class LockManager<K> {
     }
 
     /**
-     * Notes the start of synchronization on the map associated with {@code
+     * Attempts to acquire a lock using the lock table, returning immediately.
+     * Returns {@code null} if the locker already owned the lock.  Otherwise,
+     * returns a {@code LockAttemptResult} containing the {@link LockRequest},
+     * with its {@code conflict} field set to {@code null} if the lock was
+     * acquired or a conflicting locker if the lock could not be obtained.
+     *
+     * @param	locker the locker requesting the lock
+     * @param	key the key identifying the lock
+     * @param	forWrite whether to request a write lock
+     * @return	a {@code LockAttemptResult} or {@code null}
+     */
+    private LockAttemptResult<K> lockTableEntry(
+	Locker<K> locker, K key, boolean forWrite)
+    {
+	/*
+	 * Creating a request can have side effects for the locker, so make
+	 * sure to create at most one, and to use it if it was created.
+	 */
+	LockRequest<K> request = null;
+	while (true) {
+	    Object entry = lockTable.get(key);
+	    if (entry == null) {
+		/* Not in use -- try to become the only owner */
+		if (request == null) {
+		    request = locker.newLockRequest(key, forWrite, false);
+		}
+		if (lockTable.putIfAbsent(key, new OnlyOwner<K>(request)) ==
+		    null)
+		{
+		    return new LockAttemptResult<K>(request, null, null);
+		}
+		continue;
+	    } else if (entry instanceof OnlyOwner) {
+		OnlyOwner<K> owner = uncheckedCast(entry);
+		if (owner.request.getLocker() == locker) {
+		    if (!forWrite || owner.request.getForWrite()) {
+			/* Already locked */
+			return null;
+		    }
+		    /* Upgrade -- replace the read request */
+		    if (request == null) {
+			request = locker.newLockRequest(key, true, true);
+		    }
+		    if (lockTable.replace(
+			    key, owner, new OnlyOwner<K>(request)))
+		    {
+			return new LockAttemptResult<K>(request, null, null);
+		    }
+		    continue;
+		}
+		/*
+		 * Another locker is the only owner -- switch to a lock that
+		 * can track multiple owners and waiters
+		 */
+		Lock<K> lock = new Lock<K>(key, owner.request);
+		if (!lockTable.replace(key, owner, lock)) {
+		    continue;
+		}
+		entry = lock;
+	    }
+	    Lock<K> lock = uncheckedCast(entry);
+	    assert noteKeySync(key);
+	    try {
+		synchronized (lock) {
+		    if (!lock.isRemoved()) {
+			return lock.lock(locker, forWrite, false, request);
+		    }
+		}
+	    } finally {
+		assert noteKeyUnsync(key);
+	    }
+	}
+    }
+
+    /**
+     * Checks if a locker waiting for a lock has become an owner, and removes
+     * it from the waiters if {@code flush} is {@code true} and it is not the
+     * owner it is waiting to become.  Returns the lock request with which the
+     * locker owns the lock, or {@code null} if it does not own the lock.
+     *
+     * @param	locker the waiting locker
+     * @param	key the key identifying the lock
+     * @param	upgrade whether the locker is waiting for an upgrade
+     * @param	flush whether to stop waiting if not the owner
+     * @return	the owning lock request or {@code null}
+     */
+    private LockRequest<K> checkWaiter(
+	Locker<K> locker, K key, boolean upgrade, boolean flush)
+    {
+	while (true) {
+	    Object entry = lockTable.get(key);
+	    if (!(entry instanceof Lock)) {
+		/* There are no waiters to flush */
+		OnlyOwner<K> owner = uncheckedCast(entry);
+		return (owner != null && owner.request.getLocker() == locker)
+		    ? owner.request : null;
+	    }
+	    Lock<K> lock = uncheckedCast(entry);
+	    assert noteKeySync(key);
+	    try {
+		synchronized (lock) {
+		    if (lock.isRemoved()) {
+			continue;
+		    }
+		    LockRequest<K> owner = lock.getOwner(locker);
+		    boolean isOwner = (owner != null) &&
+			(!upgrade || owner.getUpgrade());
+		    if (!isOwner && flush) {
+			lock.flushWaiter(locker);
+			maybeRemoveLock(lock);
+		    }
+		    return owner;
+		}
+	    } finally {
+		assert noteKeyUnsync(key);
+	    }
+	}
+    }
+
+    /**
+     * Returns a locker other than the specified one that currently owns the
+     * lock, or {@code null} if there is no such locker.
+     *
+     * @param	locker the locker to ignore
+     * @param	key the key identifying the lock
+     * @return	another owning locker or {@code null}
+     */
+    private Locker<K> getOtherOwner(Locker<K> locker, K key) {
+	while (true) {
+	    Object entry = lockTable.get(key);
+	    if (!(entry instanceof Lock)) {
+		OnlyOwner<K> owner = uncheckedCast(entry);
+		return (owner != null && owner.request.getLocker() != locker)
+		    ? owner.request.getLocker() : null;
+	    }
+	    Lock<K> lock = uncheckedCast(entry);
+	    assert noteKeySync(key);
+	    try {
+		synchronized (lock) {
+		    if (lock.isRemoved()) {
+			continue;
+		    }
+		    for (LockRequest<K> owner : lock.copyOwners(this)) {
+			if (owner.getLocker() != locker) {
+			    return owner.getLocker();
+			}
+		    }
+		    return null;
+		}
+	    } finally {
+		assert noteKeyUnsync(key);
+	    }
+	}
+    }
+
+    /**
+     * Removes a lock from the lock table if it is no longer in use, or
+     * replaces it with the request of its owner if it has a single owner and
+     * no waiters.  The caller should be synchronized on the lock, which
+     * should not have been removed.
+     *
+     * @param	lock the lock
+     */
+    private void maybeRemoveLock(Lock<K> lock) {
+	assert checkKeySync(lock.key);
+	if (!lock.inUse(this)) {
+	    lock.setRemoved(this);
+	    boolean removed = lockTable.remove(lock.key, lock);
+	    assert removed;
+	} else {
+	    LockRequest<K> owner = lock.getOnlyOwner(this);
+	    if (owner != null) {
+		lock.setRemoved(this);
+		boolean replaced = lockTable.replace(
+		    lock.key, lock, new OnlyOwner<K>(owner));
+		assert replaced;
+	    }
+	}
+    }
+
+    /**
+     * Notes the start of synchronization on the lock associated with {@code
      * key}.  Throws {@link AssertionError} if already synchronized on a key,
      * otherwise returns {@code true}.
      *
@@ -615,7 +800,7 @@ public class LockManager<K> {
 	K currentKey = currentKeySync.get();
 	if (currentKey != null) {
 	    throw new AssertionError(
-		"Attempt to synchronize on map for key " + key +
+		"Attempt to synchronize on lock for key " + key +
 		", but already synchronized on " + currentKey);
 	}
 	currentKeySync.set(key);
@@ -623,7 +808,7 @@ public class LockManager<K> {
     }
 
     /**
-     * Notes the end of synchronization on the map associated with {@code key}.
+     * Notes the end of synchronization on the lock associated with {@code key}.
      * Throws {@link AssertionError} if not already synchronized on {@code
      * key}, otherwise returns {@code true}.
      *
@@ -634,11 +819,11 @@ public class LockManager<K> {
 	K currentKey = currentKeySync.get();
 	if (currentKey == null) {
 	    throw new AssertionError(
-		"Attempt to unsynchronize on map for key " + key +
+		"Attempt to unsynchronize on lock for key " + key +
 		", but not currently synchronized on a key");
 	} else if (!currentKey.equals(key)) {
 	    throw new AssertionError(
-		"Attempt to unsynchronize on map for key " + key +
+		"Attempt to unsynchronize on lock for key " + key +
 		", but currently synchronized on " + currentKey);
 	}
 	currentKeySync.remove();
@@ -646,7 +831,7 @@ public class LockManager<K> {
     }
 
     /**
-     * Checks that the current thread is synchronized on the map associated
+     * Checks that the current thread is synchronized on the lock associated
      * with {@code key}, throwing {@link AssertionError} if it is not, and
      * otherwise returning {@code true}.
      *
@@ -666,7 +851,7 @@ public class LockManager<K> {
     }
 
     /**
-     * Checks that the current thread is not synchronized on the map associated
+     * Checks that the current thread is not synchronized on the lock associated
      * with any key, throwing {@link AssertionError} if it is, and otherwise
      * returning {@code true}.
      */
@@ -742,7 +927,28 @@ public class LockManager<K> {
 	return true;
     }
 
-    /* -- Private methods -- */
+    /* -- Private methods and classes -- */
+
+    /**
+     * Holds the request of the only owner of an uncontended lock in the lock
+     * table.  The lock table's atomic operations compare values using {@code
+     * equals}, and lock request subclasses may define equality by key and
+     * access type, so storing requests directly would let a conditional
+     * replace or remove succeed on an equal request made by another locker
+     * after the original request was released.  This class uses identity
+     * for equality, so those operations only succeed if the entry has not
+     * changed.
+     */
+    private static final class OnlyOwner<K> {
+
+	/** The request of the owner. */
+	final LockRequest<K> request;
+
+	/** Creates an instance. */
+	OnlyOwner(LockRequest<K> request) {
+	    this.request = request;
+	}
+    }
 
     /** Checks that the locker has this lock manager. */
     private void checkLockManager(Locker<K> locker) {
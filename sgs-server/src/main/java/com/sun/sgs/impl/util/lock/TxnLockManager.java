@@ -21,12 +21,16 @@
 
 package com.sun.sgs.impl.util.lock;
 
+import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import static java.util.logging.Level.FINER;
 import static java.util.logging.Level.FINEST;
+import static java.util.logging.Level.WARNING;
 import java.util.logging.Logger;
 
 /**
@@ -36,10 +40,20 @@ import java.util.logging.Logger;
  * TxnLocker}. <p>
  *
  * This implementation checks for deadlock whenever a lock request is blocked
- * due to a conflict.  It selects as the deadlock victim the locker with the
- * latest requested start time.  The implementation does not deny requests that
- * would not result in deadlock.  When requests block, it services the requests
- * in the order that they arrive. <p>
+ * due to a conflict, or, if a deadlock check interval is specified,
+ * periodically in a background thread.  It selects as the deadlock victim the
+ * locker with the latest requested start time.  The implementation does not
+ * deny requests that would not result in deadlock.  When requests block, it
+ * services the requests in the order that they arrive. <p>
+ *
+ * The implementation maintains a waits-for graph incrementally: an edge is
+ * added when a locker's request blocks and removed when it stops waiting,
+ * and the lockers it waits for are the owners of the requested lock, which
+ * are updated as locks are granted and released.  Since the graph had no
+ * cycles before a request blocked, any new cycle must pass through the new
+ * edge, so the check for a blocked request only searches from the requesting
+ * locker, and is skipped entirely if none of the owners of the requested
+ * lock are waiting. <p>
  *
  * This class and its {@linkplain LockManager superclass} use the {@link
  * Logger} named {@code com.sun.sgs.impl.util.lock} to log information at the
@@ -57,10 +71,31 @@ import java.util.logging.Logger;
  */
 public final class TxnLockManager<K> extends LockManager<K> {
 
-    /* -- Public constructor -- */
+    /**
+     * The number of milliseconds between background deadlock checks, or
+     * {@code 0} to check when each request blocks.
+     */
+    private final long deadlockCheckInterval;
+
+    /**
+     * The edges of the waits-for graph: maps each locker that is waiting for
+     * a lock to the key of that lock.  The locker waits for the current
+     * owners of that lock.
+     */
+    private final ConcurrentMap<TxnLocker<K>, K> waitsFor =
+	new ConcurrentHashMap<TxnLocker<K>, K>();
+
+    /** The background deadlock detector, or {@code null}. */
+    private final DeadlockDetector<K> detector;
+
+    /** Whether this lock manager has been shut down. */
+    private volatile boolean shutdown = false;
+
+    /* -- Public constructors -- */
 
     /**
-     * Creates an instance of this class.
+     * Creates an instance of this class that checks for deadlock when each
+     * request blocks.
      *
      * @param	lockTimeout the maximum number of milliseconds to acquire a
      *		lock
@@ -69,7 +104,38 @@ public final class TxnLockManager<K> extends LockManager<K> {
      *		numKeyMaps} is less than {@code 1}
      */
     public TxnLockManager(long lockTimeout, int numKeyMaps) {
+	this(lockTimeout, numKeyMaps, 0);
+    }
+
+    /**
+     * Creates an instance of this class that checks for deadlock either
+     * when each request blocks, or periodically in a background thread.
+     *
+     * @param	lockTimeout the maximum number of milliseconds to acquire a
+     *		lock
+     * @param	numKeyMaps the number of separate maps to use for storing keys
+     * @param	deadlockCheckInterval the number of milliseconds between
+     *		background deadlock checks, or {@code 0} to check when each
+     *		request blocks
+     * @throws	IllegalArgumentException if {@code lockTimeout} or {@code
+     *		numKeyMaps} is less than {@code 1}, or if {@code
+     *		deadlockCheckInterval} is less than {@code 0}
+     */
+    public TxnLockManager(
+	long lockTimeout, int numKeyMaps, long deadlockCheckInterval)
+    {
 	super(lockTimeout, numKeyMaps);
+	if (deadlockCheckInterval < 0) {
+	    throw new IllegalArgumentException(
+		"The deadlockCheckInterval must not be less than 0");
+	}
+	this.deadlockCheckInterval = deadlockCheckInterval;
+	if (deadlockCheckInterval > 0) {
+	    detector = new DeadlockDetector<K>(this, deadlockCheckInterval);
+	    detector.start();
+	} else {
+	    detector = null;
+	}
     }
 
     /* -- Public methods -- */
@@ -85,12 +151,26 @@ public final class TxnLockManager<K> extends LockManager<K> {
 	return super.waitForLock(locker);
     }
 
+    /**
+     * Stops the background deadlock detector, if any.  Lock requests can
+     * still be made after this method is called, but deadlocks will only be
+     * resolved by timeouts if a deadlock check interval was specified.
+     */
+    public void shutdown() {
+	shutdown = true;
+	if (detector != null) {
+	    detector.interrupt();
+	}
+    }
+
     /* -- Package access methods -- */
 
     /**
      * {@inheritDoc} <p>
      *
-     * This implementation calls the deadlock checker if the request blocks.
+     * This implementation calls the deadlock checker if the request blocks
+     * and might have caused a deadlock, unless deadlocks are being checked in
+     * the background.
      *
      * @throws	IllegalStateException {@inheritDoc}
      */
@@ -101,7 +181,10 @@ public final class TxnLockManager<K> extends LockManager<K> {
 	checkTxnLocker(locker);
 	LockConflict<K> conflict =
 	    super.lockNoWaitInternal(locker, key, forWrite);
-	if (conflict != null) {
+	if (conflict != null &&
+	    deadlockCheckInterval == 0 &&
+	    mayDeadlock((TxnLocker<K>) locker, key))
+	{
 	    if (logger.isLoggable(FINEST)) {
 		logger.log(FINEST,
 			   "lock attempt {0}, {1}, forWrite:{2}" +
@@ -139,8 +222,56 @@ public final class TxnLockManager<K> extends LockManager<K> {
 	return conflict;
     }
 
+    /**
+     * Records a change in the lock, if any, that a locker is waiting for.
+     *
+     * @param	locker the locker
+     * @param	waitingFor the lock attempt the locker is waiting for, or
+     *		{@code null} if it is not waiting
+     */
+    void noteWaitingFor(
+	TxnLocker<K> locker, LockAttemptResult<K> waitingFor)
+    {
+	if (waitingFor == null) {
+	    waitsFor.remove(locker);
+	} else {
+	    waitsFor.put(locker, waitingFor.request.getKey());
+	}
+    }
+
     /* -- Other methods -- */
 
+    /**
+     * Checks if a new edge from a locker waiting for the lock on the
+     * specified key could have completed a cycle in the waits-for graph,
+     * which requires that the locker be waiting and that at least one of the
+     * other owners of the lock also be waiting.
+     */
+    private boolean mayDeadlock(TxnLocker<K> locker, K key) {
+	if (!waitsFor.containsKey(locker)) {
+	    return false;
+	}
+	for (LockRequest<K> owner : getOwners(key)) {
+	    Locker<K> ownerLocker = owner.getLocker();
+	    if (ownerLocker != locker && waitsFor.containsKey(ownerLocker)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Checks all waiting lockers for deadlocks, choosing victims for any
+     * deadlocks that are found.  Called by the background deadlock detector.
+     */
+    private void checkAllWaiters() {
+	for (TxnLocker<K> locker : waitsFor.keySet()) {
+	    if (locker.getConflict() == null) {
+		new DeadlockChecker(locker).check();
+	    }
+	}
+    }
+
     /** Throws IllegalArgumentException if the argument is not a TxnLocker. */
     private static void checkTxnLocker(Locker<?> locker) {
 	if (locker != null && !(locker instanceof TxnLocker<?>)) {
@@ -297,21 +428,11 @@ public final class TxnLockManager<K> extends LockManager<K> {
 	    WaiterInfo<K> waiterInfo = waiterMap.get(locker);
 	    if (waiterInfo == null) {
 		List<LockRequest<K>> waitingFor;
-		LockAttemptResult<K> result = locker.getWaitingFor();
-		if (result == null || locker.getConflict() != null) {
+		K key = waitsFor.get(locker);
+		if (key == null || locker.getConflict() != null) {
 		    waitingFor = null;
 		} else {
-		    K key = result.request.getKey();
-		    Map<K, Lock<K>> keyMap = getKeyMap(key);
-		    assert TxnLockManager.this.noteKeySync(key);
-		    try {
-			synchronized (keyMap) {
-			    waitingFor = getLock(key, keyMap).copyOwners(
-				TxnLockManager.this);
-			}
-		    } finally {
-			assert TxnLockManager.this.noteKeyUnsync(key);
-		    }
+		    waitingFor = getOwners(key);
 		}
 		waiterInfo = new WaiterInfo<K>(waitingFor);
 		waiterMap.put(locker, waiterInfo);
@@ -379,4 +500,52 @@ public final class TxnLockManager<K> extends LockManager<K> {
 	    this.waitingFor = waitingFor;
 	}
     }
+
+    /**
+     * A daemon thread that periodically checks all waiting lockers for
+     * deadlocks.  The thread only holds a weak reference to the lock manager,
+     * and exits when the lock manager is shut down or is no longer in use.
+     */
+    private static final class DeadlockDetector<K> extends Thread {
+
+	/** A weak reference to the lock manager. */
+	private final WeakReference<TxnLockManager<K>> lockManagerRef;
+
+	/** The number of milliseconds between checks. */
+	private final long interval;
+
+	/**
+	 * Creates an instance of this class as a daemon thread.
+	 *
+	 * @param	lockManager the lock manager
+	 * @param	interval the number of milliseconds between checks
+	 */
+	DeadlockDetector(TxnLockManager<K> lockManager, long interval) {
+	    super("TxnLockManager$DeadlockDetector");
+	    setDaemon(true);
+	    lockManagerRef = new WeakReference<TxnLockManager<K>>(lockManager);
+	    this.interval = interval;
+	}
+
+	/** Checks for deadlocks until the lock manager is shut down. */
+	public void run() {
+	    while (true) {
+		try {
+		    sleep(interval);
+		} catch (InterruptedException e) {
+		    return;
+		}
+		TxnLockManager<K> lockManager = lockManagerRef.get();
+		if (lockManager == null || lockManager.shutdown) {
+		    return;
+		}
+		try {
+		    lockManager.checkAllWaiters();
+		} catch (RuntimeException e) {
+		    logger.logThrow(
+			WARNING, e, "Checking for deadlocks failed");
+		}
+	    }
+	}
+    }
 }
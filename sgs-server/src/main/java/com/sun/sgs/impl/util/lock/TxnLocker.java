@@ -173,4 +173,20 @@ public class TxnLocker<K> extends BasicLocker<K> {
 	    }
 	}
     }
+
+    /* -- Package access methods -- */
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation also records the change in the lock manager's
+     * waits-for graph.
+     *
+     * @throws	IllegalArgumentException {@inheritDoc}
+     */
+    @Override
+    void setWaitingFor(LockAttemptResult<K> waitingFor) {
+	super.setWaitingFor(waitingFor);
+	((TxnLockManager<K>) lockManager).noteWaitingFor(this, waitingFor);
+    }
 }
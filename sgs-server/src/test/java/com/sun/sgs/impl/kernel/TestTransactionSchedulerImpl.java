@@ -21,6 +21,7 @@
 
 package com.sun.sgs.impl.kernel;
 
+import com.sun.sgs.app.NameNotBoundException;
 import com.sun.sgs.app.TaskRejectedException;
 
 import com.sun.sgs.auth.Identity;
@@ -33,14 +34,18 @@ import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
 import com.sun.sgs.kernel.schedule.SchedulerRetryPolicy;
 
+import com.sun.sgs.service.DataService;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionProxy;
 
+import com.sun.sgs.test.util.DummyManagedObject;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.TestAbstractKernelRunnable;
 import com.sun.sgs.tools.test.FilteredNameRunner;
 
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.lang.reflect.Field;
 
@@ -296,6 +301,111 @@ public class TestTransactionSchedulerImpl {
         queue.addTask(new DependentTask(null), null);
     }
 
+    /**
+     * Test coalescing of queued tasks
+     */
+
+    @Test public void coalesceQueuedTasks() throws Exception {
+        startupCoalescing();
+        TaskQueue queue = txnScheduler.createTaskQueue();
+        CountDownLatch gate = new CountDownLatch(1);
+        queue.addTask(new GateTask(gate), taskOwner);
+        AtomicInteger runCount = new AtomicInteger(0);
+        for (int i = 0; i < 10; i++)
+            queue.addTask(new DependentTask(runCount), taskOwner);
+        gate.countDown();
+        for (int i = 0; i < 50 && runCount.get() < 10; i++)
+            Thread.sleep(20L);
+        assertEquals(10, runCount.get());
+        TaskCoalescingStats stats = txnScheduler.getCoalescingStats();
+        assertEquals(1, stats.getTransactionCount());
+        assertEquals(10, stats.getTaskCount());
+        assertEquals(0, stats.getSplitCount());
+    }
+
+    @Test public void coalesceQueuedTasksSplitOnAbort() throws Exception {
+        startupCoalescing();
+        final DataService dataService = serverNode.getDataService();
+        TaskQueue queue = txnScheduler.createTaskQueue();
+        CountDownLatch gate = new CountDownLatch(1);
+        queue.addTask(new GateTask(gate), taskOwner);
+        for (int i = 0; i < 5; i++) {
+            final String name = "task." + i;
+            final boolean fail = (i == 2);
+            queue.addTask(new TestAbstractKernelRunnable() {
+                    public void run() {
+                        dataService.setBinding(name,
+                                               new DummyManagedObject());
+                        if (fail)
+                            throw new RuntimeException("intentionally thrown");
+                    }
+                }, taskOwner);
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        queue.addTask(new TestAbstractKernelRunnable() {
+                public void run() {
+                    done.countDown();
+                }
+            }, taskOwner);
+        gate.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+                public void run() {
+                    for (int i = 0; i < 5; i++) {
+                        try {
+                            dataService.getBinding("task." + i);
+                            assertTrue("task." + i + " was bound", i != 2);
+                        } catch (NameNotBoundException e) {
+                            assertEquals("task." + i + " was not bound",
+                                         2, i);
+                        }
+                    }
+                }
+            }, taskOwner);
+        TaskCoalescingStats stats = txnScheduler.getCoalescingStats();
+        assertEquals(1, stats.getSplitCount());
+        assertEquals(1, stats.getTransactionCount());
+        assertEquals(3, stats.getTaskCount());
+    }
+
+    /**
+     * Test adding consumer threads
+     */
+
+    @Test public void addConsumersForBlockedTasks() throws Exception {
+        startupThreads(2, 8);
+        BlockedTask task = new BlockedTask(20, 20);
+        for (int i = 0; i < 8; i++)
+            txnScheduler.scheduleTask(task, taskOwner);
+        task.awaitDone(8);
+        assertTrue("Expected more than 2 concurrent tasks, found " +
+                   task.getMaxActive(), task.getMaxActive() > 2);
+    }
+
+    @Test public void noAddedConsumersByDefault() throws Exception {
+        startupThreads(2, 2);
+        BlockedTask task = new BlockedTask(20, 20);
+        for (int i = 0; i < 8; i++)
+            txnScheduler.scheduleTask(task, taskOwner);
+        task.awaitDone(8);
+        assertTrue("Expected at most 2 concurrent tasks, found " +
+                   task.getMaxActive(), task.getMaxActive() <= 2);
+    }
+
+    /**
+     * Compares the time to run tasks that block for 1 to 5 milliseconds,
+     * standing in for calls to a remote data store, with and without
+     * adding consumer threads.
+     */
+    @Test public void compareBlockedTaskThroughput() throws Exception {
+        int count = Integer.getInteger("test.count", 400);
+        long fixed = timeBlockedTasks(4, 4, count);
+        long added = timeBlockedTasks(4, 64, count);
+        System.err.println(count + " tasks blocking 1-5 ms:" +
+                           "\n  4 threads: " + fixed + " ms" +
+                           "\n  4-64 threads: " + added + " ms");
+    }
+
     /**
      * Test retry policy
      */
@@ -352,6 +462,58 @@ public class TestTransactionSchedulerImpl {
      * Utility methods.
      */
 
+    private void startupCoalescing() throws Exception {
+        serverNode.shutdown(true);
+        Properties properties =
+            SgsTestNode.getDefaultProperties("TestTransactionSchedulerImpl",
+					     null, null);
+        properties.setProperty(StandardProperties.NODE_TYPE, 
+                               NodeType.coreServerNode.name());
+        properties.setProperty(
+            TransactionSchedulerImpl.COALESCE_MAX_TASKS_PROPERTY, "10");
+        properties.setProperty(
+            TransactionSchedulerImpl.COALESCE_MAX_TIME_PROPERTY, "10000");
+        serverNode = new SgsTestNode("TestTransactionSchedulerImpl",
+                                     null, properties);
+        txnScheduler = (TransactionSchedulerImpl) serverNode.
+                getSystemRegistry().getComponent(TransactionScheduler.class);
+        taskOwner = serverNode.getProxy().getCurrentOwner();
+    }
+
+    private void startupThreads(int threads, int maxThreads)
+        throws Exception
+    {
+        serverNode.shutdown(true);
+        Properties properties =
+            SgsTestNode.getDefaultProperties("TestTransactionSchedulerImpl",
+					     null, null);
+        properties.setProperty(StandardProperties.NODE_TYPE, 
+                               NodeType.coreServerNode.name());
+        properties.setProperty(
+            TransactionSchedulerImpl.CONSUMER_THREADS_PROPERTY,
+            String.valueOf(threads));
+        properties.setProperty(
+            TransactionSchedulerImpl.MAX_CONSUMER_THREADS_PROPERTY,
+            String.valueOf(maxThreads));
+        serverNode = new SgsTestNode("TestTransactionSchedulerImpl",
+                                     null, properties);
+        txnScheduler = (TransactionSchedulerImpl) serverNode.
+                getSystemRegistry().getComponent(TransactionScheduler.class);
+        taskOwner = serverNode.getProxy().getCurrentOwner();
+    }
+
+    private long timeBlockedTasks(int threads, int maxThreads, int count)
+        throws Exception
+    {
+        startupThreads(threads, maxThreads);
+        BlockedTask task = new BlockedTask(1, 5);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++)
+            txnScheduler.scheduleTask(task, taskOwner);
+        task.awaitDone(count);
+        return System.currentTimeMillis() - start;
+    }
+
     private void replaceRetryPolicy(SchedulerRetryPolicy policy)
             throws Exception {
         Field policyField =
@@ -425,6 +587,62 @@ public class TestTransactionSchedulerImpl {
         }
     }
 
+    private static class GateTask implements KernelRunnable {
+        private final CountDownLatch gate;
+        GateTask(CountDownLatch gate) {
+            this.gate = gate;
+        }
+        public String getBaseTaskType() {
+            return GateTask.class.getName();
+        }
+        public void run() throws Exception {
+            gate.await();
+        }
+    }
+
+    private static class BlockedTask extends TestAbstractKernelRunnable {
+        private final long minSleep;
+        private final long maxSleep;
+        private final AtomicInteger active = new AtomicInteger(0);
+        private final AtomicInteger maxActive = new AtomicInteger(0);
+        private int done = 0;
+        BlockedTask(long minSleep, long maxSleep) {
+            this.minSleep = minSleep;
+            this.maxSleep = maxSleep;
+        }
+        public void run() throws Exception {
+            int now = active.incrementAndGet();
+            while (true) {
+                int max = maxActive.get();
+                if (now <= max || maxActive.compareAndSet(max, now))
+                    break;
+            }
+            try {
+                long sleep = minSleep + (long)
+                    (Math.random() * (maxSleep - minSleep + 1));
+                Thread.sleep(sleep);
+            } finally {
+                active.decrementAndGet();
+            }
+            synchronized (this) {
+                done++;
+                notifyAll();
+            }
+        }
+        synchronized void awaitDone(int count) throws InterruptedException {
+            long stop = System.currentTimeMillis() + 10000;
+            while (done < count) {
+                long wait = stop - System.currentTimeMillis();
+                assertTrue("Only " + done + " of " + count + " tasks ran",
+                           wait > 0);
+                wait(wait);
+            }
+        }
+        int getMaxActive() {
+            return maxActive.get();
+        }
+    }
+
     public static class DependentTask implements KernelRunnable {
         private static final Object lock = new Object();
         private static boolean isRunning = false;
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.impl.kernel.LockingAccessCoordinator;
+import com.sun.sgs.impl.kernel.StandardProperties;
+import com.sun.sgs.kernel.NodeType;
+import com.sun.sgs.kernel.TransactionScheduler;
+import com.sun.sgs.service.DataService;
+import com.sun.sgs.test.util.DummyManagedObject;
+import com.sun.sgs.test.util.SgsTestNode;
+import com.sun.sgs.test.util.TestAbstractKernelRunnable;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import com.sun.sgs.tools.test.IntegrationTest;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for the {@code ConflictParkingSchedulerQueue} and {@code
+ * ConflictRetryPolicy} classes when they are plugged in to the {@code
+ * TransactionScheduler}, using a workload where every task updates the same
+ * counter object.  Each test prints the elapsed time and the number of
+ * attempts needed to run the tasks, to compare the parking scheduler with
+ * the default one.
+ */
+@RunWith(FilteredNameRunner.class)
+@IntegrationTest
+public class TestConflictParkingIntegration {
+
+    /** The number of tasks to run. */
+    private static final int tasks = Integer.getInteger("test.tasks", 200);
+
+    /** The number of scheduler threads. */
+    private static final int threads = Integer.getInteger("test.threads", 8);
+
+    /** The number of milliseconds each task holds the counter lock. */
+    private static final long hold = Long.getLong("test.hold", 2);
+
+    private SgsTestNode serverNode = null;
+    private TransactionScheduler txnScheduler;
+    private DataService dataService;
+    private Identity taskOwner;
+
+    /** Per-test shutdown */
+    @After public void shutdown() throws Exception {
+        if (serverNode != null)
+            serverNode.shutdown(true);
+    }
+
+    private void startup(boolean parking) throws Exception {
+        Properties properties =
+            SgsTestNode.getDefaultProperties("TestConflictParkingIntegration",
+					     null, null);
+        properties.setProperty(StandardProperties.NODE_TYPE,
+                               NodeType.coreServerNode.name());
+        properties.setProperty("com.sun.sgs.impl.kernel.access.coordinator",
+                               LockingAccessCoordinator.class.getName());
+        properties.setProperty("com.sun.sgs.impl.kernel.transaction.threads",
+                               String.valueOf(threads));
+        if (parking) {
+            properties.setProperty("com.sun.sgs.impl.kernel.scheduler.queue",
+                                   ConflictParkingSchedulerQueue.class.
+                                   getName());
+            properties.setProperty("com.sun.sgs.impl.kernel.scheduler.retry",
+                                   ConflictRetryPolicy.class.getName());
+        }
+        serverNode = new SgsTestNode("TestConflictParkingIntegration",
+                                     null, properties);
+        txnScheduler = (TransactionScheduler) serverNode.
+                getSystemRegistry().getComponent(TransactionScheduler.class);
+        dataService = serverNode.getDataService();
+        taskOwner = serverNode.getProxy().getCurrentOwner();
+    }
+
+    @Test
+    public void testHotCounterDefault() throws Exception {
+        startup(false);
+        runHotCounter("default");
+    }
+
+    @Test
+    public void testHotCounterParking() throws Exception {
+        startup(true);
+        runHotCounter("parking");
+    }
+
+    private void runHotCounter(String name) throws Exception {
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                DummyManagedObject counter = new DummyManagedObject();
+                counter.value = 0;
+                dataService.setBinding("counter", counter);
+            }
+        }, taskOwner);
+        final AtomicInteger attempts = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < tasks; i++) {
+            txnScheduler.scheduleTask(new TestAbstractKernelRunnable() {
+                public void run() throws Exception {
+                    attempts.incrementAndGet();
+                    DummyManagedObject counter = (DummyManagedObject)
+                        dataService.getBindingForUpdate("counter");
+                    Thread.sleep(hold);
+                    counter.value = ((Integer) counter.value) + 1;
+                }
+            }, taskOwner);
+        }
+        final int[] count = new int[1];
+        long stop = start + 60000;
+        while (count[0] < tasks) {
+            Assert.assertTrue("Timed out with " + count[0] + " tasks done",
+                              System.currentTimeMillis() < stop);
+            Thread.sleep(10);
+            txnScheduler.runTask(new TestAbstractKernelRunnable() {
+                public void run() {
+                    count[0] = (Integer) ((DummyManagedObject)
+                        dataService.getBinding("counter")).value;
+                }
+            }, taskOwner);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertEquals(tasks, count[0]);
+        System.err.println(name + ": " + tasks + " tasks, " +
+                           attempts.get() + " attempts, " +
+                           elapsed + " ms");
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.Properties;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the parking behavior of the {@code ConflictParkingSchedulerQueue}
+ * class.  General queue behavior is covered by {@link
+ * TestSchedulerQueueImpl}.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestConflictParkingSchedulerQueue {
+
+    private ConflictParkingSchedulerQueue queue;
+
+    @Before
+    public void setup() {
+        queue = new ConflictParkingSchedulerQueue(new Properties());
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        queue = null;
+    }
+
+    private static ScheduledTask createTask() {
+        ScheduledTask task = EasyMock.createNiceMock(ScheduledTask.class);
+        EasyMock.replay(task);
+        return task;
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testParkTaskNullTask() {
+        queue.parkTask(null, new DummyTransaction());
+    }
+
+    @Test
+    public void testParkTaskNullTransaction() throws Exception {
+        ScheduledTask task = createTask();
+        queue.parkTask(task, null);
+        Assert.assertSame(task, queue.getNextTask(false));
+        Assert.assertEquals(0, queue.getParkedTaskCount());
+    }
+
+    @Test
+    public void testParkTaskUnknownTransaction() throws Exception {
+        ScheduledTask task = createTask();
+        queue.parkTask(task, new DummyTransaction());
+        Assert.assertSame(task, queue.getNextTask(false));
+        Assert.assertEquals(0, queue.getParkedTaskCount());
+    }
+
+    @Test
+    public void testParkTaskFinishedTransaction() throws Exception {
+        ScheduledTask running = createTask();
+        Transaction txn = new DummyTransaction();
+        queue.notifyTransactionStarted(running, txn);
+        queue.notifyTransactionFinished(running, txn, true);
+        ScheduledTask task = createTask();
+        queue.parkTask(task, txn);
+        Assert.assertSame(task, queue.getNextTask(false));
+        Assert.assertEquals(0, queue.getParkedTaskCount());
+    }
+
+    @Test
+    public void testParkTaskReleasedInOrder() throws Exception {
+        ScheduledTask running = createTask();
+        Transaction txn = new DummyTransaction();
+        queue.notifyTransactionStarted(running, txn);
+        ScheduledTask task1 = createTask();
+        ScheduledTask task2 = createTask();
+        ScheduledTask task3 = createTask();
+        queue.parkTask(task1, txn);
+        queue.parkTask(task2, txn);
+        queue.parkTask(task3, txn);
+        Assert.assertNull(queue.getNextTask(false));
+        Assert.assertEquals(0, queue.getReadyCount());
+        Assert.assertEquals(3, queue.getParkedTaskCount());
+        Assert.assertEquals(3, queue.getCurrentParkedTaskCount());
+        queue.notifyTransactionFinished(running, txn, false);
+        Assert.assertEquals(0, queue.getCurrentParkedTaskCount());
+        Assert.assertEquals(3, queue.getReleasedTaskCount());
+        Assert.assertSame(task1, queue.getNextTask(false));
+        Assert.assertSame(task2, queue.getNextTask(false));
+        Assert.assertSame(task3, queue.getNextTask(false));
+        Assert.assertNull(queue.getNextTask(false));
+    }
+
+    @Test
+    public void testSavedRetryCount() throws Exception {
+        ScheduledTask running = createTask();
+        Transaction txn = new DummyTransaction();
+        queue.notifyTransactionStarted(running, txn);
+        ScheduledTask task1 = createTask();
+        ScheduledTask task2 = createTask();
+        queue.parkTask(task1, txn);
+        queue.parkTask(task2, txn);
+        queue.notifyTransactionFinished(running, txn, true);
+        Assert.assertEquals(0, queue.getSavedRetryCount());
+
+        /* The first released task commits, the second aborts again */
+        Transaction txn1 = new DummyTransaction();
+        queue.notifyTransactionStarted(task1, txn1);
+        queue.notifyTransactionFinished(task1, txn1, true);
+        Transaction txn2 = new DummyTransaction();
+        queue.notifyTransactionStarted(task2, txn2);
+        queue.notifyTransactionFinished(task2, txn2, false);
+        Assert.assertEquals(1, queue.getSavedRetryCount());
+
+        /* Later attempts are not counted */
+        Transaction txn3 = new DummyTransaction();
+        queue.notifyTransactionStarted(task2, txn3);
+        queue.notifyTransactionFinished(task2, txn3, true);
+        Assert.assertEquals(1, queue.getSavedRetryCount());
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.Properties;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for the {@code ConflictRetryPolicy} class in isolation.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestConflictRetryPolicy {
+
+    private ConflictRetryPolicy policy;
+    private ScheduledTask task;
+
+    @Before
+    public void setup() {
+        policy = new ConflictRetryPolicy(new Properties());
+        task = EasyMock.createMock(ScheduledTask.class);
+    }
+
+    @After
+    public void tearDown() {
+        policy = null;
+        task = null;
+    }
+
+    private void setupTask(Throwable result, int tryCount) {
+        EasyMock.expect(task.getLastFailure()).andStubReturn(result);
+        EasyMock.expect(task.getTryCount()).andStubReturn(tryCount);
+        EasyMock.expect(task.getTimeout()).andStubReturn(100L);
+        EasyMock.expect(task.isRecurring()).andStubReturn(false);
+        EasyMock.replay(task);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullTask() {
+        policy.getRetryAction(null);
+    }
+
+    @Test
+    public void testConflictResult() {
+        setupTask(new TransactionConflictException("conflict"), 1);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_LATER,
+                            policy.getRetryAction(task));
+        EasyMock.verify(task);
+    }
+
+    @Test
+    public void testRetryableTrueResult() {
+        setupTask(new RetryableException(true), 1);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_NOW,
+                            policy.getRetryAction(task));
+        EasyMock.verify(task);
+    }
+
+    @Test
+    public void testRetryableTrueResultAboveBackoffThreshold() {
+        setupTask(new RetryableException(true),
+                  NowOrLaterRetryPolicy.DEFAULT_RETRY_BACKOFF_THRESHOLD + 1);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_LATER,
+                            policy.getRetryAction(task));
+        EasyMock.verify(task);
+    }
+
+    @Test
+    public void testRetryableFalseResult() {
+        setupTask(new RetryableException(false), 1);
+        Assert.assertEquals(SchedulerRetryAction.DROP,
+                            policy.getRetryAction(task));
+        EasyMock.verify(task);
+    }
+
+    private static class RetryableException extends Exception
+            implements ExceptionRetryStatus {
+
+        private final boolean retryable;
+
+        public RetryableException(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        public boolean shouldRetry() {
+            return retryable;
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.kernel.Priority;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.Properties;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the ordering behavior of the {@code PrioritySchedulerQueue} class.
+ * General queue behavior is covered by {@link TestSchedulerQueueImpl}.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestPrioritySchedulerQueue {
+
+    private static final long AGING = 50;
+
+    private PrioritySchedulerQueue queue;
+
+    private long now;
+
+    @Before
+    public void setup() {
+        queue = createQueue(AGING);
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        queue = null;
+    }
+
+    private static PrioritySchedulerQueue createQueue(long aging) {
+        Properties props = new Properties();
+        props.setProperty(PrioritySchedulerQueue.AGING_INTERVAL_PROPERTY,
+                          String.valueOf(aging));
+        return new PrioritySchedulerQueue(props);
+    }
+
+    private static ScheduledTask createTask(Priority priority, long start,
+                                            long deadline)
+    {
+        ScheduledTask task = EasyMock.createNiceMock(ScheduledTask.class);
+        EasyMock.expect(task.getPriority()).andStubReturn(priority);
+        EasyMock.expect(task.getStartTime()).andStubReturn(start);
+        EasyMock.expect(task.getDeadline()).andStubReturn(deadline);
+        EasyMock.expect(task.getPeriod()).andStubReturn(
+            (long) ScheduledTask.NON_RECURRING);
+        EasyMock.replay(task);
+        return task;
+    }
+
+    private static ScheduledTask createTask(Priority priority, long start) {
+        return createTask(priority, start, ScheduledTask.NO_DEADLINE);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorNegativeAging() {
+        createQueue(-1);
+    }
+
+    @Test
+    public void testTargetTime() {
+        Assert.assertEquals(
+            now, queue.getTargetTime(createTask(Priority.HIGH, now)));
+        Assert.assertEquals(
+            now + 2 * AGING,
+            queue.getTargetTime(createTask(Priority.MEDIUM, now)));
+        Assert.assertEquals(
+            now + 4 * AGING,
+            queue.getTargetTime(createTask(Priority.LOW, now)));
+    }
+
+    @Test
+    public void testTargetTimeDeadline() {
+        Assert.assertEquals(
+            now + 1, queue.getTargetTime(
+                createTask(Priority.LOW, now, now + 1)));
+        Assert.assertEquals(
+            now, queue.getTargetTime(
+                createTask(Priority.HIGH, now, now + 1)));
+    }
+
+    @Test
+    public void testHigherPriorityFirst() throws Exception {
+        ScheduledTask low = createTask(Priority.LOW, now);
+        ScheduledTask medium = createTask(Priority.MEDIUM, now);
+        ScheduledTask high = createTask(Priority.HIGH, now);
+        queue.addTask(low);
+        queue.addTask(medium);
+        queue.addTask(high);
+        Assert.assertSame(high, queue.getNextTask(false));
+        Assert.assertSame(medium, queue.getNextTask(false));
+        Assert.assertSame(low, queue.getNextTask(false));
+        Assert.assertNull(queue.getNextTask(false));
+    }
+
+    @Test
+    public void testSamePriorityInOrder() throws Exception {
+        ScheduledTask task1 = createTask(Priority.MEDIUM, now);
+        ScheduledTask task2 = createTask(Priority.MEDIUM, now);
+        ScheduledTask task3 = createTask(Priority.MEDIUM, now);
+        queue.addTask(task1);
+        queue.addTask(task2);
+        queue.addTask(task3);
+        Assert.assertSame(task1, queue.getNextTask(false));
+        Assert.assertSame(task2, queue.getNextTask(false));
+        Assert.assertSame(task3, queue.getNextTask(false));
+    }
+
+    @Test
+    public void testAgedTaskRunsFirst() throws Exception {
+        // a low priority task that has waited longer than its allowance
+        // runs ahead of a high priority task that has just become ready
+        ScheduledTask low = createTask(Priority.LOW, now - 5 * AGING);
+        ScheduledTask high = createTask(Priority.HIGH, now);
+        queue.addTask(high);
+        queue.addTask(low);
+        Assert.assertSame(low, queue.getNextTask(false));
+        Assert.assertSame(high, queue.getNextTask(false));
+    }
+
+    @Test
+    public void testNoStarvation() throws Exception {
+        // use start times in the past so that no task is delayed
+        long start = now - 10 * AGING;
+        ScheduledTask low = createTask(Priority.LOW, start);
+        queue.addTask(low);
+        // a steady stream of high priority tasks cannot delay the low
+        // priority task beyond its allowance
+        int ahead = 0;
+        for (long t = start; t < now; t++) {
+            queue.addTask(createTask(Priority.HIGH, t));
+            if (queue.getNextTask(false) == low) {
+                break;
+            }
+            ahead++;
+        }
+        Assert.assertEquals(4 * AGING, ahead);
+    }
+
+    @Test
+    public void testDeadlineRunsFirst() throws Exception {
+        ScheduledTask high = createTask(Priority.HIGH, now);
+        ScheduledTask low = createTask(Priority.LOW, now, now - 1);
+        queue.addTask(high);
+        queue.addTask(low);
+        Assert.assertSame(low, queue.getNextTask(false));
+        Assert.assertSame(high, queue.getNextTask(false));
+    }
+
+    @Test
+    public void testZeroAgingIgnoresPriority() throws Exception {
+        queue.shutdown();
+        queue = createQueue(0);
+        ScheduledTask low = createTask(Priority.LOW, now);
+        ScheduledTask high = createTask(Priority.HIGH, now);
+        queue.addTask(low);
+        queue.addTask(high);
+        Assert.assertSame(low, queue.getNextTask(false));
+        Assert.assertSame(high, queue.getNextTask(false));
+    }
+}
@@ -68,6 +68,10 @@ public class TestSchedulerQueueImpl {
         LinkedList<String[]> params = new LinkedList<String[]>();
         params.add(new String [] {FIFOSchedulerQueue.class.getName()});
         params.add(new String [] {WindowSchedulerQueue.class.getName()});
+        params.add(new String [] {
+                ConflictParkingSchedulerQueue.class.getName()});
+        params.add(new String [] {ShardedSchedulerQueue.class.getName()});
+        params.add(new String [] {PrioritySchedulerQueue.class.getName()});
         return params;
     }
 
@@ -659,6 +663,7 @@ public class TestSchedulerQueueImpl {
         public long getStartTime() { return start; }
         public long getPeriod() { return period; }
         public long getTimeout() { return timeout; }
+        public long getDeadline() { return NO_DEADLINE; }
         public Throwable getLastFailure() { return lastFailure; }
         public void setPriority(Priority priority) {
 
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.impl.kernel.StandardProperties;
+import com.sun.sgs.kernel.NodeType;
+import com.sun.sgs.kernel.TransactionScheduler;
+import com.sun.sgs.test.util.DummyIdentity;
+import com.sun.sgs.test.util.SgsTestNode;
+import com.sun.sgs.test.util.TestAbstractKernelRunnable;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import com.sun.sgs.tools.test.IntegrationTest;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the throughput of the {@code TransactionScheduler} running empty
+ * transactional tasks with each {@code SchedulerQueue} implementation and
+ * various numbers of consumer threads.  The thread counts can be specified
+ * with the {@code test.threads} property as a comma-separated list, and the
+ * number of tasks with the {@code test.tasks} property.
+ */
+@RunWith(FilteredNameRunner.class)
+@IntegrationTest
+public class TestSchedulerQueueThroughput {
+
+    /** The number of tasks to run for each measurement. */
+    private static final int tasks = Integer.getInteger("test.tasks", 50000);
+
+    /** The numbers of consumer threads to measure. */
+    private static final String threads =
+        System.getProperty("test.threads", "4,16,64,128");
+
+    /** The number of distinct task owners. */
+    private static final int owners = Integer.getInteger("test.owners", 64);
+
+    private SgsTestNode serverNode = null;
+
+    /** Per-test shutdown */
+    @After public void shutdown() throws Exception {
+        if (serverNode != null)
+            serverNode.shutdown(true);
+        serverNode = null;
+    }
+
+    @Test
+    public void testFIFOSchedulerQueue() throws Exception {
+        measure(FIFOSchedulerQueue.class.getName());
+    }
+
+    @Test
+    public void testWindowSchedulerQueue() throws Exception {
+        measure(WindowSchedulerQueue.class.getName());
+    }
+
+    @Test
+    public void testShardedSchedulerQueue() throws Exception {
+        measure(ShardedSchedulerQueue.class.getName());
+    }
+
+    @Test
+    public void testPrioritySchedulerQueue() throws Exception {
+        measure(PrioritySchedulerQueue.class.getName());
+    }
+
+    private void measure(String queueClass) throws Exception {
+        for (String count : threads.split(",")) {
+            shutdown();
+            int numThreads = Integer.parseInt(count.trim());
+            Properties properties = SgsTestNode.getDefaultProperties(
+                "TestSchedulerQueueThroughput", null, null);
+            properties.setProperty(StandardProperties.NODE_TYPE,
+                                   NodeType.coreServerNode.name());
+            properties.setProperty(
+                "com.sun.sgs.impl.kernel.scheduler.queue", queueClass);
+            properties.setProperty(
+                "com.sun.sgs.impl.kernel.transaction.threads",
+                String.valueOf(numThreads));
+            serverNode = new SgsTestNode("TestSchedulerQueueThroughput",
+                                         null, properties);
+            TransactionScheduler txnScheduler =
+                (TransactionScheduler) serverNode.getSystemRegistry().
+                getComponent(TransactionScheduler.class);
+            Identity[] taskOwners = new Identity[owners];
+            for (int i = 0; i < owners; i++) {
+                taskOwners[i] = new DummyIdentity("owner" + i);
+            }
+            final CountDownLatch done = new CountDownLatch(tasks);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < tasks; i++) {
+                txnScheduler.scheduleTask(new TestAbstractKernelRunnable() {
+                    public void run() {
+                        done.countDown();
+                    }
+                }, taskOwners[i % owners]);
+            }
+            Assert.assertTrue(done.await(120, TimeUnit.SECONDS));
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            System.err.println(
+                queueClass + ", " + numThreads + " threads: " +
+                (tasks * 1000L / elapsed) + " tasks/s");
+        }
+    }
+
+}
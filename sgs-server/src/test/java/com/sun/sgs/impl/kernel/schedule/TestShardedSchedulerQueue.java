@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.Properties;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the cancellation behavior of the {@code ShardedSchedulerQueue}
+ * class.  General queue behavior is covered by {@link
+ * TestSchedulerQueueImpl}.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestShardedSchedulerQueue {
+
+    private ShardedSchedulerQueue queue;
+
+    @Before
+    public void setup() {
+        Properties props = new Properties();
+        props.setProperty(ShardedSchedulerQueue.SHARDS_PROPERTY, "4");
+        queue = new ShardedSchedulerQueue(props);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        queue = null;
+    }
+
+    private static ScheduledTask createTask(Identity owner) {
+        ScheduledTask task = EasyMock.createNiceMock(ScheduledTask.class);
+        EasyMock.expect(task.getOwner()).andStubReturn(owner);
+        EasyMock.expect(task.getStartTime()).andStubReturn(
+            System.currentTimeMillis());
+        EasyMock.expect(task.getPeriod()).andStubReturn(
+            (long) ScheduledTask.NON_RECURRING);
+        EasyMock.replay(task);
+        return task;
+    }
+
+    private static Identity createOwner(String name) {
+        Identity owner = EasyMock.createNiceMock(Identity.class);
+        EasyMock.expect(owner.getName()).andStubReturn(name);
+        EasyMock.replay(owner);
+        return owner;
+    }
+
+    @Test
+    public void testNotifyCancelledRemovesTask() throws Exception {
+        Identity owner = createOwner("owner");
+        ScheduledTask task1 = createTask(owner);
+        ScheduledTask task2 = createTask(owner);
+        ScheduledTask task3 = createTask(owner);
+        queue.addTask(task1);
+        queue.addTask(task2);
+        queue.addTask(task3);
+        queue.notifyCancelled(task2);
+        Assert.assertEquals(2, queue.getReadyCount());
+        Assert.assertSame(task1, queue.getNextTask(false));
+        Assert.assertSame(task3, queue.getNextTask(false));
+        Assert.assertNull(queue.getNextTask(false));
+        Assert.assertEquals(0, queue.getReadyCount());
+    }
+
+    @Test
+    public void testNotifyCancelledOtherOwners() throws Exception {
+        ScheduledTask[] tasks = new ScheduledTask[8];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = createTask(createOwner("owner" + i));
+            queue.addTask(tasks[i]);
+        }
+        for (int i = 0; i < tasks.length; i += 2) {
+            queue.notifyCancelled(tasks[i]);
+        }
+        Assert.assertEquals(tasks.length / 2, queue.getReadyCount());
+        for (int i = 0; i < tasks.length / 2; i++) {
+            ScheduledTask task = queue.getNextTask(false);
+            Assert.assertNotNull(task);
+            for (int j = 0; j < tasks.length; j += 2) {
+                Assert.assertNotSame(tasks[j], task);
+            }
+        }
+        Assert.assertNull(queue.getNextTask(false));
+    }
+
+    @Test
+    public void testNotifyCancelledNotQueued() throws Exception {
+        ScheduledTask queued = createTask(null);
+        queue.addTask(queued);
+        queue.notifyCancelled(createTask(null));
+        Assert.assertEquals(1, queue.getReadyCount());
+        Assert.assertSame(queued, queue.getNextTask(false));
+        // cancelling a task that has already been taken has no effect
+        queue.notifyCancelled(queued);
+        Assert.assertEquals(0, queue.getReadyCount());
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.protocol.simple;
+
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.impl.nio.AttachedFuture;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.protocol.simple.SimpleSgsProtocol;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests sending channel messages with {@link SimpleSgsProtocolImpl}. */
+@RunWith(FilteredNameRunner.class)
+public class TestSimpleSgsProtocolImplChannelMessage {
+
+    /** The logger for the protocols. */
+    private static final LoggerWrapper logger = new LoggerWrapper(
+	Logger.getLogger(
+	    TestSimpleSgsProtocolImplChannelMessage.class.getName()));
+
+    /** The channel ID. */
+    private static final BigInteger channelId = BigInteger.valueOf(1234);
+
+    /* -- Tests -- */
+
+    @Test
+    public void testChannelMessageSharedBuffer() {
+	ByteBuffer message =
+	    ByteBuffer.wrap(new byte[] { 1, 2, 3 }).asReadOnlyBuffer();
+	RecordingChannel[] channels = new RecordingChannel[3];
+	for (int i = 0; i < channels.length; i++) {
+	    channels[i] = new RecordingChannel();
+	    createProtocol(channels[i]).channelMessage(
+		channelId, message, Delivery.RELIABLE);
+	}
+	assertEquals(0, message.position());
+	for (RecordingChannel channel : channels) {
+	    assertEquals(1, channel.count);
+	    assertArrayEquals(expected(new byte[] { 1, 2, 3 }), channel.last);
+	}
+    }
+
+    @Test
+    public void testChannelMessageModifiedBuffer() {
+	byte[] bytes = { 1, 2, 3 };
+	ByteBuffer message = ByteBuffer.wrap(bytes);
+	RecordingChannel channel = new RecordingChannel();
+	SimpleSgsProtocolImpl protocol = createProtocol(channel);
+	protocol.channelMessage(channelId, message, Delivery.RELIABLE);
+	assertArrayEquals(expected(new byte[] { 1, 2, 3 }), channel.last);
+	bytes[1] = 7;
+	protocol.channelMessage(channelId, message, Delivery.RELIABLE);
+	assertArrayEquals(expected(new byte[] { 1, 7, 3 }), channel.last);
+    }
+
+    @Test
+    public void testChannelMessageSharedBufferNewPosition() {
+	ByteBuffer message =
+	    ByteBuffer.wrap(new byte[] { 1, 2, 3 }).asReadOnlyBuffer();
+	RecordingChannel channel = new RecordingChannel();
+	SimpleSgsProtocolImpl protocol = createProtocol(channel);
+	protocol.channelMessage(channelId, message, Delivery.RELIABLE);
+	message.position(1);
+	protocol.channelMessage(channelId, message, Delivery.RELIABLE);
+	assertArrayEquals(expected(new byte[] { 2, 3 }), channel.last);
+	protocol.channelMessage(
+	    BigInteger.valueOf(99), message, Delivery.RELIABLE);
+	assertEquals(99, channel.last[5]);
+    }
+
+    @Test
+    public void testEncodedChannelMessage() {
+	ByteBuffer encoded = createProtocol(new RecordingChannel()).
+	    encodeChannelMessage(
+		channelId, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+	assertTrue(encoded.isReadOnly());
+	RecordingChannel[] channels = new RecordingChannel[3];
+	for (int i = 0; i < channels.length; i++) {
+	    channels[i] = new RecordingChannel();
+	    createProtocol(channels[i]).encodedChannelMessage(
+		encoded.duplicate(), Delivery.RELIABLE);
+	}
+	assertEquals(0, encoded.position());
+	for (RecordingChannel channel : channels) {
+	    assertEquals(1, channel.count);
+	    assertArrayEquals(expected(new byte[] { 1, 2, 3 }), channel.last);
+	}
+    }
+
+    @Test
+    public void testChannelMessageWriteBufferOverride() {
+	RecordingChannel channel = new RecordingChannel();
+	final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+	SimpleSgsProtocolImpl protocol =
+	    new SimpleSgsProtocolImpl(null, null, channel, 1024, logger) {
+		protected void writeBuffer(ByteBuffer buf, Delivery delivery) {
+		    buffers.add(buf.duplicate());
+		    super.writeBuffer(buf, delivery);
+		}
+	    };
+	protocol.loginSuccess();
+	channel.count = 0;
+	buffers.clear();
+	protocol.channelMessage(
+	    channelId, ByteBuffer.wrap(new byte[] { 1, 2, 3 }),
+	    Delivery.RELIABLE);
+	assertEquals(0, buffers.size());
+	assertEquals(1, channel.count);
+	channel.count = 0;
+	protocol.channelMessage(
+	    channelId, ByteBuffer.wrap(new byte[] { 1, 2, 3 }),
+	    Delivery.UNRELIABLE);
+	assertEquals(1, buffers.size());
+	byte[] expected = expected(new byte[] { 1, 2, 3 });
+	byte[] written = new byte[buffers.get(0).remaining()];
+	buffers.get(0).get(written);
+	assertArrayEquals(
+	    Arrays.copyOfRange(expected, 2, expected.length), written);
+	assertEquals(1, channel.count);
+	assertArrayEquals(expected, channel.last);
+    }
+
+    /**
+     * Compares the time to send a channel message to 10 through 10,000
+     * members, framing the message for each member versus sending a single
+     * encoded message to all of them.
+     */
+    @Test
+    public void testChannelMessagePerformance() {
+	int repeat = Integer.getInteger("test.repeat", 20);
+	int size = Integer.getInteger("test.message.size", 100);
+	for (int members = 10; members <= 10000; members *= 10) {
+	    SimpleSgsProtocolImpl[] protocols =
+		new SimpleSgsProtocolImpl[members];
+	    for (int i = 0; i < members; i++) {
+		protocols[i] = createProtocol(new RecordingChannel());
+	    }
+	    for (int shared = 0; shared < 2; shared++) {
+		long start = System.nanoTime();
+		for (int r = 0; r < repeat; r++) {
+		    ByteBuffer message = ByteBuffer.wrap(new byte[size]);
+		    ByteBuffer encoded = (shared == 1)
+			? protocols[0].encodeChannelMessage(channelId, message)
+			: null;
+		    for (SimpleSgsProtocolImpl protocol : protocols) {
+			if (encoded != null) {
+			    protocol.encodedChannelMessage(
+				encoded.duplicate(), Delivery.RELIABLE);
+			} else {
+			    protocol.channelMessage(
+				channelId, message, Delivery.RELIABLE);
+			}
+		    }
+		}
+		long elapsed = System.nanoTime() - start;
+		System.err.println(
+		    (shared == 1 ? "shared" : "copied") +
+		    " members:" + members +
+		    " messages/second:" +
+		    (1000000000L * repeat * members / Math.max(1, elapsed)));
+	    }
+	}
+    }
+
+    /* -- Other methods and classes -- */
+
+    /** Creates a protocol that has handled login. */
+    private static SimpleSgsProtocolImpl createProtocol(
+	RecordingChannel channel)
+    {
+	SimpleSgsProtocolImpl protocol =
+	    new SimpleSgsProtocolImpl(null, null, channel, 1024, logger);
+	protocol.loginSuccess();
+	channel.count = 0;
+	return protocol;
+    }
+
+    /** Returns the bytes expected to be written for a channel message. */
+    private static byte[] expected(byte[] message) {
+	byte[] id = channelId.toByteArray();
+	ByteBuffer buf = ByteBuffer.allocate(5 + id.length + message.length);
+	buf.putShort((short) (3 + id.length + message.length)).
+	    put(SimpleSgsProtocol.CHANNEL_MESSAGE).
+	    putShort((short) id.length).
+	    put(id).
+	    put(message);
+	return buf.array();
+    }
+
+    /**
+     * A channel that completes writes immediately, recording the number of
+     * writes and the bytes of the last one.
+     */
+    private static class RecordingChannel implements AsynchronousByteChannel {
+	int count;
+	byte[] last;
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, A attachment,
+	    CompletionHandler<Integer, ? super A> handler)
+	{
+	    throw new UnsupportedOperationException();
+	}
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, CompletionHandler<Integer, ? super A> handler)
+	{
+	    throw new UnsupportedOperationException();
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, A attachment,
+	    CompletionHandler<Integer, ? super A> handler)
+	{
+	    final int n = src.remaining();
+	    count++;
+	    last = new byte[n];
+	    src.get(last);
+	    FutureTask<Integer> task = new FutureTask<Integer>(
+		new Callable<Integer>() {
+		    public Integer call() {
+			return n;
+		    }
+		});
+	    task.run();
+	    IoFuture<Integer, A> result =
+		AttachedFuture.wrap(task, attachment);
+	    if (handler != null) {
+		complete(handler, result);
+	    }
+	    return result;
+	}
+
+	/** Notifies the handler that the write has completed. */
+	@SuppressWarnings("unchecked")
+	private static <A> void complete(
+	    CompletionHandler<Integer, ? super A> handler,
+	    IoFuture<Integer, A> result)
+	{
+	    ((CompletionHandler<Integer, A>) handler).completed(result);
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, CompletionHandler<Integer, ? super A> handler)
+	{
+	    return write(src, null, handler);
+	}
+
+	public boolean isOpen() {
+	    return true;
+	}
+
+	public void close() { }
+    }
+}
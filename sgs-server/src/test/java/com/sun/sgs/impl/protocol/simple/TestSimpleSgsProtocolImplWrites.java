@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.protocol.simple;
+
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.nio.channels.AsynchronousChannelGroup;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
+import com.sun.sgs.protocol.simple.SimpleSgsProtocol;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests writing queued messages with {@link SimpleSgsProtocolImpl} over a
+ * loopback socket, with and without gathering writes.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestSimpleSgsProtocolImplWrites {
+
+    /** The logger for the protocols. */
+    private static final LoggerWrapper logger = new LoggerWrapper(
+	Logger.getLogger(TestSimpleSgsProtocolImplWrites.class.getName()));
+
+    /** The number of milliseconds to wait for writes to complete. */
+    private static final long WAIT = 10000;
+
+    /** The executor for the channel group. */
+    private ExecutorService executor;
+
+    /** The channel group. */
+    private AsynchronousChannelGroup group;
+
+    /** The server socket accepting connections from the protocols. */
+    private ServerSocket serverSocket;
+
+    @Before
+    public void setUp() throws Exception {
+	executor = Executors.newCachedThreadPool();
+	group = AsynchronousChannelGroup.open(executor);
+	serverSocket = new ServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	if (serverSocket != null) {
+	    serverSocket.close();
+	}
+	if (group != null) {
+	    group.shutdownNow();
+	}
+	if (executor != null) {
+	    executor.shutdownNow();
+	}
+    }
+
+    /* -- Tests -- */
+
+    @Test
+    public void testGatheringWrites() throws Exception {
+	checkWrites(SimpleSgsProtocolAcceptor.DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    @Test
+    public void testGatheringWritesSmallBuffer() throws Exception {
+	checkWrites(100);
+    }
+
+    @Test
+    public void testUnbatchedWrites() throws Exception {
+	Connection connection = checkWrites(0);
+	assertEquals(connection.protocol.getWriteMessageCount(),
+		     connection.protocol.getWriteCount());
+    }
+
+    /**
+     * Measures the number of messages per second written to a single
+     * connection for payloads of 32 through 512 bytes, writing messages one
+     * at a time versus with gathering writes.
+     */
+    @Test
+    public void testWritePerformance() throws Exception {
+	int count = Integer.getInteger("test.message.count", 20000);
+	int[] bufferSizes =
+	    { 0, SimpleSgsProtocolAcceptor.DEFAULT_WRITE_BUFFER_SIZE };
+	for (int size = 32; size <= 512; size *= 2) {
+	    for (int bufferSize : bufferSizes) {
+		Connection connection = connect(bufferSize);
+		ByteBuffer message = ByteBuffer.wrap(new byte[size]);
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+		    connection.protocol.sessionMessage(
+			message.duplicate(), Delivery.RELIABLE);
+		}
+		connection.awaitMessages(count);
+		long elapsed = System.nanoTime() - start;
+		SimpleSgsProtocolImpl protocol = connection.protocol;
+		System.err.println(
+		    "payload:" + size +
+		    " write.buffer.size:" + bufferSize +
+		    " messages/second:" +
+		    (1000000000L * count / Math.max(1, elapsed)) +
+		    " messages/write:" +
+		    (protocol.getWriteMessageCount() /
+		     Math.max(1, protocol.getWriteCount())));
+		connection.close();
+	    }
+	}
+    }
+
+    /* -- Other methods and classes -- */
+
+    /**
+     * Writes messages of varying sizes using the specified write buffer
+     * size, and checks that the messages are received intact and in order,
+     * and that the write statistics are consistent.
+     */
+    private Connection checkWrites(int writeBufferSize) throws Exception {
+	Connection connection = connect(writeBufferSize);
+	connection.checkContents = true;
+	int count = 500;
+	long bytes = connection.loginBytes;
+	for (int i = 0; i < count; i++) {
+	    byte[] payload = new byte[32 + (i % 481)];
+	    for (int j = 0; j < payload.length; j++) {
+		payload[j] = (byte) (i + j);
+	    }
+	    bytes += payload.length + 3;
+	    connection.protocol.sessionMessage(
+		ByteBuffer.wrap(payload), Delivery.RELIABLE);
+	}
+	connection.awaitMessages(count);
+	SimpleSgsProtocolImpl protocol = connection.protocol;
+	long start = System.currentTimeMillis();
+	while (protocol.getWriteMessageCount() < count + 1 &&
+	       System.currentTimeMillis() - start < WAIT)
+	{
+	    Thread.sleep(10);
+	}
+	/* Includes the login success message */
+	assertEquals(count + 1, protocol.getWriteMessageCount());
+	assertEquals(bytes, protocol.getWriteByteCount());
+	assertTrue(protocol.getWriteCount() <= count + 1);
+	System.err.println("write.buffer.size:" + writeBufferSize +
+			   " writes:" + protocol.getWriteCount());
+	connection.close();
+	return connection;
+    }
+
+    /**
+     * Returns a connection with a protocol that uses the specified write
+     * buffer size and has handled login.
+     */
+    private Connection connect(int writeBufferSize) throws Exception {
+	AsynchronousSocketChannel channel =
+	    AsynchronousSocketChannel.open(group);
+	channel.connect(
+	    new InetSocketAddress("localhost", serverSocket.getLocalPort()),
+	    null).get();
+	Connection connection = new Connection(
+	    serverSocket.accept(),
+	    new SimpleSgsProtocolImpl(
+		null, null, channel, 1024, writeBufferSize, logger));
+	connection.protocol.loginSuccess();
+	connection.awaitLogin();
+	return connection;
+    }
+
+    /**
+     * A connection between a protocol and a socket that reads and checks
+     * the messages it writes.
+     */
+    private static class Connection {
+	final Socket socket;
+	final DataInputStream in;
+	final SimpleSgsProtocolImpl protocol;
+	boolean checkContents = false;
+	int loginBytes;
+	private int received = 0;
+
+	Connection(Socket socket, SimpleSgsProtocolImpl protocol)
+	    throws IOException
+	{
+	    this.socket = socket;
+	    this.protocol = protocol;
+	    socket.setSoTimeout((int) WAIT);
+	    in = new DataInputStream(socket.getInputStream());
+	}
+
+	/** Reads the login success message. */
+	void awaitLogin() throws IOException {
+	    byte[] frame = new byte[in.readUnsignedShort()];
+	    in.readFully(frame);
+	    assertEquals(SimpleSgsProtocol.LOGIN_SUCCESS, frame[0]);
+	    loginBytes = frame.length + 2;
+	}
+
+	/**
+	 * Reads session messages until the specified number have been
+	 * received, checking their contents if requested.
+	 */
+	void awaitMessages(int count) throws IOException {
+	    while (received < count) {
+		byte[] frame = new byte[in.readUnsignedShort()];
+		in.readFully(frame);
+		if (frame[0] != SimpleSgsProtocol.SESSION_MESSAGE) {
+		    fail("Unexpected opcode: " + frame[0]);
+		}
+		if (checkContents) {
+		    assertEquals(32 + (received % 481), frame.length - 1);
+		    for (int j = 1; j < frame.length; j++) {
+			assertEquals((byte) (received + j - 1), frame[j]);
+		    }
+		}
+		received++;
+	    }
+	}
+
+	void close() throws IOException {
+	    protocol.close();
+	    socket.close();
+	}
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests how {@link DataStoreClientMultiplexed} handles requests that are
+ * abandoned while waiting for a reply.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestDataStoreClientMultiplexed extends Assert {
+
+    /** Released to let the first newNodeId call on the server return. */
+    private final CountDownLatch releaseFirst = new CountDownLatch(1);
+
+    /** Counted down when the first newNodeId call has started. */
+    private final CountDownLatch firstStarted = new CountDownLatch(1);
+
+    /** Counted down when the first newNodeId call has returned. */
+    private final CountDownLatch firstReturned = new CountDownLatch(1);
+
+    /** The number of newNodeId calls made on the server. */
+    private final AtomicInteger newNodeIdCalls = new AtomicInteger();
+
+    /** The server. */
+    private DataStoreServerMultiplexed server;
+
+    /** The client. */
+    private DataStoreClientMultiplexed client;
+
+    /** Creates the server and client. */
+    @Before
+    public void setUp() throws Exception {
+	server = new DataStoreServerMultiplexed(createServer(), 0, 2);
+	client = new DataStoreClientMultiplexed(
+	    "localhost", server.getLocalPort(), 1);
+    }
+
+    /** Shuts down the server and client. */
+    @After
+    public void tearDown() throws Exception {
+	releaseFirst.countDown();
+	if (client != null) {
+	    client.shutdown();
+	    client = null;
+	}
+	if (server != null) {
+	    server.shutdown();
+	    server = null;
+	}
+    }
+
+    /* -- Tests -- */
+
+    /**
+     * Tests that a request made after a thread is interrupted while waiting
+     * for a reply does not receive the reply to the abandoned request, even
+     * if that reply arrives first.
+     */
+    @Test
+    public void testInterruptedWaitingForReply() throws Exception {
+	final AtomicReference<Throwable> failure =
+	    new AtomicReference<Throwable>();
+	final AtomicReference<Long> secondReply = new AtomicReference<Long>();
+	final CountDownLatch interrupted = new CountDownLatch(1);
+	Thread thread = new Thread() {
+	    public void run() {
+		try {
+		    try {
+			client.newNodeId();
+			fail("Expected InterruptedIOException");
+		    } catch (InterruptedIOException e) {
+			System.err.println(e);
+		    }
+		    assertTrue("Interrupt status should be set",
+			       Thread.interrupted());
+		    interrupted.countDown();
+		    secondReply.set(client.newNodeId());
+		} catch (Throwable t) {
+		    failure.set(t);
+		}
+	    }
+	};
+	thread.start();
+	assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+	thread.interrupt();
+	/* Release the first call after the interrupt has been seen */
+	interrupted.await(10, TimeUnit.SECONDS);
+	releaseFirst.countDown();
+	thread.join(10000);
+	assertFalse("Thread should be done", thread.isAlive());
+	if (failure.get() != null) {
+	    throw new Exception("Unexpected exception: " + failure.get(),
+				failure.get());
+	}
+	assertEquals(Long.valueOf(2), secondReply.get());
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Creates a server whose newNodeId method returns the number of times it
+     * has been called.  The first call waits until released.  Later calls
+     * wait until the first call has returned, and then wait a bit more so
+     * that the reply to the first call is delivered before theirs.
+     */
+    private DataStoreServer createServer() {
+	return (DataStoreServer) Proxy.newProxyInstance(
+	    DataStoreServer.class.getClassLoader(),
+	    new Class<?>[] { DataStoreServer.class },
+	    new InvocationHandler() {
+		public Object invoke(Object proxy, Method method, Object[] args)
+		    throws Exception
+		{
+		    if (!method.getName().equals("newNodeId")) {
+			throw new IOException(
+			    "Unexpected call: " + method.getName());
+		    }
+		    long result = newNodeIdCalls.incrementAndGet();
+		    if (result == 1) {
+			firstStarted.countDown();
+			releaseFirst.await();
+			firstReturned.countDown();
+		    } else {
+			firstReturned.await();
+			Thread.sleep(200);
+		    }
+		    return result;
+		}
+	    });
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import com.sun.sgs.impl.service.data.store.DataStoreImpl;
+import com.sun.sgs.test.impl.service.data.store.BasicDataStoreTestEnv;
+import static com.sun.sgs.test.util.UtilProperties.createProperties;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import com.sun.sgs.tools.test.IntegrationTest;
+import java.io.File;
+import java.io.IOException;
+import java.rmi.registry.LocateRegistry;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the performance of the ways that {@link DataStoreClient} can
+ * communicate with {@link DataStoreServerImpl}: Java RMI, the experimental
+ * blocking socket protocol, and the experimental pipelined protocol that
+ * multiplexes requests over shared connections.  Each test runs a number of
+ * concurrent threads, each of which runs transactions that read a few shared
+ * objects and write one object of its own, and prints the average time per
+ * transaction for each number of threads.
+ */
+@IntegrationTest
+@RunWith(FilteredNameRunner.class)
+public class TestDataStoreProtocolPerformance extends Assert {
+
+    /** The name of the DataStoreImpl class. */
+    private static final String DataStoreImplClass =
+	DataStoreImpl.class.getName();
+
+    /** The basic test environment. */
+    private static final BasicDataStoreTestEnv env =
+	new BasicDataStoreTestEnv(System.getProperties());
+
+    /** The numbers of concurrent transactions to test. */
+    private static final int[] threadCounts =
+	parseInts(System.getProperty("test.threads", "32,128,512"));
+
+    /** The number of transactions each thread runs while timing. */
+    private final int count = Integer.getInteger("test.count", 20);
+
+    /** The number of shared objects to read in each transaction. */
+    private final int items = Integer.getInteger("test.items", 5);
+
+    /** The size in bytes of each object. */
+    private final int itemSize = Integer.getInteger("test.item.size", 100);
+
+    /** The number of connections for the pipelined protocol. */
+    private final int connections =
+	Integer.getInteger("test.pipelined.connections", 2);
+
+    /** The number of server workers for the pipelined protocol. */
+    private final int workers =
+	Integer.getInteger("test.pipelined.workers", 32);
+
+    /** The server. */
+    private DataStoreServerImpl server;
+
+    /** The shared objects. */
+    private long[] sharedOids;
+
+    /** Creates the server and the shared objects. */
+    @Before
+    public void setUp() throws Exception {
+	System.err.println("Parameters:" +
+			   "\n  test.threads=" +
+			   System.getProperty("test.threads", "32,128,512") +
+			   "\n  test.count=" + count +
+			   "\n  test.items=" + items +
+			   "\n  test.item.size=" + itemSize);
+	server = new DataStoreServerImpl(
+	    createProperties(
+		DataStoreImplClass + ".directory", createDirectory(),
+		"com.sun.sgs.impl.service.data.store.net.server.port", "0"),
+	    env.systemRegistry, env.txnProxy);
+	sharedOids = createObjects(server, items);
+    }
+
+    /** Shuts down the server. */
+    @After
+    public void tearDown() throws Exception {
+	if (server != null) {
+	    server.shutdown();
+	    server = null;
+	}
+    }
+
+    /* -- Tests -- */
+
+    @Test
+    public void testRmi() throws Exception {
+	DataStoreServer client = (DataStoreServer)
+	    LocateRegistry.getRegistry("localhost", server.getPort())
+	    .lookup("DataStoreServer");
+	for (int threads : threadCounts) {
+	    runTransactions("RMI", client, threads);
+	}
+    }
+
+    @Test
+    public void testSocket() throws Exception {
+	DataStoreServerRemote remote = new DataStoreServerRemote(server, 0);
+	try {
+	    DataStoreServer client = new DataStoreClientRemote(
+		"localhost", remote.getLocalPort());
+	    for (int threads : threadCounts) {
+		runTransactions("Socket", client, threads);
+	    }
+	} finally {
+	    remote.shutdown();
+	}
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+	DataStoreServerMultiplexed remote =
+	    new DataStoreServerMultiplexed(server, 0, workers);
+	DataStoreClientMultiplexed client = new DataStoreClientMultiplexed(
+	    "localhost", remote.getLocalPort(), connections);
+	try {
+	    for (int threads : threadCounts) {
+		runTransactions("Pipelined", client, threads);
+	    }
+	} finally {
+	    client.shutdown();
+	    remote.shutdown();
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Runs transactions in the specified number of concurrent threads using
+     * the client, and prints the average time per transaction.
+     */
+    private void runTransactions(
+	String mode, final DataStoreServer client, int threads)
+	throws Exception
+    {
+	final long[] ownOids = createObjects(client, threads);
+	final byte[] data = new byte[itemSize];
+	final CountDownLatch ready = new CountDownLatch(threads);
+	final CountDownLatch start = new CountDownLatch(1);
+	final CountDownLatch done = new CountDownLatch(threads);
+	final AtomicReference<Throwable> failure =
+	    new AtomicReference<Throwable>();
+	for (int t = 0; t < threads; t++) {
+	    final long ownOid = ownOids[t];
+	    new Thread() {
+		public void run() {
+		    Random random = new Random();
+		    try {
+			ready.countDown();
+			start.await();
+			for (int c = 0; c < count; c++) {
+			    long tid = client.createTransaction(10000);
+			    for (int i = 0; i < items; i++) {
+				client.getObject(
+				    tid,
+				    sharedOids[random.nextInt(items)],
+				    false);
+			    }
+			    client.setObject(tid, ownOid, data);
+			    client.prepareAndCommit(tid);
+			}
+		    } catch (Throwable t) {
+			failure.compareAndSet(null, t);
+		    } finally {
+			done.countDown();
+		    }
+		}
+	    }.start();
+	}
+	ready.await();
+	long startTime = System.currentTimeMillis();
+	start.countDown();
+	done.await();
+	long stopTime = System.currentTimeMillis();
+	if (failure.get() != null) {
+	    throw new Exception("Transaction failed: " + failure.get(),
+				failure.get());
+	}
+	long total = (long) threads * count;
+	System.err.println(
+	    mode + " threads=" + threads +
+	    " time: " + (stopTime - startTime) / (float) total +
+	    " ms per transaction, " +
+	    (total * 1000 / Math.max(1, stopTime - startTime)) +
+	    " transactions per second");
+    }
+
+    /** Creates the specified number of objects using the store. */
+    private long[] createObjects(DataStoreServer store, int num)
+	throws IOException
+    {
+	long[] oids = new long[num];
+	byte[] data = new byte[itemSize];
+	long tid = store.createTransaction(10000);
+	for (int i = 0; i < num; i++) {
+	    oids[i] = store.createObject(tid);
+	    store.setObject(tid, oids[i], data);
+	}
+	store.prepareAndCommit(tid);
+	return oids;
+    }
+
+    /** Creates a unique directory. */
+    private static String createDirectory() throws IOException {
+	File dir = File.createTempFile(
+	    "TestDataStoreProtocolPerformance", "dbdir");
+	if (!dir.delete()) {
+	    throw new RuntimeException("Problem deleting file: " + dir);
+	}
+	if (!dir.mkdir()) {
+	    throw new RuntimeException(
+		"Failed to create directory: " + dir);
+	}
+	return dir.getPath();
+    }
+
+    /** Parses a comma-separated list of integers. */
+    private static int[] parseInts(String s) {
+	String[] strings = s.split(",");
+	int[] result = new int[strings.length];
+	for (int i = 0; i < strings.length; i++) {
+	    result[i] = Integer.parseInt(strings[i].trim());
+	}
+	return result;
+    }
+}
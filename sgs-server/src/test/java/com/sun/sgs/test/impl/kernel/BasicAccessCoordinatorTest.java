@@ -21,6 +21,7 @@
 
 package com.sun.sgs.test.impl.kernel;
 
+import com.sun.sgs.app.TransactionAbortedException;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.impl.kernel.AccessCoordinatorHandle;
 import com.sun.sgs.kernel.AccessReporter;
@@ -33,6 +34,9 @@ import com.sun.sgs.test.util.DummyTransaction;
 import com.sun.sgs.test.util.DummyTransactionProxy;
 import java.util.List;
 import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -529,6 +533,79 @@ public abstract class BasicAccessCoordinatorTest
 
     /* -- Other methods and classes -- */
 
+    /**
+     * Runs transactions simultaneously from multiple threads that access
+     * randomly chosen objects, mostly for read, and prints the elapsed time
+     * and the number of transactions that aborted, to compare the throughput
+     * and abort rate of access coordinators on a read-mostly workload.
+     */
+    protected void runReadMostlyPerformance() throws Exception {
+	int repeat = Integer.getInteger("test.repeat", 4);
+	int threads = Integer.getInteger("test.threads", 4);
+	final int count = Integer.getInteger("test.count", 100);
+	final int accesses = Integer.getInteger("test.accesses", 20);
+	final int objects = Integer.getInteger("test.objects", 1000);
+	final int writePercent = Integer.getInteger("test.write.percent", 5);
+	System.err.println("repeat: " + repeat +
+			   "\nthreads: " + threads +
+			   "\ncount: " + count +
+			   "\naccesses: " + accesses +
+			   "\nobjects: " + objects +
+			   "\nwrite percent: " + writePercent);
+	for (int r = 0; r < repeat; r++) {
+	    final AtomicInteger aborts = new AtomicInteger();
+	    final AtomicReference<Throwable> failure =
+		new AtomicReference<Throwable>();
+	    Thread[] workers = new Thread[threads];
+	    long start = System.currentTimeMillis();
+	    for (int i = 0; i < threads; i++) {
+		workers[i] = new Thread() {
+		    public void run() {
+			try {
+			    runTxns();
+			} catch (Throwable t) {
+			    failure.compareAndSet(null, t);
+			}
+		    }
+		    private void runTxns() throws Exception {
+			Random random = new Random();
+			for (int c = 0; c < count; c++) {
+			    DummyTransaction txn = new DummyTransaction();
+			    coordinator.notifyNewTransaction(txn, 0, 1);
+			    try {
+				for (int i = 0; i < accesses; i++) {
+				    reporter.reportObjectAccess(
+					txn, "o" + random.nextInt(objects),
+					random.nextInt(100) < writePercent
+					? AccessType.WRITE : AccessType.READ);
+				}
+				txn.commit();
+			    } catch (TransactionAbortedException e) {
+				aborts.incrementAndGet();
+				if (!txn.isAborted()) {
+				    txn.abort(e);
+				}
+			    }
+			}
+		    }
+		};
+		workers[i].start();
+	    }
+	    for (Thread worker : workers) {
+		worker.join();
+	    }
+	    if (failure.get() != null) {
+		throw new Exception("Unexpected exception: " + failure.get(),
+				    failure.get());
+	    }
+	    long time = System.currentTimeMillis() - start;
+	    System.err.println(
+		time + " ms" +
+		", " + ((double) time / (threads * count)) + " ms/txn" +
+		", " + aborts.get() + " aborts");
+	}
+    }
+
     /**
      * Checks that the proper object accesses were reported.  The expected
      * argument should provide groups of 4 items: the source, the object ID,
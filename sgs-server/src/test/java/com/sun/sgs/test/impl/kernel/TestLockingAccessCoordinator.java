@@ -143,6 +143,55 @@ public class TestLockingAccessCoordinator
 	}
     }
 
+    @Test
+    public void testConstructorIllegalDeadlockCheckInterval() {
+	String[] values = { "-1", "-100" };
+	for (String value : values) {
+	    properties.setProperty(
+		LockingAccessCoordinator.DEADLOCK_CHECK_INTERVAL_PROPERTY,
+		value);
+	    try {
+		new LockingAccessCoordinator(
+		    properties, txnProxy, profileCollector);
+		fail("Expected IllegalArgumentException");
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e);
+	    }
+	}
+    }
+
+    /* -- Test getConflictingTransaction more -- */
+
+    @Test
+    public void testGetConflictingTransactionTimeout() throws Exception {
+	reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	DummyTransaction txn2 = new DummyTransaction(1);
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	assertNull(coordinator.getConflictingTransaction(txn2));
+	Thread.sleep(2);
+	try {
+	    reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	    fail("Expected TransactionTimeoutException");
+	} catch (TransactionTimeoutException e) {
+	    System.err.println(e);
+	}
+	assertSame(txn, coordinator.getConflictingTransaction(txn2));
+	assertNull(coordinator.getConflictingTransaction(txn));
+	txn.abort(ABORT_EXCEPTION);
+	txn = null;
+	assertNull(coordinator.getConflictingTransaction(txn2));
+    }
+
+    @Test
+    public void testGetConflictingTransactionNoConflict() throws Exception {
+	reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	DummyTransaction txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "o2", AccessType.WRITE);
+	txn2.abort(ABORT_EXCEPTION);
+	assertNull(coordinator.getConflictingTransaction(txn2));
+    }
+
     /* -- Test AccessedObjectsDetail more -- */
 
     @Test
@@ -288,4 +337,13 @@ public class TestLockingAccessCoordinator
 		", " + ((double) time / (count * locks)) + " ms/lock");
 	}
     }
+
+    /**
+     * Tests transactions that mostly read objects, for comparison with other
+     * access coordinators.
+     */
+    @Test
+    public void testReadMostlyPerformance() throws Exception {
+	runReadMostlyPerformance();
+    }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.test.impl.kernel;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.kernel.OptimisticAccessCoordinator;
+import com.sun.sgs.kernel.AccessReporter.AccessType;
+import com.sun.sgs.profile.AccessedObjectsDetail;
+import com.sun.sgs.profile.AccessedObjectsDetail.ConflictType;
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the {@link OptimisticAccessCoordinator} class. */
+@RunWith(FilteredNameRunner.class)
+public class TestOptimisticAccessCoordinator
+    extends BasicAccessCoordinatorTest<OptimisticAccessCoordinator>
+{
+    /** Creates an {@code OptimisticAccessCoordinator}. */
+    protected OptimisticAccessCoordinator createAccessCoordinator() {
+	return new OptimisticAccessCoordinator(
+	    properties, txnProxy, profileCollector);
+    }
+
+    /* -- Tests -- */
+
+    /* -- Test constructor -- */
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullProperties() {
+	new OptimisticAccessCoordinator(null, txnProxy, profileCollector);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullTxnProxy() {
+	new OptimisticAccessCoordinator(properties, null, profileCollector);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullProfileCollector() {
+	new OptimisticAccessCoordinator(properties, txnProxy, null);
+    }
+
+    @Test
+    public void testConstructorIllegalVersionTableSize() {
+	String[] values = { "0", "-10" };
+	for (String value : values) {
+	    properties.setProperty(
+		OptimisticAccessCoordinator.VERSION_TABLE_SIZE_PROPERTY,
+		value);
+	    try {
+		new OptimisticAccessCoordinator(
+		    properties, txnProxy, profileCollector);
+		fail("Expected IllegalArgumentException");
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e);
+	    }
+	}
+    }
+
+    /* -- Test validation -- */
+
+    @Test
+    public void testValidateReadRead() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.READ);
+	txn2.commit();
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testValidateReadWrite() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.commit();
+	assertCommitFails(txn);
+	txn = null;
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertObjectDetails(detail, "s", "o1", AccessType.READ, null);
+	assertEquals(ConflictType.ACCESS_NOT_GRANTED,
+		     detail.getConflictType());
+	assertEquals(null, detail.getConflictingId());
+    }
+
+    @Test
+    public void testValidateWriteRead() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.READ);
+	txn.commit();
+	txn = null;
+	assertCommitFails(txn2);
+    }
+
+    @Test
+    public void testValidateWriteWrite() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.commit();
+	assertCommitFails(txn);
+	txn = null;
+    }
+
+    @Test
+    public void testValidateDisjointWrites() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn, "o2", AccessType.WRITE);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o3", AccessType.WRITE);
+	txn2.commit();
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testValidateAbortedWrite() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.abort(ABORT_EXCEPTION);
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testValidateAccessAfterCommittedWrite() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.commit();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testValidatePendingWrite() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.prepare();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	assertCommitFails(txn);
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertEquals(ConflictType.ACCESS_NOT_GRANTED,
+		     detail.getConflictType());
+	assertArrayEquals(txn2.getId(), detail.getConflictingId());
+	assertSame(txn2, coordinator.getConflictingTransaction(txn));
+	txn2.commit();
+	assertNull(coordinator.getConflictingTransaction(txn));
+	txn = null;
+    }
+
+    @Test
+    public void testValidateLateWrite() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o2", AccessType.READ);
+	txn.prepare();
+	reporter.reportObjectAccess(txn, "o2", AccessType.WRITE);
+	txn.commit();
+	txn = null;
+	assertCommitFails(txn2);
+    }
+
+    @Test
+    public void testValidateLateWriteConflict() throws Exception {
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn.prepare();
+	txn2.commit();
+	try {
+	    reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	assertTrue(txn.isAborted());
+	txn = null;
+    }
+
+    @Test
+    public void testValidateLateWriteConflictKeepsPending()
+	throws Exception
+    {
+	DummyTransaction txn2 = newTransaction();
+	DummyTransaction txn3 = newTransaction();
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn.prepare();
+	txn2.prepare();
+	try {
+	    reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	txn = null;
+	reporter.reportObjectAccess(txn3, "o1", AccessType.READ);
+	assertCommitFails(txn3);
+	txn2.commit();
+    }
+
+    @Test
+    public void testValidatePrunedVersions() throws Exception {
+	init(1);
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	for (int i = 0; i < 10; i++) {
+	    DummyTransaction txn2 = newTransaction();
+	    reporter.reportObjectAccess(txn2, "o" + i, AccessType.WRITE);
+	    txn2.commit();
+	}
+	assertCommitFails(txn);
+	txn = null;
+	DummyTransaction txn2 = newTransaction();
+	reporter.reportObjectAccess(txn2, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o20", AccessType.WRITE);
+	DummyTransaction txn3 = newTransaction();
+	reporter.reportObjectAccess(txn3, "o1", AccessType.WRITE);
+	txn3.commit();
+	assertCommitFails(txn2);
+    }
+
+    /* -- Other tests -- */
+
+    /**
+     * Tests transactions that mostly read objects, for comparison with other
+     * access coordinators.
+     */
+    @Test
+    public void testReadMostlyPerformance() throws Exception {
+	runReadMostlyPerformance();
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Initialize fields with the specified version table size, replacing the
+     * existing coordinator and transaction.
+     */
+    private void init(int versionTableSize) throws Exception {
+	txn.commit();
+	properties.setProperty(
+	    OptimisticAccessCoordinator.VERSION_TABLE_SIZE_PROPERTY,
+	    String.valueOf(versionTableSize));
+	init();
+    }
+
+    /** Creates a transaction and notifies the coordinator. */
+    private DummyTransaction newTransaction() {
+	DummyTransaction result = new DummyTransaction();
+	coordinator.notifyNewTransaction(result, 0, 1);
+	return result;
+    }
+
+    /**
+     * Checks that committing the transaction fails validation and aborts
+     * the transaction.
+     */
+    private static void assertCommitFails(DummyTransaction txn)
+	throws Exception
+    {
+	try {
+	    txn.commit();
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	assertTrue(txn.isAborted());
+    }
+}
@@ -39,6 +39,8 @@ import com.sun.sgs.tools.test.FilteredNameRunner;
 
 import java.util.Properties;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
@@ -431,10 +433,59 @@ public class TestTaskSchedulerImpl {
         queue.addTask(new DependentTask(null), null);
     }
 
+    /**
+     * Test adding threads for blocked tasks.
+     */
+
+    @Test public void scheduleBlockedTasksAddsThreads() throws Exception {
+        restart("1", "8");
+        CountDownLatch arrived = new CountDownLatch(4);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++)
+            taskScheduler.scheduleTask(new BlockingRunner(arrived, done),
+                                       taskOwner);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Utility methods.
+     */
+
+    private void restart(String threads, String maxThreads) throws Exception {
+        serverNode.shutdown(true);
+        Properties properties =
+            SgsTestNode.getDefaultProperties("TestTaskSchedulerImpl",
+					     null, null);
+        properties.setProperty(StandardProperties.NODE_TYPE, 
+                               NodeType.coreServerNode.name());
+        properties.setProperty("com.sun.sgs.impl.kernel.task.threads",
+                               threads);
+        properties.setProperty("com.sun.sgs.impl.kernel.task.threads.max",
+                               maxThreads);
+        serverNode = new SgsTestNode("TestTaskSchedulerImpl", null, properties);
+        taskScheduler = serverNode.getSystemRegistry().
+            getComponent(TaskScheduler.class);
+        taskOwner = serverNode.getProxy().getCurrentOwner();
+    }
+
     /**
      * Utility classes.
      */
 
+    private static class BlockingRunner extends TestAbstractKernelRunnable {
+        private final CountDownLatch arrived;
+        private final CountDownLatch done;
+        BlockingRunner(CountDownLatch arrived, CountDownLatch done) {
+            this.arrived = arrived;
+            this.done = done;
+        }
+        public void run() throws Exception {
+            arrived.countDown();
+            if (arrived.await(1, TimeUnit.SECONDS))
+                done.countDown();
+        }
+    }
+
     private class IncrementRunner extends TestAbstractKernelRunnable {
         public void run() {
             taskCount++;
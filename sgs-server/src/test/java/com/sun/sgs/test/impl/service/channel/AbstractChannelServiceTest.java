@@ -406,9 +406,17 @@ public abstract class AbstractChannelServiceTest extends Assert {
     protected Channel createChannel(
 	String name, ChannelListener listener, SgsTestNode node)
 	throws Exception
+    {
+	return createChannel(name, listener, node, Delivery.RELIABLE);
+    }
+
+    protected Channel createChannel(
+	String name, ChannelListener listener, SgsTestNode node,
+	Delivery delivery)
+	throws Exception
     {
 	CreateChannelTask createChannelTask =
-	    new CreateChannelTask(name, listener);
+	    new CreateChannelTask(name, listener, delivery);
 	runTransactionalTask(createChannelTask, node);
 	return createChannelTask.getChannel();
     }
@@ -430,16 +438,20 @@ public abstract class AbstractChannelServiceTest extends Assert {
     private static class CreateChannelTask extends TestAbstractKernelRunnable {
 	private final String name;
 	private final ChannelListener listener;
+	private final Delivery delivery;
 	private Channel channel;
 	
-	CreateChannelTask(String name, ChannelListener listener) {
+	CreateChannelTask(
+	    String name, ChannelListener listener, Delivery delivery)
+	{
 	    this.name = name;
 	    this.listener = listener;
+	    this.delivery = delivery;
 	}
 	
 	public void run() throws Exception {
 	    channel = AppContext.getChannelManager().
-		createChannel(name, listener, Delivery.RELIABLE);
+		createChannel(name, listener, delivery);
 	    AppContext.getDataManager().setBinding(name, channel);
 	}
 
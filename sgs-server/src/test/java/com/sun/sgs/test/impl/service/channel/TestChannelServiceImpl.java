@@ -31,9 +31,14 @@ import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.ResourceUnavailableException;
 import com.sun.sgs.app.TransactionNotActiveException;
+import com.sun.sgs.impl.profile.ProfileCollectorImpl;
 import com.sun.sgs.impl.service.channel.ChannelServiceImpl;
 import com.sun.sgs.impl.service.session.ClientSessionWrapper;
+import com.sun.sgs.impl.sharedutil.MessageBuffer;
 import com.sun.sgs.impl.util.AbstractService.Version;
+import com.sun.sgs.management.ChannelServiceMXBean;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
 import com.sun.sgs.test.util.ConfigurableNodePolicy;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.TestAbstractKernelRunnable;
@@ -47,8 +52,10 @@ import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -1089,6 +1096,280 @@ public class TestChannelServiceImpl extends AbstractChannelServiceTest {
 	testChannelSend();
     }
 
+    @Test
+    public void testChannelSendUnreliable() throws Exception {
+	String channelName = "test";
+	createChannel(channelName, null, null, Delivery.UNRELIABLE);
+	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    joinUsers(channelName, sevenDwarfs);
+	    sendMessagesToChannel(channelName, 3);
+	    checkChannelMessagesReceived(group, channelName, 3);
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    @Test
+    public void testChannelSendUnreliableMultipleNodes() throws Exception {
+	addNodes(3);
+	ConfigurableNodePolicy.setRoundRobinPolicy();
+	testChannelSendUnreliable();
+    }
+
+    @Test
+    public void testChannelSendUnreliableBypassesEventQueue()
+	throws Exception
+    {
+	String channelName = "test";
+	createChannel(channelName, null, null, Delivery.UNRELIABLE);
+	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    joinUsers(channelName, sevenDwarfs);
+	    int count = getObjectCount();
+	    final String name = channelName;
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() {
+		    Channel channel = getChannel(name);
+		    for (int i = 0; i < 3; i++) {
+			MessageBuffer buf = (new MessageBuffer(4)).putInt(i);
+			channel.send(null, ByteBuffer.wrap(buf.getBuffer()));
+		    }
+		}
+	    }, taskOwner);
+	    assertEquals(count, getObjectCount());
+	    checkChannelMessagesReceived(group, channelName, 3);
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    @Test
+    public void testChannelSendBatchedToMultipleNodes() throws Exception {
+	addNodes(3);
+	ConfigurableNodePolicy.setRoundRobinPolicy();
+	ProfileCollector collector = serverNode.getSystemRegistry().
+	    getComponent(ProfileCollector.class);
+	collector.getConsumer(
+	    ProfileCollectorImpl.CORE_CONSUMER_PREFIX + "ChannelService").
+	    setProfileLevel(ProfileLevel.MAX);
+	ChannelServiceMXBean bean = (ChannelServiceMXBean)
+	    collector.getRegisteredMBean(ChannelServiceMXBean.MXBEAN_NAME);
+	long batches = bean.getSendBatchCalls();
+	long batchMessages = bean.getSendBatchMessages();
+	final String[] channelNames = { "a", "b", "c" };
+	for (String channelName : channelNames) {
+	    createChannel(channelName);
+	}
+	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    for (String channelName : channelNames) {
+		joinUsers(channelName, sevenDwarfs);
+	    }
+	    final int numMessages = 3;
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() {
+		    for (int i = 0; i < numMessages; i++) {
+			for (String channelName : channelNames) {
+			    MessageBuffer buf =
+				(new MessageBuffer(4)).putInt(i);
+			    getChannel(channelName).send(
+				null, ByteBuffer.wrap(buf.getBuffer()));
+			}
+		    }
+		}
+	    }, taskOwner);
+	    // Messages for different channels may be interleaved
+	    for (DummyClient client : group.getClients()) {
+		Map<String, Integer> nextSeq = new HashMap<String, Integer>();
+		for (int i = 0; i < channelNames.length * numMessages; i++) {
+		    MessageInfo info = client.nextChannelMessage();
+		    assertNotNull(client.name + " missing messages", info);
+		    Integer seq = nextSeq.get(info.channelName);
+		    int expected = (seq == null) ? 0 : seq;
+		    assertEquals("Unexpected channel message sequence",
+				 expected, info.seq);
+		    nextSeq.put(info.channelName, expected + 1);
+		}
+	    }
+	    assertTrue(bean.getSendBatchCalls() > batches);
+	    assertTrue(bean.getSendBatchMessages() - batchMessages >=
+		       channelNames.length * numMessages);
+	    long[] nodeIds = bean.getSendNodeIds();
+	    assertTrue(nodeIds.length > 0);
+	    for (long nodeId : nodeIds) {
+		System.err.println(
+		    "nodeId: " + nodeId +
+		    ", send latency avg: " + bean.getSendLatencyAvg(nodeId) +
+		    " ms, max: " + bean.getSendLatencyMax(nodeId) + " ms");
+		assertTrue(bean.getSendLatencyMax(nodeId) >= 0);
+	    }
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    @Test
+    public void testChannelSendUnreliableAfterLeave()
+	throws Exception
+    {
+	String channelName = "test";
+	createChannel(channelName, null, null, Delivery.UNRELIABLE);
+	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    joinUsers(channelName, sevenDwarfs);
+	    final String name = channelName;
+	    final String leaver = sevenDwarfs[0];
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() {
+		    Channel channel = getChannel(name);
+		    channel.leave(getSession(leaver));
+		    MessageBuffer buf = (new MessageBuffer(4)).putInt(0);
+		    channel.send(null, ByteBuffer.wrap(buf.getBuffer()));
+		}
+	    }, taskOwner);
+	    Thread.sleep(3000);
+	    for (DummyClient client : group.getClients()) {
+		if (client.name.equals(leaver)) {
+		    assertNull(client.nextChannelMessage());
+		} else {
+		    checkChannelMessagesReceived(client, channelName, 1);
+		}
+	    }
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    @Test
+    public void testChannelSendUnreliableAfterLeaveMultipleNodes()
+	throws Exception
+    {
+	addNodes(3);
+	ConfigurableNodePolicy.setRoundRobinPolicy();
+	testChannelSendUnreliableAfterLeave();
+    }
+
+    /**
+     * Compares the rate of sending messages to members on several nodes
+     * for reliable channels, which use the channel's event queue, and
+     * unreliable channels, which bypass it.
+     */
+    @Test
+    @IntegrationTest
+    public void testChannelSendUnreliablePerformance() throws Exception {
+	addNodes(3);
+	ConfigurableNodePolicy.setRoundRobinPolicy();
+	isPerformanceTest = true;
+	int numMessages = 200;
+	Delivery[] deliveries = { Delivery.RELIABLE, Delivery.UNRELIABLE };
+	for (Delivery delivery : deliveries) {
+	    String channelName = "perf" + delivery;
+	    createChannel(channelName, null, null, delivery);
+	    ClientGroup group = new ClientGroup(sevenDwarfs);
+	    try {
+		joinUsers(channelName, sevenDwarfs);
+		long startTime = System.currentTimeMillis();
+		sendMessagesToChannel(channelName, numMessages);
+		for (DummyClient client : group.getClients()) {
+		    checkChannelMessagesReceived(
+			client, channelName, numMessages);
+		}
+		long elapsed = System.currentTimeMillis() - startTime;
+		System.err.println(
+		    "delivery: " + delivery +
+		    ", messages: " + numMessages +
+		    ", members: " + sevenDwarfs.length +
+		    ", elapsed time: " + elapsed + " ms" +
+		    ", messages/second: " +
+		    (numMessages * 1000L / Math.max(1, elapsed)));
+	    } finally {
+		group.disconnect(false);
+	    }
+	}
+    }
+
+    @Test
+    public void testChannelSendReliableDoesNotSaveMessages()
+	throws Exception
+    {
+	addNodes(3);
+	ConfigurableNodePolicy.setRoundRobinPolicy();
+	String channelName = "test";
+	createChannel(channelName);
+	ClientGroup group = new ClientGroup(someUsers);
+	try {
+	    joinUsers(channelName, someUsers);
+	    checkUsersJoined(channelName, someUsers);
+	    int count = getChannelServiceBindingCount();
+	    sendMessagesToChannel(channelName, 5);
+	    checkChannelMessagesReceived(group, channelName, 5);
+	    printServiceBindings("after messages sent");
+	    assertEquals(count, getChannelServiceBindingCount());
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    @Test
+    public void testChannelSendReliableWithoutBackupSavesMessages()
+	throws Exception
+    {
+	String channelName = "test";
+	createChannel(channelName);
+	ClientGroup group = new ClientGroup(someUsers);
+	try {
+	    joinUsers(channelName, someUsers);
+	    checkUsersJoined(channelName, someUsers);
+	    int count = getChannelServiceBindingCount();
+	    sendMessagesToChannel(channelName, 5);
+	    checkChannelMessagesReceived(group, channelName, 5);
+	    printServiceBindings("after messages sent");
+	    assertTrue(getChannelServiceBindingCount() > count);
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    /**
+     * Measures the rate of sending messages on a reliable channel to
+     * members on several nodes, and the number of channel service
+     * bindings created while sending them.
+     */
+    @Test
+    @IntegrationTest
+    public void testChannelSendReliablePerformance() throws Exception {
+	addNodes(3);
+	ConfigurableNodePolicy.setRoundRobinPolicy();
+	isPerformanceTest = true;
+	int numMessages = 500;
+	String channelName = "perf";
+	createChannel(channelName);
+	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    joinUsers(channelName, sevenDwarfs);
+	    checkUsersJoined(channelName, sevenDwarfs);
+	    int count = getChannelServiceBindingCount();
+	    long startTime = System.currentTimeMillis();
+	    sendMessagesToChannel(channelName, numMessages);
+	    for (DummyClient client : group.getClients()) {
+		checkChannelMessagesReceived(
+		    client, channelName, numMessages);
+	    }
+	    long elapsed = System.currentTimeMillis() - startTime;
+	    System.err.println(
+		"messages: " + numMessages +
+		", members: " + sevenDwarfs.length +
+		", elapsed time: " + elapsed + " ms" +
+		", messages/second: " +
+		(numMessages * 1000L / Math.max(1, elapsed)) +
+		", bindings added: " +
+		(getChannelServiceBindingCount() - count));
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
     @Test
     @IntegrationTest
     public void testChannelSendToNewMembersAfterAllNodesFail()
@@ -799,6 +799,48 @@ public class TestChannelServiceImplRelocatingSessions
 	}
     }
 
+    @Test
+    @IntegrationTest
+    public void testChannelSendDuringRelocateWithCoordinatorFailure()
+	throws Exception
+    {
+	String channelName = "foo";
+	// channel coordinator is on coordNode
+	SgsTestNode coordNode = addNode();
+	createChannel(channelName, null, coordNode);
+
+	SgsTestNode oldNode = addNode();
+	SgsTestNode newNode = addNode();
+	String[] users = new String[]{ "relocatingClient", "otherClient"};
+	DummyClient relocatingClient = createDummyClient(users[0], oldNode);
+	DummyClient otherClient = createDummyClient(users[1], newNode);
+
+	try {
+	    joinUsers(channelName, users);
+	    relocatingClient.assertJoinedChannel(channelName);
+	    otherClient.assertJoinedChannel(channelName);
+	    sendMessagesToChannel(channelName, 2);
+	    checkChannelMessagesReceived(relocatingClient, channelName, 2);
+	    checkChannelMessagesReceived(otherClient, channelName, 2);
+	    
+	    // Prepare client for relocation & send messages.
+	    moveIdentityAndWaitForRelocationNotification(
+		relocatingClient, oldNode, newNode);
+	    sendMessagesToChannel(channelName, 3);
+	    checkChannelMessagesReceived(otherClient, channelName, 3);
+
+	    // Crash the coordinator, so that missed messages are obtained
+	    // from the channel's backup node, then finish relocation.
+	    shutdownNode(coordNode);
+	    relocatingClient.relocate(0, true, true);
+	    checkChannelMessagesReceived(relocatingClient, channelName, 3);
+	    
+	} finally {
+	    relocatingClient.disconnect();
+	    otherClient.disconnect();
+	}
+    }
+
     @Test
     @IntegrationTest
     public void testSessionCleanupIfSessionFailsToPrepare()
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.test.impl.service.data;
+
+import com.sun.sgs.tools.test.ParameterizedFilteredNameRunner;
+import java.util.Properties;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the data service tests with managed objects written using the fast
+ * serialization format.
+ */
+@RunWith(ParameterizedFilteredNameRunner.class)
+public class TestDataServiceFastSerialization extends TestDataServiceImpl {
+
+    /** Creates an instance. */
+    public TestDataServiceFastSerialization(boolean disableTxnCommitOpt) {
+	super(disableTxnCommitOpt);
+    }
+
+    /** Selects the fast serialization format. */
+    @Override
+    protected Properties getProperties() throws Exception {
+	Properties props = super.getProperties();
+	props.setProperty(
+	    DataServiceImplClassName + ".serialization.format", "FAST");
+	return props;
+    }
+}
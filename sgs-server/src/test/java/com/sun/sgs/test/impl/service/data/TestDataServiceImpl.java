@@ -73,8 +73,10 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
@@ -3963,6 +3965,212 @@ public class TestDataServiceImpl extends Assert {
 	abstract Object writeReplace();
     }
 
+    /* -- Test prefetchReferences -- */
+
+    @Test 
+    public void testPrefetchReferencesNull() throws Exception {
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                try {
+                    service.prefetchReferences(null);
+                    fail("Expected NullPointerException");
+                } catch (NullPointerException e) {
+                    System.err.println(e);
+                }
+        }}, taskOwner);
+    }
+
+    @Test 
+    public void testPrefetchReferencesUnfetched() throws Exception {
+	serverNodeRestart(getCountingProperties(), false);
+	final BigInteger[] ids = createPrefetchObjects(3);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		List<ManagedReference<DummyManagedObject>> refs =
+		    createReferencesForIds(ids);
+		CountingDataStore.reset();
+		service.prefetchReferences(refs);
+		assertEquals(1, CountingDataStore.getObjectsCalls.get());
+		assertEquals(3, CountingDataStore.getObjectsIds.get());
+		for (int i = 0; i < refs.size(); i++) {
+		    assertEquals(i, refs.get(i).get().value);
+		}
+		assertEquals(0, CountingDataStore.getObjectCalls.get());
+		assertEquals(1, CountingDataStore.getObjectsCalls.get());
+        }}, taskOwner);
+    }
+
+    @Test 
+    public void testPrefetchReferencesAlreadyFetched() throws Exception {
+	serverNodeRestart(getCountingProperties(), false);
+	final BigInteger[] ids = createPrefetchObjects(3);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		List<ManagedReference<DummyManagedObject>> refs =
+		    createReferencesForIds(ids);
+		DummyManagedObject first = refs.get(0).get();
+		CountingDataStore.reset();
+		service.prefetchReferences(refs);
+		assertEquals(1, CountingDataStore.getObjectsCalls.get());
+		assertEquals(2, CountingDataStore.getObjectsIds.get());
+		assertSame(first, refs.get(0).get());
+		/* Everything is fetched, so this should not use the store */
+		service.prefetchReferences(refs);
+		assertEquals(1, CountingDataStore.getObjectsCalls.get());
+		for (int i = 0; i < refs.size(); i++) {
+		    assertEquals(i, refs.get(i).get().value);
+		}
+		assertEquals(0, CountingDataStore.getObjectCalls.get());
+        }}, taskOwner);
+    }
+
+    @Test 
+    public void testPrefetchReferencesRemoved() throws Exception {
+	serverNodeRestart(getCountingProperties(), false);
+	final BigInteger[] ids = createPrefetchObjects(4);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		service.removeObject(
+		    service.createReferenceForId(ids[1]).get());
+        }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		List<ManagedReference<DummyManagedObject>> refs =
+		    createReferencesForIds(ids);
+		service.removeObject(refs.get(2).get());
+		CountingDataStore.reset();
+		service.prefetchReferences(refs);
+		/* The object removed in this transaction is not requested */
+		assertEquals(1, CountingDataStore.getObjectsCalls.get());
+		assertEquals(3, CountingDataStore.getObjectsIds.get());
+		assertEquals(0, refs.get(0).get().value);
+		assertEquals(3, refs.get(3).get().value);
+		for (int i = 1; i <= 2; i++) {
+		    try {
+			refs.get(i).get();
+			fail("Expected ObjectNotFoundException");
+		    } catch (ObjectNotFoundException e) {
+			System.err.println(e);
+		    }
+		}
+        }}, taskOwner);
+    }
+
+    @Test 
+    public void testPrefetchReferencesOtherTxn() throws Exception {
+	serverNodeRestart(getCountingProperties(), false);
+	final BigInteger[] ids = createPrefetchObjects(2);
+	final List<ManagedReference<DummyManagedObject>> oldRefs =
+	    new ArrayList<ManagedReference<DummyManagedObject>>();
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		oldRefs.addAll(createReferencesForIds(ids));
+        }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		List<ManagedReference<DummyManagedObject>> refs =
+		    new ArrayList<ManagedReference<DummyManagedObject>>(
+			oldRefs);
+		refs.add(new ManagedReference<DummyManagedObject>() {
+		    public DummyManagedObject get() {
+			throw new AssertionError();
+		    }
+		    public DummyManagedObject getForUpdate() {
+			throw new AssertionError();
+		    }
+		    public BigInteger getId() {
+			return ids[0];
+		    }
+		});
+		CountingDataStore.reset();
+		service.prefetchReferences(refs);
+		assertEquals(0, CountingDataStore.getObjectsCalls.get());
+		try {
+		    oldRefs.get(0).get();
+		    fail("Expected TransactionNotActiveException");
+		} catch (TransactionNotActiveException e) {
+		    System.err.println(e);
+		}
+		/* References for the current transaction are still empty */
+		List<ManagedReference<DummyManagedObject>> newRefs =
+		    createReferencesForIds(ids);
+		newRefs.get(0).get();
+		assertEquals(1, CountingDataStore.getObjectCalls.get());
+        }}, taskOwner);
+    }
+
+    /**
+     * Creates the specified number of objects, setting the value of each to
+     * its index, and returns their IDs.
+     */
+    private BigInteger[] createPrefetchObjects(final int count)
+	throws Exception
+    {
+	final BigInteger[] ids = new BigInteger[count];
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		for (int i = 0; i < count; i++) {
+		    DummyManagedObject object = new DummyManagedObject();
+		    object.setValue(i);
+		    ids[i] = service.createReference(object).getId();
+		}
+        }}, taskOwner);
+	return ids;
+    }
+
+    /** Creates references in the current transaction for the IDs. */
+    private static List<ManagedReference<DummyManagedObject>>
+	createReferencesForIds(BigInteger[] ids)
+    {
+	List<ManagedReference<DummyManagedObject>> refs =
+	    new ArrayList<ManagedReference<DummyManagedObject>>();
+	for (BigInteger id : ids) {
+	    ManagedReference<DummyManagedObject> ref =
+		uncheckedCast(service.createReferenceForId(id));
+	    refs.add(ref);
+	}
+	return refs;
+    }
+
+    /** Returns properties that use {@link CountingDataStore}. */
+    private Properties getCountingProperties() throws Exception {
+	Properties props = getProperties();
+	props.setProperty(DataServiceImpl.DATA_STORE_CLASS_PROPERTY,
+			  CountingDataStore.class.getName());
+	return props;
+    }
+
+    /** A data store that counts the objects read from the database. */
+    public static class CountingDataStore extends DataStoreImpl {
+	static final AtomicInteger getObjectCalls = new AtomicInteger();
+	static final AtomicInteger getObjectsCalls = new AtomicInteger();
+	static final AtomicInteger getObjectsIds = new AtomicInteger();
+	public CountingDataStore(Properties properties,
+				 ComponentRegistry systemRegistry,
+				 TransactionProxy txnProxy)
+	{
+	    super(properties, systemRegistry, txnProxy);
+	}
+	static void reset() {
+	    getObjectCalls.set(0);
+	    getObjectsCalls.set(0);
+	    getObjectsIds.set(0);
+	}
+	protected byte[] getObjectInternal(
+	    Transaction txn, long oid, boolean forUpdate)
+	{
+	    getObjectCalls.incrementAndGet();
+	    return super.getObjectInternal(txn, oid, forUpdate);
+	}
+	protected byte[][] getObjectsInternal(
+	    Transaction txn, long[] oids, boolean forUpdate)
+	{
+	    getObjectsCalls.incrementAndGet();
+	    getObjectsIds.addAndGet(oids.length);
+	    return super.getObjectsInternal(txn, oids, forUpdate);
+	}
+    }
+
     /* -- Test ManagedReference.getForUpdate -- */
 
     @Test 
@@ -4316,6 +4524,104 @@ public class TestDataServiceImpl extends Assert {
         }}, taskOwner);
     }
 
+    /* -- Test read-only transactions -- */
+
+    @Test
+    public void testReadOnlyGet() throws Exception {
+        txnScheduler.runTask(new InitialTestRunnable() {
+            public void run() throws Exception {
+                super.run();
+                dummy.setValue("a");
+        }}, taskOwner);
+        txnScheduler.runReadOnlyTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                dummy = (DummyManagedObject) service.getBinding("dummy");
+                assertEquals("a", dummy.value);
+                ManagedReference<DummyManagedObject> ref =
+                    service.createReference(dummy);
+                assertSame(dummy, ref.get());
+                assertEquals("dummy", service.nextBoundName(null));
+        }}, taskOwner);
+    }
+
+    @Test
+    public void testReadOnlyModificationsFail() throws Exception {
+        txnScheduler.runTask(new InitialTestRunnable(), taskOwner);
+        txnScheduler.runReadOnlyTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                dummy = (DummyManagedObject) service.getBinding("dummy");
+                try {
+                    service.markForUpdate(dummy);
+                    fail("Expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    System.err.println(e);
+                }
+                try {
+                    service.createReference(dummy).getForUpdate();
+                    fail("Expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    System.err.println(e);
+                }
+                try {
+                    service.getBindingForUpdate("dummy");
+                    fail("Expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    System.err.println(e);
+                }
+                try {
+                    service.setBinding("dummy", dummy);
+                    fail("Expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    System.err.println(e);
+                }
+                try {
+                    service.removeBinding("dummy");
+                    fail("Expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    System.err.println(e);
+                }
+                try {
+                    service.removeObject(dummy);
+                    fail("Expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    System.err.println(e);
+                }
+                try {
+                    service.createReference(new DummyManagedObject());
+                    fail("Expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    System.err.println(e);
+                }
+        }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                assertNotNull(service.getBinding("dummy"));
+        }}, taskOwner);
+    }
+
+    /**
+     * Test that read-only transactions do not detect or store unmarked
+     * modifications.
+     */
+    @Test
+    public void testReadOnlyIgnoresUnmarkedModifications() throws Exception {
+        txnScheduler.runTask(new InitialTestRunnable() {
+            public void run() throws Exception {
+                super.run();
+                dummy.setValue("a");
+        }}, taskOwner);
+        txnScheduler.runReadOnlyTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                dummy = (DummyManagedObject) service.getBinding("dummy");
+                dummy.value = "b";
+        }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                dummy = (DummyManagedObject) service.getBinding("dummy");
+                assertEquals("a", dummy.value);
+        }}, taskOwner);
+    }
+
     /* -- Test shutdown -- */
 
     @Test 
@@ -5776,6 +6082,11 @@ public class TestDataServiceImpl extends Assert {
 	public byte[] getObject(Transaction txn, long oid, boolean forUpdate) {
 	    return null;
 	}
+	public byte[][] getObjects(
+	    Transaction txn, long[] oids, boolean forUpdate)
+	{
+	    return null;
+	}
 	public void setObject(Transaction txn, long oid, byte[] data) { }
 	public void setObjects(
 	    Transaction txn, long[] oids, byte[][] dataArray)
@@ -27,6 +27,7 @@ import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.auth.Identity;
 import com.sun.sgs.impl.service.data.DataServiceImpl;
+import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.TransactionScheduler;
 import com.sun.sgs.service.DataService;
 import com.sun.sgs.test.util.SgsTestNode;
@@ -87,6 +88,16 @@ public class TestDataServicePerformance extends Assert {
     protected final int modifyItems =
         Integer.getInteger("test.modify.items", 50);
 
+    /**
+     * The number of references to create and dereference in a transaction
+     * when testing large transactions.
+     */
+    protected final int references =
+	Integer.getInteger("test.references", 10000);
+
+    /** The number of threads to use for concurrent tests. */
+    protected final int threads = Integer.getInteger("test.threads", 8);
+
     /** The number of times to run the test while timing. */
     protected int count = Integer.getInteger("test.count", 100);
 
@@ -108,6 +119,8 @@ public class TestDataServicePerformance extends Assert {
 	System.err.println("Parameters:" +
 			   "\n  test.items=" + items +
 			   "\n  test.modify.items=" + modifyItems +
+			   "\n  test.references=" + references +
+			   "\n  test.threads=" + threads +
 			   "\n  test.count=" + count);
     }
 
@@ -133,18 +146,34 @@ public class TestDataServicePerformance extends Assert {
 
     @Test
     public void testRead() throws Exception {
-	doTestRead(true);
+	doTestRead(true, false, false);
+    }
+
+    @Test
+    public void testReadFingerprintDetectMods() throws Exception {
+	doTestRead(true, true, false);
     }
 
     @Test
     public void testReadNoDetectMods() throws Exception {
-	doTestRead(false);
+	doTestRead(false, false, false);
     }
 
-    private void doTestRead(boolean detectMods) throws Exception {
+    @Test
+    public void testReadReadOnly() throws Exception {
+	doTestRead(true, false, true);
+    }
+
+    private void doTestRead(
+	boolean detectMods, boolean fingerprint, boolean readOnly)
+	throws Exception
+    {
 	Properties props = getNodeProps();
 	props.setProperty(DataServiceImplClass + ".detect.modifications",
 			  String.valueOf(detectMods));
+	props.setProperty(
+	    DataServiceImplClass + ".detect.modifications.fingerprint",
+	    String.valueOf(fingerprint));
 	props.setProperty("com.sun.sgs.txn.timeout", "10000");
 	serverNode = new SgsTestNode("TestDataServicePerformance", null, props);
 	final DataService service = serverNode.getDataService();
@@ -155,17 +184,22 @@ public class TestDataServicePerformance extends Assert {
                 public void run() {
                     service.setBinding("counters", new Counters(items));
                 }}, taskOwner);
+        KernelRunnable task = new TestAbstractKernelRunnable() {
+                public void run() throws Exception {
+                    Counters counters =
+                        (Counters) service.getBinding("counters");
+                    for (int i = 0; i < items; i++) {
+                        counters.get(i);
+                    }
+                }};
         for (int r = 0; r < repeat; r++) {
             long start = System.currentTimeMillis();
             for (int c = 0; c < count; c++) {
-                txnScheduler.runTask(new TestAbstractKernelRunnable() {
-                        public void run() throws Exception {
-                            Counters counters =
-                                (Counters) service.getBinding("counters");
-                            for (int i = 0; i < items; i++) {
-                                counters.get(i);
-                            }
-                        }}, taskOwner);
+                if (readOnly) {
+                    txnScheduler.runReadOnlyTask(task, taskOwner);
+                } else {
+                    txnScheduler.runTask(task, taskOwner);
+                }
             }
             long stop = System.currentTimeMillis();
             System.err.println(
@@ -298,6 +332,109 @@ public class TestDataServicePerformance extends Assert {
         }
     }
 
+    /**
+     * Tests reading the same objects from multiple threads concurrently, to
+     * measure contention in the serialization path, including class
+     * descriptor lookups.  Set test.threads to values such as 8, 32, and 64
+     * to see how throughput scales.
+     */
+    @Test
+    public void testConcurrentRead() throws Exception {
+	Properties props = getNodeProps();
+	props.setProperty("com.sun.sgs.txn.timeout", "10000");
+	serverNode = new SgsTestNode("TestDataServicePerformance", null, props);
+	final DataService service = serverNode.getDataService();
+        final TransactionScheduler txnScheduler =
+	    serverNode.getSystemRegistry().getComponent(
+		TransactionScheduler.class);
+        final Identity taskOwner = serverNode.getProxy().getCurrentOwner();
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+                public void run() {
+                    service.setBinding("counters", new Counters(items));
+                }}, taskOwner);
+	final TestAbstractKernelRunnable task =
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    Counters counters =
+			(Counters) service.getBinding("counters");
+		    for (int i = 0; i < items; i++) {
+			counters.get(i);
+		    }
+		}
+	    };
+        for (int r = 0; r < repeat; r++) {
+	    final List<Throwable> failures = new ArrayList<Throwable>();
+	    Thread[] threadArray = new Thread[threads];
+	    for (int t = 0; t < threads; t++) {
+		threadArray[t] = new Thread() {
+		    public void run() {
+			try {
+			    for (int c = 0; c < count; c++) {
+				txnScheduler.runTask(task, taskOwner);
+			    }
+			} catch (Throwable e) {
+			    synchronized (failures) {
+				failures.add(e);
+			    }
+			}
+		    }
+		};
+	    }
+            long start = System.currentTimeMillis();
+	    for (Thread thread : threadArray) {
+		thread.start();
+	    }
+	    for (Thread thread : threadArray) {
+		thread.join();
+	    }
+            long stop = System.currentTimeMillis();
+	    if (!failures.isEmpty()) {
+		throw new Exception("Task failed", failures.get(0));
+	    }
+            System.err.println(
+                "Time: " + (stop - start) / (float) (count * threads) +
+                " ms per transaction, " + threads + " threads");
+        }
+    }
+
+    /**
+     * Tests transactions that create and then read many objects, to measure
+     * the cost of maintaining the table of references for the transaction.
+     * Set test.references to values from 10 to 100000 to see how the cost
+     * grows with the size of the transaction.
+     */
+    @Test
+    public void testManyReferences() throws Exception {
+	Properties props = getNodeProps();
+	props.setProperty("com.sun.sgs.txn.timeout", "100000");
+	serverNode = new SgsTestNode("TestDataServicePerformance", null, props);
+	final DataService service = serverNode.getDataService();
+        TransactionScheduler txnScheduler = serverNode.getSystemRegistry().
+            getComponent(TransactionScheduler.class);
+        Identity taskOwner = serverNode.getProxy().getCurrentOwner();
+        for (int r = 0; r < repeat; r++) {
+            long start = System.currentTimeMillis();
+            txnScheduler.runTask(new TestAbstractKernelRunnable() {
+                    public void run() {
+                        service.setBinding(
+			    "references", new Counters(references));
+                    }}, taskOwner);
+            long created = System.currentTimeMillis();
+            txnScheduler.runTask(new TestAbstractKernelRunnable() {
+                    public void run() throws Exception {
+                        Counters counters =
+                            (Counters) service.getBinding("references");
+                        for (int i = 0; i < references; i++) {
+                            counters.get(i);
+                        }
+                    }}, taskOwner);
+            long stop = System.currentTimeMillis();
+            System.err.println(
+                "Create: " + (created - start) + " ms, read: " +
+		(stop - created) + " ms, for " + references + " references");
+        }
+    }
+
     /* -- Other methods and classes -- */
 
     /** A utility to get the properties for the node. */
@@ -531,6 +531,123 @@ public class TestDataStoreImpl extends Assert {
 	}
     }
 
+    /* -- Test getObjects -- */
+
+    @Test
+    public void testGetObjectsNullTxn() {
+	try {
+	    store.getObjects(null, new long[] { 3 }, false);
+	    fail("Expected NullPointerException");
+	} catch (NullPointerException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testGetObjectsNullOids() {
+	try {
+	    store.getObjects(txn, null, false);
+	    fail("Expected NullPointerException");
+	} catch (NullPointerException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testGetObjectsBadId() {
+	try {
+	    store.getObjects(txn, new long[] { id, -3 }, false);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testGetObjectsEmpty() throws Exception {
+	byte[][] result = store.getObjects(txn, new long[0], false);
+	assertEquals(0, result.length);
+    }
+
+    /* -- Unusual states -- */
+    private final Action getObjects = new Action() {
+	void setUp() throws Exception {
+	    store.setObject(txn, id, new byte[] { 0 });
+	    txn.commit();
+	    txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	    store.getObjects(txn, new long[] { id }, false);
+	}
+	void run() { store.getObjects(txn, new long[] { id }, false); };
+    };
+    @Test
+    public void testGetObjectsAborted() throws Exception {
+	testAborted(getObjects);
+    }
+    @Test
+    public void testGetObjectsPreparedReadOnly() throws Exception {
+	testPreparedReadOnly(getObjects);
+    }
+    @Test
+    public void testGetObjectsPreparedModified() throws Exception {
+	testPreparedModified(getObjects);
+    }
+    @Test
+    public void testGetObjectsCommitted() throws Exception {
+	testCommitted(getObjects);
+    }
+    @Test
+    public void testGetObjectsWrongTxn() throws Exception {
+	testWrongTxn(getObjects);
+    }
+    @Test
+    public void testGetObjectsShuttingDownExistingTxn() throws Exception {
+	testShuttingDownExistingTxn(getObjects);
+    }
+    @Test
+    public void testGetObjectsShuttingDownNewTxn() throws Exception {
+	testShuttingDownNewTxn(getObjects);
+    }
+    @Test
+    public void testGetObjectsShutdown() throws Exception {
+	testShutdown(getObjects);
+    }
+
+    @Test
+    public void testGetObjectsSuccess() throws Exception {
+	long id2 = store.createObject(txn);
+	long id3 = store.createObject(txn);
+	byte[] data = { 1, 2 };
+	byte[] data3 = { 3 };
+	store.setObjects(txn, new long[] { id, id3 },
+			 new byte[][] { data, data3 });
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	byte[][] result =
+	    store.getObjects(txn, new long[] { id, id2, id3, id }, false);
+	assertEquals(4, result.length);
+	assertTrue(Arrays.equals(data, result[0]));
+	assertNull(result[1]);
+	assertTrue(Arrays.equals(data3, result[2]));
+	assertTrue(Arrays.equals(data, result[3]));
+	/* Getting objects is not an update */
+	store.getObjects(txn, new long[] { id, id3 }, true);
+	assertTrue(txn.prepare());
+    }
+
+    @Test
+    public void testGetObjectsSeesModifications() throws Exception {
+	long id2 = store.createObject(txn);
+	store.setObject(txn, id, new byte[] { 1 });
+	store.setObject(txn, id2, new byte[] { 2 });
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	store.setObject(txn, id, new byte[] { 3 });
+	store.removeObject(txn, id2);
+	byte[][] result = store.getObjects(txn, new long[] { id, id2 }, false);
+	assertTrue(Arrays.equals(new byte[] { 3 }, result[0]));
+	assertNull(result[1]);
+    }
+
     /* -- Test setObject -- */
 
     @Test
@@ -1731,6 +1848,74 @@ public class TestDataStoreImpl extends Assert {
 	assertTrue(Arrays.equals(bytes, value));
     }
 
+    /* -- Test group commit -- */
+
+    @Test
+    public void testGroupCommitConcurrent() throws Exception {
+	txn.abort(new RuntimeException("abort"));
+	txn = null;
+	String directory = createDirectory();
+	Properties groupProps = createProperties(
+	    DataStoreImplClassName + ".directory", directory,
+	    DataStoreImplClassName + ".group.commit", "true",
+	    DataStoreImplClassName + ".group.commit.max.batch", "4",
+	    DataStoreImplClassName + ".group.commit.max.wait", "20");
+	final DataStore groupStore = createDataStore(groupProps);
+	int numThreads = 8;
+	final long[] ids = new long[numThreads];
+	final AtomicReference<Throwable> failure =
+	    new AtomicReference<Throwable>();
+	Thread[] threads = new Thread[numThreads];
+	for (int i = 0; i < numThreads; i++) {
+	    final int n = i;
+	    threads[i] = new Thread() {
+		public void run() {
+		    try {
+			DummyTransaction threadTxn = createTransaction(
+			    UsePrepareAndCommit.ARBITRARY);
+			ids[n] = groupStore.createObject(threadTxn);
+			groupStore.setObject(
+			    threadTxn, ids[n], new byte[] { (byte) n });
+			threadTxn.commit();
+		    } catch (Throwable t) {
+			failure.set(t);
+		    }
+		}
+	    };
+	    threads[i].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join(10000);
+	}
+	if (failure.get() != null) {
+	    throw new Exception(
+		"Unexpected exception: " + failure.get(), failure.get());
+	}
+	groupStore.shutdown();
+	DataStore restarted = createDataStore(groupProps);
+	DummyTransaction checkTxn =
+	    createTransaction(UsePrepareAndCommit.ARBITRARY);
+	for (int i = 0; i < numThreads; i++) {
+	    assertSameBytes(new byte[] { (byte) i },
+			    restarted.getObject(checkTxn, ids[i], false));
+	}
+	checkTxn.commit();
+	restarted.shutdown();
+    }
+
+    @Test
+    public void testGroupCommitBadMaxBatch() throws Exception {
+	props.setProperty(DataStoreImplClassName + ".group.commit", "true");
+	props.setProperty(
+	    DataStoreImplClassName + ".group.commit.max.batch", "0");
+	try {
+	    new DataStoreImpl(props, systemRegistry, txnProxy);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
     /* -- Test getClassId -- */
 
     @Test
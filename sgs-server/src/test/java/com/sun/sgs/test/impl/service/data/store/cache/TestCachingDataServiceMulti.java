@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.test.impl.service.data.store.cache;
+
+import com.sun.sgs.impl.service.data.DataServiceImpl;
+import com.sun.sgs.impl.service.data.store.cache.CachingDataStore;
+import com.sun.sgs.test.impl.service.data.BasicDataServiceMultiTest;
+import com.sun.sgs.test.util.SgsTestNode;
+import java.util.Properties;
+import org.junit.Before;
+
+/**
+ * Perform multi-node tests on the {@code DataService} using the caching data
+ * store, so that the nodes need to use callbacks to keep their caches
+ * coherent.
+ */
+public class TestCachingDataServiceMulti extends BasicDataServiceMultiTest {
+
+    /** Creates the server node and application nodes. */
+    @Before
+    @Override
+    public void setUp() throws Exception {
+	if (serverNode == null) {
+	    serverNode = new SgsTestNode(
+		appName, null, getServerProperties());
+	}
+	while (numAppNodes < appNodes.size()) {
+	    appNodes.remove(0).shutdown(true);
+	}
+	while (numAppNodes > appNodes.size()) {
+	    Properties props =
+		SgsTestNode.getDefaultProperties(appName, serverNode, null);
+	    props.setProperty(DataServiceImpl.DATA_STORE_CLASS_PROPERTY,
+			      CachingDataStore.class.getName());
+	    appNodes.add(new SgsTestNode(serverNode, null, props));
+	}
+    }
+
+    @Override
+    protected Properties getServerProperties() throws Exception {
+	Properties props =
+	    SgsTestNode.getDefaultProperties(appName, null, null);
+	props.setProperty(DataServiceImpl.DATA_STORE_CLASS_PROPERTY,
+			  CachingDataStore.class.getName());
+	return props;
+    }
+}
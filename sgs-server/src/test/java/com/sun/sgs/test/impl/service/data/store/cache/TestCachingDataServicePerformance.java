@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+
+package com.sun.sgs.test.impl.service.data.store.cache;
+
+import com.sun.sgs.impl.service.data.DataServiceImpl;
+import com.sun.sgs.impl.service.data.store.cache.CachingDataStore;
+import com.sun.sgs.test.impl.service.data.store.net.TestDataServiceClientPerformance;
+import java.util.Properties;
+
+/**
+ * Test the performance of the data service using a caching data store, with
+ * the same configuration and operation counts as the networked data store
+ * test so that the results can be compared directly.
+ */
+public class TestCachingDataServicePerformance
+    extends TestDataServiceClientPerformance
+{
+    /** Creates an instance. */
+    public TestCachingDataServicePerformance() { }
+
+    /** Configures the node to use a caching data store. */
+    @Override
+    protected Properties getNodeProps() throws Exception {
+	Properties props = super.getNodeProps();
+	props.setProperty(DataServiceImpl.DATA_STORE_CLASS_PROPERTY,
+			  CachingDataStore.class.getName());
+	return props;
+    }
+}
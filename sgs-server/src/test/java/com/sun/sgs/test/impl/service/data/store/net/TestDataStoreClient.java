@@ -240,6 +240,40 @@ public class TestDataStoreClient extends TestDataStoreImpl {
 	}
     }
     
+    @Test
+    public void testConstructorZeroObjectIdBlockSize() throws Exception {
+	txn.abort(new RuntimeException("abort"));
+	store.shutdown();
+	store = null;
+	txn = createTransaction();
+	props.setProperty(
+	    DataStoreNetPackage + ".object.id.block.size", "0");
+	try {
+	    createDataStore(props);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testConstructorSmallObjectIdMaxBlockSize() throws Exception {
+	txn.abort(new RuntimeException("abort"));
+	store.shutdown();
+	store = null;
+	txn = createTransaction();
+	props.setProperty(
+	    DataStoreNetPackage + ".object.id.block.size", "100");
+	props.setProperty(
+	    DataStoreNetPackage + ".object.id.max.block.size", "99");
+	try {
+	    createDataStore(props);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
     @Test
     public void testConstructorAppButNoServerHost() throws Exception {
         txn.abort(new RuntimeException("abort"));
@@ -281,6 +315,38 @@ public class TestDataStoreClient extends TestDataStoreImpl {
 	}
     }
 
+    /**
+     * Test creating enough objects to use up several blocks of object IDs,
+     * and that the objects can be stored and read back.
+     */
+    @Test
+    public void testCreateObjectManyBlocks() throws Exception {
+	txn.abort(new RuntimeException("abort"));
+	store.shutdown();
+	props.setProperty(DataStoreNetPackage + ".object.id.block.size", "4");
+	props.setProperty(
+	    DataStoreNetPackage + ".object.id.max.block.size", "16");
+	store = createDataStore(props);
+	txn = createTransaction();
+	int count = 100;
+	long[] ids = new long[count];
+	for (int i = 0; i < count; i++) {
+	    ids[i] = store.createObject(txn);
+	    assertTrue(ids[i] >= 0);
+	    if (i > 0) {
+		assertTrue(ids[i] > ids[i - 1]);
+	    }
+	    store.setObject(txn, ids[i], new byte[] { (byte) i });
+	}
+	txn.commit();
+	txn = createTransaction();
+	for (int i = 0; i < count; i++) {
+	    byte[] data = store.getObject(txn, ids[i], false);
+	    assertEquals(1, data.length);
+	    assertEquals((byte) i, data[0]);
+	}
+    }
+
     /**
      * Test what happens when joining a transaction when the server has failed.
      */
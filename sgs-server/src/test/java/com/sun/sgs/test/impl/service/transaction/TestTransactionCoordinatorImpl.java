@@ -913,6 +913,40 @@ public class TestTransactionCoordinatorImpl {
 	assertSame(null, exception.get());
     }
 
+    /* -- Test Transaction.isReadOnly -- */
+
+    @Test
+    public void testIsReadOnly() throws Exception {
+	assertFalse(txn.isReadOnly());
+	TransactionHandle handle2 = coordinator.createTransaction(
+	    coordinator.getDefaultTimeout(), false);
+	assertFalse(handle2.getTransaction().isReadOnly());
+	handle2.getTransaction().abort(abortXcp);
+	handle2 = coordinator.createTransaction(ScheduledTask.UNBOUNDED, true);
+	assertTrue(handle2.getTransaction().isReadOnly());
+	handle2.getTransaction().abort(abortXcp);
+    }
+
+    @Test
+    public void testCommitReadOnly() throws Exception {
+	txn.abort(abortXcp);
+	handle = coordinator.createTransaction(
+	    coordinator.getDefaultTimeout(), true);
+	txn = handle.getTransaction();
+	DummyTransactionParticipant[] participants = {
+	    new DummyNonDurableTransactionParticipant(),
+	    new DummyTransactionParticipant()
+	};
+	for (TransactionParticipant participant : participants) {
+	    txn.join(participant);
+	}
+	handle.commit();
+	for (DummyTransactionParticipant participant : participants) {
+	    assertEquals(State.COMMITTED, participant.getState());
+	}
+	assertCommitted();
+    }
+
     /* -- Test Transaction.join -- */
 
     @Test
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.test.impl.util;
+
+import com.sun.sgs.impl.util.TimingWheel;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the {@link TimingWheel} class. */
+@RunWith(FilteredNameRunner.class)
+public class TestTimingWheel extends Assert {
+
+    /** The number of milliseconds in a tick for most tests. */
+    private static final long TICK = 2;
+
+    /** The wheel to test. */
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+	wheel = new TimingWheel("TestTimingWheel", TICK);
+    }
+
+    @After
+    public void tearDown() {
+	wheel.shutdown();
+    }
+
+    /* -- Tests -- */
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullName() {
+	new TimingWheel(null, 1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorIllegalTick() {
+	new TimingWheel("TestTimingWheel", 0);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testScheduleNullRunnable() {
+	wheel.schedule(null, System.currentTimeMillis());
+    }
+
+    @Test
+    public void testScheduleRunsOnTime() throws Exception {
+	/* Use delays that fall in the first and second levels */
+	long[] delays = { 0, 5, 50, 700, 1500 };
+	List<TimeRecorder> recorders = new ArrayList<TimeRecorder>();
+	long now = System.currentTimeMillis();
+	for (long delay : delays) {
+	    TimeRecorder recorder = new TimeRecorder(now + delay);
+	    recorders.add(recorder);
+	    wheel.schedule(recorder, now + delay);
+	}
+	assertEquals(delays.length, wheel.size());
+	for (TimeRecorder recorder : recorders) {
+	    recorder.check();
+	}
+	assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testSchedulePast() throws Exception {
+	TimeRecorder recorder =
+	    new TimeRecorder(System.currentTimeMillis() - 1000);
+	wheel.schedule(recorder, recorder.time);
+	recorder.check();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+	AtomicInteger count = new AtomicInteger();
+	long now = System.currentTimeMillis();
+	TimingWheel.Timeout timeout =
+	    wheel.schedule(new Counter(count), now + 50);
+	TimeRecorder recorder = new TimeRecorder(now + 100);
+	wheel.schedule(recorder, recorder.time);
+	assertEquals(2, wheel.size());
+	assertTrue(timeout.cancel());
+	assertFalse(timeout.cancel());
+	assertEquals(1, wheel.size());
+	recorder.check();
+	assertEquals(0, count.get());
+    }
+
+    @Test
+    public void testCancelAfterRun() throws Exception {
+	TimeRecorder recorder =
+	    new TimeRecorder(System.currentTimeMillis() + 10);
+	TimingWheel.Timeout timeout = wheel.schedule(recorder, recorder.time);
+	recorder.check();
+	assertFalse(timeout.cancel());
+	assertEquals(recorder.time, timeout.getTime());
+    }
+
+    @Test
+    public void testExceptionDoesNotStopWheel() throws Exception {
+	long now = System.currentTimeMillis();
+	wheel.schedule(new Runnable() {
+	    public void run() {
+		throw new RuntimeException("Intentional exception");
+	    }
+	}, now + 10);
+	TimeRecorder recorder = new TimeRecorder(now + 10);
+	wheel.schedule(recorder, recorder.time);
+	recorder.check();
+    }
+
+    @Test
+    public void testIdleThenSchedule() throws Exception {
+	Thread.sleep(50);
+	TimeRecorder recorder =
+	    new TimeRecorder(System.currentTimeMillis() + 20);
+	wheel.schedule(recorder, recorder.time);
+	recorder.check();
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+	AtomicInteger count = new AtomicInteger();
+	wheel.schedule(new Counter(count), System.currentTimeMillis() + 20);
+	wheel.shutdown();
+	assertEquals(0, wheel.size());
+	Thread.sleep(50);
+	assertEquals(0, count.get());
+	try {
+	    wheel.schedule(new Counter(count), System.currentTimeMillis());
+	    fail("Expected IllegalStateException");
+	} catch (IllegalStateException e) {
+	    System.err.println(e);
+	}
+	wheel.shutdown();
+    }
+
+    @Test
+    public void testManyTimers() throws Exception {
+	int count = 10000;
+	CountDownLatch latch = new CountDownLatch(count);
+	Random random = new Random(37);
+	long now = System.currentTimeMillis();
+	for (int i = 0; i < count; i++) {
+	    wheel.schedule(new Latch(latch), now + random.nextInt(1000));
+	}
+	assertTrue(latch.await(5, TimeUnit.SECONDS));
+	assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Compares the time to schedule and then cancel many timers with this
+     * class and with {@link Timer}, for 10 thousand to 1 million outstanding
+     * timers.
+     */
+    @Test
+    public void testPerformance() throws Exception {
+	int repeat = Integer.getInteger("test.repeat", 2);
+	String counts = System.getProperty("test.counts", "10000,100000");
+	/* Use 10000,100000,1000000 for the full comparison */
+	for (String countString : counts.split(",")) {
+	    int count = Integer.parseInt(countString.trim());
+	    Runnable runnable = new Counter(new AtomicInteger());
+	    for (int r = 0; r < repeat; r++) {
+		Random random = new Random(r);
+		long now = System.currentTimeMillis();
+		TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[count];
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+		    timeouts[i] = wheel.schedule(
+			runnable, now + 60000 + random.nextInt(60000));
+		}
+		long scheduled = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+		    timeouts[i].cancel();
+		}
+		long cancelled = System.nanoTime();
+		System.err.println(
+		    "TimingWheel, " + count + " timers: schedule " +
+		    ((scheduled - start) / count) + " ns, cancel " +
+		    ((cancelled - scheduled) / count) + " ns");
+		timeouts = null;
+
+		Timer timer = new Timer();
+		TimerTask[] tasks = new TimerTask[count];
+		random = new Random(r);
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+		    tasks[i] = new CounterTimerTask();
+		    timer.schedule(tasks[i], 60000 + random.nextInt(60000));
+		}
+		scheduled = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+		    tasks[i].cancel();
+		}
+		timer.purge();
+		cancelled = System.nanoTime();
+		timer.cancel();
+		System.err.println(
+		    "Timer, " + count + " timers: schedule " +
+		    ((scheduled - start) / count) + " ns, cancel " +
+		    ((cancelled - scheduled) / count) + " ns");
+	    }
+	}
+    }
+
+    /* -- Other classes and methods -- */
+
+    /** Records when it is run, and checks that it was not run early. */
+    private static class TimeRecorder implements Runnable {
+	final long time;
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private volatile long runTime;
+	TimeRecorder(long time) {
+	    this.time = time;
+	}
+	public void run() {
+	    runTime = System.currentTimeMillis();
+	    latch.countDown();
+	}
+	void check() throws InterruptedException {
+	    long wait = Math.max(0, time - System.currentTimeMillis()) + 1000;
+	    assertTrue("Timer did not run",
+		       latch.await(wait, TimeUnit.MILLISECONDS));
+	    assertTrue("Timer ran early: " + (time - runTime) + " ms",
+		       runTime >= time);
+	}
+    }
+
+    /** Increments a counter. */
+    private static class Counter implements Runnable {
+	private final AtomicInteger count;
+	Counter(AtomicInteger count) {
+	    this.count = count;
+	}
+	public void run() {
+	    count.incrementAndGet();
+	}
+    }
+
+    /** Counts down a latch. */
+    private static class Latch implements Runnable {
+	private final CountDownLatch latch;
+	Latch(CountDownLatch latch) {
+	    this.latch = latch;
+	}
+	public void run() {
+	    latch.countDown();
+	}
+    }
+
+    /** A timer task that does nothing. */
+    private static class CounterTimerTask extends TimerTask {
+	public void run() { }
+    }
+}
@@ -38,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -189,6 +190,26 @@ public class TestLockManager extends Assert {
 	assertTimeout(acquire2.getResult(), locker);
     }
 
+    /**
+     * Test that a timeout reports the current owner of the lock rather than
+     * the owner at the time the request blocked.
+     */
+    @Test
+    public void testLockTimeoutCurrentOwner() throws Exception {
+	init(100L, numKeyMaps);
+	Locker<String> locker2 = createLocker(lockManager);
+	Locker<String> locker3 = createLocker(lockManager);
+	assertGranted(acquireLock(locker, "o1", true));
+	AcquireLock acquire2 = new AcquireLock(locker2, "o1", true);
+	acquire2.assertBlocked();
+	AcquireLock acquire3 = new AcquireLock(locker3, "o1", true);
+	acquire3.assertBlocked();
+	lockManager.releaseLock(locker, "o1");
+	assertGranted(acquire2.getResult());
+	Thread.sleep(150);
+	assertTimeout(acquire3.getResult(), locker2);
+    }
+
     /**
      * Test what happens if we abandon the attempt to acquire a lock that ends
      * in a timeout, and then try again after the conflicting transaction
@@ -541,6 +562,217 @@ public class TestLockManager extends Assert {
 	}
     }
 
+    /* -- Test uncontended locks -- */
+
+    @Test
+    public void testUpgradeUncontended() {
+	assertGranted(acquireLock(locker, "o1", false));
+	assertGranted(acquireLock(locker, "o1", true));
+	List<LockRequest<String>> owners = lockManager.getOwners("o1");
+	assertEquals(1, owners.size());
+	assertEquals(locker, owners.get(0).getLocker());
+	assertTrue(owners.get(0).getForWrite());
+	lockManager.releaseLock(locker, "o1");
+	assertEquals(Collections.emptyList(), lockManager.getOwners("o1"));
+    }
+
+    @Test
+    public void testReleaseSharedLock() throws Exception {
+	Locker<String> locker2 = createLocker(lockManager);
+	assertGranted(acquireLock(locker, "o1", false));
+	assertGranted(acquireLock(locker2, "o1", false));
+	assertEquals(2, lockManager.getOwners("o1").size());
+	lockManager.releaseLock(locker2, "o1");
+	List<LockRequest<String>> owners = lockManager.getOwners("o1");
+	assertEquals(1, owners.size());
+	assertEquals(locker, owners.get(0).getLocker());
+	assertEquals(Collections.emptyList(), lockManager.getWaiters("o1"));
+	/* The remaining owner can still upgrade */
+	assertGranted(acquireLock(locker, "o1", true));
+	AcquireLock acquire = new AcquireLock(locker2, "o1", false);
+	acquire.assertBlocked();
+	lockManager.releaseLock(locker, "o1");
+	assertGranted(acquire.getResult());
+	lockManager.releaseLock(locker2, "o1");
+	assertEquals(Collections.emptyList(), lockManager.getOwners("o1"));
+    }
+
+    /**
+     * Test that a locker that finds another locker as the only owner of an
+     * uncontended lock does not replace an equal, but different, request
+     * that a third locker made after the first owner released the lock.
+     */
+    @Test
+    public void testOnlyOwnerReplacedByEqualRequest() throws Exception {
+	final LockManager<String> manager =
+	    new LockManager<String>(lockTimeout, numKeyMaps);
+	Locker<String> locker1 = new EqualRequestLocker(manager);
+	final Locker<String> locker2 = new EqualRequestLocker(manager);
+	Locker<String> locker3 = new EqualRequestLocker(manager);
+	assertNull(manager.lock(locker1, "o1", false));
+	EqualRequest request1 = (EqualRequest) manager.getOwners("o1").get(0);
+	/* Pause locker2 after it has read the lock table entry */
+	final FutureTask<LockConflict<String>> task =
+	    new FutureTask<LockConflict<String>>(
+		new Callable<LockConflict<String>>() {
+		    public LockConflict<String> call() {
+			return manager.lockNoWait(locker2, "o1", false);
+		    }
+		});
+	Thread thread = new Thread(task);
+	request1.pause(thread);
+	thread.start();
+	assertTrue(request1.paused.await(1, TimeUnit.SECONDS));
+	/* Replace locker1's request with an equal one from locker3 */
+	manager.releaseLock(locker1, "o1");
+	assertNull(manager.lock(locker3, "o1", false));
+	EqualRequest request3 = (EqualRequest) manager.getOwners("o1").get(0);
+	assertEquals(request1, request3);
+	request1.resume.countDown();
+	assertNull(task.get(1, TimeUnit.SECONDS));
+	List<LockRequest<String>> owners = manager.getOwners("o1");
+	assertEquals(2, owners.size());
+	for (LockRequest<String> owner : owners) {
+	    assertNotSame(locker1, owner.getLocker());
+	}
+	manager.releaseLock(locker2, "o1");
+	owners = manager.getOwners("o1");
+	assertEquals(1, owners.size());
+	assertSame(request3, owners.get(0));
+	manager.releaseLock(locker3, "o1");
+	assertEquals(Collections.emptyList(), manager.getOwners("o1"));
+    }
+
+    /**
+     * A lock request that, like the requests used by the access
+     * coordinator, considers requests for the same key and access type to
+     * be equal, and that can pause a thread that asks for its locker.
+     */
+    private static class EqualRequest extends LockRequest<String> {
+	final CountDownLatch paused = new CountDownLatch(1);
+	final CountDownLatch resume = new CountDownLatch(1);
+	private volatile Thread pauseThread;
+	EqualRequest(Locker<String> locker, String key, boolean forWrite,
+		     boolean upgrade)
+	{
+	    super(locker, key, forWrite, upgrade);
+	}
+	void pause(Thread thread) {
+	    pauseThread = thread;
+	}
+	@Override
+	public Locker<String> getLocker() {
+	    if (Thread.currentThread() == pauseThread) {
+		pauseThread = null;
+		paused.countDown();
+		try {
+		    resume.await(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+		}
+	    }
+	    return super.getLocker();
+	}
+	@Override
+	public boolean equals(Object object) {
+	    if (object instanceof EqualRequest) {
+		EqualRequest request = (EqualRequest) object;
+		return getKey().equals(request.getKey()) &&
+		    getForWrite() == request.getForWrite();
+	    }
+	    return false;
+	}
+	@Override
+	public int hashCode() {
+	    return getKey().hashCode();
+	}
+    }
+
+    /** A locker that creates {@link EqualRequest} lock requests. */
+    private static class EqualRequestLocker extends BasicLocker<String> {
+	EqualRequestLocker(LockManager<String> lockManager) {
+	    super(lockManager);
+	}
+	@Override
+	protected LockRequest<String> newLockRequest(
+	    String key, boolean forWrite, boolean upgrade)
+	{
+	    return new EqualRequest(this, key, forWrite, upgrade);
+	}
+    }
+
+    /* -- Test concurrent access -- */
+
+    /**
+     * Test that write locks provide mutual exclusion when many threads
+     * request the same few locks, switching between uncontended and
+     * contended locks.
+     */
+    @Test
+    public void testConcurrentWriteLocks() throws Exception {
+	final int numThreads = 8;
+	final int numKeys = 3;
+	final int repeat = 2000;
+	final int[] holders = new int[numKeys];
+	final Throwable[] failure = { null };
+	Thread[] threads = new Thread[numThreads];
+	for (int t = 0; t < numThreads; t++) {
+	    threads[t] = new Thread() {
+		public void run() {
+		    try {
+			Locker<String> threadLocker =
+			    createLocker(lockManager);
+			for (int i = 0; i < repeat; i++) {
+			    int k = i % numKeys;
+			    String key = "o" + k;
+			    LockConflict<String> conflict =
+				lockManager.lock(threadLocker, key, true);
+			    if (conflict != null) {
+				/*
+				 * Abort, releasing the lock in case it was
+				 * granted to a deadlock victim, and try the
+				 * next one
+				 */
+				lockManager.releaseLock(threadLocker, key);
+				if (conflict.getType() ==
+				    LockConflictType.DEADLOCK)
+				{
+				    threadLocker = createLocker(lockManager);
+				}
+				continue;
+			    }
+			    synchronized (holders) {
+				if (++holders[k] != 1) {
+				    throw new AssertionError(
+					"Multiple holders for " + key);
+				}
+			    }
+			    synchronized (holders) {
+				holders[k]--;
+			    }
+			    lockManager.releaseLock(threadLocker, key);
+			}
+		    } catch (Throwable e) {
+			synchronized (failure) {
+			    failure[0] = e;
+			}
+		    }
+		}
+	    };
+	    threads[t].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	if (failure[0] != null) {
+	    throw new RuntimeException("Failure: " + failure[0], failure[0]);
+	}
+	for (int k = 0; k < numKeys; k++) {
+	    String key = "o" + k;
+	    assertEquals(Collections.emptyList(), lockManager.getOwners(key));
+	    assertEquals(Collections.emptyList(), lockManager.getWaiters(key));
+	}
+    }
+
     /* -- Methods for asserting the lock conflict status -- */
 
     /** Asserts that the lock was granted. */
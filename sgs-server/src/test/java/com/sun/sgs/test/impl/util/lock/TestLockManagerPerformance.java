@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * The source code is governed by a GPLv2 license that can be found
+ * in the LICENSE file.
+ */
+
+package com.sun.sgs.test.impl.util.lock;
+
+import com.sun.sgs.impl.util.lock.LockConflict;
+import com.sun.sgs.impl.util.lock.TxnLockManager;
+import com.sun.sgs.impl.util.lock.TxnLocker;
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import com.sun.sgs.tools.test.IntegrationTest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the throughput of the {@link TxnLockManager} class with various
+ * numbers of threads, each repeatedly running a simulated transaction that
+ * acquires and then releases a few locks.  Keys are chosen either uniformly
+ * or with a skewed distribution in which a few keys are used by most
+ * transactions.  The following properties can be used to control the test:
+ *
+ * <ul>
+ * <li>{@code test.threads} - a comma-separated list of thread counts,
+ *     default {@code 1,2,4,8,16,32,64}
+ * <li>{@code test.count} - the number of transactions per thread, default
+ *     {@code 20000}
+ * <li>{@code test.keys} - the number of distinct keys, default {@code
+ *     100000}
+ * <li>{@code test.locks} - the number of locks per transaction, default
+ *     {@code 4}
+ * <li>{@code test.write.percent} - the percentage of write locks, default
+ *     {@code 20}
+ * <li>{@code test.skew} - the exponent of the skewed distribution, default
+ *     {@code 3}
+ * <li>{@code test.waiters} - the number of requests blocked on a single key
+ *     when measuring the cost of blocking, default {@code 128}
+ * <li>{@code test.chain} - the number of lockers in the chain of waiting
+ *     lockers that owns that key, default {@code 8}
+ * <li>{@code test.deadlock.check.interval} - the deadlock check interval to
+ *     compare with checking each blocked request, default {@code 1000}
+ * </ul>
+ */
+@IntegrationTest
+@RunWith(FilteredNameRunner.class)
+public class TestLockManagerPerformance extends Assert {
+
+    /** The numbers of threads to measure. */
+    private static final String threads =
+	System.getProperty("test.threads", "1,2,4,8,16,32,64");
+
+    /** The number of transactions per thread. */
+    private static final int count = Integer.getInteger("test.count", 20000);
+
+    /** The number of distinct keys. */
+    private static final int keys = Integer.getInteger("test.keys", 100000);
+
+    /** The number of locks acquired per transaction. */
+    private static final int locks = Integer.getInteger("test.locks", 4);
+
+    /** The percentage of locks acquired for write. */
+    private static final int writePercent =
+	Integer.getInteger("test.write.percent", 20);
+
+    /**
+     * The exponent used for the skewed key distribution: a key is chosen by
+     * raising a uniform random number between 0 and 1 to this power.
+     */
+    private static final int skew = Integer.getInteger("test.skew", 3);
+
+    /** The number of requests blocked on a single key. */
+    private static final int waiters =
+	Integer.getInteger("test.waiters", 128);
+
+    /** The number of lockers in the chain that owns the blocked key. */
+    private static final int chain = Integer.getInteger("test.chain", 8);
+
+    /** The background deadlock check interval. */
+    private static final long deadlockCheckInterval =
+	Long.getLong("test.deadlock.check.interval", 1000);
+
+    /** The lock timeout. */
+    private static final long lockTimeout = 1000;
+
+    /** The number of key maps. */
+    private static final int numKeyMaps = 32;
+
+    @Test
+    public void testUniformKeys() throws Exception {
+	for (String n : threads.split(",")) {
+	    measure(Integer.parseInt(n.trim()), false);
+	}
+    }
+
+    @Test
+    public void testSkewedKeys() throws Exception {
+	for (String n : threads.split(",")) {
+	    measure(Integer.parseInt(n.trim()), true);
+	}
+    }
+
+    /**
+     * Measures the cost of blocking many requests on a single key whose
+     * owner is waiting for a chain of other lockers, checking for deadlock
+     * either as each request blocks or in the background.
+     */
+    @Test
+    public void testBlockedRequests() throws Exception {
+	measureBlocked(0);
+	measureBlocked(deadlockCheckInterval);
+    }
+
+    /**
+     * Blocks requests using a lock manager with the specified deadlock check
+     * interval, and prints the average time to block.
+     */
+    private void measureBlocked(long checkInterval) {
+	long elapsed = 0;
+	for (int r = 0; r < count / waiters; r++) {
+	    TxnLockManager<Long> lockManager = new TxnLockManager<Long>(
+		lockTimeout, numKeyMaps, checkInterval);
+	    try {
+		/* Locker i owns key i and waits for key i + 1 */
+		List<TxnLocker<Long>> chainLockers =
+		    new ArrayList<TxnLocker<Long>>(chain);
+		for (long i = 0; i < chain; i++) {
+		    TxnLocker<Long> locker = new TxnLocker<Long>(
+			lockManager, new DummyTransaction(), i);
+		    assertNull(lockManager.lock(locker, i, true));
+		    chainLockers.add(locker);
+		}
+		for (int i = 0; i < chain - 1; i++) {
+		    assertNotNull(
+			lockManager.lockNoWait(
+			    chainLockers.get(i), (long) i + 1, true));
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < waiters; i++) {
+		    TxnLocker<Long> locker = new TxnLocker<Long>(
+			lockManager, new DummyTransaction(), chain + i);
+		    assertNotNull(lockManager.lockNoWait(locker, 0L, true));
+		}
+		elapsed += System.nanoTime() - start;
+	    } finally {
+		lockManager.shutdown();
+	    }
+	}
+	long total = (long) (count / waiters) * waiters;
+	System.err.println(
+	    waiters + " blocked requests, chain " + chain +
+	    ", deadlock check interval " + checkInterval + ": " +
+	    (elapsed / Math.max(1, total)) + " ns/request");
+    }
+
+    /**
+     * Runs the transactions with the specified number of threads and key
+     * distribution, and prints the throughput.
+     */
+    private void measure(int numThreads, final boolean skewed)
+	throws Exception
+    {
+	final TxnLockManager<Long> lockManager =
+	    new TxnLockManager<Long>(lockTimeout, numKeyMaps);
+	final CountDownLatch start = new CountDownLatch(1);
+	final CountDownLatch done = new CountDownLatch(numThreads);
+	final AtomicLong conflicts = new AtomicLong();
+	final Throwable[] failure = { null };
+	for (int t = 0; t < numThreads; t++) {
+	    final Random random = new Random(t);
+	    new Thread() {
+		public void run() {
+		    try {
+			start.await();
+			for (int i = 0; i < count; i++) {
+			    if (!runTxn(lockManager, random, skewed)) {
+				conflicts.incrementAndGet();
+			    }
+			}
+		    } catch (Throwable e) {
+			synchronized (failure) {
+			    failure[0] = e;
+			}
+		    } finally {
+			done.countDown();
+		    }
+		}
+	    }.start();
+	}
+	long startTime = System.nanoTime();
+	start.countDown();
+	done.await();
+	long elapsed = System.nanoTime() - startTime;
+	if (failure[0] != null) {
+	    throw new RuntimeException("Failure: " + failure[0], failure[0]);
+	}
+	long total = (long) numThreads * count;
+	System.err.println(
+	    (skewed ? "skewed" : "uniform") + " keys, " +
+	    numThreads + " threads: " +
+	    (total * 1000000000L / Math.max(1, elapsed)) + " txn/sec, " +
+	    (elapsed / total) + " ns/txn, " +
+	    conflicts.get() + " aborted");
+    }
+
+    /**
+     * Runs a simulated transaction, returning {@code false} if it was aborted
+     * because of a lock conflict.  Locks are acquired in key order so that
+     * the transactions do not deadlock.
+     */
+    static boolean runTxn(
+	TxnLockManager<Long> lockManager, Random random, boolean skewed)
+    {
+	long[] txnKeys = new long[locks];
+	for (int i = 0; i < locks; i++) {
+	    double r = random.nextDouble();
+	    if (skewed) {
+		r = Math.pow(r, skew);
+	    }
+	    txnKeys[i] = (long) (r * keys);
+	}
+	Arrays.sort(txnKeys);
+	TxnLocker<Long> locker = new TxnLocker<Long>(
+	    lockManager, new DummyTransaction(), System.currentTimeMillis());
+	List<Long> acquired = new ArrayList<Long>(locks);
+	boolean committed = true;
+	for (int i = 0; i < locks; i++) {
+	    Long key = txnKeys[i];
+	    if (i > 0 && txnKeys[i] == txnKeys[i - 1]) {
+		continue;
+	    }
+	    boolean forWrite = random.nextInt(100) < writePercent;
+	    LockConflict<Long> conflict =
+		lockManager.lock(locker, key, forWrite);
+	    /* A deadlock victim may have been granted the lock */
+	    acquired.add(key);
+	    if (conflict != null) {
+		committed = false;
+		break;
+	    }
+	}
+	for (Long key : acquired) {
+	    lockManager.releaseLock(locker, key);
+	}
+	return committed;
+    }
+}
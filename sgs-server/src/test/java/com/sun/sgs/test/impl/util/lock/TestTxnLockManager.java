@@ -91,6 +91,13 @@ public class TestTxnLockManager extends TestLockManager {
 	}
     }
 
+    /* -- Test constructor -- */
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorNegativeDeadlockCheckInterval() {
+	new TxnLockManager<String>(lockTimeout, numKeyMaps, -1);
+    }
+
     /* -- Test lock -- */
 
     @Test
@@ -539,6 +546,53 @@ public class TestTxnLockManager extends TestLockManager {
 		   conflict.getType() == LockConflictType.DEADLOCK);
     }
 
+    /* -- Test background deadlock checks -- */
+
+    /**
+     * Test read/write deadlock detected by the background deadlock detector
+     *
+     * locker is older than locker2
+     *
+     * locker:  read o1			=> granted
+     * locker2: read o2			=> granted
+     * locker:  lockNoWait o2, write	=> blocked
+     * locker2: lockNoWait o1, write	=> blocked
+     * locker2: waitForLock		=> deadlock
+     * locker2: abort
+     * locker:  waitForLock		=> granted
+     */
+    @Test
+    public void testBackgroundReadWriteDeadlock() throws Exception {
+	TxnLockManager<String> txnLockManager =
+	    new TxnLockManager<String>(1000, numKeyMaps, 10);
+	try {
+	    lockManager = txnLockManager;
+	    Locker<String> locker = createTxnLocker(lockManager, 0);
+	    Locker<String> locker2 = createTxnLocker(lockManager, 1000);
+	    assertGranted(acquireLock(locker, "o1", false));
+	    assertGranted(acquireLock(locker2, "o2", false));
+	    LockConflict<String> conflict =
+		lockManager.lockNoWait(locker, "o2", true);
+	    assertTrue("Should be blocked",
+		       conflict != null &&
+		       conflict.getType() == LockConflictType.BLOCKED);
+	    LockConflict<String> conflict2 =
+		lockManager.lockNoWait(locker2, "o1", true);
+	    assertTrue("Should be blocked",
+		       conflict2 != null &&
+		       conflict2.getType() == LockConflictType.BLOCKED);
+	    conflict2 = lockManager.waitForLock(locker2);
+	    assertTrue("Should be deadlock victim",
+		       conflict2 != null &&
+		       conflict2.getType() == LockConflictType.DEADLOCK);
+	    lockManager.releaseLock(locker2, "o1");
+	    lockManager.releaseLock(locker2, "o2");
+	    assertSame(null, lockManager.waitForLock(locker));
+	} finally {
+	    txnLockManager.shutdown();
+	}
+    }
+
     /* -- Test waitForLock -- */
 
     @Test
@@ -78,6 +78,9 @@ public class DummyTransaction implements Transaction {
     /** The length of time this transaction is allowed to run. */
     private final long timeout;
 
+    /** Whether this transaction is read-only. */
+    private boolean readOnly = false;
+
     /** The state of this transaction. */
     private State state = State.ACTIVE;
 
@@ -158,6 +161,8 @@ public class DummyTransaction implements Transaction {
 
     public long getTimeout() { return timeout; }
 
+    public boolean isReadOnly() { return readOnly; }
+
     public void checkTimeout() {
 	if (state == State.ABORTED ||
 	    state == State.COMMITTED)
@@ -253,6 +258,11 @@ public class DummyTransaction implements Transaction {
 
     /* -- Other methods -- */
 
+    /** Sets whether this transaction is read-only. */
+    public void setReadOnly(boolean readOnly) {
+	this.readOnly = readOnly;
+    }
+
     public synchronized boolean prepare() throws Exception {
 	logger.log(Level.FINER, "prepare {0}", this);
 	if (state != State.ACTIVE) {